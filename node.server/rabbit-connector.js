@@ -26,6 +26,34 @@ var connection = null;
 var EVERYONE = '$all$';
 var SUPER_USER = '$super$';
 
+/**
+ * Added to the routing key of interactive messages when priority routing is enabled, so
+ * Java clients receive them in an inbox of their own. Must be set alike for all clients
+ * on the bus, see RabbitMQFluxConfig.setPriorityRouting.
+ */
+var PRIORITY_ROUTING = /^true$/i.test(process.env.FLUX_PRIORITY_ROUTING || '');
+var INTERACTIVE_SUFFIX = '.interactive';
+
+//Same as MessagePriorities.DEFAULT_INTERACTIVE_TYPES in the Java client
+var interactiveTypes = {
+	contentassistrequest: true,
+	contentassistresponse: true,
+	navigationrequest: true,
+	navigationresponse: true,
+	javadocrequest: true,
+	javadocresponse: true,
+	quickfixrequest: true,
+	quickfixresponse: true,
+	renameinfilerequest: true,
+	renameinfileresponse: true,
+	liveResourceStarted: true,
+	liveResourceStartedResponse: true,
+	liveResourceChanged: true,
+	liveMetadataChanged: true,
+	getLiveResourcesRequest: true,
+	getLiveResourcesResponse: true
+};
+
 function addLogging(prefix, eventSource) {
 	eventSource.on('error', function (err) {
 		console.error(prefix, err);
@@ -100,6 +128,34 @@ function usernameToRoutingKey(name) {
 	return name;
 }
 
+/**
+ * Routing key for a message of a given type. With priority routing, interactive messages
+ * are routed to the priority inboxes of their recipients.
+ */
+function routingKey(type, username) {
+	var key = usernameToRoutingKey(username);
+	if (PRIORITY_ROUTING && interactiveTypes[type]) {
+		return key + INTERACTIVE_SUFFIX;
+	}
+	return key;
+}
+
+/**
+ * Bind the queue to a topic, and to the topic of the interactive messages of that topic,
+ * so that interactive messages are received whether their sender uses priority routing or not.
+ */
+function bindTopic(channel, queue, exchange, topic) {
+	return channel.bindQueue(queue, exchange, topic).then(function () {
+		return channel.bindQueue(queue, exchange, topic + INTERACTIVE_SUFFIX);
+	});
+}
+
+function unbindTopic(channel, queue, exchange, topic) {
+	return channel.unbindQueue(queue, exchange, topic).then(function () {
+		return channel.unbindQueue(queue, exchange, topic + INTERACTIVE_SUFFIX);
+	});
+}
+
 /**
  * Called by Flux web server when an incoming web socket connection is
  * established. Returns a promise that resolves when the corresponding
@@ -144,7 +200,7 @@ RabbitConnector.prototype.initialize = function () {
 			});
 		}).then(function () {
 			//Subscribe to messages intended for 'everyone'
-			return channel.bindQueue(self.inbox, self.outbox, EVERYONE).then(function () {
+			return bindTopic(channel, self.inbox, self.outbox, EVERYONE).then(function () {
 				console.log('Connected to topic '+EVERYONE);
 			});
 		}).then(function () {
@@ -185,7 +241,7 @@ RabbitConnector.prototype.initialize = function () {
 						connectedToChannel: false
 					});
 				} else {
-					return self.channel.bindQueue(self.inbox, self.outbox, topic)
+					return bindTopic(self.channel, self.inbox, self.outbox, topic)
 					.then(function() {
 						console.log('Connected '+self.inbox+' to topic ' + topic);
 						//send test message
@@ -213,7 +269,7 @@ RabbitConnector.prototype.initialize = function () {
 			console.log('disconnectFromChannel', data);
 			
 			var topic = channelNameToTopicPattern(data.channel);
-			return self.channel.unbindQueue(self.inbox, self.outbox, topic)
+			return unbindTopic(self.channel, self.inbox, self.outbox, topic)
 			.then(function() {
 				console.log('Disconnected '+self.inbox+' from topic ' + topic);
 				//send test message
@@ -380,7 +436,7 @@ RabbitConnector.prototype.configureRequest = function(type) {
 	this.socket.on(type, function (data) {
 		data.requestSenderID = self.inbox;
 		logMsg("rabbit ["+ self.inbox +"] <= ", type, data);
-		return self.channel.publish(outbox, usernameToRoutingKey(data.username),
+		return self.channel.publish(outbox, routingKey(type, data.username),
 			self.encode({type: type, origin: self.inbox, data: data})
 		);
 	});
@@ -394,7 +450,7 @@ RabbitConnector.prototype.configureBroadcast = function (type) {
 		//Must send it to rabbit mq.
 		logMsg("rabbit ["+ self.inbox +"] <= ", type, data);
 		data.senderID = self.inbox;
-		return self.channel.publish(outbox, usernameToRoutingKey(data.username),
+		return self.channel.publish(outbox, routingKey(type, data.username),
 			self.encode({type: type, origin: self.inbox, data: data})
 		);
 	});
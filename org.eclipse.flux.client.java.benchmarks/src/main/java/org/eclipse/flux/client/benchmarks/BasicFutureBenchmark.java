@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.flux.client.util.BasicFuture;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BasicFuture as used for every request: a completion callback is registered, the
+ * response resolves the future, and the requester reads the value.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BasicFutureBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Shared {
+		BasicFuture<JSONObject> resolved;
+
+		@Setup
+		public void setup() throws Exception {
+			resolved = BasicFuture.resolved(Payloads.liveResourceChanged());
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Local {
+		JSONObject response;
+
+		@Setup
+		public void setup() throws Exception {
+			response = Payloads.liveResourceChanged();
+		}
+	}
+
+	private static final Runnable CLEANUP = new Runnable() {
+		public void run() {
+		}
+	};
+
+	/**
+	 * The life of a request's future, with 8 requests completing in parallel.
+	 */
+	@Benchmark
+	@Threads(8)
+	public JSONObject resolveAndGet(Local local) throws Exception {
+		BasicFuture<JSONObject> future = new BasicFuture<JSONObject>();
+		future.whenDone(CLEANUP);
+		future.resolve(local.response);
+		return future.get();
+	}
+
+	/**
+	 * Many threads reading the value of one resolved future.
+	 */
+	@Benchmark
+	@Threads(8)
+	public JSONObject getContended(Shared shared) throws Exception {
+		return shared.resolved.get();
+	}
+
+}
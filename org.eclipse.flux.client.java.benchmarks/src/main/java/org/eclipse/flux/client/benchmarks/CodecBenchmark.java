@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.flux.client.codec.MessageCodec;
+import org.eclipse.flux.client.codec.MessageCodecs;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * Encoding and decoding of messages as done by the RabbitMQ connector: the message
+ * is wrapped in a '{type, origin, data}' envelope and encoded by a {@link MessageCodec}.
+ * See {@link JsonParseBenchmark} for decoding without a codec.
+ * <p>
+ * Besides the time, 'encode' reports the size of the encoded message as the secondary
+ * result 'encode:encodedBytes', so codecs can be compared on size for every message type.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	@Param({ Payloads.LIVE_RESOURCE_CHANGED, Payloads.GET_PROJECT_RESPONSE })
+	public String messageType;
+
+	@Param({ "application/json", "application/cbor" })
+	public String contentType;
+
+	private MessageCodec codec;
+	private JSONObject envelope;
+	private byte[] encoded;
+
+	@Setup
+	public void setup() throws Exception {
+		codec = MessageCodecs.forContentType(contentType);
+		envelope = new JSONObject()
+			.put("type", messageType)
+			.put("origin", "amq.gen-JzTY20BRgKO-HjmUJj0wLg")
+			.put("data", Payloads.get(messageType));
+		encoded = codec.encode(envelope);
+	}
+
+	/**
+	 * Size of the encoded message. JMH sums event counters over all measurement iterations
+	 * and forks, so each iteration reports its share of the size and the sum is the size of
+	 * one message.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class EncodedSize {
+		public double encodedBytes;
+		private double share;
+
+		@Setup(Level.Iteration)
+		public void reset(BenchmarkParams params) {
+			encodedBytes = 0;
+			share = 1.0 / (params.getMeasurement().getCount() * Math.max(1, params.getForks()));
+		}
+	}
+
+	@Benchmark
+	public byte[] encode(EncodedSize size) throws Exception {
+		byte[] bytes = codec.encode(envelope);
+		size.encodedBytes = bytes.length * size.share;
+		return bytes;
+	}
+
+	@Benchmark
+	public JSONObject decode() throws Exception {
+		return codec.decode(encoded);
+	}
+
+}
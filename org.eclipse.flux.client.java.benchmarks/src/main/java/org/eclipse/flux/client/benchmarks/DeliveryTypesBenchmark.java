@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.flux.client.impl.DeliveryType;
+import org.eclipse.flux.client.impl.DeliveryTypes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DeliveryTypes.get is called for every message sent through the RabbitMQ and loopback
+ * connectors, from any number of threads at once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeliveryTypesBenchmark {
+
+	private static final String[] TYPES = {
+		Payloads.LIVE_RESOURCE_CHANGED,
+		"getResourceRequest",
+		Payloads.GET_PROJECT_RESPONSE,
+		"resourceChanged",
+		"resourceStored",
+		"getProjectsRequest",
+		"metadataChanged",
+		"cfAppLog"
+	};
+
+	private int next = 0;
+
+	private String nextType() {
+		String type = TYPES[next];
+		next = (next + 1) % TYPES.length;
+		return type;
+	}
+
+	@Benchmark
+	@Threads(1)
+	public DeliveryType get() {
+		return DeliveryTypes.DEFAULTS.get(nextType());
+	}
+
+	@Benchmark
+	@Threads(8)
+	public DeliveryType getContended() {
+		return DeliveryTypes.DEFAULTS.get(nextType());
+	}
+
+}
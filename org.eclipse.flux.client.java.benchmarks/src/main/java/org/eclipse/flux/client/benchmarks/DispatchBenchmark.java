@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.flux.client.MessageHandler;
+import org.eclipse.flux.client.config.FluxConfig;
+import org.eclipse.flux.client.impl.AbstractMessageConnector;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Fan-out of an incoming message to many registered handlers in
+ * AbstractMessageConnector.handleIncomingMessage. Handlers run on the calling thread,
+ * so this measures the connector's own overhead rather than thread hand-off.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+	/**
+	 * Handlers for the benchmarked message type. Further handlers are registered
+	 * for other types, as a connector in a flux service would have.
+	 */
+	@Param({ "1", "16", "256" })
+	public int handlers;
+
+	@Param({ Payloads.LIVE_RESOURCE_CHANGED, Payloads.GET_PROJECT_RESPONSE })
+	public String messageType;
+
+	private BenchmarkConnector connector;
+	private JSONObject message;
+
+	@Setup
+	public void setup(final Blackhole blackhole) throws Exception {
+		connector = new BenchmarkConnector();
+		message = Payloads.get(messageType);
+		for (int i = 0; i < handlers; i++) {
+			connector.addMessageHandler(new MessageHandler(messageType) {
+				@Override
+				public void handle(String type, JSONObject message) {
+					blackhole.consume(message);
+				}
+			});
+		}
+		for (String other : new String[] { "resourceChanged", "resourceStored", "metadataChanged", "getResourceRequest" }) {
+			connector.addMessageHandler(new MessageHandler(other) {
+				@Override
+				public void handle(String type, JSONObject message) {
+					blackhole.consume(message);
+				}
+			});
+		}
+	}
+
+	@Benchmark
+	public void handleIncomingMessage() {
+		connector.receive(messageType, message);
+	}
+
+	/**
+	 * Runs tasks on the thread that submits them.
+	 */
+	private static class CallerRunsExecutor extends AbstractExecutorService {
+		public void execute(Runnable command) {
+			command.run();
+		}
+		public void shutdown() {
+		}
+		public List<Runnable> shutdownNow() {
+			return Collections.emptyList();
+		}
+		public boolean isShutdown() {
+			return false;
+		}
+		public boolean isTerminated() {
+			return false;
+		}
+		public boolean awaitTermination(long timeout, TimeUnit unit) {
+			return false;
+		}
+	}
+
+	/**
+	 * Connector that is fed messages directly and sends nothing.
+	 */
+	private static class BenchmarkConnector extends AbstractMessageConnector {
+
+		BenchmarkConnector() {
+			super(new CallerRunsExecutor());
+		}
+
+		void receive(String messageType, JSONObject message) {
+			handleIncomingMessage(messageType, message);
+		}
+
+		public void connectToChannel(String channel) {
+		}
+		public void connectToChannelSync(String username) {
+		}
+		public void disconnectFromChannel(String channel) {
+		}
+		public void disconnectFromChannelSync(String channelName) {
+		}
+		public boolean isConnected(String channel) {
+			return true;
+		}
+		public void send(String messageType, JSONObject message) {
+		}
+		public void disconnect() {
+		}
+		public boolean isConnected() {
+			return true;
+		}
+		public FluxConfig getConfig() {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.flux.client.util.JSON;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JSON.parse of a message body, as done by the connectors before codecs were pluggable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonParseBenchmark {
+
+	@Param({ Payloads.LIVE_RESOURCE_CHANGED, Payloads.GET_PROJECT_RESPONSE })
+	public String messageType;
+
+	private byte[] body;
+
+	@Setup
+	public void setup() throws Exception {
+		body = new JSONObject()
+			.put("type", messageType)
+			.put("origin", "amq.gen-JzTY20BRgKO-HjmUJj0wLg")
+			.put("data", Payloads.get(messageType))
+			.toString()
+			.getBytes("UTF-8");
+	}
+
+	@Benchmark
+	public JSONObject parse() throws Exception {
+		return JSON.parse(body);
+	}
+
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.benchmarks;
+
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Messages shaped like the ones seen on a real flux bus, for the benchmarks to work on.
+ */
+public class Payloads {
+
+	public static final String GET_PROJECT_RESPONSE = "getProjectResponse";
+	public static final String LIVE_RESOURCE_CHANGED = "liveResourceChanged";
+
+	/**
+	 * Number of files in the project listed by {@link #getProjectResponse()}. About the
+	 * size of a mid-sized Maven project, giving a message of roughly 150KB.
+	 */
+	public static final int PROJECT_FILES = 1000;
+
+	/**
+	 * @return a payload by message type, one of the constants in this class.
+	 */
+	public static JSONObject get(String messageType) throws Exception {
+		if (GET_PROJECT_RESPONSE.equals(messageType)) {
+			return getProjectResponse();
+		} else if (LIVE_RESOURCE_CHANGED.equals(messageType)) {
+			return liveResourceChanged();
+		}
+		throw new IllegalArgumentException(messageType);
+	}
+
+	/**
+	 * The answer to 'getProjectRequest': one entry per file and folder of the project.
+	 */
+	public static JSONObject getProjectResponse() throws Exception {
+		Random random = new Random(0);
+		JSONArray files = new JSONArray();
+		files.put(new JSONObject()
+			.put("path", "")
+			.put("type", "folder")
+			.put("timestamp", 1400000000000L)
+		);
+		for (int i = 0; i < PROJECT_FILES; i++) {
+			StringBuilder hash = new StringBuilder();
+			for (int j = 0; j < 40; j++) {
+				hash.append(Character.forDigit(random.nextInt(16), 16));
+			}
+			files.put(new JSONObject()
+				.put("path", "src/main/java/org/example/module"+(i % 20)+"/Component"+i+".java")
+				.put("type", "file")
+				.put("timestamp", 1400000000000L + random.nextInt(1000000000))
+				.put("hash", hash.toString())
+			);
+		}
+		return new JSONObject()
+			.put("username", "kdvolder")
+			.put("project", "flux-sample-project")
+			.put("callback_id", 1234567)
+			.put("requestSenderID", "amq.gen-JzTY20BRgKO-HjmUJj0wLg")
+			.put("responseSenderID", "amq.gen-4ZpXbQmGhMwXqGcvL0HNjQ")
+			.put("files", files);
+	}
+
+	/**
+	 * Sent for every keystroke in an editor.
+	 */
+	public static JSONObject liveResourceChanged() throws Exception {
+		return new JSONObject()
+			.put("username", "kdvolder")
+			.put("project", "flux-sample-project")
+			.put("resource", "src/main/java/org/example/module3/Component123.java")
+			.put("offset", 4711)
+			.put("removedCharCount", 0)
+			.put("addedCharacters", "e")
+			.put("senderID", "amq.gen-JzTY20BRgKO-HjmUJj0wLg");
+	}
+
+}
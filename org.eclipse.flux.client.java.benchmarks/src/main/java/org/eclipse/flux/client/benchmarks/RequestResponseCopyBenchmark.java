@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.flux.client.RequestResponseHandler;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RequestResponseHandler copies every request it answers to start the response from.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestResponseCopyBenchmark {
+
+	@Param({ Payloads.LIVE_RESOURCE_CHANGED, Payloads.GET_PROJECT_RESPONSE })
+	public String messageType;
+
+	private Handler handler;
+	private JSONObject message;
+
+	@Setup
+	public void setup() throws Exception {
+		handler = new Handler();
+		message = Payloads.get(messageType);
+	}
+
+	@Benchmark
+	public JSONObject copy() {
+		return handler.copy(message);
+	}
+
+	/**
+	 * Makes 'copy' callable. Never registered with a connector.
+	 */
+	private static class Handler extends RequestResponseHandler {
+		Handler() {
+			super(null, "benchmarkRequest");
+		}
+
+		@Override
+		public JSONObject copy(JSONObject req) {
+			return super.copy(req);
+		}
+	}
+
+}
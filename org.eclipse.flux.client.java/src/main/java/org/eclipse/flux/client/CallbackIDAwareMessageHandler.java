@@ -13,6 +13,11 @@ package org.eclipse.flux.client;
 import org.json.JSONObject;
 
 /**
+ * Message handler that only accepts messages carrying a specific callback_id.
+ * <p>
+ * Connectors register handlers of this type with their {@link ResponseCorrelator}
+ * so that matching responses are found by a direct lookup.
+ * 
  * @author Martin Lippert
  */
 public abstract class CallbackIDAwareMessageHandler extends MessageHandler {
@@ -28,5 +33,9 @@ public abstract class CallbackIDAwareMessageHandler extends MessageHandler {
 	public boolean canHandle(String messageType, JSONObject message) {
 		return super.canHandle(messageType, message) && message.has("callback_id") && message.optInt("callback_id") == this.expectedCallbackID;
 	}
+	
+	public int getCallbackID() {
+		return expectedCallbackID;
+	}
 
 }
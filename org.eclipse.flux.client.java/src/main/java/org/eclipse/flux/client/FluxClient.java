@@ -10,10 +10,23 @@
 *******************************************************************************/
 package org.eclipse.flux.client;
 
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.flux.client.config.FluxConfig;
+import org.eclipse.flux.client.impl.BoundedDispatcher;
+import org.eclipse.flux.client.impl.LaneDispatcher;
+import org.eclipse.flux.client.impl.PriorityDispatcher;
+import org.eclipse.flux.client.impl.ThrottlingDispatcher;
+import org.eclipse.flux.client.impl.UnorderedDispatcher;
+import org.eclipse.flux.client.metrics.MessageMetrics;
+import org.eclipse.flux.client.util.Console;
+import org.eclipse.flux.client.util.HashedWheelTimer;
 
 /**
  * The main entry point to the FluxClient API. Example usage:
@@ -36,13 +49,379 @@ import org.eclipse.flux.client.config.FluxConfig;
  */
 public class FluxClient {
 	
+	private static final Console console = Console.get(FluxClient.class.getName());
+	
+	/**
+	 * Determines how incoming messages are scheduled onto the executor.
+	 */
+	public enum DispatchMode {
+		/**
+		 * Every message is handled by a separate task. Messages may be handled
+		 * concurrently and in any order.
+		 */
+		UNORDERED,
+		/**
+		 * Messages about the same (username, project, resource) are handled one at a time,
+		 * in the order they were received. Messages about different resources run in parallel.
+		 */
+		ORDERED_PER_RESOURCE
+	}
+	
+	/**
+	 * Determines what happens to an incoming message when the maximum number of queued
+	 * messages is reached. Responses are always admitted, see {@link BoundedDispatcher}.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Block the thread receiving messages until there is room. This pushes back on the
+		 * sender: for RabbitMQ, messages are acknowledged only once admitted and the broker
+		 * is told not to send more unacknowledged messages than the queue can hold.
+		 */
+		BLOCK,
+		/**
+		 * Keep only the newest of several queued messages about the same thing if their type
+		 * is 'supersedable' (e.g. two 'resourceChanged' messages for the same resource).
+		 * Refuse other messages, as {@link #REJECT} does. Never blocks.
+		 */
+		DROP_SUPERSEDED,
+		/**
+		 * Refuse the message. A refused request is answered with an error response. Other
+		 * messages are dropped.
+		 */
+		REJECT
+	}
+	
+	public static final int DEFAULT_DISPATCH_LANES = 64;
+	
+	/**
+	 * The default limit for {@link #setMaxQueuedMessages(int)}.
+	 */
+	public static final int DEFAULT_MAX_QUEUED_MESSAGES = 1024;
+	
+	/**
+	 * A reasonable value for {@link #setInteractiveThreads(int)}. Not applied by
+	 * {@link #DEFAULT_INSTANCE}, see there.
+	 */
+	public static final int DEFAULT_INTERACTIVE_THREADS = 2;
+	
+	/**
+	 * A reasonable limit for {@link #setMaxConcurrentBulk(int)}. Not applied by
+	 * {@link #DEFAULT_INSTANCE}, see there.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENT_BULK = 4;
+	
+	/**
+	 * Message types where a newer message about a resource makes older, not yet handled,
+	 * ones obsolete.
+	 */
+	public static final Collection<String> DEFAULT_SUPERSEDABLE_TYPES = Arrays.asList(
+			"resourceChanged",
+			"resourceStored",
+			"metadataChanged",
+			"liveMetadataChanged"
+	);
+	
 	private final ExecutorService executor;
 	
+	private DispatchMode dispatchMode = DispatchMode.UNORDERED;
+	private int dispatchLanes = DEFAULT_DISPATCH_LANES;
+	private int maxQueuedMessages = DEFAULT_MAX_QUEUED_MESSAGES;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_SUPERSEDED;
+	private Collection<String> supersedableTypes = DEFAULT_SUPERSEDABLE_TYPES;
+	private final MessagePriorities priorities = new MessagePriorities();
+	private int interactiveThreads = 0;
+	private int maxConcurrentBulk = 0;
+	private MessageDispatcher dispatcher;
+	private MessageMetrics metrics;
+	
+	/**
+	 * Threads are created on demand, for at most {@link #DEFAULT_MAX_QUEUED_MESSAGES} messages
+	 * (plus responses) at a time. Messages arriving over that limit are handled according to
+	 * {@link OverflowPolicy#DROP_SUPERSEDED}, which never blocks the thread receiving messages.
+	 * <p>
+	 * All messages are handled alike. Handling interactive messages on threads of their own
+	 * and throttling bulk messages changes the order in which messages of different priorities
+	 * are handled, so clients opt in with {@link #setInteractiveThreads(int)} and
+	 * {@link #setMaxConcurrentBulk(int)} after checking their handlers do not depend on it.
+	 */
 	public static final FluxClient DEFAULT_INSTANCE = new FluxClient(Executors.newCachedThreadPool());
 		
 	public FluxClient(ExecutorService executor) {
 		this.executor = executor;
 	}
+	
+	/**
+	 * Create a client that handles every message on its own virtual thread. Handlers may
+	 * then block (e.g. waiting for the response to a request) without tying up a platform
+	 * thread, so very many requests can be in flight at once.
+	 * <p>
+	 * Virtual threads need Java 21 or later. On older JREs this falls back to a cached thread pool.
+	 */
+	public static FluxClient withVirtualThreads() {
+		return new FluxClient(newVirtualThreadExecutor());
+	}
+	
+	/**
+	 * Create an executor that starts a new virtual thread for every task if the JRE supports
+	 * virtual threads, or a cached thread pool otherwise. Reflection is used because this
+	 * library is compiled for older Java versions.
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			console.log("Virtual threads not supported, using a cached thread pool: "+e);
+			return Executors.newCachedThreadPool();
+		}
+	}
+	
+	/**
+	 * @return true if the JRE supports virtual threads.
+	 */
+	public static boolean isVirtualThreadSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Set how incoming messages are dispatched. Must be called before the first connection
+	 * is created from this client.
+	 */
+	public synchronized FluxClient setDispatchMode(DispatchMode dispatchMode) {
+		checkNotConfigured();
+		this.dispatchMode = dispatchMode;
+		return this;
+	}
+	
+	/**
+	 * Set the number of lanes used by {@link DispatchMode#ORDERED_PER_RESOURCE}. This is rounded
+	 * up to a power of two. Must be called before the first connection is created from this client.
+	 */
+	public synchronized FluxClient setDispatchLanes(int dispatchLanes) {
+		checkNotConfigured();
+		this.dispatchLanes = dispatchLanes;
+		return this;
+	}
+	
+	/**
+	 * Limit the number of incoming messages that are queued or being handled. 0 means no limit.
+	 * The default is {@link #DEFAULT_MAX_QUEUED_MESSAGES}. Must be called before the first
+	 * connection is created from this client.
+	 */
+	public synchronized FluxClient setMaxQueuedMessages(int maxQueuedMessages) {
+		checkNotConfigured();
+		this.maxQueuedMessages = maxQueuedMessages;
+		return this;
+	}
+	
+	/**
+	 * Set what happens to messages arriving when the limit set by {@link #setMaxQueuedMessages(int)}
+	 * is reached. The default is {@link OverflowPolicy#DROP_SUPERSEDED}. {@link OverflowPolicy#BLOCK}
+	 * blocks the thread receiving messages, so only use it when no handler waits for a message
+	 * from the same client. Must be called before the first connection is created from this client.
+	 */
+	public synchronized FluxClient setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		checkNotConfigured();
+		this.overflowPolicy = overflowPolicy;
+		return this;
+	}
+	
+	/**
+	 * Set the message types considered by {@link OverflowPolicy#DROP_SUPERSEDED}.
+	 * Must be called before the first connection is created from this client.
+	 */
+	public synchronized FluxClient setSupersedableTypes(String... types) {
+		checkNotConfigured();
+		this.supersedableTypes = Arrays.asList(types);
+		return this;
+	}
+	
+	/**
+	 * Handle interactive messages (see {@link MessagePriorities}) on a pool of the given number
+	 * of threads, separate from the executor, and exempt them from {@link #setMaxQueuedMessages(int)}.
+	 * 0, the default, handles them like all other messages. Must be called before the first
+	 * connection is created from this client.
+	 * <p>
+	 * Interactive messages may then overtake other messages about the same resource, also with
+	 * {@link DispatchMode#ORDERED_PER_RESOURCE}. The default priorities keep the messages of each
+	 * protocol (e.g. all live editing messages) in one priority, so they stay in order.
+	 */
+	public synchronized FluxClient setInteractiveThreads(int interactiveThreads) {
+		checkNotConfigured();
+		if (interactiveThreads<0) {
+			throw new IllegalArgumentException("interactiveThreads must not be negative");
+		}
+		this.interactiveThreads = interactiveThreads;
+		return this;
+	}
+	
+	/**
+	 * Limit the number of bulk messages (see {@link MessagePriorities}) handled at the same
+	 * time. Others wait until one of those is done. 0, the default, means no limit. Must be
+	 * called before the first connection is created from this client.
+	 * <p>
+	 * With {@link DispatchMode#ORDERED_PER_RESOURCE}, other messages about a resource that has
+	 * bulk messages waiting wait behind them, so the order per resource is kept.
+	 */
+	public synchronized FluxClient setMaxConcurrentBulk(int maxConcurrentBulk) {
+		checkNotConfigured();
+		if (maxConcurrentBulk<0) {
+			throw new IllegalArgumentException("maxConcurrentBulk must not be negative");
+		}
+		this.maxConcurrentBulk = maxConcurrentBulk;
+		return this;
+	}
+	
+	/**
+	 * @return the priorities of message types. Changes to it take effect immediately.
+	 */
+	public MessagePriorities getPriorities() {
+		return priorities;
+	}
+	
+	/**
+	 * Record measurements about messages sent and received by connections created from this
+	 * client (see {@link org.eclipse.flux.client.metrics.FluxMetrics}). Null, the default,
+	 * disables metrics. Must be called before the first connection is created from this client.
+	 */
+	public synchronized FluxClient setMetrics(MessageMetrics metrics) {
+		checkNotConfigured();
+		this.metrics = metrics;
+		return this;
+	}
+	
+	/**
+	 * @return where connections record metrics, or null if metrics are disabled.
+	 */
+	public synchronized MessageMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * @return message types where a newer message about a resource makes older ones obsolete.
+	 */
+	public synchronized Collection<String> getSupersedableTypes() {
+		return supersedableTypes;
+	}
+	
+	public synchronized int getMaxQueuedMessages() {
+		return maxQueuedMessages;
+	}
+	
+	public synchronized OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+	
+	private void checkNotConfigured() {
+		if (dispatcher!=null) {
+			throw new IllegalStateException("Dispatcher already created");
+		}
+	}
+	
+	public synchronized DispatchMode getDispatchMode() {
+		return dispatchMode;
+	}
+	
+	/**
+	 * The dispatcher shared by all connections created from this client.
+	 */
+	public synchronized MessageDispatcher getDispatcher() {
+		if (dispatcher==null) {
+			dispatcher = createDispatcher(executor, "dispatcher");
+			ThrottlingDispatcher throttle = null;
+			if (maxConcurrentBulk>0) {
+				dispatcher = throttle = new ThrottlingDispatcher(dispatcher, priorities, maxConcurrentBulk,
+						dispatchMode==DispatchMode.ORDERED_PER_RESOURCE);
+			}
+			BoundedDispatcher bounded = null;
+			if (maxQueuedMessages>0) {
+				dispatcher = bounded = new BoundedDispatcher(dispatcher, maxQueuedMessages, overflowPolicy, supersedableTypes);
+			}
+			PriorityDispatcher priority = null;
+			if (interactiveThreads>0) {
+				ExecutorService interactive = Executors.newFixedThreadPool(interactiveThreads, new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "flux-interactive-"+count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+				dispatcher = priority = new PriorityDispatcher(priorities, createDispatcher(interactive, "dispatcher.interactive"), dispatcher);
+			}
+			if (metrics!=null) {
+				registerGauges(dispatcher, throttle, bounded, priority);
+			}
+		}
+		return dispatcher;
+	}
+	
+	/**
+	 * Create the dispatcher for the configured mode, running tasks on the given executor.
+	 */
+	private MessageDispatcher createDispatcher(ExecutorService executor, String gaugePrefix) {
+		if (dispatchMode==DispatchMode.ORDERED_PER_RESOURCE) {
+			final LaneDispatcher lanes = new LaneDispatcher(executor, dispatchLanes);
+			if (metrics!=null) {
+				//A single busy lane holds up every resource that hashes to it.
+				metrics.registerGauge(gaugePrefix+".maxLaneDepth", new MessageMetrics.Gauge() {
+					public long getValue() {
+						int max = 0;
+						for (int depth : lanes.getLaneDepths()) {
+							max = Math.max(max, depth);
+						}
+						return max;
+					}
+				});
+			}
+			return lanes;
+		}
+		return new UnorderedDispatcher(executor);
+	}
+	
+	private void registerGauges(final MessageDispatcher dispatcher, final ThrottlingDispatcher throttle, final BoundedDispatcher bounded, final PriorityDispatcher priority) {
+		metrics.registerGauge("dispatcher.queueDepth", new MessageMetrics.Gauge() {
+			public long getValue() {
+				return dispatcher.getQueueDepth();
+			}
+		});
+		if (bounded!=null) {
+			metrics.registerGauge("dispatcher.rejected", new MessageMetrics.Gauge() {
+				public long getValue() {
+					return bounded.getRejectedCount();
+				}
+			});
+			metrics.registerGauge("dispatcher.coalesced", new MessageMetrics.Gauge() {
+				public long getValue() {
+					return bounded.getCoalescedCount();
+				}
+			});
+		}
+		if (throttle!=null) {
+			metrics.registerGauge("dispatcher.bulkWaiting", new MessageMetrics.Gauge() {
+				public long getValue() {
+					return throttle.getWaitingCount();
+				}
+			});
+		}
+		if (priority!=null) {
+			metrics.registerGauge("dispatcher.interactiveQueueDepth", new MessageMetrics.Gauge() {
+				public long getValue() {
+					return priority.getInteractiveQueueDepth();
+				}
+			});
+		}
+		metrics.registerGauge("timer.pending", new MessageMetrics.Gauge() {
+			public long getValue() {
+				return HashedWheelTimer.getDefault().getPendingCount();
+			}
+		});
+	}
 
 	/**
 	 * Connects to flux bus and blocks until a connection is established or failed.
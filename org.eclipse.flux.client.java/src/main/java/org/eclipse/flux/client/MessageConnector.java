@@ -11,6 +11,7 @@
 package org.eclipse.flux.client;
 
 import org.eclipse.flux.client.config.FluxConfig;
+import org.eclipse.flux.client.util.BasicFuture;
 import org.eclipse.flux.client.util.Observable;
 import org.json.JSONObject;
 
@@ -57,6 +58,54 @@ public interface MessageConnector {
 	
 	public void send(String messageType, JSONObject message) throws Exception;
 	
+	/**
+	 * Send a message whose data is already encoded as UTF-8 JSON text, e.g. because it was
+	 * received or stored that way. Connectors that can put the bytes on the wire as they are,
+	 * without building a JSONObject; others parse them and send the result.
+	 * <p>
+	 * 'username' is used to route the message, it must match the 'username' property in the
+	 * data. The data must not contain the properties the connector adds itself ('senderID',
+	 * 'requestSenderID').
+	 */
+	public void sendEncoded(String messageType, String username, byte[] json) throws Exception;
+	
+	/**
+	 * Send a request and obtain a future for the first response to it. A fresh 'callback_id'
+	 * is put into the message and the response is expected to be of the corresponding
+	 * '...Response' type (e.g. 'getResourceRequest' is answered by 'getResourceResponse').
+	 * <p>
+	 * The future is rejected if the response carries an 'error' property, if the request
+	 * can not be sent, or with a TimeoutException if no response arrives in time.
+	 * <p>
+	 * Like {@link SingleResponseHandler} this only considers the first response. Requests
+	 * that may be answered by several parties, and where all the answers matter, should
+	 * use message handlers instead.
+	 */
+	public BasicFuture<JSONObject> request(String messageType, JSONObject message);
+	
+	/**
+	 * Like {@link #request(String, JSONObject)} but with an explicit timeout.
+	 * 
+	 * @param timeout Positive timeout in milliseconds. 0 or negative means no timeout.
+	 */
+	public BasicFuture<JSONObject> request(String messageType, JSONObject message, long timeout);
+	
+	/**
+	 * Send a request whose response may arrive in several chunks, so that neither side
+	 * needs to hold all of it at once. The message is marked as accepting a chunked
+	 * response ('chunked'). Responders that support this send responses carrying a
+	 * 'chunk' sequence number, the last of them marked with 'lastChunk'; responders that
+	 * don't send one ordinary response, which is treated as the only chunk.
+	 * <p>
+	 * Chunks are passed to the handler in sequence order, even if they arrive out of
+	 * order. Only chunks from the first responder are considered.
+	 * <p>
+	 * The future resolves once the handler has seen the last chunk. It is rejected if a
+	 * chunk carries an 'error' property, if the handler throws, or with a TimeoutException
+	 * if no chunk arrives for 'idleTimeout' milliseconds (0 or negative means no timeout).
+	 */
+	public BasicFuture<Void> requestStream(String messageType, JSONObject message, long idleTimeout, ResponseStreamHandler handler);
+	
 	public void addMessageHandler(IMessageHandler messageHandler);
 	public void removeMessageHandler(IMessageHandler messageHandler);
 	
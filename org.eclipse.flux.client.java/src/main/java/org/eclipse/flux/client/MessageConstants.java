@@ -40,6 +40,12 @@ public abstract class MessageConstants {
 	public static final String RESPONSE_SENDER_ID = "responseSenderID";
 	public static final String CALLBACK_ID = "callback_id";
 
+	public static final String CHUNKED = "chunked"; // request property: requester accepts a chunked response
+	public static final String CHUNK = "chunk"; // response property: sequence number of a chunk, from 0
+	public static final String LAST_CHUNK = "lastChunk"; // response property: true on the final chunk
+	public static final String CHECKSUM = "checksum"; // property: hex SHA-1 of streamed content
+	public static final String STREAM_ID = "streamID"; // response property: the same on every chunk of one responder's response
+
 	public static final String CF_APP_LOG = "cfAppLog"; // message type
 	public static final String CF_APP = "app";
 	public static final String CF_ORG = "org";
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client;
+
+import org.json.JSONObject;
+
+/**
+ * Decides how the work of handling incoming messages is scheduled onto the
+ * threads of a {@link FluxClient}'s executor.
+ * <p>
+ * A dispatcher is shared by all the MessageConnectors created from the same
+ * FluxClient. Use {@link FluxClient#setDispatchMode(FluxClient.DispatchMode)} to
+ * choose an implementation.
+ */
+public interface MessageDispatcher {
+
+	/**
+	 * Schedule a task that handles a given incoming message. Depending on the dispatcher
+	 * this may block the calling thread while the dispatcher is overloaded.
+	 * 
+	 * @return false if the dispatcher refused the message, true otherwise.
+	 */
+	boolean dispatch(String messageType, JSONObject message, Runnable task);
+
+	/**
+	 * @return number of dispatched messages that have not yet been handled.
+	 */
+	int getQueueDepth();
+
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Manages a mapping messageType -> MessagePriority. Types without an explicit mapping
+ * get a default: the types listed in {@link #DEFAULT_INTERACTIVE_TYPES} and
+ * {@link #DEFAULT_BULK_TYPES} are interactive and bulk respectively, all others are normal.
+ * <p>
+ * Messages of different priorities can be handled out of order. Message types that make up
+ * one exchange about a resource, like 'liveResourceStarted', its response and the
+ * 'liveResourceChanged' messages that follow, must therefore all get the same priority.
+ */
+public class MessagePriorities {
+
+	public static final Collection<String> DEFAULT_INTERACTIVE_TYPES = Arrays.asList(
+			"contentassistrequest",
+			"contentassistresponse",
+			"navigationrequest",
+			"navigationresponse",
+			"javadocrequest",
+			"javadocresponse",
+			"quickfixrequest",
+			"quickfixresponse",
+			"renameinfilerequest",
+			"renameinfileresponse",
+			//Live editing, all of it: a 'liveResourceChanged' must not overtake the 'liveResourceStarted' before it.
+			"liveResourceStarted",
+			"liveResourceStartedResponse",
+			"liveResourceChanged",
+			"liveMetadataChanged",
+			"getLiveResourcesRequest",
+			"getLiveResourcesResponse"
+	);
+
+	public static final Collection<String> DEFAULT_BULK_TYPES = Arrays.asList(
+			"getProjectRequest",
+			"getProjectResponse",
+			"getResourceRequest",
+			"getResourceResponse"
+	);
+
+	private static final Set<String> interactiveTypes = new HashSet<String>(DEFAULT_INTERACTIVE_TYPES);
+	private static final Set<String> bulkTypes = new HashSet<String>(DEFAULT_BULK_TYPES);
+
+	/**
+	 * Explicitly registered priorities. Looked up for every message, so it is read without locking.
+	 */
+	private final ConcurrentMap<String, MessagePriority> map = new ConcurrentHashMap<String, MessagePriority>();
+
+	public MessagePriority get(String messageType) {
+		MessagePriority priority = map.get(messageType);
+		if (priority==null) {
+			priority = computeDefault(messageType);
+		}
+		return priority;
+	}
+
+	protected MessagePriority computeDefault(String messageType) {
+		if (interactiveTypes.contains(messageType)) {
+			return MessagePriority.INTERACTIVE;
+		} else if (bulkTypes.contains(messageType)) {
+			return MessagePriority.BULK;
+		}
+		return MessagePriority.NORMAL;
+	}
+
+	/**
+	 * Set the priority of a message type, overriding its default.
+	 */
+	public MessagePriorities put(String messageType, MessagePriority priority) {
+		if (priority==null) {
+			throw new IllegalArgumentException("priority must not be null");
+		}
+		map.put(messageType, priority);
+		return this;
+	}
+
+}
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client;
+
+/**
+ * How urgently a type of message should be handled, see {@link MessagePriorities}.
+ */
+public enum MessagePriority {
+	/**
+	 * Messages a user is waiting for while typing, e.g. content assist. Handled on threads
+	 * of their own, so they are not held up by other traffic.
+	 */
+	INTERACTIVE,
+	/**
+	 * Everything that is neither interactive nor bulk.
+	 */
+	NORMAL,
+	/**
+	 * Large or numerous messages nobody is waiting for right now, e.g. the resources
+	 * transferred while a project is synchronized. The number handled at a time is limited.
+	 */
+	BULK
+}
@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client;
+
+import static org.eclipse.flux.client.MessageConstants.CALLBACK_ID;
+import static org.eclipse.flux.client.MessageConstants.REQUEST_SENDER_ID;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+
+/**
+ * Registry that correlates incoming response messages with the handlers waiting
+ * for them.
+ * <p>
+ * Handlers are registered under a key (messageType, callback_id, requestSenderID)
+ * so that an incoming response is resolved with a hash lookup rather than by asking
+ * every registered handler whether it 'canHandle' the message. A registration
+ * with a <code>null</code> requestSenderID matches responses regardless of their
+ * requestSenderID.
+ * <p>
+ * Registrations may be given a time to live. Expired registrations are dropped
+ * when they are looked up and are also swept periodically as new registrations
+ * are added, so that handlers for responses that never arrive do not pile up.
+ */
+public class ResponseCorrelator {
+
+	/**
+	 * Number of registrations between two sweeps for expired entries.
+	 */
+	private static final int SWEEP_INTERVAL = 256;
+
+	private final ConcurrentMap<Key, Registrations> registrations = new ConcurrentHashMap<Key, Registrations>();
+
+	/**
+	 * Number of live registrations per message type. Used to quickly decide
+	 * whether anyone is waiting for a given type of response.
+	 */
+	private final ConcurrentMap<String, AtomicInteger> typeCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private final AtomicInteger registrationsSinceSweep = new AtomicInteger();
+
+	/**
+	 * Register a handler that never expires.
+	 */
+	public void register(String messageType, int callbackID, String requestSenderID, IMessageHandler handler) {
+		register(messageType, callbackID, requestSenderID, handler, 0);
+	}
+
+	/**
+	 * Register a handler for responses of a given type carrying a given callback_id.
+	 *
+	 * @param requestSenderID if not null, only responses carrying this requestSenderID are matched.
+	 * @param timeToLive Positive time in milliseconds after which the registration expires.
+	 *                   0 or negative means the registration never expires.
+	 */
+	public void register(String messageType, int callbackID, String requestSenderID, IMessageHandler handler, long timeToLive) {
+		Key key = new Key(messageType, callbackID, requestSenderID);
+		Registration reg = new Registration(handler, timeToLive>0 ? System.currentTimeMillis()+timeToLive : 0);
+		while (true) {
+			Registrations regs = registrations.get(key);
+			if (regs==null) {
+				Registrations newRegs = new Registrations();
+				regs = registrations.putIfAbsent(key, newRegs);
+				if (regs==null) {
+					regs = newRegs;
+				}
+			}
+			synchronized (regs) {
+				if (!regs.dead) {
+					regs.add(reg);
+					break;
+				}
+			}
+			//Raced with removal of the last registration for this key. Try again.
+		}
+		typeCount(messageType).incrementAndGet();
+		if (registrationsSinceSweep.incrementAndGet()>=SWEEP_INTERVAL) {
+			registrationsSinceSweep.set(0);
+			sweepExpired();
+		}
+	}
+
+	/**
+	 * Remove a handler registered under the given key.
+	 * @return true if the handler was found and removed.
+	 */
+	public boolean unregister(String messageType, int callbackID, String requestSenderID, IMessageHandler handler) {
+		Key key = new Key(messageType, callbackID, requestSenderID);
+		Registrations regs = registrations.get(key);
+		if (regs!=null) {
+			synchronized (regs) {
+				for (Iterator<Registration> iter = regs.iterator(); iter.hasNext();) {
+					if (iter.next().handler==handler) {
+						iter.remove();
+						removed(key, regs);
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if some handler is registered for responses of the given type.
+	 */
+	public boolean isWaitingFor(String messageType) {
+		AtomicInteger count = typeCounts.get(messageType);
+		return count!=null && count.get()>0;
+	}
+
+	/**
+	 * Find the handlers registered for a given message. Messages that do not carry a
+	 * callback_id never match anything.
+	 */
+	public Collection<IMessageHandler> lookup(String messageType, JSONObject message) {
+		if (!isWaitingFor(messageType) || !message.has(CALLBACK_ID)) {
+			return Collections.emptyList();
+		}
+		int callbackID = message.optInt(CALLBACK_ID);
+		String requestSenderID = message.optString(REQUEST_SENDER_ID, null);
+		Collection<IMessageHandler> found = collect(new Key(messageType, callbackID, null), null);
+		if (requestSenderID!=null) {
+			found = collect(new Key(messageType, callbackID, requestSenderID), found);
+		}
+		if (found==null) {
+			return Collections.emptyList();
+		}
+		return found;
+	}
+
+	/**
+	 * @return number of live registrations.
+	 */
+	public int size() {
+		int size = 0;
+		for (AtomicInteger count : typeCounts.values()) {
+			size += count.get();
+		}
+		return size;
+	}
+
+	/**
+	 * Removes all registrations that have passed their deadline.
+	 */
+	public void sweepExpired() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<Key, Registrations> entry : registrations.entrySet()) {
+			Registrations regs = entry.getValue();
+			synchronized (regs) {
+				for (Iterator<Registration> iter = regs.iterator(); iter.hasNext();) {
+					if (iter.next().isExpired(now)) {
+						iter.remove();
+						removed(entry.getKey(), regs);
+					}
+				}
+			}
+		}
+	}
+
+	private Collection<IMessageHandler> collect(Key key, Collection<IMessageHandler> found) {
+		Registrations regs = registrations.get(key);
+		if (regs!=null) {
+			long now = System.currentTimeMillis();
+			synchronized (regs) {
+				for (Iterator<Registration> iter = regs.iterator(); iter.hasNext();) {
+					Registration reg = iter.next();
+					if (reg.isExpired(now)) {
+						iter.remove();
+						removed(key, regs);
+					} else {
+						if (found==null) {
+							found = new ArrayList<IMessageHandler>(2);
+						}
+						found.add(reg.handler);
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Bookkeeping after a registration was removed. Must be called while holding
+	 * the lock on 'regs'.
+	 */
+	private void removed(Key key, Registrations regs) {
+		typeCount(key.messageType).decrementAndGet();
+		if (regs.isEmpty()) {
+			regs.dead = true;
+			registrations.remove(key, regs);
+		}
+	}
+
+	private AtomicInteger typeCount(String messageType) {
+		AtomicInteger count = typeCounts.get(messageType);
+		if (count==null) {
+			AtomicInteger newCount = new AtomicInteger();
+			count = typeCounts.putIfAbsent(messageType, newCount);
+			if (count==null) {
+				count = newCount;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * The registrations for a single key. Guarded by its own monitor. Once the last
+	 * registration is removed the list is marked 'dead' and taken out of the map;
+	 * a dead list must not receive new registrations.
+	 */
+	private static final class Registrations extends ArrayList<Registration> {
+		private static final long serialVersionUID = 1L;
+		boolean dead = false;
+		Registrations() {
+			super(1);
+		}
+	}
+
+	private static final class Registration {
+		final IMessageHandler handler;
+		final long deadline;
+
+		Registration(IMessageHandler handler, long deadline) {
+			this.handler = handler;
+			this.deadline = deadline;
+		}
+
+		boolean isExpired(long now) {
+			return deadline>0 && now>=deadline;
+		}
+	}
+
+	private static final class Key {
+		final String messageType;
+		final int callbackID;
+		final String requestSenderID;
+
+		Key(String messageType, int callbackID, String requestSenderID) {
+			this.messageType = messageType;
+			this.callbackID = callbackID;
+			this.requestSenderID = requestSenderID;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = messageType.hashCode();
+			h = 31*h + callbackID;
+			h = 31*h + (requestSenderID==null ? 0 : requestSenderID.hashCode());
+			return h;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this==obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return callbackID==other.callbackID
+					&& messageType.equals(other.messageType)
+					&& (requestSenderID==null ? other.requestSenderID==null : requestSenderID.equals(other.requestSenderID));
+		}
+	}
+
+}
@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client;
+
+import org.json.JSONObject;
+
+/**
+ * Receives the chunks of a response requested via
+ * {@link MessageConnector#requestStream(String, JSONObject, long, ResponseStreamHandler)}.
+ */
+public interface ResponseStreamHandler {
+
+	/**
+	 * Called once per chunk, in sequence order and never concurrently. A responder that
+	 * does not split its response produces a single call with the whole response.
+	 * <p>
+	 * Throwing an exception ends the stream: the request's future is rejected with it
+	 * and remaining chunks are ignored.
+	 */
+	void chunk(JSONObject response) throws Exception;
+
+}
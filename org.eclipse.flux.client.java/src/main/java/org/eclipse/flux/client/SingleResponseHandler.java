@@ -12,9 +12,6 @@ package org.eclipse.flux.client;
 
 import static org.eclipse.flux.client.MessageConstants.ERROR;
 
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.flux.client.util.BasicFuture;
@@ -52,18 +49,6 @@ public abstract class SingleResponseHandler<T> extends MessageHandler {
 	 */
 	private static final long TIME_OUT = 30 * 1000; //quite long for now, for debugging purposes 
 	
-	private static Timer timer;
-	
-	/**
-	 * Timer thread shared between all 'FluxResponseHandler' to handle timeouts.
-	 */
-	private static synchronized Timer timer() {
-		if (timer==null) {
-			timer = new Timer(SingleResponseHandler.class.getName()+"_TIMER", true);
-		}
-		return timer;
-	}
-	
 	private AtomicBoolean timeoutStarted = new AtomicBoolean(false);
 	
 	private MessageConnector conn;
@@ -124,17 +109,8 @@ public abstract class SingleResponseHandler<T> extends MessageHandler {
 
 	private void ensureTimeout() {
 		if (!future.isDone() && TIME_OUT>0 && timeoutStarted.compareAndSet(false, true)) {
-			timer().schedule(new TimerTask() {
-				@Override
-				public void run() {
-					try {
-						future.reject(new TimeoutException());
-					} catch (Throwable e) {
-						//don't let Exception fly.. or the timer thread will die!
-						e.printStackTrace();
-					}
-				}
-			}, TIME_OUT);
+			//The timeout is cancelled by the future as soon as a response arrives.
+			future.setTimeout(TIME_OUT);
 		}
 	}
 
@@ -0,0 +1,328 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.codec;
+
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Binary codec using CBOR (RFC 7049). Covers the JSON data model: maps, arrays,
+ * UTF-8 strings, integers, doubles, booleans and null.
+ * <p>
+ * Compared to JSON text, strings need no escaping (file contents full of quotes
+ * and newlines are sent as is), numbers are binary, and decoding works straight
+ * from the byte array instead of going through a String and a character based
+ * tokenizer.
+ */
+public class CborCodec implements MessageCodec {
+
+	public static final String CONTENT_TYPE = "application/cbor";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int MAJOR_UNSIGNED = 0;
+	private static final int MAJOR_NEGATIVE = 1;
+	private static final int MAJOR_BYTES = 2;
+	private static final int MAJOR_TEXT = 3;
+	private static final int MAJOR_ARRAY = 4;
+	private static final int MAJOR_MAP = 5;
+	private static final int MAJOR_TAG = 6;
+	private static final int MAJOR_SIMPLE = 7;
+
+	private static final int FALSE = 0xf4;
+	private static final int TRUE = 0xf5;
+	private static final int NULL = 0xf6;
+	private static final int UNDEFINED = 0xf7;
+	private static final int HALF_FLOAT = 0xf9;
+	private static final int SINGLE_FLOAT = 0xfa;
+	private static final int DOUBLE_FLOAT = 0xfb;
+	private static final int BREAK = 0xff;
+	private static final int INDEFINITE = 31;
+
+	@Override
+	public String getContentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	public byte[] encode(JSONObject message) throws Exception {
+		EncodeBuffer out = EncodeBuffer.get();
+		encode(message, out);
+		return out.toByteArray();
+	}
+
+	@Override
+	public void encode(JSONObject message, EncodeBuffer out) throws Exception {
+		new Encoder(out).writeObject(message);
+	}
+
+	@Override
+	public JSONObject decode(byte[] bytes) throws Exception {
+		Decoder in = new Decoder(bytes);
+		Object value = in.read();
+		if (!(value instanceof JSONObject)) {
+			throw new IllegalArgumentException("CBOR message is not a map");
+		}
+		return (JSONObject) value;
+	}
+
+	private static final class Encoder {
+		private final EncodeBuffer out;
+
+		Encoder(EncodeBuffer out) {
+			this.out = out;
+		}
+
+		private void writeHeader(int major, long length) {
+			int mt = major << 5;
+			if (length < 24) {
+				out.write((int) (mt | length));
+			} else if (length < 0x100) {
+				out.write(mt | 24);
+				out.write((int) length);
+			} else if (length < 0x10000) {
+				out.write(mt | 25);
+				writeBigEndian(length, 2);
+			} else if (length < 0x100000000L) {
+				out.write(mt | 26);
+				writeBigEndian(length, 4);
+			} else {
+				out.write(mt | 27);
+				writeBigEndian(length, 8);
+			}
+		}
+
+		private void writeBigEndian(long v, int bytes) {
+			for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+				out.write((int) (v >>> shift));
+			}
+		}
+
+		void writeObject(JSONObject obj) throws Exception {
+			writeHeader(MAJOR_MAP, obj.length());
+			Iterator<?> keys = obj.keys();
+			while (keys.hasNext()) {
+				String key = (String) keys.next();
+				writeText(key);
+				write(obj.get(key));
+			}
+		}
+
+		void writeArray(JSONArray array) throws Exception {
+			int length = array.length();
+			writeHeader(MAJOR_ARRAY, length);
+			for (int i = 0; i < length; i++) {
+				write(array.get(i));
+			}
+		}
+
+		void writeText(String s) {
+			writeHeader(MAJOR_TEXT, EncodeBuffer.utf8Length(s));
+			out.writeUtf8(s);
+		}
+
+		void write(Object value) throws Exception {
+			if (value instanceof String) {
+				writeText((String) value);
+			} else if (value instanceof JSONObject) {
+				writeObject((JSONObject) value);
+			} else if (value instanceof JSONArray) {
+				writeArray((JSONArray) value);
+			} else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+				long v = ((Number) value).longValue();
+				if (v >= 0) {
+					writeHeader(MAJOR_UNSIGNED, v);
+				} else {
+					writeHeader(MAJOR_NEGATIVE, -1 - v);
+				}
+			} else if (value instanceof Number) {
+				out.write(DOUBLE_FLOAT);
+				writeBigEndian(Double.doubleToLongBits(((Number) value).doubleValue()), 8);
+			} else if (value instanceof Boolean) {
+				out.write(((Boolean) value) ? TRUE : FALSE);
+			} else if (value==null || value==JSONObject.NULL) {
+				out.write(NULL);
+			} else {
+				writeText(value.toString());
+			}
+		}
+	}
+
+	private static final class Decoder {
+		private final byte[] buf;
+		private int pos = 0;
+
+		Decoder(byte[] buf) {
+			this.buf = buf;
+		}
+
+		private int readByte() {
+			if (pos >= buf.length) {
+				throw new IllegalArgumentException("Truncated CBOR message");
+			}
+			return buf[pos++] & 0xff;
+		}
+
+		private long readUnsigned(int n) {
+			long v = 0;
+			for (int i = 0; i < n; i++) {
+				v = (v << 8) | readByte();
+			}
+			return v;
+		}
+
+		/**
+		 * Read the argument that follows an initial byte with the given 'additional info'.
+		 * @return the argument, or -1 for indefinite length.
+		 */
+		private long readArgument(int info) {
+			if (info < 24) {
+				return info;
+			}
+			switch (info) {
+			case 24: return readUnsigned(1);
+			case 25: return readUnsigned(2);
+			case 26: return readUnsigned(4);
+			case 27: return readUnsigned(8);
+			case INDEFINITE: return -1;
+			default: throw new IllegalArgumentException("Invalid CBOR additional info: "+info);
+			}
+		}
+
+		private int readLength(int info) {
+			long length = readArgument(info);
+			if (length > buf.length - pos) {
+				throw new IllegalArgumentException("Invalid CBOR length: "+length);
+			}
+			return (int) length;
+		}
+
+		Object read() throws Exception {
+			int initial = readByte();
+			int major = initial >>> 5;
+			int info = initial & 0x1f;
+			switch (major) {
+			case MAJOR_UNSIGNED:
+				return number(readArgument(info));
+			case MAJOR_NEGATIVE:
+				return number(-1 - readArgument(info));
+			case MAJOR_TEXT:
+				return readText(info);
+			case MAJOR_ARRAY: {
+				JSONArray array = new JSONArray();
+				int length = readLength(info);
+				if (length < 0) {
+					while (!atBreak()) {
+						array.put(read());
+					}
+				} else {
+					for (int i = 0; i < length; i++) {
+						array.put(read());
+					}
+				}
+				return array;
+			}
+			case MAJOR_MAP: {
+				JSONObject obj = new JSONObject();
+				int length = readLength(info);
+				if (length < 0) {
+					while (!atBreak()) {
+						obj.put(read().toString(), read());
+					}
+				} else {
+					for (int i = 0; i < length; i++) {
+						obj.put(read().toString(), read());
+					}
+				}
+				return obj;
+			}
+			case MAJOR_TAG:
+				readArgument(info);
+				return read();
+			case MAJOR_SIMPLE:
+				return readSimple(initial);
+			case MAJOR_BYTES:
+			default:
+				throw new IllegalArgumentException("Unsupported CBOR item: 0x"+Integer.toHexString(initial));
+			}
+		}
+
+		private boolean atBreak() {
+			if (pos < buf.length && (buf[pos] & 0xff)==BREAK) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private String readText(int info) throws Exception {
+			int length = readLength(info);
+			if (length >= 0) {
+				String s = new String(buf, pos, length, UTF8);
+				pos += length;
+				return s;
+			}
+			//Indefinite length: a sequence of definite length chunks
+			StringBuilder s = new StringBuilder();
+			while (!atBreak()) {
+				int initial = readByte();
+				if (initial >>> 5 != MAJOR_TEXT || (initial & 0x1f)==INDEFINITE) {
+					throw new IllegalArgumentException("Invalid CBOR text chunk");
+				}
+				s.append(readText(initial & 0x1f));
+			}
+			return s.toString();
+		}
+
+		private Object readSimple(int initial) {
+			switch (initial) {
+			case FALSE: return Boolean.FALSE;
+			case TRUE: return Boolean.TRUE;
+			case NULL:
+			case UNDEFINED:
+				return JSONObject.NULL;
+			case HALF_FLOAT:
+				return halfToDouble((int) readUnsigned(2));
+			case SINGLE_FLOAT:
+				return (double) Float.intBitsToFloat((int) readUnsigned(4));
+			case DOUBLE_FLOAT:
+				return Double.longBitsToDouble(readUnsigned(8));
+			default:
+				throw new IllegalArgumentException("Unsupported CBOR simple value: 0x"+Integer.toHexString(initial));
+			}
+		}
+
+		private static Object number(long v) {
+			if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+				return (int) v;
+			}
+			return v;
+		}
+
+		private static double halfToDouble(int half) {
+			int exp = (half >> 10) & 0x1f;
+			int mant = half & 0x3ff;
+			double val;
+			if (exp==0) {
+				val = mant * Math.pow(2, -24);
+			} else if (exp!=31) {
+				val = (mant + 1024) * Math.pow(2, exp - 25);
+			} else {
+				val = mant==0 ? Double.POSITIVE_INFINITY : Double.NaN;
+			}
+			return (half & 0x8000)!=0 ? -val : val;
+		}
+	}
+
+}
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.codec;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A growable byte array that messages are encoded into. Characters written through
+ * {@link #writer()} are UTF-8 encoded straight into the array, without a charset
+ * encoder or intermediate buffers.
+ * <p>
+ * Each thread has a buffer it can reuse for every message it sends (see {@link #get()}),
+ * so encoding a message allocates nothing but the final copy of the bytes.
+ */
+public final class EncodeBuffer extends OutputStream {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * Per thread buffers that grew beyond this are not kept after use, so that sending
+	 * one huge message does not pin its size in memory for the life of the thread.
+	 */
+	private static final int MAX_RETAINED_CAPACITY = 256 * 1024;
+
+	private static final ThreadLocal<EncodeBuffer> buffers = new ThreadLocal<EncodeBuffer>() {
+		@Override
+		protected EncodeBuffer initialValue() {
+			return new EncodeBuffer();
+		}
+	};
+
+	private byte[] buf;
+	private int count = 0;
+	private final Utf8Writer writer = new Utf8Writer();
+
+	public EncodeBuffer() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public EncodeBuffer(int capacity) {
+		buf = new byte[capacity];
+	}
+
+	/**
+	 * @return the empty buffer of the calling thread. It is reset by the next call
+	 *         from the same thread, so its contents must be copied out (e.g. by
+	 *         {@link #toByteArray()}) before encoding another message.
+	 */
+	public static EncodeBuffer get() {
+		EncodeBuffer buffer = buffers.get();
+		if (buffer.buf.length>MAX_RETAINED_CAPACITY) {
+			buffer.buf = new byte[INITIAL_CAPACITY];
+		}
+		buffer.reset();
+		return buffer;
+	}
+
+	public void reset() {
+		count = 0;
+		writer.pending = 0;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buf, count);
+	}
+
+	/**
+	 * @return a writer that UTF-8 encodes characters into this buffer. Unpaired surrogates
+	 *         are written as '?', like {@link String#getBytes(java.nio.charset.Charset)} does.
+	 *         Flush it after the last character, in case that is half a surrogate pair.
+	 */
+	public Writer writer() {
+		return writer;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (count + extra > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + extra));
+		}
+	}
+
+	@Override
+	public void write(int b) {
+		ensureCapacity(1);
+		buf[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		ensureCapacity(len);
+		System.arraycopy(b, off, buf, count, len);
+		count += len;
+	}
+
+	/**
+	 * UTF-8 encode a string into this buffer.
+	 */
+	public void writeUtf8(String s) {
+		writer.write(s, 0, s.length());
+		writer.flush();
+	}
+
+	/**
+	 * @return the number of bytes the UTF-8 encoding of the given string takes.
+	 */
+	public static int utf8Length(String s) {
+		int len = s.length();
+		int bytes = len;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				if (c < 0x800) {
+					bytes += 1;
+				} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+					bytes += 2;
+					i++;
+				} else if (Character.isSurrogate(c)) {
+					//written as '?'
+				} else {
+					bytes += 2;
+				}
+			}
+		}
+		return bytes;
+	}
+
+	private final class Utf8Writer extends Writer {
+
+		/**
+		 * High surrogate seen at the end of a previous write, waiting for its pair.
+		 */
+		private char pending = 0;
+
+		@Override
+		public void write(int c) {
+			char ch = (char) c;
+			if (pending != 0) {
+				char high = pending;
+				pending = 0;
+				if (Character.isLowSurrogate(ch)) {
+					writeCodePoint(Character.toCodePoint(high, ch));
+					return;
+				}
+				EncodeBuffer.this.write('?');
+			}
+			if (Character.isHighSurrogate(ch)) {
+				pending = ch;
+			} else {
+				writeChar(ch);
+			}
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			for (int i = off; i < off + len; i++) {
+				write(cbuf[i]);
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			int end = off + len;
+			int i = off;
+			//Settle a pending high surrogate before copying anything after it.
+			while (pending != 0 && i < end) {
+				write(str.charAt(i++));
+			}
+			//Most text is ASCII, copy that without further checks.
+			ensureCapacity(end - i);
+			while (i < end) {
+				char c = str.charAt(i);
+				if (c >= 0x80) {
+					break;
+				}
+				buf[count++] = (byte) c;
+				i++;
+			}
+			while (i < end) {
+				write(str.charAt(i++));
+			}
+		}
+
+		private void writeChar(char c) {
+			if (c < 0x80) {
+				EncodeBuffer.this.write(c);
+			} else if (Character.isSurrogate(c)) {
+				EncodeBuffer.this.write('?');
+			} else if (c < 0x800) {
+				ensureCapacity(2);
+				buf[count++] = (byte) (0xc0 | (c >> 6));
+				buf[count++] = (byte) (0x80 | (c & 0x3f));
+			} else {
+				ensureCapacity(3);
+				buf[count++] = (byte) (0xe0 | (c >> 12));
+				buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buf[count++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+
+		private void writeCodePoint(int cp) {
+			ensureCapacity(4);
+			buf[count++] = (byte) (0xf0 | (cp >> 18));
+			buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+			buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+			buf[count++] = (byte) (0x80 | (cp & 0x3f));
+		}
+
+		/**
+		 * A high surrogate still waiting for its pair is written as '?'.
+		 */
+		@Override
+		public void flush() {
+			if (pending != 0) {
+				pending = 0;
+				EncodeBuffer.this.write('?');
+			}
+		}
+
+		@Override
+		public void close() {
+			flush();
+		}
+	}
+
+}
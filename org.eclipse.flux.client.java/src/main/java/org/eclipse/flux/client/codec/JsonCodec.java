@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.codec;
+
+import java.io.Writer;
+
+import org.eclipse.flux.client.util.JSON;
+import org.json.JSONObject;
+
+/**
+ * The default codec. Messages are sent as UTF-8 encoded JSON text.
+ */
+public class JsonCodec implements MessageCodec {
+
+	public static final String CONTENT_TYPE = "application/json";
+
+	@Override
+	public String getContentType() {
+		return CONTENT_TYPE;
+	}
+
+	@Override
+	public byte[] encode(JSONObject message) throws Exception {
+		EncodeBuffer out = EncodeBuffer.get();
+		encode(message, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Writes the JSON text straight into the buffer, rather than building it as a String first.
+	 */
+	@Override
+	public void encode(JSONObject message, EncodeBuffer out) throws Exception {
+		Writer writer = out.writer();
+		message.write(writer);
+		writer.flush();
+	}
+
+	@Override
+	public JSONObject decode(byte[] bytes) throws Exception {
+		return JSON.parse(bytes);
+	}
+
+}
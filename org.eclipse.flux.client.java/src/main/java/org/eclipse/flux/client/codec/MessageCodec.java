@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.codec;
+
+import org.json.JSONObject;
+
+/**
+ * Converts messages to and from the bytes sent over the wire.
+ * <p>
+ * Each codec is identified by a content type. The content type is sent along with
+ * every message so the receiver knows how to decode it (for RabbitMQ it is put
+ * in the AMQP 'content-type' property).
+ */
+public interface MessageCodec {
+
+	/**
+	 * @return the content type identifying this codec, e.g. "application/json".
+	 */
+	String getContentType();
+
+	byte[] encode(JSONObject message) throws Exception;
+
+	/**
+	 * Encode a message into the given buffer, after what it already holds.
+	 */
+	void encode(JSONObject message, EncodeBuffer out) throws Exception;
+
+	JSONObject decode(byte[] bytes) throws Exception;
+
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the codecs this client can decode, keyed by content type.
+ */
+public class MessageCodecs {
+
+	public static final MessageCodec JSON = new JsonCodec();
+	public static final MessageCodec CBOR = new CborCodec();
+
+	private static final Map<String, MessageCodec> codecs = new ConcurrentHashMap<String, MessageCodec>();
+
+	private static volatile String accepted;
+
+	static {
+		register(JSON);
+		register(CBOR);
+	}
+
+	/**
+	 * Make an additional codec available for decoding incoming messages.
+	 */
+	public static void register(MessageCodec codec) {
+		codecs.put(codec.getContentType(), codec);
+		StringBuilder accept = new StringBuilder();
+		for (String contentType : codecs.keySet()) {
+			if (accept.length()>0) {
+				accept.append(',');
+			}
+			accept.append(contentType);
+		}
+		accepted = accept.toString();
+	}
+
+	/**
+	 * Find the codec for a content type. Messages without content type are JSON, since
+	 * that is what clients that predate codecs send.
+	 * 
+	 * @return the codec or null if there is no codec for the content type.
+	 */
+	public static MessageCodec forContentType(String contentType) {
+		if (contentType==null) {
+			return JSON;
+		}
+		return codecs.get(contentType);
+	}
+
+	/**
+	 * @return comma separated list of the content types this client can decode.
+	 */
+	public static String getAccepted() {
+		return accepted;
+	}
+
+	/**
+	 * Test whether a comma separated list of content types, as returned by
+	 * {@link #getAccepted()}, contains a given content type.
+	 */
+	public static boolean accepts(String accepted, String contentType) {
+		if (accepted==null) {
+			return JsonCodec.CONTENT_TYPE.equals(contentType);
+		}
+		for (String ct : accepted.split(",")) {
+			if (ct.trim().equals(contentType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.config;
+
+import org.eclipse.flux.client.FluxClient;
+import org.eclipse.flux.client.MessageConnector;
+import org.eclipse.flux.client.MessageConstants;
+import org.eclipse.flux.client.impl.LoopbackBus;
+import org.eclipse.flux.client.impl.LoopbackMessageConnector;
+
+/**
+ * Configuration for a connection to an in-process message bus. Connectors created from
+ * configs with the same {@link LoopbackBus} exchange messages directly, without a broker
+ * and without serializing them. Useful when all flux services run in one JVM, and for tests.
+ */
+public class LoopbackFluxConfig extends AbstractFluxConfig {
+
+	private final LoopbackBus bus;
+
+	/**
+	 * Create config to connect to the default in-process bus.
+	 */
+	public LoopbackFluxConfig(String user) {
+		this(user, LoopbackBus.DEFAULT);
+	}
+
+	public LoopbackFluxConfig(String user, LoopbackBus bus) {
+		super(user);
+		this.bus = bus;
+	}
+
+	@Override
+	public MessageConnector connect(FluxClient fluxClient) {
+		return new LoopbackMessageConnector(fluxClient, this);
+	}
+
+	/**
+	 * There is no equivalent SocketIO config: an in-process bus can not be reached from elsewhere.
+	 */
+	@Override
+	public SocketIOFluxConfig toSocketIO() {
+		return null;
+	}
+
+	public LoopbackBus getBus() {
+		return bus;
+	}
+
+	public static FluxConfig superConfig() {
+		return new LoopbackFluxConfig(MessageConstants.SUPER_USER);
+	}
+
+}
@@ -13,7 +13,9 @@ package org.eclipse.flux.client.config;
 import org.eclipse.flux.client.FluxClient;
 import org.eclipse.flux.client.MessageConnector;
 import org.eclipse.flux.client.MessageConstants;
+import org.eclipse.flux.client.codec.MessageCodec;
 import org.eclipse.flux.client.impl.RabbitMQMessageConnector;
+import org.eclipse.flux.client.impl.RabbitMQMultiplexer;
 import org.eclipse.flux.client.util.Console;
 import org.eclipse.flux.client.util.JSON;
 import org.json.JSONArray;
@@ -46,9 +48,81 @@ public class RabbitMQFluxConfig extends AbstractFluxConfig {
 	 */
 	private SocketIOFluxConfig socketIOConfig = null;
 
+	/**
+	 * Number of AMQP channels used for publishing. Each channel is used by one sending thread at a time.
+	 * All messages for one destination go through the same channel, so that they stay in order.
+	 */
+	private int publisherChannels = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Whether the broker confirms published messages.
+	 */
+	private boolean publisherConfirms = false;
+
+	/**
+	 * Maximum number of published messages per channel awaiting confirmation before a sender waits.
+	 */
+	private int maxUnconfirmed = 1024;
+
+	/**
+	 * Time in milliseconds outgoing messages to the same destination are collected into one frame.
+	 * 0 means no batching.
+	 */
+	private long batchWindow = 0;
+
+	/**
+	 * Size in bytes at which a batch is sent before its window ends.
+	 */
+	private int batchMaxBytes = 64 * 1024;
+
+	/**
+	 * Size in bytes above which payloads sent to peers that can decompress them are compressed.
+	 * 0 means no compression.
+	 */
+	private int compressionThreshold = 16 * 1024;
+
+	/**
+	 * Codec to use instead of JSON for messages to peers that can decode it. Null means always JSON.
+	 */
+	private MessageCodec preferredCodec = null;
+
+	/**
+	 * Whether to use the preferred codec for all messages, including broadcasts and requests.
+	 * Only safe when every client on the bus accepts it.
+	 */
+	private boolean codecForAllMessages = false;
+
+	/**
+	 * Maximum number of unacknowledged messages the broker sends. 0 means it is derived from
+	 * the client's limit on queued messages.
+	 */
+	private int prefetch = 0;
+
+	/**
+	 * Number of messages acknowledged at once.
+	 */
+	private int ackBatchSize = 32;
+
+	/**
+	 * Number of consumers of the inbox.
+	 */
+	private int consumers = 1;
+
+	/**
+	 * Whether interactive messages are routed to a separate inbox. Defaults to the 'flux.priorityRouting'
+	 * system property or the FLUX_PRIORITY_ROUTING environment variable, which the node server reads too,
+	 * so all clients on the bus agree.
+	 */
+	private boolean priorityRouting = isPriorityRoutingEnabled();
+
+	/**
+	 * Shared connection to use instead of a connection of its own. May be null.
+	 */
+	private RabbitMQMultiplexer multiplexer;
+
 	@Override
 	public MessageConnector connect(FluxClient fluxClient) throws Exception {
-		return new RabbitMQMessageConnector(fluxClient, this);
+		return new RabbitMQMessageConnector(fluxClient, this, multiplexer);
 	}
 
 	@Override
@@ -66,6 +140,211 @@ public class RabbitMQFluxConfig extends AbstractFluxConfig {
 		return this;
 	}
 	
+	public RabbitMQFluxConfig setPublisherChannels(int publisherChannels) {
+		if (publisherChannels<=0) {
+			throw new IllegalArgumentException("publisherChannels must be positive");
+		}
+		this.publisherChannels = publisherChannels;
+		return this;
+	}
+
+	public int getPublisherChannels() {
+		return publisherChannels;
+	}
+
+	/**
+	 * Enable publisher confirms. Sending does not wait for the confirm, but a sender waits
+	 * when its channel has too many unconfirmed messages (see {@link #setMaxUnconfirmed(int)}).
+	 */
+	public RabbitMQFluxConfig setPublisherConfirms(boolean publisherConfirms) {
+		this.publisherConfirms = publisherConfirms;
+		return this;
+	}
+
+	public boolean isPublisherConfirms() {
+		return publisherConfirms;
+	}
+
+	public RabbitMQFluxConfig setMaxUnconfirmed(int maxUnconfirmed) {
+		if (maxUnconfirmed<=0) {
+			throw new IllegalArgumentException("maxUnconfirmed must be positive");
+		}
+		this.maxUnconfirmed = maxUnconfirmed;
+		return this;
+	}
+
+	public int getMaxUnconfirmed() {
+		return maxUnconfirmed;
+	}
+
+	/**
+	 * Collect messages sent to the same destination within the given number of milliseconds
+	 * into a single frame. Receivers unpack the frames, so handlers see the individual messages.
+	 * Only clients using this version of the RabbitMQ connector understand these frames,
+	 * so only enable batching when there are no older clients on the bus.
+	 */
+	public RabbitMQFluxConfig setBatchWindow(long batchWindow) {
+		if (batchWindow<0) {
+			throw new IllegalArgumentException("batchWindow must not be negative");
+		}
+		this.batchWindow = batchWindow;
+		return this;
+	}
+
+	public long getBatchWindow() {
+		return batchWindow;
+	}
+
+	public RabbitMQFluxConfig setBatchMaxBytes(int batchMaxBytes) {
+		if (batchMaxBytes<=0) {
+			throw new IllegalArgumentException("batchMaxBytes must be positive");
+		}
+		this.batchMaxBytes = batchMaxBytes;
+		return this;
+	}
+
+	public int getBatchMaxBytes() {
+		return batchMaxBytes;
+	}
+
+	/**
+	 * Compress payloads of at least the given number of bytes, when the recipient advertised that
+	 * it can decompress them. Since only responses have a single known recipient, requests and
+	 * broadcasts are never compressed. Use 0 to disable compression.
+	 */
+	public RabbitMQFluxConfig setCompressionThreshold(int compressionThreshold) {
+		if (compressionThreshold<0) {
+			throw new IllegalArgumentException("compressionThreshold must not be negative");
+		}
+		this.compressionThreshold = compressionThreshold;
+		return this;
+	}
+
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	/**
+	 * Use the given codec instead of JSON for responses to clients that accept it.
+	 * Clients always decode messages in any registered codec, regardless of this setting.
+	 */
+	public RabbitMQFluxConfig setPreferredCodec(MessageCodec codec) {
+		this.preferredCodec = codec;
+		return this;
+	}
+
+	public MessageCodec getPreferredCodec() {
+		return preferredCodec;
+	}
+
+	/**
+	 * Use the preferred codec for broadcasts and requests as well. Only enable this when all
+	 * clients connected to the bus understand the preferred codec.
+	 */
+	public RabbitMQFluxConfig setCodecForAllMessages(boolean codecForAllMessages) {
+		this.codecForAllMessages = codecForAllMessages;
+		return this;
+	}
+
+	public boolean isCodecForAllMessages() {
+		return codecForAllMessages;
+	}
+
+	/**
+	 * Let the broker send at most the given number of messages that were not yet acknowledged.
+	 * Messages are acknowledged once the client's dispatcher admitted them, so this bounds how
+	 * many messages sit in memory here rather than in the broker.
+	 * <p>
+	 * When this is 0, the default, a prefetch is only used when the client blocks on overflow
+	 * (see {@link FluxClient#setOverflowPolicy(FluxClient.OverflowPolicy)}). It is then set to
+	 * the client's limit on queued messages. Otherwise the broker sends messages without limit
+	 * and they are not acknowledged.
+	 */
+	public RabbitMQFluxConfig setPrefetch(int prefetch) {
+		if (prefetch<0) {
+			throw new IllegalArgumentException("prefetch must not be negative");
+		}
+		this.prefetch = prefetch;
+		return this;
+	}
+
+	public int getPrefetch() {
+		return prefetch;
+	}
+
+	/**
+	 * Acknowledge messages in batches of the given size, with a single acknowledgement covering
+	 * all messages up to the last one. The batch size used is at most half the prefetch. A batch
+	 * that doesn't fill up is acknowledged after a short delay.
+	 */
+	public RabbitMQFluxConfig setAckBatchSize(int ackBatchSize) {
+		if (ackBatchSize<=0) {
+			throw new IllegalArgumentException("ackBatchSize must be positive");
+		}
+		this.ackBatchSize = ackBatchSize;
+		return this;
+	}
+
+	public int getAckBatchSize() {
+		return ackBatchSize;
+	}
+
+	/**
+	 * Consume the inbox with the given number of consumers, each on its own AMQP channel, so
+	 * that decoding of incoming messages is spread over several threads. With more than one
+	 * consumer, messages may be handled in a different order than they were sent, even with
+	 * {@link FluxClient.DispatchMode#ORDERED_PER_RESOURCE}.
+	 */
+	public RabbitMQFluxConfig setConsumers(int consumers) {
+		if (consumers<=0) {
+			throw new IllegalArgumentException("consumers must be positive");
+		}
+		this.consumers = consumers;
+		return this;
+	}
+
+	public int getConsumers() {
+		return consumers;
+	}
+
+	/**
+	 * Route interactive messages (see {@link org.eclipse.flux.client.MessagePriorities}) through
+	 * a second inbox, consumed on an AMQP channel of its own, so that they do not queue up
+	 * behind other traffic in the broker or wait for the consumer to work through it.
+	 * <p>
+	 * Interactive broadcasts and requests are published under a different routing key, which
+	 * only clients using this version of the RabbitMQ connector with priority routing enabled
+	 * subscribe to. So only enable it when all clients on the bus do, e.g. by setting
+	 * FLUX_PRIORITY_ROUTING for all of them.
+	 */
+	public RabbitMQFluxConfig setPriorityRouting(boolean priorityRouting) {
+		this.priorityRouting = priorityRouting;
+		return this;
+	}
+
+	public boolean isPriorityRouting() {
+		return priorityRouting;
+	}
+
+	private static boolean isPriorityRoutingEnabled() {
+		String priorityRoutingStr = System.getProperty("flux.priorityRouting") == null ? System.getenv("FLUX_PRIORITY_ROUTING") : System.getProperty("flux.priorityRouting");
+		return priorityRoutingStr != null && Boolean.valueOf(priorityRoutingStr);
+	}
+
+	/**
+	 * Connect through the connection and inbox of the given multiplexer, rather than opening
+	 * a connection of its own. The URI, publisher and consumer settings of this configuration
+	 * are then ignored in favour of those the multiplexer was created with.
+	 */
+	public RabbitMQFluxConfig setMultiplexer(RabbitMQMultiplexer multiplexer) {
+		this.multiplexer = multiplexer;
+		return this;
+	}
+
+	public RabbitMQMultiplexer getMultiplexer() {
+		return multiplexer;
+	}
+
 	/**
 	 * Configure the AMQP ConnectionFactory with information from this RabbitMQFluxConfig
 	 */
@@ -24,6 +24,20 @@ public class SocketIOFluxConfig extends AbstractFluxConfig {
 	private final String host;
 	private final String token;
 	
+	/**
+	 * Delay in milliseconds before the first attempt to reconnect after an error. Doubles with
+	 * every failed attempt up to 'maxReconnectDelay'. Each actual delay is randomized
+	 * between half and all of this, so that clients don't all reconnect at once.
+	 */
+	private long reconnectDelay = 1000;
+	private long maxReconnectDelay = 60 * 1000;
+	
+	/**
+	 * Maximum number of messages kept while disconnected, to send once reconnected.
+	 * 0 means messages sent while disconnected are dropped.
+	 */
+	private int replayBufferSize = 1024;
+	
 	public String getHost() {
 		return host;
 	}
@@ -38,6 +52,47 @@ public class SocketIOFluxConfig extends AbstractFluxConfig {
 		this.token = token;
 	}
 	
+	public SocketIOFluxConfig setReconnectDelay(long reconnectDelay) {
+		if (reconnectDelay<=0) {
+			throw new IllegalArgumentException("reconnectDelay must be positive");
+		}
+		this.reconnectDelay = reconnectDelay;
+		return this;
+	}
+	
+	public long getReconnectDelay() {
+		return reconnectDelay;
+	}
+	
+	public SocketIOFluxConfig setMaxReconnectDelay(long maxReconnectDelay) {
+		if (maxReconnectDelay<=0) {
+			throw new IllegalArgumentException("maxReconnectDelay must be positive");
+		}
+		this.maxReconnectDelay = maxReconnectDelay;
+		return this;
+	}
+	
+	public long getMaxReconnectDelay() {
+		return maxReconnectDelay;
+	}
+	
+	/**
+	 * Set how many messages sent while disconnected are kept and sent after reconnecting.
+	 * Newer 'resourceChanged' and similar messages replace older buffered ones about the
+	 * same resource. Beyond the limit, the oldest messages are dropped.
+	 */
+	public SocketIOFluxConfig setReplayBufferSize(int replayBufferSize) {
+		if (replayBufferSize<0) {
+			throw new IllegalArgumentException("replayBufferSize must not be negative");
+		}
+		this.replayBufferSize = replayBufferSize;
+		return this;
+	}
+	
+	public int getReplayBufferSize() {
+		return replayBufferSize;
+	}
+	
 	@Override
 	public String toString() {
 		return "SocketIOFluxConfig("+getUser() + "@" + host+")";
@@ -91,7 +146,7 @@ public class SocketIOFluxConfig extends AbstractFluxConfig {
 
 	@Override
 	public MessageConnector connect(FluxClient client) {
-		return new SocketIOMessageConnector(this, client.getExecutor());
+		return new SocketIOMessageConnector(this, client);
 	}
 
 	@Override
@@ -10,49 +10,180 @@
 *******************************************************************************/
 package org.eclipse.flux.client.impl;
 
+import static org.eclipse.flux.client.MessageConstants.CALLBACK_ID;
+import static org.eclipse.flux.client.MessageConstants.CHUNKED;
+import static org.eclipse.flux.client.MessageConstants.ERROR;
+import static org.eclipse.flux.client.MessageConstants.REQUEST_SENDER_ID;
+import static org.eclipse.flux.client.MessageConstants.USERNAME;
+
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.eclipse.flux.client.CallbackIDAwareMessageHandler;
 import org.eclipse.flux.client.ConnectionStatus;
+import org.eclipse.flux.client.FluxClient;
 import org.eclipse.flux.client.IChannelListener;
 import org.eclipse.flux.client.IMessageHandler;
 import org.eclipse.flux.client.MessageConnector;
+import org.eclipse.flux.client.MessageDispatcher;
+import org.eclipse.flux.client.MessageHandler;
+import org.eclipse.flux.client.ResponseCorrelator;
+import org.eclipse.flux.client.ResponseStreamHandler;
+import org.eclipse.flux.client.metrics.MessageMetrics;
+import org.eclipse.flux.client.util.BasicFuture;
+import org.eclipse.flux.client.util.CompletionAdapter;
+import org.eclipse.flux.client.util.JSON;
 import org.eclipse.flux.client.util.Observable;
 import org.eclipse.flux.client.util.ObservableState;
 import org.json.JSONObject;
 
 public abstract class AbstractMessageConnector implements MessageConnector {
 	
+	/**
+	 * Timeout in milliseconds for requests sent via 'request' without an explicit timeout.
+	 */
+	public static final long DEFAULT_REQUEST_TIMEOUT = 30 * 1000;
+	
+	/**
+	 * Source of callback ids for 'request'. Starts at a random number to make clashes with
+	 * callback ids chosen by other means (e.g. hashCodes) unlikely.
+	 */
+	private final AtomicInteger nextCallbackID = new AtomicInteger(new Random().nextInt());
+	
 	private final ConcurrentMap<String, Collection<IMessageHandler>> messageHandlers = new ConcurrentHashMap<String, Collection<IMessageHandler>>();
+	
+	/**
+	 * Handlers waiting for a response with a specific callback_id are kept here rather than
+	 * in 'messageHandlers' so that responses can be matched without scanning all of them.
+	 */
+	protected final ResponseCorrelator correlator = new ResponseCorrelator();
 	protected final ExecutorService executor;
+	protected final MessageDispatcher dispatcher;
+	
+	/**
+	 * Where to record metrics. Null if metrics are disabled, which every use checks
+	 * first so that disabled metrics cost nothing but that check.
+	 */
+	protected final MessageMetrics metrics;
 	private ConcurrentLinkedQueue<IChannelListener> channelListeners = new ConcurrentLinkedQueue<IChannelListener>();
 	
 	protected final ObservableState<ConnectionStatus> connectionStatus = new ObservableState<ConnectionStatus>(ConnectionStatus.INITIALIZING);
 	
 	public AbstractMessageConnector(ExecutorService executor) {
+		this(executor, new UnorderedDispatcher(executor), null);
+	}
+	
+	public AbstractMessageConnector(FluxClient client) {
+		this(client.getExecutor(), client.getDispatcher(), client.getMetrics());
+	}
+	
+	private AbstractMessageConnector(ExecutorService executor, MessageDispatcher dispatcher, MessageMetrics metrics) {
 		this.executor = executor;
+		this.dispatcher = dispatcher;
+		this.metrics = metrics;
 	}
 
-	protected void handleIncomingMessage(final String messageType, final JSONObject message) {
+	protected void handleIncomingMessage(String messageType, JSONObject message) {
+		handleIncomingMessage(messageType, message, -1);
+	}
+
+	/**
+	 * @param bytes size of the encoded message, for metrics. -1 if unknown.
+	 */
+	protected void handleIncomingMessage(final String messageType, final JSONObject message, int bytes) {
+		if (metrics!=null) {
+			metrics.received(messageType, bytes);
+		}
 		Collection<IMessageHandler> handlers = this.messageHandlers.get(messageType);
+		List<IMessageHandler> accepted = null;
 		if (handlers != null) {
-			for (final IMessageHandler handler : handlers) {
-				try {
-					if (handler.canHandle(messageType, message)) {
-						executor.execute(new Runnable() {
-							public void run() {
-								handler.handle(messageType, message);
-							}
-						});
+			accepted = accept(messageType, message, handlers, accepted);
+		}
+		accepted = accept(messageType, message, correlator.lookup(messageType, message), accepted);
+		if (accepted==null) {
+			return;
+		}
+		final List<IMessageHandler> toRun = accepted;
+		final long queued = metrics!=null ? System.nanoTime() : 0;
+		boolean dispatched = dispatcher.dispatch(messageType, message, new Runnable() {
+			public void run() {
+				long start = metrics!=null ? System.nanoTime() : 0;
+				for (IMessageHandler handler : toRun) {
+					try {
+						handler.handle(messageType, message);
+					} catch (Throwable t) {
+						t.printStackTrace();
 					}
-				} catch (Throwable t) {
-					t.printStackTrace();
+				}
+				if (metrics!=null) {
+					metrics.handled(messageType, start - queued, System.nanoTime() - start);
+				}
+			}
+		});
+		if (!dispatched) {
+			rejected(messageType, message);
+		}
+	}
+
+	/**
+	 * Test whether any handler might accept messages of a given type. Connectors that can
+	 * tell the type of a message before decoding it use this to skip decoding messages
+	 * nobody would handle.
+	 */
+	protected boolean hasHandlersFor(String messageType) {
+		Collection<IMessageHandler> handlers = this.messageHandlers.get(messageType);
+		return (handlers!=null && !handlers.isEmpty()) || correlator.isWaitingFor(messageType);
+	}
+
+	/**
+	 * Collect the handlers that accept a message. Iterates over a snapshot, otherwise a handler
+	 * added by a handler that already ran, for example one waiting for the response to a
+	 * follow-up request, could be handed this message as well.
+	 */
+	private List<IMessageHandler> accept(String messageType, JSONObject message, Collection<IMessageHandler> handlers, List<IMessageHandler> accepted) {
+		for (Object h : handlers.toArray()) {
+			IMessageHandler handler = (IMessageHandler) h;
+			try {
+				if (handler.canHandle(messageType, message)) {
+					if (accepted==null) {
+						accepted = new ArrayList<IMessageHandler>(2);
+					}
+					accepted.add(handler);
+				}
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
+		}
+		return accepted;
+	}
+
+	/**
+	 * Called when the dispatcher refused to handle a message because it is overloaded. Requests
+	 * get an error response, so the requester need not wait for a timeout. Other messages are dropped.
+	 */
+	protected void rejected(String messageType, JSONObject message) {
+		if (!isRequest(messageType) || !message.has(CALLBACK_ID)) {
+			return;
+		}
+		try {
+			JSONObject response = new JSONObject();
+			for (String name : new String[] {USERNAME, CALLBACK_ID, REQUEST_SENDER_ID}) {
+				if (message.has(name)) {
+					response.put(name, message.get(name));
 				}
 			}
+			response.put(ERROR, "Message rejected: too many messages queued");
+			send(responseType(messageType), response);
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
 	}
 
@@ -85,16 +216,137 @@ public abstract class AbstractMessageConnector implements MessageConnector {
 	}
 	
 	public void addMessageHandler(IMessageHandler messageHandler) {
+		if (messageHandler instanceof CallbackIDAwareMessageHandler) {
+			CallbackIDAwareMessageHandler correlated = (CallbackIDAwareMessageHandler) messageHandler;
+			correlator.register(correlated.getMessageType(), correlated.getCallbackID(), null, correlated);
+			return;
+		}
 		this.messageHandlers.putIfAbsent(messageHandler.getMessageType(), new ConcurrentLinkedDeque<IMessageHandler>());
 		this.messageHandlers.get(messageHandler.getMessageType()).add(messageHandler);
 	}
 
 	public void removeMessageHandler(IMessageHandler messageHandler) {
+		if (messageHandler instanceof CallbackIDAwareMessageHandler) {
+			CallbackIDAwareMessageHandler correlated = (CallbackIDAwareMessageHandler) messageHandler;
+			correlator.unregister(correlated.getMessageType(), correlated.getCallbackID(), null, correlated);
+			return;
+		}
 		Collection<IMessageHandler> handlers = this.messageHandlers.get(messageHandler.getMessageType());
 		if (handlers != null) {
 			handlers.remove(messageHandler);
 		}
 	}
+	
+	/**
+	 * Parses the data and sends it as usual. Connectors that write JSON text override this
+	 * to pass the bytes through.
+	 */
+	@Override
+	public void sendEncoded(String messageType, String username, byte[] json) throws Exception {
+		send(messageType, JSON.parse(json));
+	}
+
+	@Override
+	public BasicFuture<JSONObject> request(String messageType, JSONObject message) {
+		return request(messageType, message, DEFAULT_REQUEST_TIMEOUT);
+	}
+
+	@Override
+	public BasicFuture<JSONObject> request(String messageType, JSONObject message, long timeout) {
+		final BasicFuture<JSONObject> response = new BasicFuture<JSONObject>();
+		final String responseType = responseType(messageType);
+		final int callbackID = nextCallbackID.incrementAndGet();
+		final long start = metrics!=null ? System.nanoTime() : 0;
+		final IMessageHandler handler = new MessageHandler(responseType) {
+			@Override
+			public void handle(String type, JSONObject message) {
+				if (metrics!=null && !response.isDone()) {
+					metrics.responded(responseType, System.nanoTime() - start);
+				}
+				if (message.has(ERROR)) {
+					if (message.has("errorDetails")) {
+						System.err.println(message.opt("errorDetails"));
+					}
+					response.reject(new Exception(message.optString(ERROR)));
+				} else {
+					response.resolve(message);
+				}
+			}
+		};
+		correlator.register(responseType, callbackID, null, handler, timeout);
+		response.whenDone(new Runnable() {
+			@Override
+			public void run() {
+				correlator.unregister(responseType, callbackID, null, handler);
+			}
+		});
+		if (timeout>0) {
+			response.setTimeout(timeout);
+		}
+		try {
+			message.put(CALLBACK_ID, callbackID);
+			send(messageType, message);
+		} catch (Throwable e) {
+			response.reject(e);
+		}
+		return response;
+	}
+
+	@Override
+	public BasicFuture<Void> requestStream(String messageType, JSONObject message, long idleTimeout, ResponseStreamHandler handler) {
+		final String responseType = responseType(messageType);
+		final int callbackID = nextCallbackID.incrementAndGet();
+		final ResponseStream stream = new ResponseStream(responseType, idleTimeout, handler);
+		final BasicFuture<Void> done = stream.getFuture();
+		//No time to live: a long stream is fine as long as it keeps moving, the idle timeout takes care of the rest.
+		correlator.register(responseType, callbackID, null, stream);
+		if (metrics!=null) {
+			final long start = System.nanoTime();
+			done.whenDone(new CompletionAdapter<Void>() {
+				@Override
+				public void resolved(Void result) {
+					metrics.responded(responseType, System.nanoTime() - start);
+				}
+			});
+		}
+		done.whenDone(new Runnable() {
+			@Override
+			public void run() {
+				correlator.unregister(responseType, callbackID, null, stream);
+			}
+		});
+		stream.touch();
+		try {
+			message.put(CALLBACK_ID, callbackID);
+			message.put(CHUNKED, true);
+			send(messageType, message);
+		} catch (Throwable e) {
+			done.reject(e);
+		}
+		return done;
+	}
+
+	/**
+	 * Determine the type of response expected for a given type of request. Both
+	 * 'fooRequest' and the all lowercase 'foorequest' style are supported.
+	 */
+	protected static String responseType(String requestType) {
+		if (requestType.endsWith("Request")) {
+			return requestType.substring(0, requestType.length() - "Request".length()) + "Response";
+		}
+		if (requestType.endsWith("request")) {
+			return requestType.substring(0, requestType.length() - "request".length()) + "response";
+		}
+		return requestType + "Response";
+	}
+
+	private static boolean isRequest(String messageType) {
+		return messageType.endsWith("Request") || messageType.endsWith("request");
+	}
+
+	public ResponseCorrelator getCorrelator() {
+		return correlator;
+	}
 
 	@Override
 	public Observable<ConnectionStatus> getState() {
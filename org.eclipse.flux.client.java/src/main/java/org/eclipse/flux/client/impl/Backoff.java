@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import java.util.Random;
+
+/**
+ * Computes delays between reconnect attempts: exponential growth from an initial delay
+ * up to a maximum, with random jitter so that many clients that lost their connection
+ * at the same moment (e.g. because the server restarted) do not all come back at once.
+ * <p>
+ * Each delay is picked at random between half and all of the exponential delay.
+ */
+public class Backoff {
+
+	private final long initialDelay;
+	private final long maxDelay;
+	private final Random random = new Random();
+	private int attempts = 0;
+
+	/**
+	 * @param initialDelay delay in milliseconds before the first retry.
+	 * @param maxDelay limit in milliseconds on the delay.
+	 */
+	public Backoff(long initialDelay, long maxDelay) {
+		if (initialDelay<=0 || maxDelay<initialDelay) {
+			throw new IllegalArgumentException("Need 0 < initialDelay <= maxDelay");
+		}
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * @return delay in milliseconds before the next attempt.
+	 */
+	public synchronized long nextDelay() {
+		long delay = initialDelay;
+		for (int i = 0; i < attempts && delay<maxDelay; i++) {
+			delay = delay * 2;
+		}
+		delay = Math.min(delay, maxDelay);
+		attempts++;
+		long half = delay / 2;
+		return half + (long) (random.nextDouble() * (delay - half));
+	}
+
+	/**
+	 * Start over from the initial delay, after a successful attempt.
+	 */
+	public synchronized void reset() {
+		attempts = 0;
+	}
+
+	public synchronized int getAttempts() {
+		return attempts;
+	}
+
+}
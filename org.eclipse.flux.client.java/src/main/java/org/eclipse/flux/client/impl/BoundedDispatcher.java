@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.flux.client.FluxClient.OverflowPolicy;
+import org.eclipse.flux.client.MessageDispatcher;
+import org.json.JSONObject;
+
+/**
+ * Dispatcher that limits the number of messages that are queued or being handled
+ * by another dispatcher. What happens to a message that arrives when the limit is
+ * reached is determined by an {@link OverflowPolicy}.
+ * <p>
+ * Responses are always admitted, even over the limit. They answer requests this
+ * client made itself, so a handler may be blocked waiting for one and holding
+ * them back could deadlock.
+ */
+public class BoundedDispatcher implements MessageDispatcher {
+
+	private final MessageDispatcher delegate;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final Set<String> supersedableTypes;
+
+	/**
+	 * Number of messages handed to the delegate and not yet handled. Guarded by 'this'.
+	 */
+	private int inFlight = 0;
+
+	/**
+	 * Supersedable messages waiting for room under {@link OverflowPolicy#DROP_SUPERSEDED}, keyed
+	 * by what they are about. Oldest first. Guarded by 'this'.
+	 */
+	private final LinkedHashMap<MessageKey, Parked> parked = new LinkedHashMap<MessageKey, Parked>();
+
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	public BoundedDispatcher(MessageDispatcher delegate, int capacity, OverflowPolicy policy, Collection<String> supersedableTypes) {
+		if (capacity<=0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.delegate = delegate;
+		this.capacity = capacity;
+		this.policy = policy;
+		this.supersedableTypes = new HashSet<String>(supersedableTypes);
+	}
+
+	@Override
+	public boolean dispatch(String messageType, JSONObject message, Runnable task) {
+		if (isResponse(messageType)) {
+			synchronized (this) {
+				inFlight++;
+			}
+			submit(messageType, message, task);
+			return true;
+		}
+		synchronized (this) {
+			while (inFlight>=capacity) {
+				if (policy==OverflowPolicy.REJECT) {
+					rejected.incrementAndGet();
+					return false;
+				}
+				if (policy==OverflowPolicy.DROP_SUPERSEDED) {
+					if (supersedableTypes.contains(messageType)) {
+						MessageKey key = new MessageKey(messageType, message);
+						if (parked.containsKey(key) || parked.size()<capacity) {
+							if (parked.put(key, new Parked(messageType, message, task))!=null) {
+								coalesced.incrementAndGet();
+							}
+							return true;
+						}
+					}
+					rejected.incrementAndGet();
+					return false;
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					rejected.incrementAndGet();
+					return false;
+				}
+			}
+			inFlight++;
+		}
+		submit(messageType, message, task);
+		return true;
+	}
+
+	private void submit(String messageType, JSONObject message, final Runnable task) {
+		try {
+			delegate.dispatch(messageType, message, new Runnable() {
+				public void run() {
+					try {
+						task.run();
+					} finally {
+						completed();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			completed();
+			throw e;
+		}
+	}
+
+	/**
+	 * A message was handled. Its slot goes to the oldest parked message, if any.
+	 */
+	private void completed() {
+		Parked next = null;
+		synchronized (this) {
+			Iterator<Parked> iter = parked.values().iterator();
+			if (iter.hasNext()) {
+				next = iter.next();
+				iter.remove();
+			} else {
+				inFlight--;
+				notifyAll();
+			}
+		}
+		if (next!=null) {
+			submit(next.messageType, next.message, next.task);
+		}
+	}
+
+	private static boolean isResponse(String messageType) {
+		return messageType.endsWith("Response") || messageType.endsWith("response");
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	@Override
+	public synchronized int getQueueDepth() {
+		return inFlight + parked.size();
+	}
+
+	/**
+	 * @return number of messages refused since this dispatcher was created.
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return number of messages dropped because a newer message about the same thing
+	 *         arrived before they could be handled.
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	private static final class Parked {
+		final String messageType;
+		final JSONObject message;
+		final Runnable task;
+
+		Parked(String messageType, JSONObject message, Runnable task) {
+			this.messageType = messageType;
+			this.message = message;
+			this.task = task;
+		}
+	}
+
+}
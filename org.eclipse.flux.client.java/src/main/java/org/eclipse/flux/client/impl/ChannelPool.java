@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.flux.client.util.Console;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+
+/**
+ * A fixed set of AMQP channels used only for publishing.
+ * <p>
+ * An AMQP channel must not be used by more than one thread at a time, so each publish
+ * holds the lock of its channel for its duration. The broker only keeps messages in order
+ * when they are published on the same channel, so the channel is picked by the message's
+ * destination: all messages for one exchange and routing key go through one channel, in the
+ * order they were published. Messages for different destinations spread over the channels,
+ * so several threads can publish at the same time.
+ * <p>
+ * Optionally channels are put in 'confirm' mode. The broker then acknowledges published
+ * messages asynchronously, usually many at once. Publishing does not wait for confirms,
+ * except when a channel already has the maximum number of unconfirmed messages
+ * outstanding: then the publisher waits for all of them, which limits how much
+ * can be lost when the connection drops.
+ */
+public class ChannelPool {
+
+	private static Console console = Console.get(ChannelPool.class.getName());
+
+	/**
+	 * How long a publisher waits for confirms when a channel has too many outstanding.
+	 */
+	private static final long CONFIRM_TIMEOUT = 30 * 1000;
+
+	private final PublisherChannel[] channels;
+	private final boolean confirms;
+	private final int maxUnconfirmed;
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong sendNanos = new AtomicLong();
+	private final AtomicLong maxSendNanos = new AtomicLong();
+	private final AtomicLong confirmed = new AtomicLong();
+	private final AtomicLong confirmNanos = new AtomicLong();
+	private final AtomicLong nacked = new AtomicLong();
+
+	/**
+	 * @param size number of channels.
+	 * @param confirms whether to enable publisher confirms.
+	 * @param maxUnconfirmed maximum number of unconfirmed messages per channel, when confirms are enabled.
+	 */
+	public ChannelPool(Connection connection, int size, boolean confirms, int maxUnconfirmed) throws IOException {
+		if (size<=0) {
+			throw new IllegalArgumentException("size must be positive");
+		}
+		this.confirms = confirms;
+		this.maxUnconfirmed = maxUnconfirmed;
+		this.channels = new PublisherChannel[size];
+		for (int i = 0; i < size; i++) {
+			channels[i] = new PublisherChannel(connection.createChannel());
+		}
+	}
+
+	public void publish(String exchange, String routingKey, BasicProperties props, byte[] body) throws IOException, InterruptedException, TimeoutException {
+		long start = System.nanoTime();
+		PublisherChannel ch = channelFor(exchange, routingKey);
+		ch.lock.lockInterruptibly();
+		try {
+			ch.publish(exchange, routingKey, props, body);
+		} finally {
+			ch.lock.unlock();
+		}
+		long nanos = System.nanoTime() - start;
+		sent.incrementAndGet();
+		sendNanos.addAndGet(nanos);
+		long max = maxSendNanos.get();
+		while (nanos>max && !maxSendNanos.compareAndSet(max, nanos)) {
+			max = maxSendNanos.get();
+		}
+	}
+
+	/**
+	 * Wait until all messages published so far are confirmed by the broker. Returns immediately
+	 * when confirms are not enabled.
+	 *
+	 * @return false if the broker refused some of the messages.
+	 */
+	public boolean waitForConfirms(long timeout) throws InterruptedException, TimeoutException {
+		boolean ok = true;
+		if (confirms) {
+			long deadline = System.currentTimeMillis() + timeout;
+			for (PublisherChannel ch : channels) {
+				ok &= ch.channel.waitForConfirms(Math.max(1, deadline - System.currentTimeMillis()));
+			}
+		}
+		return ok;
+	}
+
+	/**
+	 * The channel that publishes all messages for a destination.
+	 */
+	private PublisherChannel channelFor(String exchange, String routingKey) {
+		int hash = 31 * exchange.hashCode() + routingKey.hashCode();
+		hash ^= (hash >>> 16);
+		return channels[(hash & Integer.MAX_VALUE) % channels.length];
+	}
+
+	public int getSize() {
+		return channels.length;
+	}
+
+	public boolean isConfirmsEnabled() {
+		return confirms;
+	}
+
+	/**
+	 * @return number of messages published.
+	 */
+	public long getSentCount() {
+		return sent.get();
+	}
+
+	/**
+	 * @return mean time in microseconds that a publish took, including waiting for its channel.
+	 */
+	public long getMeanSendLatencyMicros() {
+		long count = sent.get();
+		return count==0 ? 0 : sendNanos.get() / count / 1000;
+	}
+
+	/**
+	 * @return longest time in microseconds that a publish took.
+	 */
+	public long getMaxSendLatencyMicros() {
+		return maxSendNanos.get() / 1000;
+	}
+
+	/**
+	 * @return number of published messages not yet confirmed by the broker.
+	 */
+	public int getInFlightConfirms() {
+		int count = 0;
+		for (PublisherChannel ch : channels) {
+			count += ch.unconfirmedCount.get();
+		}
+		return count;
+	}
+
+	public long getConfirmedCount() {
+		return confirmed.get();
+	}
+
+	/**
+	 * @return number of published messages the broker refused.
+	 */
+	public long getNackedCount() {
+		return nacked.get();
+	}
+
+	/**
+	 * @return mean time in microseconds between publishing a message and the broker confirming it.
+	 */
+	public long getMeanConfirmLatencyMicros() {
+		long count = confirmed.get() + nacked.get();
+		return count==0 ? 0 : confirmNanos.get() / count / 1000;
+	}
+
+	private final class PublisherChannel implements ConfirmListener {
+
+		final Channel channel;
+
+		/**
+		 * Guards publishing on 'channel'.
+		 */
+		final ReentrantLock lock = new ReentrantLock();
+
+		/**
+		 * Publish time of unconfirmed messages, keyed by their sequence number.
+		 */
+		final ConcurrentNavigableMap<Long, Long> unconfirmed = new ConcurrentSkipListMap<Long, Long>();
+
+		/**
+		 * Number of entries in 'unconfirmed', whose size() walks the whole map.
+		 */
+		final AtomicInteger unconfirmedCount = new AtomicInteger();
+
+		PublisherChannel(Channel channel) throws IOException {
+			this.channel = channel;
+			if (confirms) {
+				channel.confirmSelect();
+				channel.addConfirmListener(this);
+			}
+		}
+
+		/**
+		 * Only called while holding 'lock'.
+		 */
+		void publish(String exchange, String routingKey, BasicProperties props, byte[] body) throws IOException, InterruptedException, TimeoutException {
+			if (!confirms) {
+				channel.basicPublish(exchange, routingKey, props, body);
+				return;
+			}
+			if (unconfirmedCount.get()>=maxUnconfirmed) {
+				channel.waitForConfirms(CONFIRM_TIMEOUT);
+			}
+			long seqNo = channel.getNextPublishSeqNo();
+			unconfirmed.put(seqNo, System.nanoTime());
+			unconfirmedCount.incrementAndGet();
+			try {
+				channel.basicPublish(exchange, routingKey, props, body);
+			} catch (IOException e) {
+				if (unconfirmed.remove(seqNo)!=null) {
+					unconfirmedCount.decrementAndGet();
+				}
+				throw e;
+			}
+		}
+
+		@Override
+		public void handleAck(long deliveryTag, boolean multiple) throws IOException {
+			confirmed.addAndGet(confirm(deliveryTag, multiple));
+		}
+
+		@Override
+		public void handleNack(long deliveryTag, boolean multiple) throws IOException {
+			int count = confirm(deliveryTag, multiple);
+			nacked.addAndGet(count);
+			console.log("Broker refused "+count+" published message(s)");
+		}
+
+		/**
+		 * Remove confirmed messages from 'unconfirmed'.
+		 * @return the number of messages removed.
+		 */
+		private int confirm(long deliveryTag, boolean multiple) {
+			long now = System.nanoTime();
+			int count = 0;
+			if (multiple) {
+				ConcurrentNavigableMap<Long, Long> done = unconfirmed.headMap(deliveryTag, true);
+				for (Map.Entry<Long, Long> entry; (entry = done.pollFirstEntry())!=null; ) {
+					confirmNanos.addAndGet(now - entry.getValue());
+					count++;
+				}
+			} else {
+				Long publishTime = unconfirmed.remove(deliveryTag);
+				if (publishTime!=null) {
+					confirmNanos.addAndGet(now - publishTime);
+					count++;
+				}
+			}
+			unconfirmedCount.addAndGet(-count);
+			return count;
+		}
+	}
+
+}
@@ -10,6 +10,7 @@
 *******************************************************************************/
 package org.eclipse.flux.client.impl;
 
+import org.eclipse.flux.client.util.JSON;
 import org.json.JSONObject;
 import static org.eclipse.flux.client.MessageConstants.*;
 
@@ -44,16 +45,37 @@ public abstract class DeliveryType {
 		@Override
 		public void send(RabbitMQMessageConnector connector, String messageType, JSONObject data) throws Exception {
 			String outbox = connector.outbox;
-			data.put(REQUEST_SENDER_ID, connector.inbox);
+			data.put(REQUEST_SENDER_ID, connector.replyInbox(messageType));
+			connector.requestSent(data);
 			//logMsg("rabbit ["+ self.inbox +"] <= ", type, data);
-			connector.channel.basicPublish(outbox, connector.usernameToRoutingKey(data.getString(USERNAME)),
-				null, connector.encode(messageType, data)
+			connector.publish(outbox, connector.routingKey(messageType, data.getString(USERNAME)),
+				messageType, data, null
+			);
+		}
+		
+		@Override
+		public void sendEncoded(RabbitMQMessageConnector connector, String messageType, String username, byte[] json) throws Exception {
+			if (connector.isMultiplexed()) {
+				//The multiplexer needs the callback_id to route the responses.
+				super.sendEncoded(connector, messageType, username, json);
+				return;
+			}
+			connector.publishEncoded(connector.outbox, connector.routingKey(messageType, username),
+				messageType, REQUEST_SENDER_ID, connector.replyInbox(messageType), json
 			);
 		}
 	};
 	
 	public abstract void send(RabbitMQMessageConnector connector, String messageType, JSONObject message) throws Exception;
 
+	/**
+	 * Send a message whose data is JSON text already. By default the data is parsed and sent
+	 * like any other message.
+	 */
+	public void sendEncoded(RabbitMQMessageConnector connector, String messageType, String username, byte[] json) throws Exception {
+		send(connector, messageType, JSON.parse(json));
+	}
+
 	/**
 	 * Broadcast delivery sends a message to all connected MessageConnectors according to the
 	 * user field in the message data (i.e. the message is broadcast within the user's channel.
@@ -63,9 +85,16 @@ public abstract class DeliveryType {
 		@Override
 		public void send(RabbitMQMessageConnector connector, String type, JSONObject data) throws Exception {
 			String outbox = connector.outbox;
-			data.put("senderID", connector.inbox);
-			connector.channel.basicPublish(outbox, connector.usernameToRoutingKey(data.getString(USERNAME)),
-				null, connector.encode(type, data)
+			data.put("senderID", connector.origin);
+			connector.publish(outbox, connector.routingKey(type, data.getString(USERNAME)),
+				type, data, null
+			);
+		}
+		
+		@Override
+		public void sendEncoded(RabbitMQMessageConnector connector, String type, String username, byte[] json) throws Exception {
+			connector.publishEncoded(connector.outbox, connector.routingKey(type, username),
+				type, "senderID", connector.origin, json
 			);
 		}
 	};
@@ -73,17 +102,17 @@ public abstract class DeliveryType {
 	
 	/**
 	 * A response is delivered back directly to the specific MessageConnector from where the corresponding 
-	 * request originated.
+	 * request originated. Responses are routed by a property of their data, so encoded responses are
+	 * parsed to find it.
 	 */
 	public static final DeliveryType RESPONSE = new DeliveryType("RESPONSE") {
 		
 		@Override
 		public void send(RabbitMQMessageConnector connector, String type, JSONObject data) throws Exception {
-			data.put(RESPONSE_SENDER_ID, connector.inbox);
+			data.put(RESPONSE_SENDER_ID, connector.origin);
 			//Deliver directly to inbox of the requester
-			connector.channel.basicPublish("", data.getString(REQUEST_SENDER_ID), null,
-				connector.encode(type, data)
-			);
+			String requester = data.getString(REQUEST_SENDER_ID);
+			connector.publish("", requester, type, data, requester);
 		};
 	};
 	
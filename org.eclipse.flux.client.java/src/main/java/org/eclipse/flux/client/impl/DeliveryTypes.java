@@ -10,8 +10,8 @@
 *******************************************************************************/
 package org.eclipse.flux.client.impl;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.flux.client.util.Assert;
 
@@ -26,15 +26,21 @@ public class DeliveryTypes {
 	 * Caches the already computed delivery type mappings. Can also be
 	 * used to explicitly register a delivery type for a given messageType
 	 * (in case the computedDefault is not what is wanted).
+	 * <p>
+	 * Looked up for every message sent, so it is read without locking.
 	 */
-	private Map<String, DeliveryType> map = new HashMap<>();
+	private ConcurrentMap<String, DeliveryType> map = new ConcurrentHashMap<>();
 	
-	public synchronized DeliveryType get(String messageType) {
+	public DeliveryType get(String messageType) {
 		DeliveryType dt = map.get(messageType);
 		if (dt==null) {
 			dt = computeDefault(messageType);
 			if (dt!=null) {
-				map.put(messageType, dt);
+				//An explicit registration that raced with us wins over the default.
+				DeliveryType existing = map.putIfAbsent(messageType, dt);
+				if (existing!=null) {
+					dt = existing;
+				}
 			}
 		}
 		Assert.assertTrue(dt!=null);
@@ -50,7 +56,7 @@ public class DeliveryTypes {
 		return DeliveryType.BROADCAST;
 	}
 	
-	public synchronized DeliveryTypes put(String messageType, DeliveryType deliveryType) {
+	public DeliveryTypes put(String messageType, DeliveryType deliveryType) {
 		this.map.put(messageType, deliveryType);
 		return this;
 	}
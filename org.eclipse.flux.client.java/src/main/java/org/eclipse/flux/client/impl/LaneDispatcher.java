@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import static org.eclipse.flux.client.MessageConstants.PROJECT_NAME;
+import static org.eclipse.flux.client.MessageConstants.USERNAME;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.flux.client.MessageDispatcher;
+import org.json.JSONObject;
+
+/**
+ * Dispatcher that keeps messages about the same resource in order.
+ * <p>
+ * Messages are assigned to one of a fixed number of 'lanes' by hashing their
+ * (username, project, resource) properties. The tasks in a lane run one at a
+ * time in the order they were dispatched, while different lanes run in parallel
+ * on the shared executor. So, for example, two 'liveResourceChanged' messages
+ * for the same file are always handled in order, but edits to different files
+ * do not wait for each other.
+ * <p>
+ * Messages that have none of these properties are not ordered and go straight
+ * to the executor. Note that a message about a project as a whole (no 'resource')
+ * lands in a different lane than the messages about the resources in that project,
+ * so it is not ordered with respect to them.
+ */
+public class LaneDispatcher implements MessageDispatcher {
+
+	private static final String RESOURCE = "resource";
+
+	/**
+	 * Maximum number of tasks a lane runs before giving its thread back to the
+	 * executor, so that one busy lane can not starve the others.
+	 */
+	private static final int MAX_BATCH = 64;
+
+	private final Executor executor;
+	private final Lane[] lanes;
+	private final int mask;
+	private final AtomicInteger unordered = new AtomicInteger();
+
+	/**
+	 * @param laneCount number of lanes, rounded up to a power of two.
+	 */
+	public LaneDispatcher(Executor executor, int laneCount) {
+		if (laneCount<=0) {
+			throw new IllegalArgumentException("laneCount must be positive");
+		}
+		int size = Integer.highestOneBit(laneCount);
+		if (size<laneCount) {
+			size = size<<1;
+		}
+		this.executor = executor;
+		this.lanes = new Lane[size];
+		for (int i = 0; i < size; i++) {
+			lanes[i] = new Lane();
+		}
+		this.mask = size - 1;
+	}
+
+	@Override
+	public boolean dispatch(String messageType, JSONObject message, final Runnable task) {
+		String username = message.optString(USERNAME, null);
+		String project = message.optString(PROJECT_NAME, null);
+		String resource = message.optString(RESOURCE, null);
+		if (username==null && project==null && resource==null) {
+			unordered.incrementAndGet();
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							task.run();
+						} finally {
+							unordered.decrementAndGet();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				unordered.decrementAndGet();
+				return false;
+			}
+			return true;
+		} else {
+			return lanes[laneIndex(username, project, resource)].execute(task);
+		}
+	}
+
+	private int laneIndex(String username, String project, String resource) {
+		int h = hash(username);
+		h = 31*h + hash(project);
+		h = 31*h + hash(resource);
+		//Spread high bits down, since only the low bits are used to pick a lane.
+		h ^= (h >>> 16);
+		return h & mask;
+	}
+
+	private static int hash(String s) {
+		return s==null ? 0 : s.hashCode();
+	}
+
+	public int getLaneCount() {
+		return lanes.length;
+	}
+
+	/**
+	 * @return number of tasks waiting in or being run by the given lane.
+	 */
+	public int getLaneDepth(int lane) {
+		return lanes[lane].depth.get();
+	}
+
+	/**
+	 * @return the depth of every lane, indexed by lane.
+	 */
+	public int[] getLaneDepths() {
+		int[] depths = new int[lanes.length];
+		for (int i = 0; i < depths.length; i++) {
+			depths[i] = lanes[i].depth.get();
+		}
+		return depths;
+	}
+
+	@Override
+	public int getQueueDepth() {
+		int depth = unordered.get();
+		for (Lane lane : lanes) {
+			depth += lane.depth.get();
+		}
+		return depth;
+	}
+
+	/**
+	 * A serial executor. At most one task of a lane is submitted to the
+	 * underlying executor at any time.
+	 */
+	private final class Lane implements Runnable {
+
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+		/**
+		 * Number of tasks added and not yet completed. The lane is scheduled on
+		 * the executor whenever this goes from 0 to 1.
+		 */
+		private final AtomicInteger depth = new AtomicInteger();
+
+		/**
+		 * @return false if the executor rejected the lane, the task is dropped then. Tasks other
+		 *         threads added to the lane meanwhile were accepted already, so they are run by
+		 *         the calling thread instead.
+		 */
+		boolean execute(Runnable task) {
+			tasks.add(task);
+			if (depth.getAndIncrement()==0) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					//The lane was empty, so the task is the first one.
+					tasks.poll();
+					if (depth.decrementAndGet()>0) {
+						run();
+					}
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void run() {
+			for (int ran = 1; ; ran++) {
+				Runnable task = tasks.poll();
+				try {
+					task.run();
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+				if (depth.decrementAndGet()==0) {
+					return;
+				}
+				if (ran>=MAX_BATCH) {
+					try {
+						executor.execute(this);
+						return;
+					} catch (RejectedExecutionException e) {
+						//The tasks were dispatched already, so keep running them on this thread.
+						ran = 0;
+					}
+				}
+			}
+		}
+	}
+
+}
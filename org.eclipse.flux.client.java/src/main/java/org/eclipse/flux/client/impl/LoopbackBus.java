@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes messages between {@link LoopbackMessageConnector}s in the same JVM. Plays
+ * the role the 'flux' topic exchange plays for RabbitMQ: connectors bind to routing
+ * keys (user names, {@link #EVERYONE} or {@link #ANY}) and messages are routed on the
+ * user name they are about.
+ */
+public class LoopbackBus {
+
+	/**
+	 * Routing key of messages for all users.
+	 */
+	static final String EVERYONE = "$all$";
+
+	/**
+	 * Binding that matches every routing key.
+	 */
+	static final String ANY = "*";
+
+	/**
+	 * Bus shared by loopback connectors that do not ask for a bus of their own.
+	 */
+	public static final LoopbackBus DEFAULT = new LoopbackBus();
+
+	private final AtomicInteger nextId = new AtomicInteger();
+	private final ConcurrentMap<String, LoopbackMessageConnector> connectors = new ConcurrentHashMap<String, LoopbackMessageConnector>();
+	private final ConcurrentMap<String, Set<LoopbackMessageConnector>> bindings = new ConcurrentHashMap<String, Set<LoopbackMessageConnector>>();
+
+	/**
+	 * @return an id for the connector, unique on this bus. Responses are addressed to it.
+	 */
+	String register(LoopbackMessageConnector connector) {
+		String id = "loopback-" + nextId.incrementAndGet();
+		connectors.put(id, connector);
+		return id;
+	}
+
+	void unregister(String id) {
+		LoopbackMessageConnector connector = connectors.remove(id);
+		if (connector!=null) {
+			for (Set<LoopbackMessageConnector> bound : bindings.values()) {
+				bound.remove(connector);
+			}
+		}
+	}
+
+	void bind(LoopbackMessageConnector connector, String key) {
+		Set<LoopbackMessageConnector> bound = bindings.get(key);
+		if (bound==null) {
+			Set<LoopbackMessageConnector> created = Collections.newSetFromMap(new ConcurrentHashMap<LoopbackMessageConnector, Boolean>());
+			bound = bindings.putIfAbsent(key, created);
+			if (bound==null) {
+				bound = created;
+			}
+		}
+		bound.add(connector);
+	}
+
+	void unbind(LoopbackMessageConnector connector, String key) {
+		Set<LoopbackMessageConnector> bound = bindings.get(key);
+		if (bound!=null) {
+			bound.remove(connector);
+		}
+	}
+
+	/**
+	 * @return the connectors that receive messages with the given routing key. Like an AMQP
+	 *         queue bound several times, a connector is included only once.
+	 */
+	Collection<LoopbackMessageConnector> route(String key) {
+		Set<LoopbackMessageConnector> direct = bindings.get(key);
+		Set<LoopbackMessageConnector> any = bindings.get(ANY);
+		if (any==null || any.isEmpty()) {
+			return direct==null ? Collections.<LoopbackMessageConnector>emptySet() : direct;
+		}
+		Set<LoopbackMessageConnector> all = new LinkedHashSet<LoopbackMessageConnector>(any);
+		if (direct!=null) {
+			all.addAll(direct);
+		}
+		return all;
+	}
+
+	LoopbackMessageConnector get(String id) {
+		return connectors.get(id);
+	}
+
+}
@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import static org.eclipse.flux.client.MessageConstants.REQUEST_SENDER_ID;
+import static org.eclipse.flux.client.MessageConstants.RESPONSE_SENDER_ID;
+import static org.eclipse.flux.client.MessageConstants.USERNAME;
+
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.flux.client.FluxClient;
+import org.eclipse.flux.client.MessageConstants;
+import org.eclipse.flux.client.config.FluxConfig;
+import org.eclipse.flux.client.config.LoopbackFluxConfig;
+import org.eclipse.flux.client.config.UserPermissions;
+import org.eclipse.flux.client.util.JSON;
+import org.json.JSONObject;
+
+/**
+ * MessageConnector that delivers messages to other connectors in the same JVM, through
+ * a {@link LoopbackBus}, without serializing them.
+ * <p>
+ * Delivery follows the same rules as the RabbitMQ connector (see {@link DeliveryType}):
+ * requests and broadcasts go to every connector connected to the channel of the user
+ * in the message, responses go straight back to the connector that sent the request,
+ * and messages are never delivered back to the connector that sent them.
+ * <p>
+ * Every recipient gets its own copy of a message, so neither the sender nor other
+ * recipients see changes a handler makes to it.
+ * <p>
+ * Like a broker queue, every connector has an inbox that takes the messages sent to it
+ * and hands them to its dispatcher one at a time, in the order they were sent, on a thread
+ * of the client's executor. Senders never run the recipient's dispatcher themselves, so a
+ * handler that sends does not wait on a full dispatcher, not even its own.
+ */
+public class LoopbackMessageConnector extends AbstractMessageConnector {
+
+	private final LoopbackFluxConfig conf;
+	private final LoopbackBus bus;
+	private final UserPermissions permissions;
+	private final String id;
+	private final Inbox inbox = new Inbox();
+
+	private DeliveryTypes deliveryTypes = DeliveryTypes.DEFAULTS;
+
+	private final Set<String> connectedChannels = new HashSet<String>();
+	private boolean disconnected = false;
+
+	/**
+	 * Guards 'connectedChannels' and 'disconnected'.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	public LoopbackMessageConnector(FluxClient client, LoopbackFluxConfig conf) {
+		super(client);
+		this.conf = conf;
+		this.bus = conf.getBus();
+		this.permissions = conf.permissions();
+		this.id = bus.register(this);
+		bus.bind(this, LoopbackBus.EVERYONE);
+		connectionStatus.setValue(connectionStatus.getValue().connect());
+	}
+
+	@Override
+	public void send(String messageType, JSONObject message) throws Exception {
+		if (metrics!=null) {
+			metrics.sent(messageType, -1);
+		}
+		DeliveryType deliveryType = deliveryTypes.get(messageType);
+		if (deliveryType==DeliveryType.RESPONSE) {
+			message.put(RESPONSE_SENDER_ID, id);
+			LoopbackMessageConnector requester = bus.get(message.getString(REQUEST_SENDER_ID));
+			if (requester!=null && requester!=this) {
+				requester.inbox.deliver(messageType, JSON.copy(message));
+			}
+			return;
+		}
+		if (deliveryType==DeliveryType.REQUEST) {
+			message.put(REQUEST_SENDER_ID, id);
+		} else {
+			message.put("senderID", id);
+		}
+		for (LoopbackMessageConnector recipient : bus.route(usernameToRoutingKey(message.getString(USERNAME)))) {
+			if (recipient!=this) {
+				recipient.inbox.deliver(messageType, JSON.copy(message));
+			}
+		}
+	}
+
+	private static String usernameToRoutingKey(String name) {
+		if (name.equals("*")) {
+			return LoopbackBus.EVERYONE;
+		}
+		return name;
+	}
+
+	private static String channelToBinding(String channel) {
+		if (channel.equals(MessageConstants.SUPER_USER)) {
+			return LoopbackBus.ANY;
+		}
+		return channel;
+	}
+
+	@Override
+	@Deprecated
+	public void connectToChannel(final String channel) {
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					connectToChannelSync(channel);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	@Override
+	public void connectToChannelSync(String channel) throws Exception {
+		boolean notifyNeeded = false;
+		lock.lock();
+		try {
+			if (!disconnected && !connectedChannels.contains(channel)) {
+				permissions.checkChannelJoin(channel);
+				bus.bind(this, channelToBinding(channel));
+				connectedChannels.add(channel);
+				notifyNeeded = true;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (notifyNeeded) {
+			notifyChannelConnected(channel);
+		}
+	}
+
+	@Override
+	public void disconnectFromChannel(final String channel) {
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					disconnectFromChannelSync(channel);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	@Override
+	public void disconnectFromChannelSync(String channel) throws Exception {
+		boolean notifyNeeded = false;
+		lock.lock();
+		try {
+			if (connectedChannels.remove(channel)) {
+				bus.unbind(this, channelToBinding(channel));
+				notifyNeeded = true;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (notifyNeeded) {
+			notifyChannelDisconnected(channel);
+		}
+	}
+
+	@Override
+	public boolean isConnected(String channel) {
+		lock.lock();
+		try {
+			return connectedChannels.contains(channel);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void disconnect() {
+		lock.lock();
+		try {
+			if (disconnected) {
+				return;
+			}
+			disconnected = true;
+			connectedChannels.clear();
+			bus.unregister(id);
+		} finally {
+			lock.unlock();
+		}
+		connectionStatus.setValue(connectionStatus.getValue().close());
+	}
+
+	@Override
+	public boolean isConnected() {
+		lock.lock();
+		try {
+			return !disconnected;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public FluxConfig getConfig() {
+		return conf;
+	}
+
+	/**
+	 * A serial executor for the messages sent to this connector. At most one drain of the
+	 * inbox is submitted to the executor at any time.
+	 */
+	private final class Inbox implements Runnable {
+
+		private final Queue<Delivery> messages = new ConcurrentLinkedQueue<Delivery>();
+
+		/**
+		 * Number of messages added and not yet handed to the dispatcher. The inbox is scheduled
+		 * on the executor whenever this goes from 0 to 1.
+		 */
+		private final AtomicInteger depth = new AtomicInteger();
+
+		void deliver(String messageType, JSONObject message) {
+			messages.add(new Delivery(messageType, message));
+			if (depth.getAndIncrement()==0) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					//The recipient's client is shut down, so are its handlers.
+					do {
+						messages.poll();
+					} while (depth.decrementAndGet()>0);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			do {
+				Delivery next = messages.poll();
+				try {
+					handleIncomingMessage(next.messageType, next.message);
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+			} while (depth.decrementAndGet()>0);
+		}
+	}
+
+	private static final class Delivery {
+		final String messageType;
+		final JSONObject message;
+
+		Delivery(String messageType, JSONObject message) {
+			this.messageType = messageType;
+			this.message = message;
+		}
+	}
+
+}
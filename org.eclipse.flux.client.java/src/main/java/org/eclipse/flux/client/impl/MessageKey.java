@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import static org.eclipse.flux.client.MessageConstants.PROJECT_NAME;
+import static org.eclipse.flux.client.MessageConstants.USERNAME;
+
+import org.json.JSONObject;
+
+/**
+ * Identifies what a message is about: a newer message with the same key supersedes an older one,
+ * e.g. two 'resourceChanged' messages for the same resource.
+ */
+final class MessageKey {
+	final String messageType;
+	final String username;
+	final String project;
+	final String resource;
+
+	MessageKey(String messageType, JSONObject message) {
+		this.messageType = messageType;
+		this.username = message.optString(USERNAME, null);
+		this.project = message.optString(PROJECT_NAME, null);
+		this.resource = message.optString("resource", null);
+	}
+
+	/**
+	 * @return a key for what a message is about whatever its type, the same grouping
+	 *         {@link LaneDispatcher} orders messages by. Null if the message is not about
+	 *         any user, project or resource.
+	 */
+	static MessageKey ofResource(JSONObject message) {
+		MessageKey key = new MessageKey("", message);
+		if (key.username==null && key.project==null && key.resource==null) {
+			return null;
+		}
+		return key;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = messageType.hashCode();
+		h = 31*h + (username==null ? 0 : username.hashCode());
+		h = 31*h + (project==null ? 0 : project.hashCode());
+		h = 31*h + (resource==null ? 0 : resource.hashCode());
+		return h;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof MessageKey)) {
+			return false;
+		}
+		MessageKey other = (MessageKey) obj;
+		return messageType.equals(other.messageType)
+				&& equal(username, other.username)
+				&& equal(project, other.project)
+				&& equal(resource, other.resource);
+	}
+
+	private static boolean equal(String a, String b) {
+		return a==null ? b==null : a.equals(b);
+	}
+}
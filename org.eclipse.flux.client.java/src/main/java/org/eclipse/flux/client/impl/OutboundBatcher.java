@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.flux.client.util.Console;
+
+/**
+ * Groups encoded messages sent to the same destination within a short time window
+ * into a single frame, so that a burst of small messages (e.g. the 'resourceChanged'
+ * and 'resourceStored' pair for every file during a sync, or 'liveResourceChanged'
+ * while typing) costs one publish instead of many.
+ * <p>
+ * A batch is sent when its window ends or when it reaches the byte limit, whichever
+ * comes first. A batch holding a single message is sent as an ordinary message.
+ * Messages to the same destination stay in order: a batch keeps sending for its
+ * destination as long as messages keep coming, and is only replaced by a new one
+ * after a window in which nothing was sent, so two batches never send for the same
+ * destination at the same time. Messages of another content type than those waiting
+ * send the waiting ones first, and a batch is only compressed if all its messages may be.
+ * <p>
+ * When sending at the end of a window fails there is no sender to tell. The failure
+ * is thrown instead by the next {@link #add} for the same destination.
+ * <p>
+ * Frame format: a sequence of entries, each being the message type (as written by
+ * {@link DataOutputStream#writeUTF(String)}), a 4 byte length and the encoded message.
+ * The type is repeated outside the encoded message so the receiver can skip entries
+ * without decoding them.
+ */
+public class OutboundBatcher {
+
+	private static Console console = Console.get(OutboundBatcher.class.getName());
+
+	/**
+	 * Sends batches on behalf of the batcher.
+	 */
+	public interface Sink {
+		void sendOne(String exchange, String routingKey, String contentType, boolean compressible, String messageType, byte[] message) throws Exception;
+		void sendBatch(String exchange, String routingKey, String contentType, boolean compressible, int count, byte[] frame) throws Exception;
+	}
+
+	private final Sink sink;
+	private final long window;
+	private final int maxBytes;
+	private final ScheduledExecutorService scheduler;
+	private final ConcurrentMap<String, Batch> batches = new ConcurrentHashMap<String, Batch>();
+
+	/**
+	 * Failures of sends at the end of a window, not yet reported to a sender.
+	 */
+	private final ConcurrentMap<String, IOException> failures = new ConcurrentHashMap<String, IOException>();
+
+	/**
+	 * @param window time in milliseconds a message may wait for others to join its batch.
+	 * @param maxBytes size at which a batch is sent without waiting for the end of its window.
+	 */
+	public OutboundBatcher(Sink sink, long window, int maxBytes) {
+		if (window<=0 || maxBytes<=0) {
+			throw new IllegalArgumentException("window and maxBytes must be positive");
+		}
+		this.sink = sink;
+		this.window = window;
+		this.maxBytes = maxBytes;
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "flux-batch-flush");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		scheduler.setRemoveOnCancelPolicy(true);
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * @param compressible whether the recipients can decompress payloads.
+	 * @throws IOException if earlier messages to the same destination could not be sent at the
+	 *         end of their window. The message is not added then.
+	 */
+	public void add(String exchange, String routingKey, String contentType, boolean compressible, String messageType, byte[] message) throws Exception {
+		String key = exchange + '\0' + routingKey;
+		IOException failure = failures.remove(key);
+		if (failure!=null) {
+			throw failure;
+		}
+		while (true) {
+			Batch batch = batches.get(key);
+			if (batch==null) {
+				Batch created = new Batch(key, exchange, routingKey);
+				batch = batches.putIfAbsent(key, created);
+				if (batch==null) {
+					batch = created;
+					batch.schedule();
+				}
+			}
+			if (batch.add(contentType, compressible, messageType, message)) {
+				return;
+			}
+			//Batch was closed by its timer just now. Retry with a new one.
+		}
+	}
+
+	/**
+	 * Send all pending batches now and stop the timer thread.
+	 */
+	public void close() {
+		for (Batch batch : batches.values()) {
+			batch.close();
+		}
+		scheduler.shutdown();
+		for (IOException failure : failures.values()) {
+			console.log(failure);
+		}
+		failures.clear();
+	}
+
+	/**
+	 * Split a frame created by a batcher into its entries.
+	 */
+	public static List<Entry> unpack(byte[] frame) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+		List<Entry> entries = new ArrayList<Entry>();
+		while (in.available()>0) {
+			String messageType = in.readUTF();
+			byte[] message = new byte[in.readInt()];
+			in.readFully(message);
+			entries.add(new Entry(messageType, message));
+		}
+		return entries;
+	}
+
+	public static final class Entry {
+		public final String messageType;
+		public final byte[] message;
+
+		Entry(String messageType, byte[] message) {
+			this.messageType = messageType;
+			this.message = message;
+		}
+	}
+
+	private final class Batch implements Runnable {
+
+		private final String key;
+		private final String exchange;
+		private final String routingKey;
+
+		/**
+		 * Guards all fields below. Publishing happens while holding it, so that batches
+		 * to the same destination go out in order.
+		 */
+		private final ReentrantLock lock = new ReentrantLock();
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private DataOutputStream out = new DataOutputStream(bytes);
+		private int count = 0;
+		private String contentType;
+		private boolean compressible;
+		private String firstType;
+		private byte[] firstMessage;
+		private boolean closed = false;
+
+		Batch(String key, String exchange, String routingKey) {
+			this.key = key;
+			this.exchange = exchange;
+			this.routingKey = routingKey;
+		}
+
+		void schedule() {
+			scheduler.schedule(this, window, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * @return false if this batch is closed and the message was not added.
+		 */
+		boolean add(String contentType, boolean compressible, String messageType, byte[] message) throws Exception {
+			lock.lock();
+			try {
+				if (closed) {
+					return false;
+				}
+				if (count>0 && !contentType.equals(this.contentType)) {
+					send();
+				}
+				if (count==0) {
+					this.contentType = contentType;
+					this.compressible = compressible;
+					firstType = messageType;
+					firstMessage = message;
+				} else {
+					this.compressible &= compressible;
+				}
+				out.writeUTF(messageType);
+				out.writeInt(message.length);
+				out.write(message);
+				count++;
+				if (bytes.size()>=maxBytes) {
+					send();
+				}
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Called by the timer at the end of the window. Sends what was added during the window
+		 * and starts the next one, or closes the batch if nothing was added.
+		 */
+		@Override
+		public void run() {
+			lock.lock();
+			try {
+				if (closed) {
+					return;
+				}
+				if (count==0) {
+					closed = true;
+					batches.remove(key, this);
+					return;
+				}
+				int sending = count;
+				try {
+					send();
+				} catch (Exception e) {
+					failures.put(key, new IOException(sending+" message(s) to '"+routingKey+"' could not be sent", e));
+				}
+				schedule();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void close() {
+			lock.lock();
+			try {
+				if (!closed) {
+					closed = true;
+					batches.remove(key, this);
+					send();
+				}
+			} catch (Exception e) {
+				console.log(e);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void send() throws Exception {
+			if (count==0) {
+				return;
+			}
+			try {
+				if (count==1) {
+					sink.sendOne(exchange, routingKey, contentType, compressible, firstType, firstMessage);
+				} else {
+					sink.sendBatch(exchange, routingKey, contentType, compressible, count, bytes.toByteArray());
+				}
+			} finally {
+				bytes = new ByteArrayOutputStream();
+				out = new DataOutputStream(bytes);
+				count = 0;
+				firstType = null;
+				firstMessage = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONObject;
+
+/**
+ * Holds messages sent while a connector is disconnected, so they can be sent once it
+ * is connected again.
+ * <p>
+ * Messages are kept in the order they were sent. A message of a supersedable type
+ * replaces an older buffered message about the same thing (see {@link MessageKey}),
+ * and takes its place at the end, behind anything sent in between. When the buffer
+ * is full the oldest message is dropped.
+ * <p>
+ * Not thread safe: the connector guards it with its own lock.
+ */
+public class OutboundBuffer {
+
+	private final int capacity;
+	private final Set<String> supersedableTypes;
+
+	/**
+	 * Keyed by {@link MessageKey} for supersedable messages, and by a unique
+	 * object for all others.
+	 */
+	private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>();
+
+	private long coalesced = 0;
+	private long dropped = 0;
+
+	public OutboundBuffer(int capacity, Collection<String> supersedableTypes) {
+		if (capacity<=0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.supersedableTypes = new HashSet<String>(supersedableTypes);
+	}
+
+	public void add(String messageType, JSONObject message) {
+		Object key = supersedableTypes.contains(messageType) ? new MessageKey(messageType, message) : new Object();
+		if (entries.remove(key)!=null) {
+			coalesced++;
+		}
+		entries.put(key, new Entry(key, messageType, message));
+		trim();
+	}
+
+	/**
+	 * Put back drained messages that could not be sent, ahead of the messages added since.
+	 * Those that were superseded in the meantime are dropped.
+	 */
+	public void requeue(List<Entry> older) {
+		LinkedHashMap<Object, Entry> merged = new LinkedHashMap<Object, Entry>();
+		for (Entry entry : older) {
+			if (entries.containsKey(entry.key)) {
+				coalesced++;
+			} else {
+				merged.put(entry.key, entry);
+			}
+		}
+		merged.putAll(entries);
+		entries.clear();
+		entries.putAll(merged);
+		trim();
+	}
+
+	private void trim() {
+		Iterator<Entry> oldest = entries.values().iterator();
+		while (entries.size()>capacity) {
+			oldest.next();
+			oldest.remove();
+			dropped++;
+		}
+	}
+
+	/**
+	 * Remove and return all buffered messages, oldest first.
+	 */
+	public List<Entry> drain() {
+		List<Entry> drained = new ArrayList<Entry>(entries.values());
+		entries.clear();
+		return drained;
+	}
+
+	public boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return number of messages replaced by a newer message about the same thing.
+	 */
+	public long getCoalescedCount() {
+		return coalesced;
+	}
+
+	/**
+	 * @return number of messages lost because the buffer was full.
+	 */
+	public long getDroppedCount() {
+		return dropped;
+	}
+
+	public static final class Entry {
+		private final Object key;
+		public final String messageType;
+		public final JSONObject message;
+
+		Entry(Object key, String messageType, JSONObject message) {
+			this.key = key;
+			this.messageType = messageType;
+			this.message = message;
+		}
+	}
+
+}
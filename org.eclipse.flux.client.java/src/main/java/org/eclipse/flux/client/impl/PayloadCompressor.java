@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of message payloads above a size threshold, with statistics
+ * per message type about how much was saved.
+ * <p>
+ * Deflaters and inflaters hold native memory and are costly to create, so a few of
+ * them are kept for reuse.
+ */
+public class PayloadCompressor {
+
+	/**
+	 * Content encoding of compressed payloads.
+	 */
+	public static final String DEFLATE = "deflate";
+
+	private static final int POOL_SIZE = 8;
+
+	private static final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+	private static final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+
+	private final int threshold;
+	private final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<String, Stats>();
+
+	/**
+	 * @param threshold payloads smaller than this many bytes are not compressed.
+	 */
+	public PayloadCompressor(int threshold) {
+		if (threshold<=0) {
+			throw new IllegalArgumentException("threshold must be positive");
+		}
+		this.threshold = threshold;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Compress a payload if it is large enough and compression makes it smaller.
+	 *
+	 * @param messageType key under which to record the sizes. Payloads sent as is are recorded
+	 *        too, so that the statistics of a type show what compression saved on all of them.
+	 * @return the compressed payload or null if it should be sent as is.
+	 */
+	public byte[] compress(String messageType, byte[] payload) {
+		if (payload.length<threshold) {
+			stats(messageType).record(payload.length, null);
+			return null;
+		}
+		Deflater deflater = deflaters.poll();
+		if (deflater==null) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+		}
+		byte[] compressed;
+		try {
+			deflater.setInput(payload);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 4);
+			byte[] buf = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buf, 0, deflater.deflate(buf));
+			}
+			compressed = out.toByteArray();
+		} finally {
+			release(deflater);
+		}
+		if (compressed.length>=payload.length) {
+			compressed = null;
+		}
+		stats(messageType).record(payload.length, compressed);
+		return compressed;
+	}
+
+	private Stats stats(String messageType) {
+		Stats s = stats.get(messageType);
+		if (s==null) {
+			Stats created = new Stats();
+			s = stats.putIfAbsent(messageType, created);
+			if (s==null) {
+				s = created;
+			}
+		}
+		return s;
+	}
+
+	public static byte[] decompress(byte[] compressed) throws DataFormatException {
+		Inflater inflater = inflaters.poll();
+		if (inflater==null) {
+			inflater = new Inflater();
+		}
+		try {
+			inflater.setInput(compressed);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+			byte[] buf = new byte[8192];
+			while (!inflater.finished()) {
+				int n = inflater.inflate(buf);
+				if (n==0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new DataFormatException("Truncated deflate payload");
+				}
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			release(inflater);
+		}
+	}
+
+	private static void release(Deflater deflater) {
+		deflater.reset();
+		if (deflaters.size()<POOL_SIZE) {
+			deflaters.add(deflater);
+		} else {
+			deflater.end();
+		}
+	}
+
+	private static void release(Inflater inflater) {
+		inflater.reset();
+		if (inflaters.size()<POOL_SIZE) {
+			inflaters.add(inflater);
+		} else {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * @return statistics about the messages passed to {@link #compress}, keyed by message type.
+	 */
+	public Map<String, Stats> getStats() {
+		return Collections.<String, Stats>unmodifiableMap(stats);
+	}
+
+	public static final class Stats {
+		private final AtomicLong messages = new AtomicLong();
+		private final AtomicLong compressedMessages = new AtomicLong();
+		private final AtomicLong uncompressedBytes = new AtomicLong();
+		private final AtomicLong compressedBytes = new AtomicLong();
+
+		/**
+		 * @param compressed the compressed payload, or null if the payload is sent as is.
+		 */
+		private void record(int payloadLength, byte[] compressed) {
+			messages.incrementAndGet();
+			uncompressedBytes.addAndGet(payloadLength);
+			if (compressed==null) {
+				compressedBytes.addAndGet(payloadLength);
+			} else {
+				compressedMessages.incrementAndGet();
+				compressedBytes.addAndGet(compressed.length);
+			}
+		}
+
+		/**
+		 * @return number of messages sent, compressed or not.
+		 */
+		public long getMessages() {
+			return messages.get();
+		}
+
+		/**
+		 * @return number of messages that were sent compressed.
+		 */
+		public long getCompressedMessages() {
+			return compressedMessages.get();
+		}
+
+		/**
+		 * @return size of the payloads before compression.
+		 */
+		public long getUncompressedBytes() {
+			return uncompressedBytes.get();
+		}
+
+		/**
+		 * @return size of the payloads as sent, which is the uncompressed size for payloads sent as is.
+		 */
+		public long getCompressedBytes() {
+			return compressedBytes.get();
+		}
+
+		@Override
+		public String toString() {
+			return "Stats(messages="+getMessages()+", compressed="+getCompressedMessages()+", "+getUncompressedBytes()+" -> "+getCompressedBytes()+" bytes)";
+		}
+	}
+
+}
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import org.eclipse.flux.client.MessageDispatcher;
+import org.eclipse.flux.client.MessagePriorities;
+import org.eclipse.flux.client.MessagePriority;
+import org.json.JSONObject;
+
+/**
+ * Dispatcher that sends interactive messages (see {@link MessagePriorities}) to a
+ * dispatcher of their own, normally one running on its own threads. This way a flood
+ * of other messages can neither block the threads interactive messages run on, nor
+ * make them wait for room in a {@link BoundedDispatcher}.
+ */
+public class PriorityDispatcher implements MessageDispatcher {
+
+	private final MessagePriorities priorities;
+	private final MessageDispatcher interactive;
+	private final MessageDispatcher others;
+
+	public PriorityDispatcher(MessagePriorities priorities, MessageDispatcher interactive, MessageDispatcher others) {
+		this.priorities = priorities;
+		this.interactive = interactive;
+		this.others = others;
+	}
+
+	@Override
+	public boolean dispatch(String messageType, JSONObject message, Runnable task) {
+		if (priorities.get(messageType)==MessagePriority.INTERACTIVE) {
+			return interactive.dispatch(messageType, message, task);
+		}
+		return others.dispatch(messageType, message, task);
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return interactive.getQueueDepth() + others.getQueueDepth();
+	}
+
+	/**
+	 * @return number of interactive messages that have not yet been handled.
+	 */
+	public int getInteractiveQueueDepth() {
+		return interactive.getQueueDepth();
+	}
+
+}
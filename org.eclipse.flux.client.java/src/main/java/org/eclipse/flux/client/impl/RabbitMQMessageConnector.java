@@ -10,19 +10,33 @@
  *******************************************************************************/
 package org.eclipse.flux.client.impl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.flux.client.FluxClient;
 import org.eclipse.flux.client.MessageConstants;
+import org.eclipse.flux.client.MessagePriorities;
+import org.eclipse.flux.client.MessagePriority;
+import org.eclipse.flux.client.codec.EncodeBuffer;
+import org.eclipse.flux.client.codec.MessageCodec;
+import org.eclipse.flux.client.codec.MessageCodecs;
 import org.eclipse.flux.client.config.FluxConfig;
 import org.eclipse.flux.client.config.RabbitMQFluxConfig;
 import org.eclipse.flux.client.config.UserPermissions;
+import org.eclipse.flux.client.metrics.MessageMetrics;
 import org.eclipse.flux.client.util.Console;
-import org.eclipse.flux.client.util.JSON;
+import org.eclipse.flux.client.util.HashedWheelTimer;
 import org.json.JSONObject;
 
 import com.rabbitmq.client.AMQP.BasicProperties;
@@ -49,7 +63,61 @@ public class RabbitMQMessageConnector extends AbstractMessageConnector {
 	 * Special user name routing key to deliver messages to all users.
 	 * This name is internal only, client code uses '*' in username.
 	 */
-	private static final String EVERYONE = "$all$";
+	static final String EVERYONE = "$all$";
+
+	/**
+	 * Message header in which a sender lists the content types it can decode.
+	 */
+	static final String ACCEPT_HEADER = "x-flux-accept";
+
+	/**
+	 * Message header in which a sender lists the content encodings (compression) it can decode.
+	 */
+	static final String ACCEPT_ENCODING_HEADER = "x-flux-accept-encoding";
+
+	/**
+	 * Statistics key for compressed batches, which hold messages of several types.
+	 */
+	private static final String BATCH_STATS = "batch";
+
+	/**
+	 * Message headers repeating the message's type and origin, so that a receiver can
+	 * decide whether it wants a message without decoding its body.
+	 */
+	static final String TYPE_HEADER = "x-flux-type";
+	static final String ORIGIN_HEADER = "x-flux-origin";
+
+	/**
+	 * Added to the routing key of interactive messages when priority routing is enabled.
+	 * Flux channel names can not contain a '.', so this can not clash with a channel.
+	 */
+	private static final String INTERACTIVE_SUFFIX = ".interactive";
+
+	/**
+	 * Header marking a frame holding several messages, see {@link OutboundBatcher}. Its
+	 * value is the number of messages.
+	 */
+	static final String BATCH_HEADER = "x-flux-batch";
+
+	/**
+	 * Maximum number of peers for which we remember what content types they accept.
+	 */
+	private static final int MAX_KNOWN_PEERS = 1024;
+
+	/**
+	 * Maximum number of message types per content type for which publish properties are cached.
+	 */
+	private static final int MAX_CACHED_PROPERTIES = 256;
+
+	/**
+	 * Envelope for the data of outgoing messages, reused for all messages a thread sends.
+	 */
+	private static final ThreadLocal<JSONObject> envelopes = new ThreadLocal<JSONObject>() {
+		@Override
+		protected JSONObject initialValue() {
+			return new JSONObject();
+		}
+	};
 
 	private static Console console = Console.get(RabbitMQMessageConnector.class.getName());
 
@@ -60,14 +128,112 @@ public class RabbitMQMessageConnector extends AbstractMessageConnector {
 
 	private Connection connection;
 
+	/**
+	 * Channel used to consume the inbox and to declare and bind queues.
+	 * Messages are published on the channels in 'publishers'.
+	 */
 	Channel channel;
+	private ChannelPool publishers;
+
+	/**
+	 * Groups outgoing messages into frames. Null unless batching is configured.
+	 */
+	private OutboundBatcher batcher;
 	String inbox;
 	String outbox;
 
+	/**
+	 * Identifies this connector as the sender of messages, so that it can recognize its own
+	 * messages. The same as the inbox, unless the inbox is shared with other connectors.
+	 */
+	String origin;
+
+	/**
+	 * Provides the connection and inbox, which other connectors share. Null if this connector
+	 * has a connection of its own.
+	 */
+	private final RabbitMQMultiplexer multiplexer;
+
+	/**
+	 * Second inbox, consumed on a channel of its own, receiving interactive messages. Null
+	 * unless priority routing is configured (see {@link RabbitMQFluxConfig#setPriorityRouting(boolean)}).
+	 */
+	String priorityInbox;
+	private Channel priorityChannel;
+	private final MessagePriorities priorities;
+
 	private DeliveryTypes deliveryTypes = DeliveryTypes.DEFAULTS;
 
 	private Set<String> connectedChannels = new HashSet<String>();
 
+	/**
+	 * Guards 'connectedChannels' and 'connection'. Channel (un)binding is a blocking
+	 * round trip to the broker, so this is a ReentrantLock rather than 'synchronized',
+	 * which would pin the carrier thread of a virtual thread for the duration.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Largest prefetch count AMQP allows (it is an unsigned short).
+	 */
+	private static final int MAX_PREFETCH = 0xFFFF;
+
+	/**
+	 * When the client blocks on overflow, or a prefetch is configured, messages are acknowledged
+	 * only once they have been admitted by the dispatcher, and the broker does not send more than
+	 * 'prefetch' unacknowledged messages. So a slow client makes messages wait in the broker
+	 * rather than in memory here.
+	 */
+	private final boolean manualAck;
+	private final int prefetch;
+
+	/**
+	 * Number of messages acknowledged at once (with 'multiple' set). At most half the prefetch,
+	 * so the broker can keep sending while a batch fills up.
+	 */
+	private final int ackBatchSize;
+
+	/**
+	 * Number of messages dropped on arrival, based on their headers alone.
+	 */
+	private final AtomicLong skipped = new AtomicLong();
+
+	private final MessageCodec preferredCodec;
+	private final boolean codecForAllMessages;
+
+	/**
+	 * Compresses large payloads for peers that can decompress them. Null if compression is disabled.
+	 */
+	private final PayloadCompressor compressor;
+
+	/**
+	 * What the peers we heard from can decode, keyed by inbox. Used to pick a codec
+	 * and compression for responses. Least recently used peers are forgotten.
+	 */
+	private final Map<String, Peer> peers = Collections.synchronizedMap(new LinkedHashMap<String, Peer>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Entry<String, Peer> eldest) {
+			return size()>MAX_KNOWN_PEERS;
+		}
+	});
+
+	/**
+	 * Publish properties of uncompressed single messages, keyed by content type and then by
+	 * message type. Those are the only things that differ between them.
+	 */
+	private final ConcurrentMap<String, ConcurrentMap<String, BasicProperties>> messageProperties = new ConcurrentHashMap<>();
+
+	private static final class Peer {
+		final String accepts;
+		final String acceptsEncoding;
+
+		Peer(String accepts, String acceptsEncoding) {
+			this.accepts = accepts;
+			this.acceptsEncoding = acceptsEncoding;
+		}
+	}
+
 	private ConnectionFactory connectionFactory() throws Exception {
 		if (factory==null) {
 			ConnectionFactory f = new ConnectionFactory();
@@ -78,15 +244,139 @@ public class RabbitMQMessageConnector extends AbstractMessageConnector {
 	}
 
 	public RabbitMQMessageConnector(FluxClient client, RabbitMQFluxConfig conf) throws Exception {
-		super(client.getExecutor());
+		this(client, conf, null);
+	}
+
+	/**
+	 * @param multiplexer provides the connection and inbox to use. If null, the connector
+	 *                    opens a connection of its own.
+	 */
+	public RabbitMQMessageConnector(FluxClient client, RabbitMQFluxConfig conf, RabbitMQMultiplexer multiplexer) throws Exception {
+		super(client);
 		this.conf = conf;
-		this.connection = connectionFactory().newConnection();
-		console.log("Connected to rabbitMQ: "+conf.getURI());
+		this.multiplexer = multiplexer;
+		this.prefetch = prefetch(client, conf);
+		this.manualAck = prefetch>0;
+		this.ackBatchSize = ackBatchSize(conf, prefetch);
+		this.preferredCodec = conf.getPreferredCodec();
+		this.codecForAllMessages = conf.isCodecForAllMessages();
+		this.compressor = conf.getCompressionThreshold()>0 ? new PayloadCompressor(conf.getCompressionThreshold()) : null;
 		this.permissions = conf.permissions();
-		this.channel = connection.createChannel();
-		this.inbox = createInbox();
-		this.outbox = createOutbox();
+		this.priorities = client.getPriorities();
+		if (multiplexer!=null) {
+			if (conf.isPriorityRouting()) {
+				throw new IllegalArgumentException("Priority routing is not supported on a multiplexed connection");
+			}
+			this.connection = multiplexer.connection;
+			this.channel = multiplexer.channel;
+			this.publishers = multiplexer.publishers;
+			this.inbox = multiplexer.inbox;
+			this.outbox = multiplexer.outbox;
+		} else {
+			this.connection = connectionFactory().newConnection();
+			console.log("Connected to rabbitMQ: "+conf.getURI());
+			this.channel = connection.createChannel();
+			this.publishers = new ChannelPool(connection, conf.getPublisherChannels(), conf.isPublisherConfirms(), conf.getMaxUnconfirmed());
+		}
+		if (conf.getBatchWindow()>0) {
+			this.batcher = new OutboundBatcher(new OutboundBatcher.Sink() {
+				public void sendOne(String exchange, String routingKey, String contentType, boolean compressible, String messageType, byte[] message) throws Exception {
+					publish(exchange, routingKey, contentType, compressible, TYPE_HEADER, messageType, messageType, message);
+				}
+				public void sendBatch(String exchange, String routingKey, String contentType, boolean compressible, int count, byte[] frame) throws Exception {
+					publish(exchange, routingKey, contentType, compressible, BATCH_HEADER, count, BATCH_STATS, frame);
+				}
+			}, conf.getBatchWindow(), conf.getBatchMaxBytes());
+		}
+		if (multiplexer!=null) {
+			//Messages are consumed and routed to this connector by the multiplexer.
+			this.origin = multiplexer.add(this);
+			return;
+		}
+		this.inbox = createInbox(channel);
+		this.origin = inbox;
+		//Further consumers of the same inbox, each on its own channel so the broker client
+		//dispatches to them in parallel.
+		for (int i = 1; i < conf.getConsumers(); i++) {
+			consume(connection.createChannel(), inbox);
+		}
+		this.outbox = createOutbox(channel);
+		if (conf.isPriorityRouting()) {
+			this.priorityChannel = connection.createChannel();
+			this.priorityInbox = createInbox(priorityChannel);
+		}
 		receiveBroadcasts();
+		if (metrics!=null) {
+			registerGauges();
+		}
+	}
+
+	/**
+	 * @return the prefetch to consume with, or 0 to consume without acknowledgements.
+	 */
+	static int prefetch(FluxClient client, RabbitMQFluxConfig conf) {
+		if (conf.getPrefetch()>0) {
+			return Math.min(conf.getPrefetch(), MAX_PREFETCH);
+		}
+		if (client.getOverflowPolicy()==FluxClient.OverflowPolicy.BLOCK && client.getMaxQueuedMessages()>0) {
+			return Math.min(client.getMaxQueuedMessages(), MAX_PREFETCH);
+		}
+		return 0;
+	}
+
+	static int ackBatchSize(RabbitMQFluxConfig conf, int prefetch) {
+		return Math.max(1, Math.min(conf.getAckBatchSize(), prefetch / 2));
+	}
+
+	/**
+	 * Gauges are named after the inbox, as there may be several connectors per client.
+	 * Multiplexed connectors have none, their statistics are mostly those of the multiplexer.
+	 */
+	private String gaugeName(String name) {
+		return "rabbitmq."+inbox+"."+name;
+	}
+
+	private static final String[] GAUGES = {
+		"skipped", "sent", "sendLatencyMeanMicros", "sendLatencyMaxMicros",
+		"inFlightConfirms", "confirmed", "nacked", "confirmLatencyMeanMicros",
+		"compressedBytesSaved"
+	};
+
+	private void registerGauges() {
+		for (final String name : GAUGES) {
+			metrics.registerGauge(gaugeName(name), new MessageMetrics.Gauge() {
+				public long getValue() {
+					return gauge(name);
+				}
+			});
+		}
+	}
+
+	private long gauge(String name) {
+		if (name.equals("skipped")) {
+			return getSkippedCount();
+		} else if (name.equals("sent")) {
+			return publishers.getSentCount();
+		} else if (name.equals("sendLatencyMeanMicros")) {
+			return publishers.getMeanSendLatencyMicros();
+		} else if (name.equals("sendLatencyMaxMicros")) {
+			return publishers.getMaxSendLatencyMicros();
+		} else if (name.equals("inFlightConfirms")) {
+			return publishers.getInFlightConfirms();
+		} else if (name.equals("confirmed")) {
+			return publishers.getConfirmedCount();
+		} else if (name.equals("nacked")) {
+			return publishers.getNackedCount();
+		} else if (name.equals("confirmLatencyMeanMicros")) {
+			return publishers.getMeanConfirmLatencyMicros();
+		} else if (name.equals("compressedBytesSaved")) {
+			long saved = 0;
+			for (PayloadCompressor.Stats stats : getCompressionStats().values()) {
+				saved += stats.getUncompressedBytes() - stats.getCompressedBytes();
+			}
+			return saved;
+		}
+		throw new IllegalArgumentException(name);
 	}
 
 	/**
@@ -94,55 +384,248 @@ public class RabbitMQMessageConnector extends AbstractMessageConnector {
 	 */
 	private void receiveBroadcasts() throws IOException {
 		this.channel.queueBind(inbox, outbox, EVERYONE);
+		if (priorityInbox!=null) {
+			this.channel.queueBind(priorityInbox, outbox, EVERYONE+INTERACTIVE_SUFFIX);
+		}
 		console.log("Connected to topic "+EVERYONE);
 	}
 
-	private String createInbox() throws IOException {
-		DeclareOk ok = this.channel.queueDeclare("", /*durable*/ false, /*exclusive*/false, /*autoDelete*/true, null);
-		final String inbox = ok.getQueue();
-		console.log("Inbox created: "+inbox);
-		channel.basicConsume(inbox, new DefaultConsumer(channel) {
+	/**
+	 * Create a queue and start consuming it on the given channel.
+	 */
+	private String createInbox(Channel channel) throws IOException {
+		DeclareOk ok = channel.queueDeclare("", /*durable*/ false, /*exclusive*/false, /*autoDelete*/true, null);
+		String queue = ok.getQueue();
+		console.log("Inbox created: "+queue);
+		consume(channel, queue);
+		return queue;
+	}
+
+	private void consume(Channel channel, String queue) throws IOException {
+		consume(channel, queue, new InboxConsumer(channel, prefetch, ackBatchSize) {
 			@Override
-			public void handleDelivery(String consumerTag, Envelope envelope,
-					BasicProperties properties, byte[] body) throws IOException {
+			protected boolean skipBatch(String batchOrigin) {
+				if (origin.equals(batchOrigin)) {
+					skipped.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+
+			@Override
+			protected void deliver(Envelope envelope, String type, String origin, Map<String, Object> headers, MessageCodec codec, byte[] body) throws Exception {
+				RabbitMQMessageConnector.this.deliver(type, origin, headers, codec, body, null);
+			}
+		});
+	}
+
+	static void consume(Channel channel, String queue, InboxConsumer consumer) throws IOException {
+		if (consumer.manualAck) {
+			channel.basicQos(consumer.prefetch);
+		}
+		channel.basicConsume(queue, /*autoAck*/!consumer.manualAck, consumer);
+	}
+
+	/**
+	 * Consumes an inbox. The broker client calls a consumer from one thread at a time, in
+	 * the order messages arrived on its channel.
+	 */
+	abstract static class InboxConsumer extends DefaultConsumer {
+
+		final boolean manualAck;
+		final int prefetch;
+		private final int ackBatchSize;
+
+		/**
+		 * Guards the fields below. Acknowledgements are sent while holding it, so that they
+		 * go out in order.
+		 */
+		private final ReentrantLock ackLock = new ReentrantLock();
+		private long lastDeliveryTag = 0;
+		private int unacked = 0;
+		private HashedWheelTimer.Timeout flush = null;
+
+		private final Runnable flushTask = new Runnable() {
+			public void run() {
+				ackLock.lock();
 				try {
-					JSONObject obj = JSON.parse(body);
-					if (!isSelfOriginated(obj)) {
-						handleIncomingMessage(obj.getString("type"), obj.getJSONObject("data"));
+					flush = null;
+					flushAcks();
+				} finally {
+					ackLock.unlock();
+				}
+			}
+		};
+
+		/**
+		 * @param prefetch maximum number of unacknowledged messages, or 0 to consume without
+		 *                 acknowledgements.
+		 */
+		InboxConsumer(Channel channel, int prefetch, int ackBatchSize) {
+			super(channel);
+			this.manualAck = prefetch>0;
+			this.prefetch = prefetch;
+			this.ackBatchSize = ackBatchSize;
+		}
+
+		/**
+		 * @return true to drop a batch from the given origin without unpacking it.
+		 */
+		protected abstract boolean skipBatch(String origin);
+
+		/**
+		 * Deliver a decompressed message. Type and origin are null for messages from senders
+		 * that predate those headers.
+		 */
+		protected abstract void deliver(Envelope envelope, String type, String origin, Map<String, Object> headers, MessageCodec codec, byte[] body) throws Exception;
+
+		/**
+		 * Acknowledge a delivery, and all earlier ones, once a batch is complete. A partial batch
+		 * is acknowledged by a timer, so its messages don't count against the prefetch forever.
+		 */
+		private void ack(long deliveryTag) {
+			ackLock.lock();
+			try {
+				lastDeliveryTag = deliveryTag;
+				unacked++;
+				if (unacked>=ackBatchSize) {
+					if (flush!=null) {
+						flush.cancel();
+						flush = null;
 					}
-				} catch (Exception e) {
-					console.log(e);
+					flushAcks();
+				} else if (flush==null) {
+					flush = HashedWheelTimer.getDefault().schedule(flushTask, 0);
 				}
+			} finally {
+				ackLock.unlock();
 			}
+		}
 
-			/**
-			 * Tests whether an incoming message originated from the same MessageConnector that
-			 * is receiving it. (Such messages are skipped in keeping with how socketio does the same
-			 * thing).
-			 */
-			private boolean isSelfOriginated(JSONObject obj) {
-				try {
-					String origin = obj.getString("origin");
-					return inbox.equals(origin);
-				} catch (Exception e) {
-					console.log(e);
+		private void flushAcks() {
+			if (unacked==0 || !getChannel().isOpen()) {
+				return;
+			}
+			try {
+				getChannel().basicAck(lastDeliveryTag, /*multiple*/ true);
+			} catch (Exception e) {
+				console.log(e);
+			}
+			unacked = 0;
+		}
+
+		@Override
+		public void handleDelivery(String consumerTag, Envelope envelope,
+				BasicProperties properties, byte[] body) throws IOException {
+			try {
+				Map<String, Object> headers = properties.getHeaders();
+				String origin = header(headers, ORIGIN_HEADER);
+				MessageCodec codec = MessageCodecs.forContentType(properties.getContentType());
+				if (codec==null) {
+					throw new IllegalArgumentException("No codec for content type: "+properties.getContentType());
+				}
+				String encoding = properties.getContentEncoding();
+				if (encoding!=null) {
+					if (!PayloadCompressor.DEFLATE.equals(encoding)) {
+						throw new IllegalArgumentException("Unsupported content encoding: "+encoding);
+					}
+					body = PayloadCompressor.decompress(body);
+				}
+				if (header(headers, BATCH_HEADER)!=null) {
+					if (skipBatch(origin)) {
+						return;
+					}
+					for (OutboundBatcher.Entry entry : OutboundBatcher.unpack(body)) {
+						deliver(envelope, entry.messageType, origin, headers, codec, entry.message);
+					}
+				} else {
+					deliver(envelope, header(headers, TYPE_HEADER), origin, headers, codec, body);
+				}
+			} catch (Exception e) {
+				console.log(e);
+			} finally {
+				if (manualAck) {
+					ack(envelope.getDeliveryTag());
 				}
-				return false;
 			}
-		});
-		return inbox;
+		}
+	}
+
+	/**
+	 * Hand a received message to the dispatcher, unless it was sent by this connector or no
+	 * handler is interested in it.
+	 *
+	 * @param decoded the decoded message, if the caller already decoded it. It must not be
+	 *                passed to more than one connector, as handlers may change it.
+	 */
+	void deliver(String type, String origin, Map<String, Object> headers, MessageCodec codec, byte[] body, JSONObject decoded) throws Exception {
+		if (type!=null && origin!=null) {
+			if (this.origin.equals(origin) || !hasHandlersFor(type)) {
+				skipped.incrementAndGet();
+				return;
+			}
+			rememberAccepts(origin, headers);
+		}
+		//Messages from senders that predate the headers are decoded to find out what they are.
+		JSONObject obj = decoded!=null ? decoded : codec.decode(body);
+		if (type==null || origin==null) {
+			if (isSelfOriginated(obj)) {
+				return;
+			}
+			rememberAccepts(obj.optString("origin", null), headers);
+		}
+		//May block while the dispatcher is full
+		handleIncomingMessage(obj.getString("type"), obj.getJSONObject("data"), body.length);
+	}
+
+	/**
+	 * Tests whether an incoming message originated from the same MessageConnector that
+	 * is receiving it. (Such messages are skipped in keeping with how socketio does the same
+	 * thing).
+	 */
+	private boolean isSelfOriginated(JSONObject obj) {
+		try {
+			String origin = obj.getString("origin");
+			return this.origin.equals(origin);
+		} catch (Exception e) {
+			console.log(e);
+		}
+		return false;
+	}
+
+	private void rememberAccepts(String origin, Map<String, Object> headers) {
+		if (origin!=null) {
+			String accepts = header(headers, ACCEPT_HEADER);
+			String acceptsEncoding = header(headers, ACCEPT_ENCODING_HEADER);
+			if (accepts!=null || acceptsEncoding!=null) {
+				peers.put(origin, new Peer(accepts, acceptsEncoding));
+			}
+		}
+	}
+
+	/**
+	 * Get a string valued header. AMQP delivers strings as LongString, not String.
+	 */
+	static String header(Map<String, Object> headers, String name) {
+		if (headers!=null) {
+			Object value = headers.get(name);
+			if (value!=null) {
+				return value.toString();
+			}
+		}
+		return null;
 	}
 
-	private String createOutbox() throws IOException {
+	static String createOutbox(Channel channel) throws IOException {
 		String outbox = "flux"; //outbox queue/exchange name is the same 'flux' same for everyone.
 		// rabbit mq routes messages placed in this queue via topic exchanges to
 		// inboxes based on clients connectiong to a 'flux channels'.
-		this.channel.exchangeDeclare(outbox, "topic");
+		channel.exchangeDeclare(outbox, "topic");
 		console.log("Outbox created");
 		return outbox; 
 	}
 
-	private static String channelNameToTopicPattern(String fluxChannelName) {
+	static String channelNameToTopicPattern(String fluxChannelName) {
 		checkValidChannel(fluxChannelName);
 		if (fluxChannelName.equals(MessageConstants.SUPER_USER)) {
 			return "*";
@@ -171,6 +654,42 @@ public class RabbitMQMessageConnector extends AbstractMessageConnector {
 		return name;
 	}
 
+	/**
+	 * Routing key for a message of a given type. With priority routing, interactive messages
+	 * are routed to the priority inboxes of their recipients.
+	 */
+	String routingKey(String messageType, String username) {
+		String key = usernameToRoutingKey(username);
+		if (priorityInbox!=null && priorities.get(messageType)==MessagePriority.INTERACTIVE) {
+			return key+INTERACTIVE_SUFFIX;
+		}
+		return key;
+	}
+
+	/**
+	 * Called before a request is published. Multiplexed connectors share their inbox, so the
+	 * multiplexer needs to know where to route the responses.
+	 */
+	void requestSent(JSONObject request) {
+		if (multiplexer!=null) {
+			multiplexer.requestSent(this, request);
+		}
+	}
+
+	boolean isMultiplexed() {
+		return multiplexer!=null;
+	}
+
+	/**
+	 * @return the inbox responses to a request of the given type should be sent to.
+	 */
+	String replyInbox(String requestType) {
+		if (priorityInbox!=null && priorities.get(requestType)==MessagePriority.INTERACTIVE) {
+			return priorityInbox;
+		}
+		return inbox;
+	}
+
 	@Override
 	public void connectToChannel(final String channel) {
 		executor.execute(new Runnable() {
@@ -187,14 +706,24 @@ public class RabbitMQMessageConnector extends AbstractMessageConnector {
 	@Override
 	public void connectToChannelSync(String channelName) throws Exception {
 		boolean notifyNeeded = false;
-		synchronized (this) {
+		lock.lock();
+		try {
 			if (!isConnected(channelName)) {
 				permissions.checkChannelJoin(channelName);
 				String topic = channelNameToTopicPattern(channelName);
-				this.channel.queueBind(this.inbox, this.outbox, topic);
+				if (multiplexer!=null) {
+					multiplexer.bind(this, channelName, topic);
+				} else {
+					this.channel.queueBind(this.inbox, this.outbox, topic);
+					if (priorityInbox!=null) {
+						this.channel.queueBind(this.priorityInbox, this.outbox, topic+INTERACTIVE_SUFFIX);
+					}
+				}
 				connectedChannels.add(channelName);
 				notifyNeeded = true;
 			}
+		} finally {
+			lock.unlock();
 		}
 		if (notifyNeeded) {
 			//Take care to call the listeners outside synch block to avoid potential deadlocks
@@ -205,13 +734,23 @@ public class RabbitMQMessageConnector extends AbstractMessageConnector {
 	@Override
 	public void disconnectFromChannelSync(String channelName) throws Exception {
 		boolean notifyNeeded = false;
-		synchronized (this) {
+		lock.lock();
+		try {
 			if (isConnected(channelName)) {
 				String topic = channelNameToTopicPattern(channelName);
-				this.channel.queueUnbind(this.inbox, this.outbox, topic);
+				if (multiplexer!=null) {
+					multiplexer.unbind(this, channelName, topic);
+				} else {
+					this.channel.queueUnbind(this.inbox, this.outbox, topic);
+					if (priorityInbox!=null) {
+						this.channel.queueUnbind(this.priorityInbox, this.outbox, topic+INTERACTIVE_SUFFIX);
+					}
+				}
 				connectedChannels.remove(channelName);
 				notifyNeeded = true;
 			}
+		} finally {
+			lock.unlock();
 		}
 		if (notifyNeeded) {
 			//Take care to call the listeners outside synch block to avoid potential deadlocks
@@ -237,8 +776,13 @@ public class RabbitMQMessageConnector extends AbstractMessageConnector {
 	}
 
 	@Override
-	public synchronized boolean isConnected(String channel) {
-		return connectedChannels.contains(channel);
+	public boolean isConnected(String channel) {
+		lock.lock();
+		try {
+			return connectedChannels.contains(channel);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
@@ -247,20 +791,76 @@ public class RabbitMQMessageConnector extends AbstractMessageConnector {
 	}
 
 	@Override
-	public synchronized void disconnect() {
-		if (connection!=null) {
-			try {
-				connection.close();
-			} catch (IOException e) {
-				console.log(e);
+	public void sendEncoded(String messageType, String username, byte[] json) throws Exception {
+		deliveryTypes.get(messageType).sendEncoded(this, messageType, username, json);
+	}
+
+	@Override
+	public void disconnect() {
+		lock.lock();
+		try {
+			if (metrics!=null && multiplexer==null) {
+				for (String name : GAUGES) {
+					metrics.unregisterGauge(gaugeName(name));
+				}
+			}
+			if (batcher!=null) {
+				batcher.close();
+			}
+			if (multiplexer!=null) {
+				//The connection is shared, only this connector's channels are left.
+				if (connection!=null) {
+					multiplexer.remove(this, connectedChannels);
+					connectedChannels.clear();
+					connection = null;
+				}
+			} else if (connection!=null) {
+				try {
+					connection.close();
+				} catch (IOException e) {
+					console.log(e);
+				}
+				connection = null;
 			}
-			connection = null;
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	@Override
-	public synchronized boolean isConnected() {
-		return connection!=null && connection.isOpen();
+	public boolean isConnected() {
+		lock.lock();
+		try {
+			return connection!=null && connection.isOpen();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the channels used for publishing, which keep statistics about sending.
+	 */
+	public ChannelPool getPublishers() {
+		return publishers;
+	}
+
+	/**
+	 * @return sizes of compressed messages before and after compression, keyed by message type.
+	 *         Compressed batches are counted under "batch". Empty if compression is disabled.
+	 */
+	public Map<String, PayloadCompressor.Stats> getCompressionStats() {
+		if (compressor==null) {
+			return Collections.emptyMap();
+		}
+		return compressor.getStats();
+	}
+
+	/**
+	 * @return number of received messages that were dropped without decoding them, because
+	 *         they were sent by this connector or no handler was interested in their type.
+	 */
+	public long getSkippedCount() {
+		return skipped.get();
 	}
 
 	@Override
@@ -269,21 +869,148 @@ public class RabbitMQMessageConnector extends AbstractMessageConnector {
 	}
 
 	/**
-	 * Encode a message into byte array, ready to send over the wire.
+	 * Encode a message and publish it to the given exchange.
+	 * <p>
+	 * Messages are JSON, unless a preferred codec is configured and the recipient is known
+	 * to accept it. Broadcasts and requests have no single recipient, so they only use the
+	 * preferred codec when the configuration says every client on the bus can decode it.
+	 *
+	 * @param recipient inbox of the recipient, or null if the message may go to many.
 	 */
-	byte[] encode(String messageType, JSONObject data) throws Exception {
-		JSONObject message = new JSONObject()
+	void publish(String exchange, String routingKey, String messageType, JSONObject data, String recipient) throws Exception {
+		Peer peer = recipient==null ? null : peers.get(recipient);
+		MessageCodec codec = codecFor(peer);
+		boolean compressible = compressor!=null && peer!=null && MessageCodecs.accepts(peer.acceptsEncoding, PayloadCompressor.DEFLATE);
+		JSONObject message = envelopes.get()
 			.put("type", messageType)
-			.put("origin", inbox) //needed to avoid delivering broadcasts to 'self'
+			.put("origin", origin) //needed to avoid delivering broadcasts to 'self'
 			.put("data", data);
-		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		OutputStreamWriter out= new OutputStreamWriter(bytes, "utf8");
+		EncodeBuffer out = EncodeBuffer.get();
 		try {
-			message.write(out);
+			codec.encode(message, out);
 		} finally {
-			out.close();
+			message.remove("data");
+		}
+		//The broker client and the batcher keep the array, so this copy can't be avoided.
+		publish(exchange, routingKey, codec.getContentType(), compressible, messageType, out.toByteArray());
+	}
+
+	/**
+	 * Publish a message whose data is JSON text already. The envelope is written around the
+	 * data without parsing it, and one property ('addedKey': 'addedValue') is added to the
+	 * data on the way.
+	 * <p>
+	 * Such messages are always sent as JSON, which every client can decode.
+	 */
+	void publishEncoded(String exchange, String routingKey, String messageType, String addedKey, String addedValue, byte[] json) throws Exception {
+		int start = skipWhitespace(json, 0);
+		if (start>=json.length || json[start]!='{') {
+			throw new IllegalArgumentException("Encoded message data is not a JSON object");
+		}
+		start++;
+		EncodeBuffer out = EncodeBuffer.get();
+		Writer writer = out.writer();
+		writer.write("{\"type\":");
+		writer.write(JSONObject.quote(messageType));
+		writer.write(",\"origin\":");
+		writer.write(JSONObject.quote(origin));
+		writer.write(",\"data\":{");
+		writer.write(JSONObject.quote(addedKey));
+		writer.write(':');
+		writer.write(JSONObject.quote(addedValue));
+		writer.flush();
+		int next = skipWhitespace(json, start);
+		if (next<json.length && json[next]!='}') {
+			out.write(',');
+		}
+		out.write(json, start, json.length - start);
+		out.write('}');
+		publish(exchange, routingKey, MessageCodecs.JSON.getContentType(), false, messageType, out.toByteArray());
+	}
+
+	private static int skipWhitespace(byte[] json, int pos) {
+		while (pos<json.length && (json[pos]==' ' || json[pos]=='\t' || json[pos]=='\n' || json[pos]=='\r')) {
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Publish one encoded message, via the batcher if batching is enabled.
+	 */
+	private void publish(String exchange, String routingKey, String contentType, boolean compressible, String messageType, byte[] body) throws Exception {
+		if (metrics!=null) {
+			metrics.sent(messageType, body.length);
+		}
+		if (batcher!=null) {
+			batcher.add(exchange, routingKey, contentType, compressible, messageType, body);
+		} else {
+			publish(exchange, routingKey, contentType, compressible, TYPE_HEADER, messageType, messageType, body);
+		}
+	}
+
+	/**
+	 * Publish an encoded message or batch, compressing it if it is large and the recipient can decompress it.
+	 */
+	private void publish(String exchange, String routingKey, String contentType, boolean compressible, String headerName, Object headerValue, String statsKey, byte[] payload) throws Exception {
+		String encoding = null;
+		if (compressible) {
+			byte[] compressed = compressor.compress(statsKey, payload);
+			if (compressed!=null) {
+				payload = compressed;
+				encoding = PayloadCompressor.DEFLATE;
+			}
+		}
+		BasicProperties props;
+		if (encoding==null && TYPE_HEADER.equals(headerName)) {
+			props = messageProperties(contentType, (String) headerValue);
+		} else {
+			props = properties(contentType, encoding, headerName, headerValue);
+		}
+		publishers.publish(exchange, routingKey, props, payload);
+	}
+
+	private BasicProperties messageProperties(String contentType, String messageType) {
+		ConcurrentMap<String, BasicProperties> byType = messageProperties.get(contentType);
+		if (byType==null) {
+			ConcurrentMap<String, BasicProperties> created = new ConcurrentHashMap<>();
+			byType = messageProperties.putIfAbsent(contentType, created);
+			if (byType==null) {
+				byType = created;
+			}
+		}
+		BasicProperties props = byType.get(messageType);
+		//Registering a codec changes what we accept, which makes cached properties stale.
+		if (props==null || props.getHeaders().get(ACCEPT_HEADER)!=MessageCodecs.getAccepted()) {
+			props = properties(contentType, null, TYPE_HEADER, messageType);
+			if (byType.size()<MAX_CACHED_PROPERTIES) {
+				byType.put(messageType, props);
+			}
+		}
+		return props;
+	}
+
+	private BasicProperties properties(String contentType, String encoding, String headerName, Object headerValue) {
+		Map<String, Object> headers = new HashMap<String, Object>();
+		headers.put(headerName, headerValue);
+		headers.put(ORIGIN_HEADER, origin);
+		headers.put(ACCEPT_HEADER, MessageCodecs.getAccepted());
+		headers.put(ACCEPT_ENCODING_HEADER, PayloadCompressor.DEFLATE);
+		return new BasicProperties.Builder()
+			.contentType(contentType)
+			.contentEncoding(encoding)
+			.headers(headers)
+			.build();
+	}
+
+	private MessageCodec codecFor(Peer recipient) {
+		if (preferredCodec==null || codecForAllMessages) {
+			return preferredCodec==null ? MessageCodecs.JSON : preferredCodec;
+		}
+		if (recipient!=null && MessageCodecs.accepts(recipient.accepts, preferredCodec.getContentType())) {
+			return preferredCodec;
 		}
-		return bytes.toByteArray();
+		return MessageCodecs.JSON;
 	}
 
 }
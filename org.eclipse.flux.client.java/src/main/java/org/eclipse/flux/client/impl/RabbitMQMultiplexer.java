@@ -0,0 +1,411 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import static org.eclipse.flux.client.MessageConstants.CALLBACK_ID;
+import static org.eclipse.flux.client.MessageConstants.SUPER_USER;
+import static org.eclipse.flux.client.MessageConstants.USERNAME;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.flux.client.FluxClient;
+import org.eclipse.flux.client.codec.MessageCodec;
+import org.eclipse.flux.client.config.RabbitMQFluxConfig;
+import org.eclipse.flux.client.util.Console;
+import org.json.JSONObject;
+
+import com.rabbitmq.client.AMQP.Queue.DeclareOk;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * One AMQP connection and inbox shared by many connectors, typically of different users
+ * (see {@link RabbitMQFluxConfig#setMultiplexer(RabbitMQMultiplexer)}). A host serving
+ * thousands of users then needs a single TCP connection and queue rather than one per user.
+ * <p>
+ * Each connector still checks its own user's permissions to join a channel. The inbox is
+ * bound to every channel some connector joined, and received messages are routed to the
+ * connectors that joined the channel they were sent to. Responses are sent to the shared
+ * inbox, so the multiplexer remembers which connector sent each request, by user and
+ * callback_id, and routes the responses to that connector only. Responses it can not match
+ * to a request are dropped, except those without a callback_id, which go to the connectors
+ * of the user they are for.
+ * <p>
+ * Messages are handed to each connector through an executor of its own, one at a time and
+ * in the order they arrived, so a connector whose dispatcher is full only holds up itself.
+ * <p>
+ * Only the connection settings of the configuration the multiplexer is created with are
+ * used. Priority routing is not supported.
+ */
+public class RabbitMQMultiplexer {
+
+	private static Console console = Console.get(RabbitMQMultiplexer.class.getName());
+
+	/**
+	 * How long the connector that sent a request is remembered after the request, or its
+	 * latest response, was seen.
+	 */
+	private static final long REQUEST_ROUTE_TIMEOUT = 2 * 60 * 1000;
+
+	final Connection connection;
+
+	/**
+	 * Used to consume the inbox and to bind it. Only bound while holding 'lock'.
+	 */
+	final Channel channel;
+	final ChannelPool publishers;
+	final String inbox;
+	final String outbox;
+
+	/**
+	 * Guards 'bindings', and using 'channel' to bind and unbind the inbox.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Number of connectors that joined a channel, keyed by channel name. The inbox is bound to
+	 * a channel while this is positive.
+	 */
+	private final Map<String, Integer> bindings = new HashMap<String, Integer>();
+
+	private final Set<RabbitMQMessageConnector> connectors = newSet();
+	private final ConcurrentMap<String, Set<RabbitMQMessageConnector>> byChannel = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Set<RabbitMQMessageConnector>> byUser = new ConcurrentHashMap<>();
+	private final ConcurrentMap<RabbitMQMessageConnector, SerialExecutor> inboxes = new ConcurrentHashMap<>();
+
+	/**
+	 * Connectors waiting for responses, keyed by user and callback_id of the request. Read
+	 * without locking, changed only while holding 'requestsLock'.
+	 */
+	private final ConcurrentMap<String, RequestRoute> requests = new ConcurrentHashMap<>();
+
+	/**
+	 * Guards changes to 'requests' and 'lastExpiry'.
+	 */
+	private final ReentrantLock requestsLock = new ReentrantLock();
+	private long lastExpiry = System.currentTimeMillis();
+
+	private final AtomicInteger nextId = new AtomicInteger();
+
+	/**
+	 * @param client decides, like for a connector, whether the inbox is consumed with a prefetch.
+	 */
+	public RabbitMQMultiplexer(FluxClient client, RabbitMQFluxConfig conf) throws Exception {
+		ConnectionFactory factory = new ConnectionFactory();
+		conf.applyTo(factory);
+		this.connection = factory.newConnection();
+		console.log("Connected to rabbitMQ: "+conf.getURI());
+		this.channel = connection.createChannel();
+		this.publishers = new ChannelPool(connection, conf.getPublisherChannels(), conf.isPublisherConfirms(), conf.getMaxUnconfirmed());
+		DeclareOk ok = channel.queueDeclare("", /*durable*/ false, /*exclusive*/false, /*autoDelete*/true, null);
+		this.inbox = ok.getQueue();
+		console.log("Shared inbox created: "+inbox);
+		this.outbox = RabbitMQMessageConnector.createOutbox(channel);
+		channel.queueBind(inbox, outbox, RabbitMQMessageConnector.EVERYONE);
+		int prefetch = RabbitMQMessageConnector.prefetch(client, conf);
+		int ackBatchSize = RabbitMQMessageConnector.ackBatchSize(conf, prefetch);
+		for (int i = 0; i < conf.getConsumers(); i++) {
+			Channel ch = i==0 ? channel : connection.createChannel();
+			RabbitMQMessageConnector.consume(ch, inbox, new RabbitMQMessageConnector.InboxConsumer(ch, prefetch, ackBatchSize) {
+				@Override
+				protected boolean skipBatch(String origin) {
+					//Connectors skip their own messages from the batch.
+					return false;
+				}
+
+				@Override
+				protected void deliver(Envelope envelope, String type, String origin, Map<String, Object> headers, MessageCodec codec, byte[] body) throws Exception {
+					route(envelope, type, origin, headers, codec, body);
+				}
+			});
+		}
+	}
+
+	private static Set<RabbitMQMessageConnector> newSet() {
+		return Collections.newSetFromMap(new ConcurrentHashMap<RabbitMQMessageConnector, Boolean>());
+	}
+
+	private static void add(ConcurrentMap<String, Set<RabbitMQMessageConnector>> index, String key, RabbitMQMessageConnector connector) {
+		Set<RabbitMQMessageConnector> set = index.get(key);
+		if (set==null) {
+			Set<RabbitMQMessageConnector> created = newSet();
+			set = index.putIfAbsent(key, created);
+			if (set==null) {
+				set = created;
+			}
+		}
+		set.add(connector);
+	}
+
+	private static void remove(ConcurrentMap<String, Set<RabbitMQMessageConnector>> index, String key, RabbitMQMessageConnector connector) {
+		Set<RabbitMQMessageConnector> set = index.get(key);
+		if (set!=null) {
+			set.remove(connector);
+			//Empty sets are left in place. Removing them would race with adding to them, and
+			//there are no more of them than users and channels.
+		}
+	}
+
+	/**
+	 * Start routing messages to a connector.
+	 * @return the origin the connector identifies itself by.
+	 */
+	String add(RabbitMQMessageConnector connector) {
+		inboxes.put(connector, new SerialExecutor(connector.executor));
+		connectors.add(connector);
+		add(byUser, connector.getConfig().getUser(), connector);
+		return inbox+"/"+nextId.incrementAndGet();
+	}
+
+	/**
+	 * Stop routing messages to a connector, after unbinding the channels it joined.
+	 */
+	void remove(RabbitMQMessageConnector connector, Collection<String> channelNames) {
+		for (String channelName : channelNames) {
+			try {
+				unbind(connector, channelName, RabbitMQMessageConnector.channelNameToTopicPattern(channelName));
+			} catch (IOException e) {
+				console.log(e);
+			}
+		}
+		connectors.remove(connector);
+		remove(byUser, connector.getConfig().getUser(), connector);
+		inboxes.remove(connector);
+		requestsLock.lock();
+		try {
+			for (Iterator<RequestRoute> iter = requests.values().iterator(); iter.hasNext();) {
+				RequestRoute route = iter.next();
+				route.connectors.remove(connector);
+				if (route.connectors.isEmpty()) {
+					iter.remove();
+				}
+			}
+		} finally {
+			requestsLock.unlock();
+		}
+	}
+
+	/**
+	 * Remember that a connector sent a request, so that responses to it are routed there.
+	 * Called before the request is published.
+	 */
+	void requestSent(RabbitMQMessageConnector connector, JSONObject request) {
+		String key = requestKey(request);
+		if (key==null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		requestsLock.lock();
+		try {
+			RequestRoute route = requests.get(key);
+			if (route==null) {
+				route = new RequestRoute();
+				requests.put(key, route);
+			}
+			route.connectors.add(connector);
+			route.lastUsed = now;
+			if (now - lastExpiry > REQUEST_ROUTE_TIMEOUT) {
+				lastExpiry = now;
+				for (Iterator<RequestRoute> iter = requests.values().iterator(); iter.hasNext();) {
+					if (now - iter.next().lastUsed > REQUEST_ROUTE_TIMEOUT) {
+						iter.remove();
+					}
+				}
+			}
+		} finally {
+			requestsLock.unlock();
+		}
+	}
+
+	/**
+	 * @return the key of the route for a request or response, null if it has no callback_id.
+	 */
+	private static String requestKey(JSONObject message) {
+		if (message==null || !message.has(CALLBACK_ID)) {
+			return null;
+		}
+		return message.optString(USERNAME) + '\0' + message.optString(CALLBACK_ID);
+	}
+
+	/**
+	 * Route messages sent to a channel to a connector. The caller checked that the connector's
+	 * user may join it.
+	 */
+	void bind(RabbitMQMessageConnector connector, String channelName, String topic) throws IOException {
+		lock.lock();
+		try {
+			Integer count = bindings.get(channelName);
+			if (count==null) {
+				channel.queueBind(inbox, outbox, topic);
+				count = 0;
+			}
+			bindings.put(channelName, count + 1);
+			add(byChannel, channelName, connector);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void unbind(RabbitMQMessageConnector connector, String channelName, String topic) throws IOException {
+		lock.lock();
+		try {
+			remove(byChannel, channelName, connector);
+			Integer count = bindings.get(channelName);
+			if (count==null) {
+				return;
+			}
+			if (count > 1) {
+				bindings.put(channelName, count - 1);
+			} else {
+				bindings.remove(channelName);
+				if (channel.isOpen()) {
+					channel.queueUnbind(inbox, outbox, topic);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void route(Envelope envelope, String type, String origin, Map<String, Object> headers, MessageCodec codec, byte[] body) throws Exception {
+		if ("".equals(envelope.getExchange())) {
+			routeResponse(type, origin, headers, codec, body);
+			return;
+		}
+		String key = envelope.getRoutingKey();
+		Collection<RabbitMQMessageConnector> targets;
+		if (RabbitMQMessageConnector.EVERYONE.equals(key)) {
+			targets = connectors;
+		} else {
+			targets = union(byChannel.get(key), byChannel.get(SUPER_USER));
+		}
+		for (RabbitMQMessageConnector target : targets) {
+			deliver(target, type, origin, headers, codec, body, null);
+		}
+	}
+
+	/**
+	 * Responses are addressed to the shared inbox, the request they answer tells which connector
+	 * they are for.
+	 */
+	private void routeResponse(String type, String origin, Map<String, Object> headers, MessageCodec codec, byte[] body) throws Exception {
+		JSONObject decoded = codec.decode(body);
+		JSONObject data = decoded.optJSONObject("data");
+		String key = requestKey(data);
+		Collection<RabbitMQMessageConnector> targets;
+		if (key!=null) {
+			RequestRoute route = requests.get(key);
+			if (route==null) {
+				console.log("Dropped '"+type+"', no request is waiting for it");
+				return;
+			}
+			route.lastUsed = System.currentTimeMillis();
+			targets = route.connectors;
+		} else {
+			String user = data==null ? null : data.optString(USERNAME, null);
+			if (user==null) {
+				console.log("Dropped '"+type+"', it is not for any user");
+				return;
+			}
+			targets = byUser.get(user);
+			if (targets==null) {
+				return;
+			}
+		}
+		for (RabbitMQMessageConnector target : targets) {
+			//The first target gets the decoded message, others decode their own copy.
+			deliver(target, type, origin, headers, codec, body, decoded);
+			decoded = null;
+		}
+	}
+
+	/**
+	 * Hand a message to a connector. It is decoded and dispatched on the connector's executor,
+	 * after the messages handed to it before.
+	 */
+	private void deliver(final RabbitMQMessageConnector target, final String type, final String origin, final Map<String, Object> headers, final MessageCodec codec, final byte[] body, final JSONObject decoded) {
+		SerialExecutor inbox = inboxes.get(target);
+		if (inbox==null) {
+			//Removed meanwhile
+			return;
+		}
+		try {
+			inbox.execute(new Runnable() {
+				public void run() {
+					try {
+						target.deliver(type, origin, headers, codec, body, decoded);
+					} catch (Exception e) {
+						console.log(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			console.log(e);
+		}
+	}
+
+	private static Collection<RabbitMQMessageConnector> union(Set<RabbitMQMessageConnector> a, Set<RabbitMQMessageConnector> b) {
+		if (a==null || a.isEmpty()) {
+			return b==null ? Collections.<RabbitMQMessageConnector>emptySet() : b;
+		}
+		if (b==null || b.isEmpty()) {
+			return a;
+		}
+		Set<RabbitMQMessageConnector> union = new LinkedHashSet<RabbitMQMessageConnector>(a);
+		union.addAll(b);
+		return union;
+	}
+
+	/**
+	 * The connectors that sent requests with the same user and callback_id.
+	 */
+	private static final class RequestRoute {
+		final Set<RabbitMQMessageConnector> connectors = newSet();
+		volatile long lastUsed;
+	}
+
+	/**
+	 * @return number of connectors using this multiplexer.
+	 */
+	public int getConnectorCount() {
+		return connectors.size();
+	}
+
+	public boolean isConnected() {
+		return connection.isOpen();
+	}
+
+	/**
+	 * Close the connection, which disconnects all connectors using it.
+	 */
+	public void close() {
+		try {
+			connection.close();
+		} catch (IOException e) {
+			console.log(e);
+		}
+	}
+
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import static org.eclipse.flux.client.MessageConstants.CHUNK;
+import static org.eclipse.flux.client.MessageConstants.ERROR;
+import static org.eclipse.flux.client.MessageConstants.LAST_CHUNK;
+import static org.eclipse.flux.client.MessageConstants.RESPONSE_SENDER_ID;
+import static org.eclipse.flux.client.MessageConstants.STREAM_ID;
+
+import java.util.TreeMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.flux.client.MessageHandler;
+import org.eclipse.flux.client.ResponseStreamHandler;
+import org.eclipse.flux.client.util.BasicFuture;
+import org.eclipse.flux.client.util.HashedWheelTimer;
+import org.json.JSONObject;
+
+/**
+ * Collects the chunks of a streamed response and passes them on in sequence order.
+ * See {@link AbstractMessageConnector#requestStream}.
+ * <p>
+ * Only the chunks of the first responder are passed on. Responders are told apart by the
+ * 'streamID' of their chunks, or else by the 'responseSenderID' some transports add. If the
+ * first chunk has neither, only chunks without either are accepted after it.
+ */
+class ResponseStream extends MessageHandler {
+
+	private final ResponseStreamHandler handler;
+	private final long idleTimeout;
+	private final BasicFuture<Void> done = new BasicFuture<Void>();
+
+	/**
+	 * Guards all fields below. Held while calling the handler, so that it sees
+	 * one chunk at a time.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	private boolean started = false;
+	private String responder;
+	private int next = 0;
+	private final TreeMap<Integer, JSONObject> early = new TreeMap<Integer, JSONObject>();
+	private HashedWheelTimer.Timeout idle;
+
+	ResponseStream(String responseType, long idleTimeout, ResponseStreamHandler handler) {
+		super(responseType);
+		this.handler = handler;
+		this.idleTimeout = idleTimeout;
+		done.whenDone(new Runnable() {
+			public void run() {
+				lock.lock();
+				try {
+					early.clear();
+					if (idle!=null) {
+						idle.cancel();
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+		});
+	}
+
+	BasicFuture<Void> getFuture() {
+		return done;
+	}
+
+	/**
+	 * Start, or restart, the idle timeout.
+	 */
+	void touch() {
+		if (idleTimeout<=0) {
+			return;
+		}
+		lock.lock();
+		try {
+			if (idle!=null) {
+				idle.cancel();
+			}
+			if (!done.isDone()) {
+				idle = HashedWheelTimer.getDefault().schedule(new Runnable() {
+					public void run() {
+						done.reject(new TimeoutException());
+					}
+				}, idleTimeout);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void handle(String type, JSONObject message) {
+		lock.lock();
+		try {
+			if (done.isDone()) {
+				return;
+			}
+			String from = message.optString(STREAM_ID, message.optString(RESPONSE_SENDER_ID, null));
+			if (!started) {
+				started = true;
+				responder = from;
+			} else if (responder==null ? from!=null : !responder.equals(from)) {
+				return;
+			}
+			touch();
+			if (message.has(ERROR)) {
+				if (message.has("errorDetails")) {
+					System.err.println(message.opt("errorDetails"));
+				}
+				done.reject(new Exception(message.optString(ERROR)));
+				return;
+			}
+			if (!message.has(CHUNK)) {
+				//Not chunked: the whole response in one.
+				deliver(message, true);
+				return;
+			}
+			early.put(message.getInt(CHUNK), message);
+			JSONObject chunk;
+			while (!done.isDone() && (chunk = early.remove(next))!=null) {
+				next++;
+				deliver(chunk, chunk.optBoolean(LAST_CHUNK));
+			}
+		} catch (Throwable e) {
+			done.reject(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void deliver(JSONObject chunk, boolean last) throws Exception {
+		handler.chunk(chunk);
+		if (last) {
+			done.resolve(null);
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on threads of another executor.
+ * At most one task of a serial executor is submitted to the other executor at any time, so
+ * many serial executors can share a pool without one of them holding up the others.
+ */
+final class SerialExecutor implements Executor {
+
+	private final Executor executor;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	/**
+	 * Number of tasks added and not yet completed. The drain is scheduled on the executor
+	 * whenever this goes from 0 to 1.
+	 */
+	private final AtomicInteger depth = new AtomicInteger();
+
+	private final Runnable drain = new Runnable() {
+		public void run() {
+			do {
+				try {
+					tasks.poll().run();
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+			} while (depth.decrementAndGet()>0);
+		}
+	};
+
+	SerialExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @throws RejectedExecutionException if the executor rejected the drain, the task is dropped
+	 *         then. Tasks other threads added meanwhile were accepted already, so they are run by
+	 *         the calling thread instead.
+	 */
+	@Override
+	public void execute(Runnable task) {
+		tasks.add(task);
+		if (depth.getAndIncrement()==0) {
+			try {
+				executor.execute(drain);
+			} catch (RejectedExecutionException e) {
+				//There were no tasks, so the task is the first one.
+				tasks.poll();
+				if (depth.decrementAndGet()>0) {
+					drain.run();
+				}
+				throw e;
+			}
+		}
+	}
+
+}
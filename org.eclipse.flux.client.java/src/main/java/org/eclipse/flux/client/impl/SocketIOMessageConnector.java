@@ -19,15 +19,18 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.net.ssl.SSLContext;
 
+import org.eclipse.flux.client.FluxClient;
 import org.eclipse.flux.client.config.FluxConfig;
 import org.eclipse.flux.client.config.SocketIOFluxConfig;
 import org.eclipse.flux.client.util.BasicFuture;
+import org.eclipse.flux.client.util.HashedWheelTimer;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -49,9 +52,34 @@ public final class SocketIOMessageConnector extends AbstractMessageConnector {
 	private Set<String> channels = Collections.synchronizedSet(new HashSet<String>());
 	private AtomicBoolean isConnected = new AtomicBoolean(false);
 	
-	public SocketIOMessageConnector(SocketIOFluxConfig conf, ExecutorService executor) {
-		super(executor);
+	private final Backoff backoff;
+	
+	/**
+	 * Messages sent while disconnected. Null if the config disables buffering.
+	 */
+	private final OutboundBuffer replayBuffer;
+	
+	/**
+	 * True from losing the connection until the buffered messages have been sent after
+	 * reconnecting. Until then sent messages are buffered, to keep them in order.
+	 */
+	private boolean buffering = true;
+	
+	/**
+	 * True once 'disconnect' was called. Stops reconnect attempts.
+	 */
+	private boolean closed = false;
+	
+	/**
+	 * Guards 'buffering', 'closed' and 'replayBuffer'.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	
+	public SocketIOMessageConnector(SocketIOFluxConfig conf, FluxClient client) {
+		super(client);
 		this.conf = conf;
+		this.backoff = new Backoff(conf.getReconnectDelay(), Math.max(conf.getReconnectDelay(), conf.getMaxReconnectDelay()));
+		this.replayBuffer = conf.getReplayBufferSize()>0 ? new OutboundBuffer(conf.getReplayBufferSize(), client.getSupersedableTypes()) : null;
 		try {
 			SocketIO.setDefaultSSLSocketFactory(SSLContext.getInstance("Default"));
 			this.socket = createSocket();
@@ -69,15 +97,25 @@ public final class SocketIOMessageConnector extends AbstractMessageConnector {
 				public void onConnect() {
 					connectionStatus.setValue(connectionStatus.getValue().connect());
 					isConnected.compareAndSet(false, true);
-					String[] channelsArray = channels.toArray(new String[channels.size()]);
-					for (String channel : channelsArray) {
-						connectToChannel(channel);
-					}
+					backoff.reset();
+					final String[] channelsArray = channels.toArray(new String[channels.size()]);
+					//Joining is a round trip over this socket, so it can't wait for the answer on this thread.
+					executor.execute(new Runnable() {
+						public void run() {
+							rejoinAndReplay(channelsArray);
+						}
+					});
 					connectedFuture.resolve(null);
 				}
 	
 				@Override
 				public void onDisconnect() {
+					lock.lock();
+					try {
+						buffering = true;
+					} finally {
+						lock.unlock();
+					}
 					connectionStatus.setValue(connectionStatus.getValue().close());
 					System.out.println("Socket disconnected: "+socket);
 					for (String channel : channels) {
@@ -94,14 +132,16 @@ public final class SocketIOMessageConnector extends AbstractMessageConnector {
 					if (connectionStatus.getValue().isAuthFailure()) {
 						return; //Don't try to reconnect it will just fail again for the same reason anyway.
 					}
-					try {
-						onDisconnect();						
-						isConnected.compareAndSet(true, false);
-						socket = createSocket();
-						socket.connect(this);
-					} catch (MalformedURLException e) {
-						e.printStackTrace();
-					}
+					onDisconnect();
+					isConnected.compareAndSet(true, false);
+					final IOCallback callback = this;
+					long delay = backoff.nextDelay();
+					System.out.println("Reconnecting in "+delay+" ms");
+					HashedWheelTimer.getDefault().schedule(new Runnable() {
+						public void run() {
+							reconnect(callback);
+						}
+					}, delay);
 				}
 	
 				@Override
@@ -122,6 +162,64 @@ public final class SocketIOMessageConnector extends AbstractMessageConnector {
 		}
 	}
 
+	private void reconnect(IOCallback callback) {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+		} finally {
+			lock.unlock();
+		}
+		try {
+			socket = createSocket();
+			socket.connect(callback);
+		} catch (MalformedURLException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Join the channels we were connected to before the connection was lost, then send
+	 * what was sent in the meantime.
+	 */
+	private void rejoinAndReplay(String[] channels) {
+		for (String channel : channels) {
+			try {
+				connectToChannelSync(channel);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		while (true) {
+			List<OutboundBuffer.Entry> entries;
+			lock.lock();
+			try {
+				if (replayBuffer==null || replayBuffer.isEmpty()) {
+					buffering = false;
+					return;
+				}
+				entries = replayBuffer.drain();
+			} finally {
+				lock.unlock();
+			}
+			//Sending more messages meanwhile adds them to the buffer, behind these.
+			for (int i = 0; i < entries.size(); i++) {
+				if (!isConnected()) {
+					lock.lock();
+					try {
+						replayBuffer.requeue(entries.subList(i, entries.size()));
+					} finally {
+						lock.unlock();
+					}
+					return;
+				}
+				OutboundBuffer.Entry entry = entries.get(i);
+				socket.emit(entry.messageType, entry.message);
+			}
+		}
+	}
+	
 	/**
 	 * Deprecated, please use connectToChannelSynch('myChannel') to
 	 * connect to channel synchronously and avoid common bugs of the
@@ -260,14 +358,45 @@ public final class SocketIOMessageConnector extends AbstractMessageConnector {
 	}
 	
 	public void send(String messageType, JSONObject message) {
+		if (metrics!=null) {
+			metrics.sent(messageType, -1);
+		}
+		lock.lock();
+		try {
+			if (buffering && replayBuffer!=null) {
+				replayBuffer.add(messageType, message);
+				return;
+			}
+		} finally {
+			lock.unlock();
+		}
 		socket.emit(messageType, message);
 	}
+	
+	/**
+	 * @return number of messages lost because they were sent while disconnected and the
+	 *         replay buffer was full.
+	 */
+	public long getReplayDroppedCount() {
+		lock.lock();
+		try {
+			return replayBuffer==null ? 0 : replayBuffer.getDroppedCount();
+		} finally {
+			lock.unlock();
+		}
+	}
 
 	public boolean isConnected(String channel) {
 		return isConnected() && channels.contains(channel);
 	}
 	
 	public void disconnect() {
+		lock.lock();
+		try {
+			closed = true;
+		} finally {
+			lock.unlock();
+		}
 		socket.disconnect();
 	}
 	
@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.flux.client.MessageDispatcher;
+import org.eclipse.flux.client.MessagePriorities;
+import org.eclipse.flux.client.MessagePriority;
+import org.json.JSONObject;
+
+/**
+ * Dispatcher that limits how many bulk messages (see {@link MessagePriorities}) another
+ * dispatcher handles at a time. Bulk messages over the limit wait here, in the order they
+ * arrived, without blocking the caller. Other messages are passed on directly, so they
+ * always find threads that are not all busy with bulk traffic.
+ * <p>
+ * When the delegate keeps messages about the same resource in order (see {@link LaneDispatcher}),
+ * this dispatcher must not undo that: a message about a resource that has bulk messages waiting
+ * then waits behind them, and is passed on as soon as they are.
+ * <p>
+ * Handlers of bulk messages must not block waiting for other bulk messages, as those may
+ * be waiting for the blocked handler to finish.
+ */
+public class ThrottlingDispatcher implements MessageDispatcher {
+
+	private final MessageDispatcher delegate;
+	private final MessagePriorities priorities;
+	private final int maxConcurrentBulk;
+	private final boolean keepResourceOrder;
+
+	/**
+	 * Guards 'running', 'waiting' and 'waitingPerResource'. Waiting messages are passed on to
+	 * the delegate while holding it, so a message arriving meanwhile can not overtake them.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	private int running = 0;
+	private final Deque<Waiting> waiting = new ArrayDeque<Waiting>();
+
+	/**
+	 * Number of waiting messages per resource. Only used with 'keepResourceOrder'.
+	 */
+	private final Map<MessageKey, Integer> waitingPerResource = new HashMap<MessageKey, Integer>();
+
+	public ThrottlingDispatcher(MessageDispatcher delegate, MessagePriorities priorities, int maxConcurrentBulk) {
+		this(delegate, priorities, maxConcurrentBulk, false);
+	}
+
+	/**
+	 * @param keepResourceOrder whether messages about the same resource must be passed on in the
+	 *        order they arrived, whatever their priority.
+	 */
+	public ThrottlingDispatcher(MessageDispatcher delegate, MessagePriorities priorities, int maxConcurrentBulk, boolean keepResourceOrder) {
+		if (maxConcurrentBulk<=0) {
+			throw new IllegalArgumentException("maxConcurrentBulk must be positive");
+		}
+		this.delegate = delegate;
+		this.priorities = priorities;
+		this.maxConcurrentBulk = maxConcurrentBulk;
+		this.keepResourceOrder = keepResourceOrder;
+	}
+
+	@Override
+	public boolean dispatch(String messageType, JSONObject message, Runnable task) {
+		boolean bulk = priorities.get(messageType)==MessagePriority.BULK;
+		if (!bulk && !keepResourceOrder) {
+			return delegate.dispatch(messageType, message, task);
+		}
+		MessageKey resource = keepResourceOrder ? MessageKey.ofResource(message) : null;
+		lock.lock();
+		try {
+			if (bulk ? running>=maxConcurrentBulk : waitingPerResource.containsKey(resource)) {
+				park(new Waiting(messageType, message, task, bulk, resource));
+				return true;
+			}
+			if (bulk) {
+				running++;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (!bulk) {
+			return delegate.dispatch(messageType, message, task);
+		}
+		boolean dispatched = false;
+		try {
+			dispatched = delegate.dispatch(messageType, message, whenDone(task));
+		} finally {
+			if (!dispatched) {
+				done();
+			}
+		}
+		return dispatched;
+	}
+
+	private Runnable whenDone(final Runnable task) {
+		return new Runnable() {
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					done();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Called when a bulk task is done, or was not accepted by the delegate. Passes on waiting
+	 * messages that can go now.
+	 */
+	private void done() {
+		lock.lock();
+		try {
+			running--;
+			drain();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Pass on waiting messages, in order, until the next one is a bulk message and the limit
+	 * is reached. Only call while holding 'lock'.
+	 */
+	private void drain() {
+		Waiting next;
+		while ((next = waiting.peek())!=null) {
+			if (next.bulk) {
+				if (running>=maxConcurrentBulk) {
+					return;
+				}
+				running++;
+			}
+			waiting.poll();
+			unpark(next);
+			boolean dispatched = false;
+			try {
+				dispatched = delegate.dispatch(next.messageType, next.message, next.bulk ? whenDone(next.task) : next.task);
+			} catch (RuntimeException e) {
+				//No dispatcher to report this to, the message was accepted already.
+				e.printStackTrace();
+			}
+			if (!dispatched && next.bulk) {
+				running--;
+			}
+		}
+	}
+
+	/**
+	 * Only call while holding 'lock'.
+	 */
+	private void park(Waiting message) {
+		waiting.add(message);
+		if (message.resource!=null) {
+			Integer count = waitingPerResource.get(message.resource);
+			waitingPerResource.put(message.resource, count==null ? 1 : count + 1);
+		}
+	}
+
+	/**
+	 * Only call while holding 'lock'.
+	 */
+	private void unpark(Waiting message) {
+		if (message.resource!=null) {
+			int count = waitingPerResource.get(message.resource);
+			if (count==1) {
+				waitingPerResource.remove(message.resource);
+			} else {
+				waitingPerResource.put(message.resource, count - 1);
+			}
+		}
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return delegate.getQueueDepth() + getWaitingCount();
+	}
+
+	/**
+	 * @return number of messages waiting for one of the running bulk messages to finish.
+	 */
+	public int getWaitingCount() {
+		lock.lock();
+		try {
+			return waiting.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static final class Waiting {
+		final String messageType;
+		final JSONObject message;
+		final Runnable task;
+		final boolean bulk;
+		/**
+		 * What the message is about, null if resource order is not kept or the message
+		 * is not about anything in particular.
+		 */
+		final MessageKey resource;
+
+		Waiting(String messageType, JSONObject message, Runnable task, boolean bulk, MessageKey resource) {
+			this.messageType = messageType;
+			this.message = message;
+			this.task = task;
+			this.bulk = bulk;
+			this.resource = resource;
+		}
+	}
+
+}
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.impl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.flux.client.MessageDispatcher;
+import org.json.JSONObject;
+
+/**
+ * Dispatcher that hands every task directly to the executor. Tasks may run
+ * concurrently and in any order.
+ */
+public class UnorderedDispatcher implements MessageDispatcher {
+
+	private final Executor executor;
+	private final AtomicInteger depth = new AtomicInteger();
+
+	public UnorderedDispatcher(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public boolean dispatch(String messageType, JSONObject message, final Runnable task) {
+		depth.incrementAndGet();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						task.run();
+					} finally {
+						depth.decrementAndGet();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			depth.decrementAndGet();
+			throw e;
+		}
+		return true;
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return depth.get();
+	}
+
+}
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.metrics;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps counters and histograms per message type in memory, plus any registered gauges.
+ * They can be read directly, dumped as text with {@link #dump(Appendable)} or exposed
+ * through JMX with {@link JmxExporter}.
+ */
+public class FluxMetrics implements MessageMetrics {
+
+	private final ConcurrentMap<String, TypeMetrics> types = new ConcurrentHashMap<String, TypeMetrics>();
+	private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+	@Override
+	public void sent(String messageType, int bytes) {
+		TypeMetrics m = get(messageType);
+		m.sent.incrementAndGet();
+		if (bytes>0) {
+			m.sentBytes.addAndGet(bytes);
+		}
+	}
+
+	@Override
+	public void received(String messageType, int bytes) {
+		TypeMetrics m = get(messageType);
+		m.received.incrementAndGet();
+		if (bytes>0) {
+			m.receivedBytes.addAndGet(bytes);
+		}
+	}
+
+	@Override
+	public void handled(String messageType, long queueNanos, long handlerNanos) {
+		TypeMetrics m = get(messageType);
+		m.queueWait.record(queueNanos);
+		m.handlerTime.record(handlerNanos);
+	}
+
+	@Override
+	public void responded(String responseType, long nanos) {
+		get(responseType).responseLatency.record(nanos);
+	}
+
+	@Override
+	public void registerGauge(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	@Override
+	public void unregisterGauge(String name) {
+		gauges.remove(name);
+	}
+
+	private TypeMetrics get(String messageType) {
+		TypeMetrics m = types.get(messageType);
+		if (m==null) {
+			TypeMetrics created = new TypeMetrics();
+			m = types.putIfAbsent(messageType, created);
+			if (m==null) {
+				m = created;
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * @return metrics for each message type seen so far, sorted by type.
+	 */
+	public Map<String, TypeMetrics> getTypes() {
+		return Collections.unmodifiableMap(new TreeMap<String, TypeMetrics>(types));
+	}
+
+	/**
+	 * @return metrics for the given message type, or null if it was not seen.
+	 */
+	public TypeMetrics getType(String messageType) {
+		return types.get(messageType);
+	}
+
+	/**
+	 * @return the registered gauges, sorted by name.
+	 */
+	public Map<String, Gauge> getGauges() {
+		return Collections.unmodifiableMap(new TreeMap<String, Gauge>(gauges));
+	}
+
+	/**
+	 * Write all metrics as text, one line per message type and gauge.
+	 */
+	public void dump(Appendable out) throws IOException {
+		for (Map.Entry<String, TypeMetrics> e : getTypes().entrySet()) {
+			out.append(e.getKey()).append(": ").append(e.getValue().toString()).append('\n');
+		}
+		for (Map.Entry<String, Gauge> e : getGauges().entrySet()) {
+			long value;
+			try {
+				value = e.getValue().getValue();
+			} catch (Exception ex) {
+				value = -1;
+			}
+			out.append(e.getKey()).append(" = ").append(Long.toString(value)).append('\n');
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder();
+		try {
+			dump(buf);
+		} catch (IOException e) {
+			//Can't happen with a StringBuilder
+		}
+		return buf.toString();
+	}
+
+	public static final class TypeMetrics {
+		private final AtomicLong sent = new AtomicLong();
+		private final AtomicLong sentBytes = new AtomicLong();
+		private final AtomicLong received = new AtomicLong();
+		private final AtomicLong receivedBytes = new AtomicLong();
+		private final Histogram queueWait = new Histogram();
+		private final Histogram handlerTime = new Histogram();
+		private final Histogram responseLatency = new Histogram();
+
+		public long getSent() {
+			return sent.get();
+		}
+
+		/**
+		 * @return total size of sent messages, as far as the connector knows it.
+		 */
+		public long getSentBytes() {
+			return sentBytes.get();
+		}
+
+		public long getReceived() {
+			return received.get();
+		}
+
+		public long getReceivedBytes() {
+			return receivedBytes.get();
+		}
+
+		/**
+		 * @return time received messages waited for the dispatcher to start handling them.
+		 */
+		public Histogram getQueueWait() {
+			return queueWait;
+		}
+
+		/**
+		 * @return time taken by the handlers of received messages.
+		 */
+		public Histogram getHandlerTime() {
+			return handlerTime;
+		}
+
+		/**
+		 * @return time between sending a request and receiving its response. Recorded
+		 *         under the type of the response.
+		 */
+		public Histogram getResponseLatency() {
+			return responseLatency;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder buf = new StringBuilder();
+			buf.append("sent=").append(getSent()).append(" (").append(getSentBytes()).append(" bytes)");
+			buf.append(" received=").append(getReceived()).append(" (").append(getReceivedBytes()).append(" bytes)");
+			if (queueWait.getCount()>0) {
+				buf.append(" queue[").append(queueWait).append(']');
+				buf.append(" handler[").append(handlerTime).append(']');
+			}
+			if (responseLatency.getCount()>0) {
+				buf.append(" response[").append(responseLatency).append(']');
+			}
+			return buf.toString();
+		}
+	}
+
+}
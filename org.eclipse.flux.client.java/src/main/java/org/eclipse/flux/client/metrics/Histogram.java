@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations in nanoseconds, recorded without locking.
+ * <p>
+ * Values are counted in buckets by their highest set bit, so percentiles are
+ * approximate: they are reported as the upper bound of the bucket they fall in,
+ * which is less than twice the actual value.
+ */
+public class Histogram {
+
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos<0) {
+			nanos = 0;
+		}
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+		long m;
+		while (nanos>(m = max.get()) && !max.compareAndSet(m, nanos)) {
+			//retry
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMeanMicros() {
+		long n = count.get();
+		return n==0 ? 0 : TimeUnit.NANOSECONDS.toMicros(sum.get() / n);
+	}
+
+	public long getMaxMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(max.get());
+	}
+
+	/**
+	 * @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile.
+	 */
+	public long getPercentileMicros(double fraction) {
+		long n = count.get();
+		if (n==0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(fraction * n);
+		long seen = 0;
+		for (int i = 0; i < 64; i++) {
+			seen += buckets.get(i);
+			if (seen>=rank) {
+				long upper = i==0 ? 0 : (1L<<i) - 1;
+				return TimeUnit.NANOSECONDS.toMicros(Math.min(upper, max.get()));
+			}
+		}
+		return getMaxMicros();
+	}
+
+	@Override
+	public String toString() {
+		return "n="+getCount()+" mean="+getMeanMicros()+"us p50="+getPercentileMicros(0.5)
+				+"us p99="+getPercentileMicros(0.99)+"us max="+getMaxMicros()+"us";
+	}
+
+}
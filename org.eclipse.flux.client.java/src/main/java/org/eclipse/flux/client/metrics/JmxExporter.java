@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes a {@link FluxMetrics} as an MBean. Attributes are computed when read, and are
+ * named '&lt;messageType&gt;.&lt;metric&gt;' (e.g. 'getResourceResponse.responseP99Micros')
+ * or after the gauge they show. The 'dump' operation returns the text dump.
+ */
+public class JmxExporter implements DynamicMBean {
+
+	public static final String DOMAIN = "org.eclipse.flux";
+
+	private final FluxMetrics metrics;
+
+	private JmxExporter(FluxMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Register metrics with the platform MBean server.
+	 *
+	 * @param name distinguishes several clients in one JVM.
+	 * @return the name of the MBean, to unregister it.
+	 */
+	public static ObjectName register(FluxMetrics metrics, String name) throws Exception {
+		ObjectName objectName = ObjectName.getInstance(DOMAIN+":type=FluxMetrics,name="+ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new JmxExporter(metrics), objectName);
+		return objectName;
+	}
+
+	public static void unregister(ObjectName objectName) throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(objectName)) {
+			server.unregisterMBean(objectName);
+		}
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Map<String, MessageMetrics.Gauge> gauges = metrics.getGauges();
+		if (gauges.containsKey(attribute)) {
+			return gauges.get(attribute).getValue();
+		}
+		int dot = attribute.lastIndexOf('.');
+		if (dot>0) {
+			FluxMetrics.TypeMetrics m = metrics.getType(attribute.substring(0, dot));
+			if (m!=null) {
+				String metric = attribute.substring(dot+1);
+				if (metric.equals("sent")) {
+					return m.getSent();
+				} else if (metric.equals("sentBytes")) {
+					return m.getSentBytes();
+				} else if (metric.equals("received")) {
+					return m.getReceived();
+				} else if (metric.equals("receivedBytes")) {
+					return m.getReceivedBytes();
+				} else if (metric.startsWith("queue")) {
+					return histogram(m.getQueueWait(), metric.substring("queue".length()));
+				} else if (metric.startsWith("handler")) {
+					return histogram(m.getHandlerTime(), metric.substring("handler".length()));
+				} else if (metric.startsWith("response")) {
+					return histogram(m.getResponseLatency(), metric.substring("response".length()));
+				}
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	private static Long histogram(Histogram h, String stat) throws AttributeNotFoundException {
+		if (stat.equals("Count")) {
+			return h.getCount();
+		} else if (stat.equals("MeanMicros")) {
+			return h.getMeanMicros();
+		} else if (stat.equals("P50Micros")) {
+			return h.getPercentileMicros(0.5);
+		} else if (stat.equals("P99Micros")) {
+			return h.getPercentileMicros(0.99);
+		} else if (stat.equals("MaxMicros")) {
+			return h.getMaxMicros();
+		}
+		throw new AttributeNotFoundException(stat);
+	}
+
+	private static final String[] COUNTERS = { "sent", "sentBytes", "received", "receivedBytes" };
+	private static final String[] HISTOGRAMS = { "queue", "handler", "response" };
+	private static final String[] STATS = { "Count", "MeanMicros", "P50Micros", "P99Micros", "MaxMicros" };
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (String type : metrics.getTypes().keySet()) {
+			for (String counter : COUNTERS) {
+				attributes.add(attribute(type+"."+counter));
+			}
+			for (String histogram : HISTOGRAMS) {
+				for (String stat : STATS) {
+					attributes.add(attribute(type+"."+histogram+stat));
+				}
+			}
+		}
+		for (String gauge : metrics.getGauges().keySet()) {
+			attributes.add(attribute(gauge));
+		}
+		MBeanOperationInfo dump = new MBeanOperationInfo("dump", "All metrics as text",
+				new MBeanParameterInfo[0], String.class.getName(), MBeanOperationInfo.INFO);
+		return new MBeanInfo(getClass().getName(), "Flux message metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+				new MBeanOperationInfo[] { dump }, null);
+	}
+
+	private static MBeanAttributeInfo attribute(String name) {
+		return new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false);
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] names) {
+		AttributeList list = new AttributeList();
+		for (String name : names) {
+			try {
+				list.add(new Attribute(name, getAttribute(name)));
+			} catch (Exception e) {
+				//Attributes come and go with message types and gauges. Leave out missing ones.
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		if (actionName.equals("dump")) {
+			return metrics.toString();
+		}
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read only: "+attribute.getName());
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+}
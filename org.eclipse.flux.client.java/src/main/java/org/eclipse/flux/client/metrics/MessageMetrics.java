@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.metrics;
+
+/**
+ * Receives measurements about the messages passing through the connectors of a
+ * {@link org.eclipse.flux.client.FluxClient}. Set with
+ * {@link org.eclipse.flux.client.FluxClient#setMetrics(MessageMetrics)}.
+ * <p>
+ * {@link FluxMetrics} is the default implementation. Other implementations can forward
+ * measurements to an existing monitoring system. Methods are called on the threads
+ * sending and handling messages, so they must be thread safe and should be cheap.
+ */
+public interface MessageMetrics {
+
+	/**
+	 * A value sampled on demand, such as the depth of a queue.
+	 */
+	public interface Gauge {
+		long getValue();
+	}
+
+	/**
+	 * @param bytes size of the encoded message, or -1 if the connector does not know it.
+	 */
+	void sent(String messageType, int bytes);
+
+	/**
+	 * @param bytes size of the encoded message, or -1 if the connector does not know it.
+	 */
+	void received(String messageType, int bytes);
+
+	/**
+	 * A received message was handled.
+	 *
+	 * @param queueNanos time between receiving the message and its handlers starting.
+	 * @param handlerNanos time taken by its handlers.
+	 */
+	void handled(String messageType, long queueNanos, long handlerNanos);
+
+	/**
+	 * The response to a request sent with 'request' or 'requestStream' arrived.
+	 *
+	 * @param nanos time between sending the request and receiving the (complete) response.
+	 */
+	void responded(String responseType, long nanos);
+
+	/**
+	 * Register a gauge under a name, replacing any gauge registered under the same name.
+	 */
+	void registerGauge(String name, Gauge gauge);
+
+	void unregisterGauge(String name);
+
+}
@@ -10,118 +10,227 @@
 *******************************************************************************/
 package org.eclipse.flux.client.util;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Basic implementation of Future interface. Note: Apache http libs have something similar to
  * this, but we don't want a hard dependency on that lib.
+ * <p>
+ * Besides blocking via 'get' a BasicFuture can be composed with further work
+ * (see 'thenApply', 'thenCompose' and 'allOf') in a style similar to Java 8's
+ * CompletableFuture. Composed work runs on the thread that completes the
+ * future, so no thread is parked waiting for the result.
  * 
  * @author Kris De Volder
  */
-public class BasicFuture<T> {
+public class BasicFuture<T> implements Future<T> {
 	
-	//Note we are not implementing Future interface as its too cumbersome to
-	// implement all of it. Ideally we would make this implementation
-	// fully conform to JRE's Future interface.
-
-	private boolean isDone = false;
+	/**
+	 * Guards the state of the future. A ReentrantLock rather than 'synchronized' so
+	 * that virtual threads blocked in 'get' do not pin their carrier thread.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition doneCondition = lock.newCondition();
+	
+	private volatile boolean isDone = false;
 	
 	private Throwable exception; //set when 'rejected'
 	private T value; //set when 'resolved'
 	
 	private Collection<CompletionCallback<T>> onDone;
 
-	private Timer timer;
-
-	private TimerTask timeoutTask;
-
 	public interface CompletionCallback<T> {
 		void resolved(T result);
 		void rejected(Throwable e);
 	}
 	
+	/**
+	 * A computation applied to the value of a future once it resolves.
+	 */
+	public interface Transform<T, R> {
+		R apply(T value) throws Exception;
+	}
+	
+	/**
+	 * Create a future that is already resolved with a given value.
+	 */
+	public static <T> BasicFuture<T> resolved(T value) {
+		BasicFuture<T> f = new BasicFuture<T>();
+		f.resolve(value);
+		return f;
+	}
+
+	/**
+	 * Create a future that is already rejected with a given exception.
+	 */
+	public static <T> BasicFuture<T> rejected(Throwable e) {
+		BasicFuture<T> f = new BasicFuture<T>();
+		f.reject(e);
+		return f;
+	}
+	
+	/**
+	 * Create a future that resolves with the list of values of the given futures once
+	 * all of them resolve, or rejects as soon as any of them rejects.
+	 */
+	public static <T> BasicFuture<List<T>> allOf(final List<BasicFuture<T>> futures) {
+		final BasicFuture<List<T>> all = new BasicFuture<List<T>>();
+		final Object[] values = new Object[futures.size()];
+		final AtomicInteger pending = new AtomicInteger(futures.size());
+		if (futures.isEmpty()) {
+			all.resolve(new ArrayList<T>());
+			return all;
+		}
+		for (int i = 0; i < values.length; i++) {
+			final int index = i;
+			futures.get(i).whenDone(new CompletionCallback<T>() {
+				@SuppressWarnings("unchecked")
+				public void resolved(T result) {
+					values[index] = result;
+					if (pending.decrementAndGet()==0) {
+						List<T> list = new ArrayList<T>(values.length);
+						for (Object v : values) {
+							list.add((T) v);
+						}
+						all.resolve(list);
+					}
+				}
+				public void rejected(Throwable e) {
+					all.reject(e);
+				}
+			});
+		}
+		return all;
+	}
+	
 	public boolean isDone() {
 		return isDone;
 	}
 	
-	public synchronized void resolve(T value) {
-		if (isDone) {
-			return;
-		}
-		this.value = value;
-		done();
+	public void resolve(T value) {
+		done(value, null);
 	}
 	
-	public synchronized void reject(Throwable e) {
-		if (isDone) {
-			return;
-		}
-		this.exception = e;
-		if (this.exception==null) {
-			this.exception = new RuntimeException();
+	public void reject(Throwable e) {
+		if (e==null) {
+			e = new RuntimeException();
 		}
-		done();
+		done(null, e);
 	}
 
 	/**
 	 * Transition to 'done' state. If already in the 'done' state this does nothing.
 	 */
-	private void done() {
-		Runnable runOnDone = null;
-		synchronized (this) {
+	private void done(T value, Throwable exception) {
+		Object[] callbacks = null;
+		lock.lock();
+		try {
 			if (isDone) {
 				return;
 			}
+			this.value = value;
+			this.exception = exception;
 			isDone = true;
-			notifyAll();
+			doneCondition.signalAll();
 			if (onDone!=null) {
-				final Object[] callbacks = onDone.toArray();
-				runOnDone = new Runnable() {
-					@SuppressWarnings("unchecked")
-					public void run() {
-						for (Object cb : callbacks) {
-							callback((CompletionCallback<T>) cb);
-						}
-					}
-				};
+				callbacks = onDone.toArray();
 			}
 			onDone = null;
+		} finally {
+			lock.unlock();
 		}
-		//Careful to call callbacks outside synch block. We don't know what they do and
+		//Careful to call callbacks outside the lock. We don't know what they do and
 		//they should be responsible for its own thread synch/locks. This is still
 		//thread safe because using a local variable
-		if (runOnDone!=null) {
-			runOnDone.run();
+		if (callbacks!=null) {
+			for (Object cb : callbacks) {
+				@SuppressWarnings("unchecked")
+				CompletionCallback<T> callback = (CompletionCallback<T>) cb;
+				callback(callback);
+			}
 		}
 	}
 	
-	public synchronized T get() throws InterruptedException, ExecutionException {
+	public T get() throws InterruptedException, ExecutionException {
 		waitUntilDone();
+		return getDoneValue();
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		long remaining = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (!isDone) {
+				if (remaining<=0) {
+					throw new TimeoutException();
+				}
+				remaining = doneCondition.awaitNanos(remaining);
+			}
+		} finally {
+			lock.unlock();
+		}
+		return getDoneValue();
+	}
+
+	/**
+	 * Only to be called once the future is done. The fields written before 'isDone'
+	 * was set are then safely visible because 'isDone' is volatile.
+	 */
+	private T getDoneValue() throws ExecutionException {
+		if (this.exception instanceof CancellationException) {
+			throw (CancellationException) exception;
+		}
 		if (this.exception!=null) {
 			throw new ExecutionException(exception);
 		}
 		return value;
 	}
 
-	private synchronized void waitUntilDone() throws ExecutionException {
-		while (!isDone()) {
-			try {
-				wait();
-			} catch (InterruptedException e) {
-				//ignore
+	/**
+	 * Cancelling a BasicFuture rejects it with a CancellationException. Since a
+	 * BasicFuture is not tied to a thread the 'mayInterruptIfRunning' flag is ignored.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (isDone) {
+			return false;
+		}
+		reject(new CancellationException());
+		return isCancelled();
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return isDone && exception instanceof CancellationException;
+	}
+
+	private void waitUntilDone() {
+		lock.lock();
+		try {
+			while (!isDone) {
+				doneCondition.awaitUninterruptibly();
 			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	/**
 	 * Schedule a runnable to be executed when this future transitions to 'done' state
 	 */
-	public synchronized void whenDone(final Runnable runnable) {
+	public void whenDone(final Runnable runnable) {
 		whenDone(new CompletionCallback<T>() {
 			@Override
 			public void resolved(T result) {
@@ -137,16 +246,22 @@ public class BasicFuture<T> {
 	
 	/**
 	 * Add a callback to be called on completion (i.e. when the future resolves or rejects).
+	 * If the future is already done the callback is called right away.
 	 */
-	public synchronized void whenDone(CompletionCallback<T> callback) {
-		if (isDone()) {
-			callback(callback);
-		} else {
-			if (onDone==null) {
-				onDone = new HashSet<>();
+	public void whenDone(CompletionCallback<T> callback) {
+		lock.lock();
+		try {
+			if (!isDone) {
+				if (onDone==null) {
+					onDone = new HashSet<>();
+				}
+				onDone.add(callback);
+				return;
 			}
-			onDone.add(callback);
+		} finally {
+			lock.unlock();
 		}
+		callback(callback);
 	}
 
 	private void callback(CompletionCallback<T> callback) {
@@ -157,18 +272,70 @@ public class BasicFuture<T> {
 		}
 	}
 
+	/**
+	 * Create a future that resolves with the result of applying a transform to the
+	 * value of this future. If this future rejects, or the transform throws, the
+	 * returned future rejects.
+	 */
+	public <R> BasicFuture<R> thenApply(final Transform<? super T, ? extends R> transform) {
+		final BasicFuture<R> result = new BasicFuture<R>();
+		whenDone(new CompletionCallback<T>() {
+			public void resolved(T value) {
+				try {
+					result.resolve(transform.apply(value));
+				} catch (Throwable e) {
+					result.reject(e);
+				}
+			}
+			public void rejected(Throwable e) {
+				result.reject(e);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Create a future that follows the future returned by applying a transform to the
+	 * value of this future. This allows chaining asynchronous operations, for example
+	 * sending a request once the response to a previous request has arrived.
+	 */
+	public <R> BasicFuture<R> thenCompose(final Transform<? super T, ? extends BasicFuture<R>> transform) {
+		final BasicFuture<R> result = new BasicFuture<R>();
+		whenDone(new CompletionCallback<T>() {
+			public void resolved(T value) {
+				try {
+					transform.apply(value).whenDone(new CompletionCallback<R>() {
+						public void resolved(R r) {
+							result.resolve(r);
+						}
+						public void rejected(Throwable e) {
+							result.reject(e);
+						}
+					});
+				} catch (Throwable e) {
+					result.reject(e);
+				}
+			}
+			public void rejected(Throwable e) {
+				result.reject(e);
+			}
+		});
+		return result;
+	}
+
 	/**
 	 * Ensure that this future resolves or rejects within a certain time. 
 	 * <p>
 	 * If the future is already 'done' this does nothing otherwise it 
-	 * schedules a timer task that rejects the future with a TimeoutException when
-	 * the time limit is reached. 
+	 * schedules a task on the shared {@link HashedWheelTimer} that rejects the future
+	 * with a TimeoutException when the time limit is reached. The task is cancelled
+	 * as soon as the future is done.
 	 */
 	public void setTimeout(long delay) {
 		if (isDone()) {
 			return;
 		}
-		timer().schedule(timeoutTask = new TimerTask() {
+		final HashedWheelTimer.Timeout timeout = HashedWheelTimer.getDefault().schedule(new Runnable() {
 			@Override
 			public void run() {
 				reject(new TimeoutException());
@@ -176,17 +343,9 @@ public class BasicFuture<T> {
 		}, delay);
 		whenDone(new Runnable() {
 			public void run() {
-				timeoutTask.cancel();
-				timeoutTask = null;
+				timeout.cancel();
 			}
 		});
 	}
 
-	private synchronized Timer timer() {
-		if (timer==null) {
-			timer = new Timer();
-		}
-		return timer;
-	}
-
 }
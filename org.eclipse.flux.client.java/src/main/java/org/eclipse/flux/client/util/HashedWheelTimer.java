@@ -0,0 +1,321 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A timer for large numbers of short lived timeouts, such as the timeouts on
+ * requests waiting for a response. Most such timeouts are cancelled long before
+ * they expire, so scheduling and cancelling are O(1) and cheap, at the cost of
+ * expiring timeouts only with the precision of one 'tick'.
+ * <p>
+ * Timeouts are kept in a circular array of buckets (the 'wheel'). A single daemon
+ * thread advances the wheel one bucket per tick and expires the timeouts in that
+ * bucket. Timeouts further away than one turn of the wheel carry a count of the
+ * remaining rounds.
+ * <p>
+ * Expired tasks are executed on the timer thread, so they should be short and
+ * must not block.
+ */
+public class HashedWheelTimer {
+
+	/**
+	 * Handle on a scheduled task.
+	 */
+	public interface Timeout {
+		/**
+		 * Cancel the task unless it has already expired or been cancelled.
+		 * @return true if the task was cancelled by this call.
+		 */
+		boolean cancel();
+		boolean isCancelled();
+		boolean isExpired();
+	}
+
+	private static final long DEFAULT_TICK = 100; //milliseconds
+	private static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+	/**
+	 * Maximum number of new timeouts moved from the pending queue into the wheel per tick.
+	 * Bounds the time spent per tick when a burst of timeouts gets scheduled.
+	 */
+	private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+	private static HashedWheelTimer defaultTimer;
+
+	/**
+	 * The timer shared by all Flux client code.
+	 */
+	public static synchronized HashedWheelTimer getDefault() {
+		if (defaultTimer==null) {
+			defaultTimer = new HashedWheelTimer(HashedWheelTimer.class.getName()+"_DEFAULT", DEFAULT_TICK, DEFAULT_TICKS_PER_WHEEL);
+		}
+		return defaultTimer;
+	}
+
+	private final String name;
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+
+	private final Queue<Entry> newTimeouts = new ConcurrentLinkedQueue<Entry>();
+	private final Queue<Entry> cancelledTimeouts = new ConcurrentLinkedQueue<Entry>();
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private Thread worker;
+	private volatile long startTime;
+	private volatile boolean stopped = false;
+
+	/**
+	 * @param tick Duration of a tick in milliseconds.
+	 * @param ticksPerWheel Number of buckets, rounded up to a power of two.
+	 */
+	public HashedWheelTimer(String name, long tick, int ticksPerWheel) {
+		if (tick<=0 || ticksPerWheel<=0) {
+			throw new IllegalArgumentException("tick and ticksPerWheel must be positive");
+		}
+		int size = Integer.highestOneBit(ticksPerWheel);
+		if (size<ticksPerWheel) {
+			size = size<<1;
+		}
+		this.name = name;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tick);
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Schedule a task to be executed once after a given delay in milliseconds.
+	 */
+	public Timeout schedule(Runnable task, long delay) {
+		ensureStarted();
+		long deadline = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+		Entry entry = new Entry(task, deadline);
+		pending.incrementAndGet();
+		newTimeouts.add(entry);
+		return entry;
+	}
+
+	/**
+	 * @return the number of scheduled tasks that have neither expired nor been cancelled.
+	 */
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	/**
+	 * Stop the timer thread. Tasks that have not yet expired are dropped. Not
+	 * to be called on the default timer.
+	 */
+	public synchronized void stop() {
+		if (this==defaultTimer) {
+			throw new IllegalStateException("The default timer can not be stopped");
+		}
+		stopped = true;
+		if (worker!=null) {
+			worker.interrupt();
+		}
+	}
+
+	private synchronized void ensureStarted() {
+		if (stopped) {
+			throw new IllegalStateException("Timer has been stopped");
+		}
+		if (worker==null) {
+			startTime = System.nanoTime();
+			worker = new Thread(new Runnable() {
+				public void run() {
+					work();
+				}
+			}, name);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	private void work() {
+		long tick = 0;
+		while (!stopped) {
+			long now = waitForNextTick(tick);
+			if (now<0) {
+				return;
+			}
+			processCancelled();
+			transferNewTimeouts(tick);
+			wheel[(int) (tick & mask)].expire(now);
+			tick++;
+		}
+	}
+
+	/**
+	 * Sleep until the end of the given tick.
+	 * @return the current time relative to startTime, or -1 if the timer was stopped.
+	 */
+	private long waitForNextTick(long tick) {
+		long deadline = tickNanos * (tick + 1);
+		while (true) {
+			long now = System.nanoTime() - startTime;
+			long sleepMillis = (deadline - now + 999999) / 1000000;
+			if (sleepMillis<=0) {
+				return now;
+			}
+			try {
+				Thread.sleep(sleepMillis);
+			} catch (InterruptedException e) {
+				if (stopped) {
+					return -1;
+				}
+			}
+		}
+	}
+
+	private void transferNewTimeouts(long tick) {
+		for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+			Entry entry = newTimeouts.poll();
+			if (entry==null) {
+				return;
+			}
+			if (entry.state.get()!=Entry.ST_INIT) {
+				continue;
+			}
+			long expiryTick = entry.deadline / tickNanos;
+			entry.remainingRounds = (expiryTick - tick) / wheel.length;
+			//Timeouts that should already have expired go in the current bucket.
+			wheel[(int) (Math.max(expiryTick, tick) & mask)].add(entry);
+		}
+	}
+
+	private void processCancelled() {
+		Entry entry;
+		while ((entry = cancelledTimeouts.poll())!=null) {
+			if (entry.bucket!=null) {
+				entry.bucket.remove(entry);
+			}
+		}
+	}
+
+	private final class Entry implements Timeout {
+		static final int ST_INIT = 0;
+		static final int ST_CANCELLED = 1;
+		static final int ST_EXPIRED = 2;
+
+		final Runnable task;
+		final long deadline;
+		final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+		//The fields below are only accessed by the worker thread.
+		long remainingRounds;
+		Bucket bucket;
+		Entry prev;
+		Entry next;
+
+		Entry(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+				pending.decrementAndGet();
+				cancelledTimeouts.add(this);
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state.get()==ST_CANCELLED;
+		}
+
+		@Override
+		public boolean isExpired() {
+			return state.get()==ST_EXPIRED;
+		}
+
+		void expire() {
+			if (state.compareAndSet(ST_INIT, ST_EXPIRED)) {
+				pending.decrementAndGet();
+				try {
+					task.run();
+				} catch (Throwable e) {
+					//don't let Exception fly.. or the timer thread will die!
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Doubly linked list of the timeouts in one slot of the wheel. Only accessed by the worker thread.
+	 */
+	private static final class Bucket {
+		private Entry head;
+		private Entry tail;
+
+		void add(Entry entry) {
+			entry.bucket = this;
+			if (head==null) {
+				head = tail = entry;
+			} else {
+				tail.next = entry;
+				entry.prev = tail;
+				tail = entry;
+			}
+		}
+
+		void expire(long now) {
+			Entry entry = head;
+			while (entry!=null) {
+				Entry next = entry.next;
+				if (entry.isCancelled()) {
+					remove(entry);
+				} else if (entry.remainingRounds<=0) {
+					if (entry.deadline<=now) {
+						remove(entry);
+						entry.expire();
+					}
+				} else {
+					entry.remainingRounds--;
+				}
+				entry = next;
+			}
+		}
+
+		void remove(Entry entry) {
+			if (entry.bucket!=this) {
+				return;
+			}
+			if (entry.prev!=null) {
+				entry.prev.next = entry.next;
+			} else {
+				head = entry.next;
+			}
+			if (entry.next!=null) {
+				entry.next.prev = entry.prev;
+			} else {
+				tail = entry.prev;
+			}
+			entry.prev = null;
+			entry.next = null;
+			entry.bucket = null;
+		}
+	}
+
+}
@@ -10,6 +10,10 @@
 *******************************************************************************/
 package org.eclipse.flux.client.util;
 
+import java.util.Iterator;
+
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
@@ -24,4 +28,36 @@ public class JSON {
 		return parse(new String(body, "utf8"));
 	}
 
+	/**
+	 * Create a deep copy of a JSONObject. Strings, numbers and booleans are immutable and
+	 * shared with the original.
+	 */
+	public static JSONObject copy(JSONObject obj) throws JSONException {
+		JSONObject copy = new JSONObject();
+		Iterator<?> keys = obj.keys();
+		while (keys.hasNext()) {
+			String key = (String) keys.next();
+			copy.put(key, copyValue(obj.get(key)));
+		}
+		return copy;
+	}
+
+	public static JSONArray copy(JSONArray array) throws JSONException {
+		int length = array.length();
+		JSONArray copy = new JSONArray();
+		for (int i = 0; i < length; i++) {
+			copy.put(copyValue(array.get(i)));
+		}
+		return copy;
+	}
+
+	private static Object copyValue(Object value) throws JSONException {
+		if (value instanceof JSONObject) {
+			return copy((JSONObject) value);
+		} else if (value instanceof JSONArray) {
+			return copy((JSONArray) value);
+		}
+		return value;
+	}
+
 }
@@ -12,6 +12,7 @@ package org.eclipse.flux.client.util;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Concrete implementation of Observable that provides a 'setter' method
@@ -19,10 +20,17 @@ import java.util.HashSet;
  */
 public class ObservableState<T> implements Observable<T> {
 
-	private T value;
+	private volatile T value;
 
 	private Collection<Listener<T>> listeners;
 	
+	/**
+	 * Guards 'listeners' and changes of 'value'. Never held while calling listeners, which
+	 * may read or set the state from other threads. A ReentrantLock rather than 'synchronized'
+	 * so that virtual threads waiting for it do not pin their carrier thread.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	
 	public ObservableState(T initialValue) {
 		this.value = initialValue;
 		notifyNewValue(initialValue); //Initialization is treated as a change event.
@@ -31,10 +39,13 @@ public class ObservableState<T> implements Observable<T> {
 	@SuppressWarnings("unchecked")
 	private void notifyNewValue(T value) {
 		Listener<T>[] listeners = null; 
-		synchronized (this) {
+		lock.lock();
+		try {
 			if (this.listeners!=null) {
 				listeners = this.listeners.toArray(new Listener[this.listeners.size()]);
 			}
+		} finally {
+			lock.unlock();
 		}
 		//Careful... we want to make sure we notify listeners outside synch block!
 		// TODO: actually it would be better to notify listeneres in a separate thread/stack. 
@@ -56,12 +67,15 @@ public class ObservableState<T> implements Observable<T> {
 		return value;
 	}
 	
-	public synchronized void setValue(T v) {
-		synchronized (this) {
+	public void setValue(T v) {
+		lock.lock();
+		try {
 			if (equal(this.value, v)) {
 				return;
 			}
 			this.value = v;
+		} finally {
+			lock.unlock();
 		}
 		notifyNewValue(v);
 	}
@@ -75,11 +89,14 @@ public class ObservableState<T> implements Observable<T> {
 
 	@Override
 	public void addListener(Listener<T> l) {
-		synchronized (this) {
+		lock.lock();
+		try {
 			if (this.listeners==null) {
 				this.listeners = createCollection();
 			}
 			this.listeners.add(l);
+		} finally {
+			lock.unlock();
 		}
 		notifyNewValue(l, value);
 	}
@@ -89,9 +106,14 @@ public class ObservableState<T> implements Observable<T> {
 	}
 
 	@Override
-	public synchronized void removeListener(Listener<T> l) {
-		if (this.listeners!=null) {
-			this.listeners.remove(l);
+	public void removeListener(Listener<T> l) {
+		lock.lock();
+		try {
+			if (this.listeners!=null) {
+				this.listeners.remove(l);
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -11,12 +11,20 @@
 package org.eclipse.flux.client.java;
 
 import java.util.Timer;
+import java.util.Arrays;
+import java.util.List;
 import java.util.TimerTask;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
 
+import org.eclipse.flux.client.FluxClient;
 import org.eclipse.flux.client.util.BasicFuture;
 import org.eclipse.flux.client.util.ExceptionUtil;
 
@@ -118,4 +126,110 @@ public class BasicFutureTest extends TestCase {
 			}
 		}, delay);
 	}
+	/**
+	 * Test that thenApply and thenCompose propagate values and rejections.
+	 */
+	public void testComposition() throws Exception {
+		BasicFuture<Integer> f = new BasicFuture<Integer>();
+		BasicFuture<String> composed = f.thenApply(new BasicFuture.Transform<Integer, Integer>() {
+			public Integer apply(Integer value) {
+				return value + 1;
+			}
+		}).thenCompose(new BasicFuture.Transform<Integer, BasicFuture<String>>() {
+			public BasicFuture<String> apply(Integer value) {
+				return BasicFuture.resolved("v" + value);
+			}
+		});
+		assertFalse(composed.isDone());
+		f.resolve(1);
+		assertEquals("v2", composed.get());
+		
+		BasicFuture<String> failing = BasicFuture.resolved(1).thenApply(new BasicFuture.Transform<Integer, String>() {
+			public String apply(Integer value) throws Exception {
+				throw new Exception("failed");
+			}
+		});
+		try {
+			failing.get();
+			fail("Should have thrown");
+		} catch (ExecutionException e) {
+			assertEquals("failed", e.getCause().getMessage());
+		}
+	}
+	
+	/**
+	 * Test that allOf resolves with all values in order, or rejects if any future rejects.
+	 */
+	public void testAllOf() throws Exception {
+		BasicFuture<String> a = new BasicFuture<String>();
+		BasicFuture<String> b = new BasicFuture<String>();
+		BasicFuture<List<String>> all = BasicFuture.allOf(Arrays.asList(a, b));
+		b.resolve("b");
+		assertFalse(all.isDone());
+		a.resolve("a");
+		assertEquals(Arrays.asList("a", "b"), all.get());
+		
+		BasicFuture<String> c = new BasicFuture<String>();
+		BasicFuture<List<String>> rejected = BasicFuture.allOf(Arrays.asList(c, BasicFuture.<String>rejected(new TimeoutException())));
+		try {
+			rejected.get();
+			fail("Should have thrown");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+	}
+	
+	/**
+	 * Test the java.util.concurrent.Future cancel/get(timeout) contract.
+	 */
+	public void testCancelAndTimedGet() throws Exception {
+		BasicFuture<String> f = new BasicFuture<String>();
+		try {
+			f.get(50, TimeUnit.MILLISECONDS);
+			fail("Should have timed out");
+		} catch (TimeoutException e) {
+			//expected
+		}
+		assertTrue(f.cancel(false));
+		assertTrue(f.isCancelled());
+		assertTrue(f.isDone());
+		assertFalse(f.cancel(false));
+		try {
+			f.get();
+			fail("Should have thrown");
+		} catch (CancellationException e) {
+			//expected
+		}
+	}
+
+	/**
+	 * Test that many threads blocked in 'get' are all released when the future resolves.
+	 * Uses virtual threads where the JRE supports them.
+	 */
+	public void testManyWaiters() throws Exception {
+		final BasicFuture<String> f = new BasicFuture<String>();
+		final int waiters = 1000;
+		final CountDownLatch released = new CountDownLatch(waiters);
+		ExecutorService executor = FluxClient.newVirtualThreadExecutor();
+		try {
+			for (int i = 0; i < waiters; i++) {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							if ("done".equals(f.get())) {
+								released.countDown();
+							}
+						} catch (Exception e) {
+							e.printStackTrace();
+						}
+					}
+				});
+			}
+			f.resolve("done");
+			assertTrue(released.await(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
 }
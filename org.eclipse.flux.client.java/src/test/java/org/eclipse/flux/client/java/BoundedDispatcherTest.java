@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.java;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.eclipse.flux.client.FluxClient.OverflowPolicy;
+import org.eclipse.flux.client.impl.BoundedDispatcher;
+import org.eclipse.flux.client.impl.UnorderedDispatcher;
+import org.json.JSONObject;
+
+public class BoundedDispatcherTest extends TestCase {
+
+	private ExecutorService executor;
+	private CountDownLatch release;
+
+	@Override
+	protected void setUp() throws Exception {
+		executor = Executors.newCachedThreadPool();
+		release = new CountDownLatch(1);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		release.countDown();
+		executor.shutdownNow();
+	}
+
+	private BoundedDispatcher dispatcher(OverflowPolicy policy) {
+		return new BoundedDispatcher(new UnorderedDispatcher(executor), 2, policy, Arrays.asList("resourceChanged"));
+	}
+
+	private JSONObject message(String resource) throws Exception {
+		return new JSONObject().put("username", "Bob").put("project", "p").put("resource", resource);
+	}
+
+	private Runnable blocked() {
+		return new Runnable() {
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					//ignore
+				}
+			}
+		};
+	}
+
+	private Runnable record(final List<String> handled, final String name) {
+		return new Runnable() {
+			public void run() {
+				handled.add(name);
+			}
+		};
+	}
+
+	public void testReject() throws Exception {
+		BoundedDispatcher d = dispatcher(OverflowPolicy.REJECT);
+		assertTrue(d.dispatch("liveResourceChanged", message("a"), blocked()));
+		assertTrue(d.dispatch("liveResourceChanged", message("b"), blocked()));
+		assertFalse(d.dispatch("getResourceRequest", message("c"), blocked()));
+		assertEquals(1, d.getRejectedCount());
+		//Responses are never refused
+		assertTrue(d.dispatch("getResourceResponse", message("d"), blocked()));
+		assertEquals(3, d.getQueueDepth());
+	}
+
+	public void testDropSuperseded() throws Exception {
+		BoundedDispatcher d = dispatcher(OverflowPolicy.DROP_SUPERSEDED);
+		List<String> handled = new CopyOnWriteArrayList<String>();
+		d.dispatch("liveResourceChanged", message("a"), blocked());
+		d.dispatch("liveResourceChanged", message("b"), blocked());
+		assertTrue(d.dispatch("resourceChanged", message("x"), record(handled, "x1")));
+		assertTrue(d.dispatch("resourceChanged", message("y"), record(handled, "y")));
+		assertTrue(d.dispatch("resourceChanged", message("x"), record(handled, "x2")));
+		assertEquals(1, d.getCoalescedCount());
+		//Other messages, and supersedable ones with no room left to park them, are refused rather than waiting
+		assertFalse(d.dispatch("liveResourceChanged", message("c"), record(handled, "c")));
+		assertFalse(d.dispatch("resourceChanged", message("z"), record(handled, "z")));
+		assertEquals(2, d.getRejectedCount());
+		assertEquals(4, d.getQueueDepth());
+
+		release.countDown();
+		for (int i = 0; d.getQueueDepth()>0 && i < 100; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, d.getQueueDepth());
+		assertEquals(2, handled.size());
+		assertTrue(handled.contains("x2"));
+		assertTrue(handled.contains("y"));
+	}
+
+	public void testBlock() throws Exception {
+		final BoundedDispatcher d = dispatcher(OverflowPolicy.BLOCK);
+		d.dispatch("liveResourceChanged", message("a"), blocked());
+		d.dispatch("liveResourceChanged", message("b"), blocked());
+		final CountDownLatch admitted = new CountDownLatch(1);
+		Thread receiver = new Thread() {
+			public void run() {
+				try {
+					d.dispatch("liveResourceChanged", message("c"), new Runnable() {
+						public void run() {
+						}
+					});
+					admitted.countDown();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		receiver.start();
+		assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+		release.countDown();
+		assertTrue(admitted.await(5, TimeUnit.SECONDS));
+	}
+
+}
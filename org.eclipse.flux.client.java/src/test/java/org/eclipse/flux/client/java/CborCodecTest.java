@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.java;
+
+import junit.framework.TestCase;
+
+import org.eclipse.flux.client.codec.CborCodec;
+import org.eclipse.flux.client.codec.MessageCodec;
+import org.eclipse.flux.client.codec.MessageCodecs;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class CborCodecTest extends TestCase {
+
+	private MessageCodec cbor = new CborCodec();
+
+	private JSONObject roundTrip(JSONObject msg) throws Exception {
+		return cbor.decode(cbor.encode(msg));
+	}
+
+	public void testRoundTrip() throws Exception {
+		JSONObject msg = new JSONObject()
+			.put("username", "Bob")
+			.put("content", "line 1\n\t\"quoted\" caf\u00e9 \u2603 \ud83d\ude00")
+			.put("empty", "")
+			.put("small", 7)
+			.put("negative", -300)
+			.put("int", Integer.MAX_VALUE)
+			.put("long", Long.MIN_VALUE)
+			.put("timestamp", 1413331200000L)
+			.put("double", 3.25)
+			.put("yes", true)
+			.put("no", false)
+			.put("nothing", JSONObject.NULL)
+			.put("nested", new JSONObject().put("a", new JSONArray().put(1).put("two").put(new JSONArray())));
+		JSONObject decoded = roundTrip(msg);
+		assertEquals(msg.length(), decoded.length());
+		assertEquals(msg.getString("content"), decoded.getString("content"));
+		assertEquals("", decoded.getString("empty"));
+		assertEquals(7, decoded.getInt("small"));
+		assertEquals(-300, decoded.getInt("negative"));
+		assertEquals(Integer.MAX_VALUE, decoded.getInt("int"));
+		assertEquals(Long.MIN_VALUE, decoded.getLong("long"));
+		assertEquals(1413331200000L, decoded.getLong("timestamp"));
+		assertEquals(3.25, decoded.getDouble("double"));
+		assertTrue(decoded.getBoolean("yes"));
+		assertFalse(decoded.getBoolean("no"));
+		assertTrue(decoded.isNull("nothing"));
+		JSONArray a = decoded.getJSONObject("nested").getJSONArray("a");
+		assertEquals(1, a.getInt(0));
+		assertEquals("two", a.getString(1));
+		assertEquals(0, a.getJSONArray(2).length());
+	}
+
+	/**
+	 * Test decoding of encodings other implementations may produce: indefinite lengths,
+	 * half precision floats and tags.
+	 */
+	public void testDecodeForeignEncodings() throws Exception {
+		byte[] bytes = {
+			(byte)0xbf,                                   //map, indefinite length
+			0x61, 'a', (byte)0x9f, 0x01, 0x02, (byte)0xff, //"a": [1, 2]
+			0x61, 'h', (byte)0xf9, 0x3e, 0x00,            //"h": 1.5 (half float)
+			0x61, 't', (byte)0xc1, 0x1a, 0x54, 0x3d, (byte)0xb2, 0x00, //"t": 1(1413329408) (epoch tag)
+			0x61, 's', 0x7f, 0x62, 'a', 'b', 0x61, 'c', (byte)0xff, //"s": "ab" "c"
+			(byte)0xff
+		};
+		JSONObject decoded = cbor.decode(bytes);
+		assertEquals(2, decoded.getJSONArray("a").length());
+		assertEquals(1.5, decoded.getDouble("h"));
+		assertEquals(1413329408L, decoded.getLong("t"));
+		assertEquals("abc", decoded.getString("s"));
+	}
+
+	public void testMalformed() throws Exception {
+		byte[] bytes = cbor.encode(new JSONObject().put("content", "some text"));
+		byte[] truncated = new byte[bytes.length - 3];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+		try {
+			cbor.decode(truncated);
+			fail("Truncated message should not decode");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+		try {
+			cbor.decode(new byte[] { 0x01 });
+			fail("Only maps are messages");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	/**
+	 * File contents are the bulk of flux traffic. CBOR sends them without escaping.
+	 */
+	public void testSmallerThanJson() throws Exception {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			content.append("\tSystem.out.println(\"Hello \" + name + \"!\");\n");
+		}
+		JSONObject msg = new JSONObject()
+			.put("username", "Bob")
+			.put("project", "demo")
+			.put("resource", "src/Hello.java")
+			.put("timestamp", 1413331200000L)
+			.put("content", content.toString());
+		int json = MessageCodecs.JSON.encode(msg).length;
+		int binary = cbor.encode(msg).length;
+		assertTrue("cbor="+binary+" json="+json, binary < json * 0.9);
+	}
+
+	public void testNegotiation() throws Exception {
+		assertSame(MessageCodecs.JSON, MessageCodecs.forContentType(null));
+		assertSame(MessageCodecs.CBOR, MessageCodecs.forContentType(CborCodec.CONTENT_TYPE));
+		assertNull(MessageCodecs.forContentType("application/x-bogus"));
+		assertTrue(MessageCodecs.accepts(MessageCodecs.getAccepted(), CborCodec.CONTENT_TYPE));
+		//Peers that predate codecs do not advertise anything
+		assertFalse(MessageCodecs.accepts(null, CborCodec.CONTENT_TYPE));
+		assertTrue(MessageCodecs.accepts(null, "application/json"));
+	}
+
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.java;
+
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.eclipse.flux.client.codec.EncodeBuffer;
+import org.eclipse.flux.client.codec.MessageCodecs;
+import org.json.JSONObject;
+
+public class EncodeBufferTest extends TestCase {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String[] SAMPLES = {
+		"",
+		"plain ascii",
+		"caf\u00e9 \u20ac",
+		"emoji \ud83d\ude00 pair",
+		"lone high \ud83d at the end \ud83d",
+		"lone low \ude00 in the middle",
+		"two high \ud83d\ud83dahead of ascii",
+	};
+
+	/**
+	 * Encodes exactly like String.getBytes, also for unpaired surrogates.
+	 */
+	public void testUtf8() throws Exception {
+		for (String s : SAMPLES) {
+			byte[] expected = s.getBytes(UTF8);
+			EncodeBuffer out = EncodeBuffer.get();
+			out.writeUtf8(s);
+			assertTrue(s, Arrays.equals(expected, out.toByteArray()));
+			assertEquals(s, expected.length, EncodeBuffer.utf8Length(s));
+
+			//One char at a time, so surrogate pairs are split across writes.
+			out = EncodeBuffer.get();
+			Writer writer = out.writer();
+			for (int i = 0; i < s.length(); i++) {
+				writer.write(s.charAt(i));
+			}
+			writer.flush();
+			assertTrue(s, Arrays.equals(expected, out.toByteArray()));
+
+			//Two strings, split at every position.
+			for (int split = 0; split <= s.length(); split++) {
+				out = EncodeBuffer.get();
+				writer = out.writer();
+				writer.write(s, 0, split);
+				writer.write(s, split, s.length() - split);
+				writer.flush();
+				assertTrue(s + " split at " + split, Arrays.equals(expected, out.toByteArray()));
+			}
+		}
+	}
+
+	public void testJsonCodec() throws Exception {
+		StringBuilder big = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			big.append("line \"" + i + "\" \u00e9\n");
+		}
+		JSONObject message = new JSONObject()
+			.put("type", "getResourceResponse")
+			.put("data", new JSONObject()
+				.put("content", big.toString())
+				.put("timestamp", 1234567890123L)
+			);
+		byte[] encoded = MessageCodecs.JSON.encode(message);
+		assertTrue(Arrays.equals(message.toString().getBytes(UTF8), encoded));
+		assertEquals(message.toString(), MessageCodecs.JSON.decode(encoded).toString());
+	}
+
+}
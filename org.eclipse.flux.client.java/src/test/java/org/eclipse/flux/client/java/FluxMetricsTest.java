@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.java;
+
+import static org.eclipse.flux.client.MessageConstants.USERNAME;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import org.eclipse.flux.client.FluxClient;
+import org.eclipse.flux.client.MessageConnector;
+import org.eclipse.flux.client.RequestResponseHandler;
+import org.eclipse.flux.client.config.LoopbackFluxConfig;
+import org.eclipse.flux.client.impl.LoopbackBus;
+import org.eclipse.flux.client.metrics.FluxMetrics;
+import org.eclipse.flux.client.metrics.Histogram;
+import org.eclipse.flux.client.metrics.JmxExporter;
+import org.json.JSONObject;
+
+public class FluxMetricsTest extends TestCase {
+
+	public void testHistogram() throws Exception {
+		Histogram h = new Histogram();
+		assertEquals(0, h.getPercentileMicros(0.99));
+		for (int i = 1; i <= 100; i++) {
+			h.record(i * 1000L);
+		}
+		assertEquals(100, h.getCount());
+		assertEquals(50, h.getMeanMicros());
+		assertEquals(100, h.getMaxMicros());
+		//Within a factor of two of the actual percentile.
+		long p50 = h.getPercentileMicros(0.5);
+		assertTrue(""+p50, p50>=50 && p50<100);
+		assertEquals(100, h.getPercentileMicros(1.0));
+	}
+
+	/**
+	 * Requests and responses are counted on both ends, and the requester records the latency.
+	 */
+	public void testRequestResponseMetrics() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		FluxMetrics metrics = new FluxMetrics();
+		FluxClient client = new FluxClient(executor).setMetrics(metrics);
+		LoopbackBus bus = new LoopbackBus();
+		MessageConnector service = new LoopbackFluxConfig("Bob", bus).connect(client);
+		MessageConnector requester = new LoopbackFluxConfig("Bob", bus).connect(client);
+		ObjectName name = JmxExporter.register(metrics, "FluxMetricsTest");
+		try {
+			service.connectToChannelSync("Bob");
+			service.addMessageHandler(new RequestResponseHandler(service, "echoRequest") {
+				@Override
+				protected JSONObject fillResponse(String type, JSONObject req, JSONObject res) throws Exception {
+					return res.put("echo", req.getInt("value"));
+				}
+			});
+			for (int i = 0; i < 5; i++) {
+				requester.request("echoRequest", new JSONObject().put(USERNAME, "Bob").put("value", i)).get();
+			}
+
+			FluxMetrics.TypeMetrics request = metrics.getType("echoRequest");
+			assertEquals(5, request.getSent());
+			assertEquals(5, request.getReceived());
+			//Handler time is recorded after the handler sent the response.
+			long deadline = System.currentTimeMillis() + AbstractFluxClientTest.TIMEOUT;
+			while (request.getHandlerTime().getCount()<5 && System.currentTimeMillis()<deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(5, request.getHandlerTime().getCount());
+
+			FluxMetrics.TypeMetrics response = metrics.getType("echoResponse");
+			assertEquals(5, response.getSent());
+			assertEquals(5, response.getReceived());
+			assertEquals(5, response.getResponseLatency().getCount());
+
+			assertTrue(metrics.getGauges().containsKey("dispatcher.queueDepth"));
+			assertTrue(metrics.toString(), metrics.toString().contains("echoResponse: sent=5"));
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(5L, server.getAttribute(name, "echoRequest.sent"));
+			assertEquals(5L, server.getAttribute(name, "echoResponse.responseCount"));
+			assertEquals(metrics.toString(), server.invoke(name, "dump", new Object[0], new String[0]));
+		} finally {
+			JmxExporter.unregister(name);
+			service.disconnect();
+			requester.disconnect();
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.java;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.eclipse.flux.client.util.BasicFuture;
+import org.eclipse.flux.client.util.HashedWheelTimer;
+import org.eclipse.flux.client.util.HashedWheelTimer.Timeout;
+
+public class HashedWheelTimerTest extends TestCase {
+
+	private HashedWheelTimer timer;
+
+	@Override
+	protected void setUp() throws Exception {
+		//Small wheel so that the tests also cover timeouts spanning several rounds.
+		timer = new HashedWheelTimer("test", 10, 4);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		timer.stop();
+	}
+
+	public void testExpiry() throws Exception {
+		final CountDownLatch expired = new CountDownLatch(2);
+		long start = System.currentTimeMillis();
+		timer.schedule(countDown(expired), 20);
+		timer.schedule(countDown(expired), 150);
+		assertEquals(2, timer.getPendingCount());
+		assertTrue(expired.await(2, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start >= 150);
+		assertEquals(0, timer.getPendingCount());
+	}
+
+	public void testCancel() throws Exception {
+		final AtomicInteger runs = new AtomicInteger();
+		Timeout timeout = timer.schedule(new Runnable() {
+			public void run() {
+				runs.incrementAndGet();
+			}
+		}, 50);
+		assertTrue(timeout.cancel());
+		assertFalse(timeout.cancel());
+		assertTrue(timeout.isCancelled());
+		assertEquals(0, timer.getPendingCount());
+		Thread.sleep(150);
+		assertEquals(0, runs.get());
+		assertFalse(timeout.isExpired());
+	}
+
+	/**
+	 * Test that completing a future cancels its timeout on the shared timer.
+	 */
+	public void testFutureCancelsTimeout() throws Exception {
+		HashedWheelTimer shared = HashedWheelTimer.getDefault();
+		int before = shared.getPendingCount();
+		BasicFuture<String> f = new BasicFuture<String>();
+		f.setTimeout(60000);
+		assertEquals(before + 1, shared.getPendingCount());
+		f.resolve("done");
+		assertEquals(before, shared.getPendingCount());
+	}
+
+	private Runnable countDown(final CountDownLatch latch) {
+		return new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		};
+	}
+
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.java;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+import org.eclipse.flux.client.impl.LaneDispatcher;
+import org.json.JSONObject;
+
+public class LaneDispatcherTest extends TestCase {
+
+	private ExecutorService executor;
+
+	@Override
+	protected void setUp() throws Exception {
+		executor = Executors.newFixedThreadPool(8);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	private JSONObject message(String user, String project, String resource) throws Exception {
+		return new JSONObject()
+			.put("username", user)
+			.put("project", project)
+			.put("resource", resource);
+	}
+
+	/**
+	 * Test that messages about the same resource are handled in the order they were dispatched.
+	 */
+	public void testOrderPerResource() throws Exception {
+		LaneDispatcher dispatcher = new LaneDispatcher(executor, 4);
+		final int count = 1000;
+		final String[] files = {"a.java", "b.java", "c.java"};
+		final List<List<Integer>> seen = new ArrayList<List<Integer>>();
+		final CountDownLatch done = new CountDownLatch(count * files.length);
+		for (int f = 0; f < files.length; f++) {
+			seen.add(Collections.synchronizedList(new ArrayList<Integer>()));
+		}
+		for (int i = 0; i < count; i++) {
+			for (int f = 0; f < files.length; f++) {
+				final List<Integer> list = seen.get(f);
+				final int seq = i;
+				dispatcher.dispatch("liveResourceChanged", message("Bob", "p", files[f]), new Runnable() {
+					public void run() {
+						list.add(seq);
+						done.countDown();
+					}
+				});
+			}
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		for (List<Integer> list : seen) {
+			assertEquals(count, list.size());
+			for (int i = 0; i < count; i++) {
+				assertEquals(i, (int)list.get(i));
+			}
+		}
+		//Depth drops just after a task completes, so allow for the last task to finish.
+		for (int i = 0; dispatcher.getQueueDepth()>0 && i < 100; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, dispatcher.getQueueDepth());
+	}
+
+	/**
+	 * Test that a lane the executor rejects refuses the message, and is scheduled
+	 * again for later messages rather than losing them.
+	 */
+	public void testRejectedLane() throws Exception {
+		final AtomicBoolean reject = new AtomicBoolean(true);
+		LaneDispatcher dispatcher = new LaneDispatcher(new Executor() {
+			public void execute(Runnable command) {
+				if (reject.get()) {
+					throw new RejectedExecutionException();
+				}
+				executor.execute(command);
+			}
+		}, 4);
+		assertFalse(dispatcher.dispatch("resourceChanged", message("Bob", "p", "a.java"), new Runnable() {
+			public void run() {
+			}
+		}));
+		assertEquals(0, dispatcher.getQueueDepth());
+
+		reject.set(false);
+		final CountDownLatch done = new CountDownLatch(1);
+		dispatcher.dispatch("resourceChanged", message("Bob", "p", "a.java"), new Runnable() {
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Test that messages another thread adds to a lane while the executor is rejecting it
+	 * are still handled, since their dispatch was accepted.
+	 */
+	public void testRejectedLaneKeepsAcceptedMessages() throws Exception {
+		final CountDownLatch rejecting = new CountDownLatch(1);
+		final CountDownLatch added = new CountDownLatch(1);
+		final LaneDispatcher dispatcher = new LaneDispatcher(new Executor() {
+			public void execute(Runnable command) {
+				rejecting.countDown();
+				try {
+					added.await();
+				} catch (InterruptedException e) {
+					//ignore
+				}
+				throw new RejectedExecutionException();
+			}
+		}, 4);
+		final AtomicBoolean rejectedRan = new AtomicBoolean();
+		final AtomicBoolean firstAccepted = new AtomicBoolean(true);
+		Thread first = new Thread() {
+			public void run() {
+				try {
+					firstAccepted.set(dispatcher.dispatch("resourceChanged", message("Bob", "p", "a.java"), new Runnable() {
+						public void run() {
+							rejectedRan.set(true);
+						}
+					}));
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		first.start();
+		assertTrue(rejecting.await(5, TimeUnit.SECONDS));
+
+		final CountDownLatch done = new CountDownLatch(1);
+		assertTrue(dispatcher.dispatch("resourceChanged", message("Bob", "p", "a.java"), new Runnable() {
+			public void run() {
+				done.countDown();
+			}
+		}));
+		added.countDown();
+		first.join(5000);
+
+		assertFalse(firstAccepted.get());
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertFalse(rejectedRan.get());
+		assertEquals(0, dispatcher.getQueueDepth());
+	}
+
+	/**
+	 * Test that a blocked lane does not hold up messages in other lanes, and that
+	 * its queue depth is reported.
+	 */
+	public void testLanesRunInParallel() throws Exception {
+		LaneDispatcher dispatcher = new LaneDispatcher(executor, 3);
+		assertEquals(4, dispatcher.getLaneCount());
+
+		final CountDownLatch release = new CountDownLatch(1);
+		JSONObject blocked = message("Bob", "p", "blocked.java");
+		for (int i = 0; i < 3; i++) {
+			dispatcher.dispatch("liveResourceChanged", blocked, new Runnable() {
+				public void run() {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						//ignore
+					}
+				}
+			});
+		}
+		assertEquals(3, dispatcher.getQueueDepth());
+
+		//Find a resource that maps to a different lane than the blocked one.
+		int blockedLane = -1;
+		for (int i = 0; i < dispatcher.getLaneCount(); i++) {
+			if (dispatcher.getLaneDepth(i)==3) {
+				blockedLane = i;
+			}
+		}
+		assertTrue(blockedLane>=0);
+		final CountDownLatch other = new CountDownLatch(1);
+		for (int i = 0; other.getCount()>0 && i < 100; i++) {
+			dispatcher.dispatch("liveResourceChanged", message("Bob", "p", "other"+i+".java"), new Runnable() {
+				public void run() {
+					other.countDown();
+				}
+			});
+		}
+		assertTrue(other.await(5, TimeUnit.SECONDS));
+		//Some of the 'other' resources may have landed in the blocked lane behind the blocked tasks.
+		assertTrue(dispatcher.getLaneDepths()[blockedLane]>=3);
+		release.countDown();
+	}
+
+}
@@ -0,0 +1,483 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.java;
+
+import static org.eclipse.flux.client.MessageConstants.CALLBACK_ID;
+import static org.eclipse.flux.client.MessageConstants.CHUNK;
+import static org.eclipse.flux.client.MessageConstants.CHUNKED;
+import static org.eclipse.flux.client.MessageConstants.LAST_CHUNK;
+import static org.eclipse.flux.client.MessageConstants.REQUEST_SENDER_ID;
+import static org.eclipse.flux.client.MessageConstants.STREAM_ID;
+import static org.eclipse.flux.client.MessageConstants.SUPER_USER;
+import static org.eclipse.flux.client.MessageConstants.USERNAME;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.flux.client.FluxClient;
+import org.eclipse.flux.client.FluxClient.OverflowPolicy;
+import org.eclipse.flux.client.IMessageHandler;
+import org.eclipse.flux.client.MessageConnector;
+import org.eclipse.flux.client.MessageHandler;
+import org.eclipse.flux.client.RequestResponseHandler;
+import org.eclipse.flux.client.ResponseCorrelator;
+import org.eclipse.flux.client.ResponseStreamHandler;
+import org.eclipse.flux.client.config.LoopbackFluxConfig;
+import org.eclipse.flux.client.impl.AbstractMessageConnector;
+import org.eclipse.flux.client.impl.LoopbackBus;
+import org.eclipse.flux.client.util.BasicFuture;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class LoopbackFluxClientTest extends AbstractFluxClientTest {
+
+	private FluxClient client = FluxClient.DEFAULT_INSTANCE;
+
+	/**
+	 * Each test gets its own bus, so tests can not see each other's messages.
+	 */
+	private LoopbackBus bus;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		bus = new LoopbackBus();
+	}
+
+	@Override
+	protected MessageConnector createConnection(String user) throws Exception {
+		return new LoopbackFluxConfig(user, bus).connect(client);
+	}
+
+	public void testSendAndReceive() throws Exception {
+		final Process<Void> sender = new Process<Void>("Bob") {
+			protected Void execute() throws Exception {
+				send("bork", new JSONObject()
+					.put(USERNAME, "Bob")
+					.put("msg", "Hello")
+				);
+				return null;
+			}
+		};
+
+		final Process<String> receiver = new Process<String>("Bob") {
+			protected String execute() throws Exception {
+				BasicFuture<JSONObject> msg = areceive("bork");
+				sender.start();
+				return msg.get().getString("msg");
+			}
+		};
+
+		receiver.start();
+		await(sender, receiver);
+		assertEquals("Hello", receiver.result.get());
+	}
+
+	/**
+	 * Messages are not delivered back to the connector that sent them, nor to
+	 * connectors of other users. The super user receives messages for everyone.
+	 */
+	public void testRouting() throws Exception {
+		final CountDownLatch allListening = new CountDownLatch(3);
+
+		Process<String> root = receiveOne(SUPER_USER, allListening);
+		Process<String> bob = receiveOne("Bob", allListening);
+		Process<String> alice = receiveOne("Alice", allListening);
+		Process<Void> sender = new Process<Void>("Bob") {
+			protected Void execute() throws Exception {
+				BasicFuture<JSONObject> self = areceive("bork");
+				allListening.await();
+				send("bork", new JSONObject()
+					.put(USERNAME, "Bob")
+					.put("msg", "Hello")
+				);
+				assertError(TimeoutException.class, self);
+				return null;
+			}
+		};
+		run(root, bob, alice, sender);
+		assertEquals("Hello", root.result.get());
+		assertEquals("Hello", bob.result.get());
+		assertNull(alice.result.get());
+	}
+
+	private Process<String> receiveOne(String user, final CountDownLatch listening) throws Exception {
+		return new Process<String>(user) {
+			protected String execute() throws Exception {
+				BasicFuture<JSONObject> msg = areceive("bork");
+				listening.countDown();
+				try {
+					return msg.get().getString("msg");
+				} catch (Exception e) {
+					return null;
+				}
+			}
+		};
+	}
+
+	public void testRequestResponse() throws Exception {
+		final BasicFuture<Void> serviceStarted = new BasicFuture<Void>();
+		final BasicFuture<Void> quitRequested = new BasicFuture<Void>();
+
+		Process<Void> service = new Process<Void>(SUPER_USER) {
+			protected Void execute() throws Exception {
+				conn.addMessageHandler(new RequestResponseHandler(conn, "echoRequest") {
+					@Override
+					protected JSONObject fillResponse(String type, JSONObject req, JSONObject res) throws Exception {
+						if (req.has("error")) {
+							throw new IllegalArgumentException(req.getString("error"));
+						}
+						return res.put("echo", req.getInt("value"));
+					}
+				});
+				serviceStarted.resolve(null);
+				return quitRequested.get();
+			}
+		};
+
+		Process<Void> bob = new Process<Void>("Bob") {
+			protected Void execute() throws Exception {
+				serviceStarted.get();
+				try {
+					for (int i = 0; i < 10; i++) {
+						JSONObject res = conn.request("echoRequest", new JSONObject()
+							.put(USERNAME, "Bob")
+							.put("value", i)
+						).get();
+						assertEquals(i, res.getInt("echo"));
+					}
+					assertError("bogus", conn.request("echoRequest", new JSONObject()
+						.put(USERNAME, "Bob")
+						.put("error", "bogus")
+					));
+				} finally {
+					quitRequested.resolve(null);
+				}
+				return null;
+			}
+		};
+
+		run(service, bob);
+	}
+
+	/**
+	 * Changes a handler makes to a message are not seen by the sender or other handlers.
+	 */
+	public void testRecipientsGetCopies() throws Exception {
+		MessageConnector sender = createConnection("Bob");
+		MessageConnector receiver1 = createConnection("Bob");
+		MessageConnector receiver2 = createConnection("Bob");
+		try {
+			receiver1.connectToChannelSync("Bob");
+			receiver2.connectToChannelSync("Bob");
+			final CountDownLatch received = new CountDownLatch(2);
+			final String[] seen = new String[2];
+			for (int i = 0; i < 2; i++) {
+				final int index = i;
+				(i==0 ? receiver1 : receiver2).addMessageHandler(new MessageHandler("bork") {
+					@Override
+					public void handle(String type, JSONObject message) {
+						try {
+							JSONObject nested = message.getJSONObject("nested");
+							seen[index] = nested.getString("msg");
+							nested.put("msg", "Changed by "+index);
+						} catch (Exception e) {
+							e.printStackTrace();
+						}
+						received.countDown();
+					}
+				});
+			}
+			JSONObject msg = new JSONObject()
+				.put(USERNAME, "Bob")
+				.put("nested", new JSONObject().put("msg", "Hello"));
+			sender.send("bork", msg);
+			assertTrue(received.await(TIMEOUT, TimeUnit.MILLISECONDS));
+			assertEquals("Hello", seen[0]);
+			assertEquals("Hello", seen[1]);
+			assertEquals("Hello", msg.getJSONObject("nested").getString("msg"));
+		} finally {
+			sender.disconnect();
+			receiver1.disconnect();
+			receiver2.disconnect();
+		}
+	}
+
+	public void testChannelPermissions() throws Exception {
+		MessageConnector conn = createConnection("Bob");
+		try {
+			conn.connectToChannelSync("Bob");
+			assertTrue(conn.isConnected("Bob"));
+			try {
+				conn.connectToChannelSync("Alice");
+				fail("Bob should not be able to join Alice's channel");
+			} catch (Exception e) {
+				//expected
+			}
+			assertFalse(conn.isConnected("Alice"));
+			conn.disconnectFromChannelSync("Bob");
+			assertFalse(conn.isConnected("Bob"));
+		} finally {
+			conn.disconnect();
+		}
+		assertFalse(conn.isConnected());
+	}
+
+	/**
+	 * Chunks are seen in sequence order, and only those of the first responder. A
+	 * responder that does not chunk its response is treated as sending a single chunk.
+	 */
+	public void testRequestStream() throws Exception {
+		MessageConnector requester = createConnection("Bob");
+		MessageConnector responder1 = createConnection("Bob");
+		MessageConnector responder2 = createConnection("Bob");
+		MessageConnector plain = createConnection("Alice");
+		try {
+			responder1.connectToChannelSync("Bob");
+			responder2.connectToChannelSync("Bob");
+			plain.connectToChannelSync("Alice");
+			responder1.addMessageHandler(new ChunkedResponder(responder1, "abc", new int[] {2, 0, 1}));
+			responder2.addMessageHandler(new ChunkedResponder(responder2, "xyz", new int[] {1, 2, 0}));
+			plain.addMessageHandler(new RequestResponseHandler(plain, "chunkyRequest") {
+				@Override
+				protected JSONObject fillResponse(String type, JSONObject req, JSONObject res) throws Exception {
+					assertTrue(req.getBoolean(CHUNKED));
+					return res.put("content", "whole");
+				}
+			});
+
+			for (int i = 0; i < 10; i++) {
+				final StringBuilder content = new StringBuilder();
+				requester.requestStream("chunkyRequest", new JSONObject().put(USERNAME, "Bob"), TIMEOUT, new ResponseStreamHandler() {
+					public void chunk(JSONObject response) throws Exception {
+						content.append(response.getString("content"));
+					}
+				}).get();
+				assertTrue(content.toString(), content.toString().equals("abc") || content.toString().equals("xyz"));
+			}
+
+			final StringBuilder content = new StringBuilder();
+			requester.requestStream("chunkyRequest", new JSONObject().put(USERNAME, "Alice"), TIMEOUT, new ResponseStreamHandler() {
+				public void chunk(JSONObject response) throws Exception {
+					content.append(response.getString("content"));
+				}
+			}).get();
+			assertEquals("whole", content.toString());
+		} finally {
+			requester.disconnect();
+			responder1.disconnect();
+			responder2.disconnect();
+			plain.disconnect();
+		}
+	}
+
+	/**
+	 * Where the transport adds no 'responseSenderID' (socket.io does not), the chunks of two
+	 * responders are told apart by their 'streamID', and only the first responder's are seen.
+	 */
+	public void testRequestStreamWithoutSenderIDs() throws Exception {
+		MessageConnector requester = createConnection("Bob");
+		try {
+			final StringBuilder content = new StringBuilder();
+			JSONObject request = new JSONObject().put(USERNAME, "Bob");
+			BasicFuture<Void> done = requester.requestStream("chunkyRequest", request, TIMEOUT, new ResponseStreamHandler() {
+				public void chunk(JSONObject response) throws Exception {
+					content.append(response.getString("content"));
+				}
+			});
+			int callbackID = request.getInt(CALLBACK_ID);
+			//Interleaved and without 'responseSenderID'.
+			String[][] chunks = {{"a", "0", "a"}, {"b", "0", "x"}, {"b", "1", "y"}, {"a", "1", "b"}, {"a", "2", "c"}};
+			for (String[] c : chunks) {
+				int seq = Integer.parseInt(c[1]);
+				JSONObject chunk = new JSONObject()
+					.put(USERNAME, "Bob")
+					.put(CALLBACK_ID, callbackID)
+					.put(STREAM_ID, c[0])
+					.put("content", c[2])
+					.put(CHUNK, seq)
+					.put(LAST_CHUNK, seq == (c[0].equals("a") ? 2 : 1));
+				deliver(requester, "chunkyResponse", chunk);
+			}
+			done.get();
+			assertEquals("abc", content.toString());
+		} finally {
+			requester.disconnect();
+		}
+	}
+
+	/**
+	 * A paged listing like 'getProjectResponse', answered by two responders without
+	 * 'responseSenderID', is done with the last page of the responder it started with, not
+	 * when the shorter listing of the other one ends.
+	 */
+	public void testPagedListingFromTwoResponders() throws Exception {
+		MessageConnector requester = createConnection("Bob");
+		try {
+			final List<String> files = new ArrayList<String>();
+			JSONObject request = new JSONObject().put(USERNAME, "Bob").put("project", "p");
+			BasicFuture<Void> done = requester.requestStream("getProjectRequest", request, TIMEOUT, new ResponseStreamHandler() {
+				public void chunk(JSONObject page) throws Exception {
+					JSONArray pageFiles = page.getJSONArray("files");
+					for (int i = 0; i < pageFiles.length(); i++) {
+						files.add(pageFiles.getJSONObject(i).getString("path"));
+					}
+				}
+			});
+			int callbackID = request.getInt(CALLBACK_ID);
+			deliver(requester, "getProjectResponse", page(callbackID, "big", 0, false, "a", "b"));
+			deliver(requester, "getProjectResponse", page(callbackID, "small", 0, true, "x"));
+			assertFalse(done.isDone());
+			deliver(requester, "getProjectResponse", page(callbackID, "big", 1, false, "c"));
+			deliver(requester, "getProjectResponse", page(callbackID, "big", 2, true));
+			done.get();
+			assertEquals(Arrays.asList("a", "b", "c"), files);
+		} finally {
+			requester.disconnect();
+		}
+	}
+
+	private static JSONObject page(int callbackID, String streamID, int chunk, boolean last, String... paths) throws Exception {
+		JSONArray files = new JSONArray();
+		for (String path : paths) {
+			files.put(new JSONObject().put("path", path).put("type", "file"));
+		}
+		return new JSONObject()
+			.put(USERNAME, "Bob")
+			.put("project", "p")
+			.put(CALLBACK_ID, callbackID)
+			.put(STREAM_ID, streamID)
+			.put("files", files)
+			.put(CHUNK, chunk)
+			.put(LAST_CHUNK, last);
+	}
+
+	/**
+	 * Hand a response to the handlers waiting for it, as the transport would.
+	 */
+	private static void deliver(MessageConnector requester, String type, JSONObject response) throws Exception {
+		ResponseCorrelator correlator = ((AbstractMessageConnector) requester).getCorrelator();
+		for (IMessageHandler handler : correlator.lookup(type, response)) {
+			handler.handle(type, response);
+		}
+	}
+
+	/**
+	 * The timeout of a stream is restarted by every chunk, and fires when the stream stalls.
+	 */
+	public void testRequestStreamIdleTimeout() throws Exception {
+		MessageConnector requester = createConnection("Bob");
+		MessageConnector responder = createConnection("Bob");
+		try {
+			responder.connectToChannelSync("Bob");
+			//Never sends chunk 1, which is the last one.
+			responder.addMessageHandler(new ChunkedResponder(responder, "ab", new int[] {0}));
+			final CountDownLatch received = new CountDownLatch(1);
+			BasicFuture<Void> done = requester.requestStream("chunkyRequest", new JSONObject().put(USERNAME, "Bob"), 500, new ResponseStreamHandler() {
+				public void chunk(JSONObject response) throws Exception {
+					received.countDown();
+				}
+			});
+			assertTrue(received.await(TIMEOUT, TimeUnit.MILLISECONDS));
+			assertError(TimeoutException.class, done);
+		} finally {
+			requester.disconnect();
+			responder.disconnect();
+		}
+	}
+
+	/**
+	 * A handler may send while its client's dispatcher is full: the send does not wait for
+	 * room in the recipient's dispatcher, which would only come when the handler returns.
+	 */
+	public void testSendFromHandlerWithFullDispatcher() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		FluxClient bounded = new FluxClient(executor)
+			.setMaxQueuedMessages(1)
+			.setOverflowPolicy(OverflowPolicy.BLOCK);
+		final MessageConnector forwarder = new LoopbackFluxConfig("Bob", bus).connect(bounded);
+		MessageConnector receiver = new LoopbackFluxConfig("Bob", bus).connect(bounded);
+		MessageConnector sender = createConnection("Bob");
+		try {
+			forwarder.connectToChannelSync("Bob");
+			receiver.connectToChannelSync("Bob");
+			final CountDownLatch forwarded = new CountDownLatch(1);
+			forwarder.addMessageHandler(new MessageHandler("ping") {
+				@Override
+				public void handle(String type, JSONObject message) {
+					try {
+						forwarder.send("pong", new JSONObject().put(USERNAME, "Bob"));
+						forwarded.countDown();
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			});
+			final CountDownLatch received = new CountDownLatch(1);
+			receiver.addMessageHandler(new MessageHandler("pong") {
+				@Override
+				public void handle(String type, JSONObject message) {
+					received.countDown();
+				}
+			});
+			sender.send("ping", new JSONObject().put(USERNAME, "Bob"));
+			assertTrue(forwarded.await(TIMEOUT, TimeUnit.MILLISECONDS));
+			assertTrue(received.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		} finally {
+			sender.disconnect();
+			receiver.disconnect();
+			forwarder.disconnect();
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Answers 'chunkyRequest' with one character of 'content' per chunk, sending the chunks in the given order.
+	 */
+	private static class ChunkedResponder extends MessageHandler {
+
+		private final MessageConnector conn;
+		private final String content;
+		private final int[] order;
+
+		ChunkedResponder(MessageConnector conn, String content, int[] order) {
+			super("chunkyRequest");
+			this.conn = conn;
+			this.content = content;
+			this.order = order;
+		}
+
+		@Override
+		public void handle(String type, JSONObject req) {
+			try {
+				for (int seq : order) {
+					conn.send("chunkyResponse", new JSONObject()
+						.put(USERNAME, req.getString(USERNAME))
+						.put(CALLBACK_ID, req.getInt(CALLBACK_ID))
+						.put(REQUEST_SENDER_ID, req.getString(REQUEST_SENDER_ID))
+						.put("content", content.substring(seq, seq + 1))
+						.put(CHUNK, seq)
+						.put(LAST_CHUNK, seq == content.length() - 1)
+					);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
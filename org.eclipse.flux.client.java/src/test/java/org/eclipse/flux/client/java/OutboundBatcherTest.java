@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.java;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.eclipse.flux.client.impl.OutboundBatcher;
+
+public class OutboundBatcherTest extends TestCase {
+
+	/**
+	 * Records the sequence numbers of the messages it sends, or fails while 'failing' is set.
+	 */
+	private static class RecordingSink implements OutboundBatcher.Sink {
+		final List<Integer> sent = Collections.synchronizedList(new ArrayList<Integer>());
+		volatile boolean failing = false;
+		volatile CountDownLatch calls = new CountDownLatch(1);
+
+		@Override
+		public void sendOne(String exchange, String routingKey, String contentType, boolean compressible, String messageType, byte[] message) throws Exception {
+			record(message);
+		}
+
+		@Override
+		public void sendBatch(String exchange, String routingKey, String contentType, boolean compressible, int count, byte[] frame) throws Exception {
+			for (OutboundBatcher.Entry entry : OutboundBatcher.unpack(frame)) {
+				record(entry.message);
+			}
+		}
+
+		private void record(byte[] message) throws IOException {
+			try {
+				if (failing) {
+					throw new IOException("broken");
+				}
+				sent.add((int)message[0]);
+			} finally {
+				calls.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Messages added while the window timer and the byte limit both send, go out in order.
+	 */
+	public void testOrder() throws Exception {
+		RecordingSink sink = new RecordingSink();
+		OutboundBatcher batcher = new OutboundBatcher(sink, 1, 20);
+		for (int i = 0; i < 100; i++) {
+			batcher.add("", "Bob", "application/json", false, "bork", new byte[] {(byte)i, 0, 0, 0, 0});
+			if (i%10==0) {
+				Thread.sleep(2);
+			}
+		}
+		batcher.close();
+		assertEquals(100, sink.sent.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, (int)sink.sent.get(i));
+		}
+	}
+
+	/**
+	 * Messages to the same destination stay in order when whether they may be compressed,
+	 * or their content type, changes in between.
+	 */
+	public void testOrderAcrossCompressibilityAndContentType() throws Exception {
+		RecordingSink sink = new RecordingSink();
+		OutboundBatcher batcher = new OutboundBatcher(sink, 1, 20);
+		for (int i = 0; i < 100; i++) {
+			String contentType = i%7==0 ? "application/x-other" : "application/json";
+			batcher.add("", "Bob", contentType, i%3!=0, "bork", new byte[] {(byte)i, 0, 0, 0, 0});
+			if (i%10==0) {
+				Thread.sleep(2);
+			}
+		}
+		batcher.close();
+		assertEquals(100, sink.sent.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, (int)sink.sent.get(i));
+		}
+	}
+
+	/**
+	 * A failure to send at the end of a window is thrown by the next add for the same destination.
+	 */
+	public void testFailureReported() throws Exception {
+		RecordingSink sink = new RecordingSink();
+		OutboundBatcher batcher = new OutboundBatcher(sink, 10, 1000);
+		sink.failing = true;
+		batcher.add("", "Bob", "application/json", false, "bork", new byte[] {1});
+		assertTrue(sink.calls.await(5, TimeUnit.SECONDS));
+		//Give the timer a moment to record the failure after the sink threw
+		Thread.sleep(100);
+		sink.failing = false;
+		//Other destinations are not affected
+		batcher.add("", "Alice", "application/json", false, "bork", new byte[] {2});
+		try {
+			batcher.add("", "Bob", "application/json", false, "bork", new byte[] {3});
+			fail("Failure of the earlier send should be reported");
+		} catch (IOException e) {
+			assertEquals("broken", e.getCause().getMessage());
+		}
+		batcher.add("", "Bob", "application/json", false, "bork", new byte[] {4});
+		batcher.close();
+		assertEquals(2, sink.sent.size());
+		assertTrue(sink.sent.contains(2));
+		assertTrue(sink.sent.contains(4));
+	}
+
+}
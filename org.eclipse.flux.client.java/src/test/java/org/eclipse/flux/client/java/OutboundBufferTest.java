@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.java;
+
+import static org.eclipse.flux.client.MessageConstants.PROJECT_NAME;
+import static org.eclipse.flux.client.MessageConstants.USERNAME;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eclipse.flux.client.FluxClient;
+import org.eclipse.flux.client.impl.Backoff;
+import org.eclipse.flux.client.impl.OutboundBuffer;
+import org.json.JSONObject;
+
+public class OutboundBufferTest extends TestCase {
+
+	/**
+	 * A newer 'resourceChanged' replaces the buffered one for the same resource, and
+	 * moves behind the messages sent in between.
+	 */
+	public void testCoalescing() throws Exception {
+		OutboundBuffer buffer = new OutboundBuffer(10, FluxClient.DEFAULT_SUPERSEDABLE_TYPES);
+		buffer.add("resourceChanged", resource("A", 1));
+		buffer.add("resourceChanged", resource("B", 1));
+		buffer.add("liveResourceChanged", resource("A", 1));
+		buffer.add("liveResourceChanged", resource("A", 2));
+		buffer.add("resourceChanged", resource("A", 2));
+		assertEquals(1, buffer.getCoalescedCount());
+		assertEquals(Arrays.asList(
+				"resourceChanged B 1",
+				"liveResourceChanged A 1",
+				"liveResourceChanged A 2",
+				"resourceChanged A 2"
+			), describe(buffer.drain()));
+		assertTrue(buffer.isEmpty());
+	}
+
+	public void testOverflowDropsOldest() throws Exception {
+		OutboundBuffer buffer = new OutboundBuffer(2, FluxClient.DEFAULT_SUPERSEDABLE_TYPES);
+		for (int i = 1; i <= 3; i++) {
+			buffer.add("liveResourceChanged", resource("A", i));
+		}
+		assertEquals(1, buffer.getDroppedCount());
+		assertEquals(Arrays.asList(
+				"liveResourceChanged A 2",
+				"liveResourceChanged A 3"
+			), describe(buffer.drain()));
+	}
+
+	/**
+	 * Messages that could not be replayed go back ahead of newer ones, unless a newer one superseded them.
+	 */
+	public void testRequeue() throws Exception {
+		OutboundBuffer buffer = new OutboundBuffer(10, FluxClient.DEFAULT_SUPERSEDABLE_TYPES);
+		buffer.add("resourceChanged", resource("A", 1));
+		buffer.add("resourceChanged", resource("B", 1));
+		List<OutboundBuffer.Entry> unsent = buffer.drain();
+		buffer.add("resourceChanged", resource("B", 2));
+		buffer.requeue(unsent);
+		assertEquals(Arrays.asList(
+				"resourceChanged A 1",
+				"resourceChanged B 2"
+			), describe(buffer.drain()));
+	}
+
+	public void testBackoff() throws Exception {
+		Backoff backoff = new Backoff(100, 1000);
+		long[] max = { 100, 200, 400, 800, 1000, 1000 };
+		for (int i = 0; i < max.length; i++) {
+			long delay = backoff.nextDelay();
+			assertTrue("attempt "+i+": "+delay, delay>=max[i]/2 && delay<=max[i]);
+		}
+		backoff.reset();
+		assertTrue(backoff.nextDelay()<=100);
+	}
+
+	private static JSONObject resource(String resource, int version) throws Exception {
+		return new JSONObject()
+			.put(USERNAME, "Bob")
+			.put(PROJECT_NAME, "project")
+			.put("resource", resource)
+			.put("version", version);
+	}
+
+	private static List<String> describe(List<OutboundBuffer.Entry> entries) throws Exception {
+		String[] described = new String[entries.size()];
+		for (int i = 0; i < described.length; i++) {
+			OutboundBuffer.Entry e = entries.get(i);
+			described[i] = e.messageType+" "+e.message.getString("resource")+" "+e.message.getInt("version");
+		}
+		return Arrays.asList(described);
+	}
+
+}
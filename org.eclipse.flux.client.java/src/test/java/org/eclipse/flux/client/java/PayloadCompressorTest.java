@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.java;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.eclipse.flux.client.impl.PayloadCompressor;
+
+public class PayloadCompressorTest extends TestCase {
+
+	public void testRoundTrip() throws Exception {
+		PayloadCompressor compressor = new PayloadCompressor(100);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			text.append("{\"resource\":\"src/Foo"+i+".java\",\"type\":\"file\"},");
+		}
+		byte[] payload = text.toString().getBytes("UTF-8");
+		byte[] compressed = compressor.compress("getProjectResponse", payload);
+		assertNotNull(compressed);
+		assertTrue(compressed.length < payload.length / 4);
+		assertTrue(Arrays.equals(payload, PayloadCompressor.decompress(compressed)));
+
+		PayloadCompressor.Stats stats = compressor.getStats().get("getProjectResponse");
+		assertEquals(1, stats.getMessages());
+		assertEquals(1, stats.getCompressedMessages());
+		assertEquals(payload.length, stats.getUncompressedBytes());
+		assertEquals(compressed.length, stats.getCompressedBytes());
+	}
+
+	/**
+	 * Small payloads, and payloads that do not get smaller, are sent as is. They still count
+	 * in the statistics of their type, at their own size.
+	 */
+	public void testNotCompressed() throws Exception {
+		PayloadCompressor compressor = new PayloadCompressor(100);
+		assertNull(compressor.compress("small", new byte[99]));
+		byte[] random = new byte[1000];
+		new Random(0).nextBytes(random);
+		assertNull(compressor.compress("random", random));
+
+		PayloadCompressor.Stats small = compressor.getStats().get("small");
+		assertEquals(1, small.getMessages());
+		assertEquals(0, small.getCompressedMessages());
+		assertEquals(99, small.getUncompressedBytes());
+		assertEquals(99, small.getCompressedBytes());
+		PayloadCompressor.Stats stats = compressor.getStats().get("random");
+		assertEquals(1, stats.getMessages());
+		assertEquals(0, stats.getCompressedMessages());
+		assertEquals(1000, stats.getCompressedBytes());
+	}
+
+	/**
+	 * The ratio of a type covers the messages of that type that were sent as is.
+	 */
+	public void testMixedStats() throws Exception {
+		PayloadCompressor compressor = new PayloadCompressor(100);
+		byte[] large = new byte[10000];
+		byte[] compressed = compressor.compress("getResourceResponse", large);
+		assertNotNull(compressed);
+		assertNull(compressor.compress("getResourceResponse", new byte[50]));
+
+		PayloadCompressor.Stats stats = compressor.getStats().get("getResourceResponse");
+		assertEquals(2, stats.getMessages());
+		assertEquals(1, stats.getCompressedMessages());
+		assertEquals(10050, stats.getUncompressedBytes());
+		assertEquals(compressed.length + 50, stats.getCompressedBytes());
+	}
+
+}
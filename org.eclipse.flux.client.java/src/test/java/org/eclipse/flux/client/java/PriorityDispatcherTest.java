@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.java;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.eclipse.flux.client.FluxClient.OverflowPolicy;
+import org.eclipse.flux.client.MessagePriorities;
+import org.eclipse.flux.client.MessagePriority;
+import org.eclipse.flux.client.impl.BoundedDispatcher;
+import org.eclipse.flux.client.impl.LaneDispatcher;
+import org.eclipse.flux.client.impl.PriorityDispatcher;
+import org.eclipse.flux.client.impl.ThrottlingDispatcher;
+import org.eclipse.flux.client.impl.UnorderedDispatcher;
+import org.json.JSONObject;
+
+public class PriorityDispatcherTest extends TestCase {
+
+	private static final long TIMEOUT = 5000;
+
+	private ExecutorService executor;
+	private ExecutorService interactiveExecutor;
+	private CountDownLatch release;
+
+	@Override
+	protected void setUp() throws Exception {
+		executor = Executors.newCachedThreadPool();
+		interactiveExecutor = Executors.newSingleThreadExecutor();
+		release = new CountDownLatch(1);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		release.countDown();
+		executor.shutdownNow();
+		interactiveExecutor.shutdownNow();
+	}
+
+	private Runnable blocked() {
+		return new Runnable() {
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					//ignore
+				}
+			}
+		};
+	}
+
+	public void testDefaults() throws Exception {
+		MessagePriorities priorities = new MessagePriorities();
+		assertEquals(MessagePriority.INTERACTIVE, priorities.get("contentassistrequest"));
+		assertEquals(MessagePriority.INTERACTIVE, priorities.get("liveResourceChanged"));
+		assertEquals(MessagePriority.BULK, priorities.get("getResourceResponse"));
+		assertEquals(MessagePriority.NORMAL, priorities.get("resourceChanged"));
+		priorities.put("getResourceResponse", MessagePriority.NORMAL);
+		assertEquals(MessagePriority.NORMAL, priorities.get("getResourceResponse"));
+	}
+
+	/**
+	 * Interactive messages neither wait for room in a full bounded dispatcher, nor for threads
+	 * busy with other messages.
+	 */
+	public void testInteractiveNotHeldUp() throws Exception {
+		BoundedDispatcher others = new BoundedDispatcher(new UnorderedDispatcher(executor), 1, OverflowPolicy.REJECT, MessagePriorities.DEFAULT_BULK_TYPES);
+		PriorityDispatcher d = new PriorityDispatcher(new MessagePriorities(), new UnorderedDispatcher(interactiveExecutor), others);
+		assertTrue(d.dispatch("resourceChanged", new JSONObject(), blocked()));
+		assertFalse(d.dispatch("resourceChanged", new JSONObject(), blocked()));
+
+		final CountDownLatch handled = new CountDownLatch(2);
+		Runnable task = new Runnable() {
+			public void run() {
+				handled.countDown();
+			}
+		};
+		assertTrue(d.dispatch("contentassistrequest", new JSONObject(), task));
+		assertTrue(d.dispatch("liveResourceChanged", new JSONObject(), task));
+		assertTrue(handled.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		//A message is counted until its task has returned, after the latch was counted down
+		for (int i = 0; d.getInteractiveQueueDepth()>0 && i < 100; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, d.getQueueDepth());
+		assertEquals(0, d.getInteractiveQueueDepth());
+	}
+
+	/**
+	 * No more than the given number of bulk messages are handled at once, but all of them
+	 * are handled eventually. Other messages are not held up by waiting bulk messages.
+	 */
+	public void testBulkThrottled() throws Exception {
+		ThrottlingDispatcher d = new ThrottlingDispatcher(new UnorderedDispatcher(executor), new MessagePriorities(), 2);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final CountDownLatch handled = new CountDownLatch(10);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(d.dispatch("getResourceResponse", new JSONObject(), new Runnable() {
+				public void run() {
+					int now = running.incrementAndGet();
+					synchronized (maxRunning) {
+						maxRunning.set(Math.max(maxRunning.get(), now));
+					}
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						//ignore
+					}
+					running.decrementAndGet();
+					handled.countDown();
+				}
+			}));
+		}
+		assertEquals(8, d.getWaitingCount());
+
+		final CountDownLatch normal = new CountDownLatch(1);
+		d.dispatch("resourceChanged", new JSONObject(), new Runnable() {
+			public void run() {
+				normal.countDown();
+			}
+		});
+		assertTrue(normal.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		release.countDown();
+		assertTrue(handled.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertEquals(2, maxRunning.get());
+		assertEquals(0, d.getWaitingCount());
+	}
+
+	/**
+	 * When resource order is kept, a message about a resource with bulk messages waiting waits
+	 * behind them. Messages about other resources do not.
+	 */
+	public void testBulkKeepsResourceOrder() throws Exception {
+		ThrottlingDispatcher d = new ThrottlingDispatcher(new LaneDispatcher(executor, 16), new MessagePriorities(), 1, true);
+		final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch done = new CountDownLatch(3);
+		assertTrue(d.dispatch("getResourceResponse", resource("a.txt"), blocked()));
+		assertTrue(d.dispatch("getResourceResponse", resource("b.txt"), record(handled, "getResourceResponse", done)));
+		assertTrue(d.dispatch("resourceChanged", resource("b.txt"), record(handled, "resourceChanged", done)));
+		assertEquals(2, d.getWaitingCount());
+
+		final CountDownLatch other = new CountDownLatch(1);
+		assertTrue(d.dispatch("resourceChanged", resource("c.txt"), new Runnable() {
+			public void run() {
+				other.countDown();
+			}
+		}));
+		assertTrue(other.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		assertTrue(d.dispatch("resourceChanged", resource("b.txt"), record(handled, "resourceChanged", done)));
+		release.countDown();
+		assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertEquals("[getResourceResponse, resourceChanged, resourceChanged]", handled.toString());
+		assertEquals(0, d.getWaitingCount());
+	}
+
+	private static JSONObject resource(String path) throws Exception {
+		return new JSONObject()
+			.put("username", "Bob")
+			.put("project", "test")
+			.put("resource", path);
+	}
+
+	private static Runnable record(final List<String> handled, final String name, final CountDownLatch done) {
+		return new Runnable() {
+			public void run() {
+				handled.add(name);
+				done.countDown();
+			}
+		};
+	}
+
+}
@@ -15,17 +15,33 @@ import static org.eclipse.flux.client.MessageConstants.USERNAME;
 import static org.junit.Assert.assertArrayEquals;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.eclipse.flux.client.FluxClient;
+import org.eclipse.flux.client.FluxClient.DispatchMode;
+import org.eclipse.flux.client.FluxClient.OverflowPolicy;
 import org.eclipse.flux.client.IChannelListener;
 import org.eclipse.flux.client.MessageConnector;
 import org.eclipse.flux.client.MessageConstants;
 import org.eclipse.flux.client.MessageHandler;
+import org.eclipse.flux.client.MessagePriority;
 import org.eclipse.flux.client.RequestResponseHandler;
+import org.eclipse.flux.client.codec.MessageCodec;
+import org.eclipse.flux.client.codec.MessageCodecs;
 import org.eclipse.flux.client.config.RabbitMQFluxConfig;
+import org.eclipse.flux.client.impl.ChannelPool;
+import org.eclipse.flux.client.impl.PayloadCompressor;
+import org.eclipse.flux.client.impl.RabbitMQMessageConnector;
+import org.eclipse.flux.client.impl.RabbitMQMultiplexer;
 import org.eclipse.flux.client.util.BasicFuture;
 import org.json.JSONObject;
 
@@ -87,6 +103,11 @@ public class RabbitMQFluxClientTest extends AbstractFluxClientTest {
 	}
 
 	private FluxClient client = FluxClient.DEFAULT_INSTANCE;
+
+	/**
+	 * Preferred codec for connections created by the test. Null means JSON.
+	 */
+	private MessageCodec preferredCodec = null;
 	
 	public void testConnectAndDisconnect() throws Exception {
 		MessageConnector conn = createConnection("Bob");
@@ -184,6 +205,510 @@ public class RabbitMQFluxClientTest extends AbstractFluxClientTest {
 		assertEquals("Hello", receiver.get());
 	}
 	
+	/**
+	 * Tests that messages sent by the receiving connector itself and messages of types
+	 * nobody handles are dropped on arrival, without decoding them.
+	 */
+	public void testUnhandledMessagesSkipped() throws Exception {
+		Receiver<String> receiver = receiver("Bob", "bork");
+		final RabbitMQMessageConnector receiverConn = (RabbitMQMessageConnector) receiver.flux;
+
+		run(new Process<Void>("Bob") {
+			protected Void execute() throws Exception {
+				RabbitMQMessageConnector self = (RabbitMQMessageConnector) conn;
+				for (int i = 0; i < 5; i++) {
+					send("unheardOf", new JSONObject()
+						.put(USERNAME, "Bob")
+						.put("msg", "Nobody listens")
+					);
+				}
+				//Messages from the same connection arrive in order, so 'bork' comes after the others.
+				send("bork", new JSONObject()
+					.put(USERNAME, "Bob")
+					.put("msg", "Hello")
+				);
+				for (int i = 0; self.getSkippedCount()<6 && i < 100; i++) {
+					Thread.sleep(50);
+				}
+				assertEquals("All messages sent to self are skipped", 6, self.getSkippedCount());
+				return null;
+			}
+		});
+
+		assertEquals("Hello", receiver.get());
+		assertEquals(5, receiverConn.getSkippedCount());
+	}
+
+	/**
+	 * Tests that many threads can send on one connection at the same time, with publisher confirms,
+	 * and that every message arrives and gets confirmed.
+	 */
+	public void testConcurrentPublishWithConfirms() throws Exception {
+		final int threads = 8;
+		final int perThread = 50;
+		final MessageConnector sender = new RabbitMQFluxConfig("Bob")
+			.setPublisherChannels(3)
+			.setPublisherConfirms(true)
+			.setMaxUnconfirmed(10)
+			.connect(client);
+		try {
+			final MessageConnector receiver = createConnection("Bob");
+			try {
+				receiver.connectToChannelSync("Bob");
+				final CountDownLatch received = new CountDownLatch(threads * perThread);
+				receiver.addMessageHandler(new MessageHandler("bork") {
+					@Override
+					public void handle(String type, JSONObject message) {
+						received.countDown();
+					}
+				});
+				List<Thread> senders = new ArrayList<Thread>();
+				final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+				for (int t = 0; t < threads; t++) {
+					final int thread = t;
+					Thread s = new Thread() {
+						public void run() {
+							try {
+								for (int i = 0; i < perThread; i++) {
+									sender.send("bork", new JSONObject()
+										.put(USERNAME, "Bob")
+										.put("thread", thread)
+										.put("seq", i)
+									);
+								}
+							} catch (Throwable e) {
+								errors.add(e);
+							}
+						}
+					};
+					senders.add(s);
+					s.start();
+				}
+				for (Thread s : senders) {
+					s.join();
+				}
+				assertTrue(errors.toString(), errors.isEmpty());
+				assertTrue(received.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+				ChannelPool publishers = ((RabbitMQMessageConnector) sender).getPublishers();
+				assertTrue(publishers.waitForConfirms(TIMEOUT));
+				assertEquals(threads * perThread, publishers.getSentCount());
+				assertEquals(0, publishers.getInFlightConfirms());
+				assertEquals(threads * perThread, publishers.getConfirmedCount());
+				assertEquals(0, publishers.getNackedCount());
+			} finally {
+				receiver.disconnect();
+			}
+		} finally {
+			sender.disconnect();
+		}
+	}
+
+	/**
+	 * Tests that messages about one resource, published by a sender with several publisher
+	 * channels, arrive in the order they were sent while other threads publish too.
+	 */
+	public void testPublishOrderWithSeveralChannels() throws Exception {
+		final int threads = 4;
+		final int perThread = 200;
+		final MessageConnector sender = new RabbitMQFluxConfig("Bob")
+			.setPublisherChannels(4)
+			.connect(client);
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			MessageConnector receiver = new RabbitMQFluxConfig("Bob")
+				.connect(new FluxClient(executor).setDispatchMode(DispatchMode.ORDERED_PER_RESOURCE));
+			try {
+				receiver.connectToChannelSync("Bob");
+				final List<List<Integer>> received = new ArrayList<List<Integer>>();
+				for (int t = 0; t < threads; t++) {
+					received.add(Collections.synchronizedList(new ArrayList<Integer>()));
+				}
+				final CountDownLatch done = new CountDownLatch(threads * perThread);
+				receiver.addMessageHandler(new MessageHandler("bork") {
+					@Override
+					public void handle(String type, JSONObject message) {
+						received.get(message.optInt("thread")).add(message.optInt("seq"));
+						done.countDown();
+					}
+				});
+				List<Thread> senders = new ArrayList<Thread>();
+				final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+				for (int t = 0; t < threads; t++) {
+					final int thread = t;
+					Thread s = new Thread() {
+						public void run() {
+							try {
+								for (int i = 0; i < perThread; i++) {
+									sender.send("bork", new JSONObject()
+										.put(USERNAME, "Bob")
+										.put("project", "project"+thread)
+										.put("resource", "file.txt")
+										.put("thread", thread)
+										.put("seq", i)
+									);
+								}
+							} catch (Throwable e) {
+								errors.add(e);
+							}
+						}
+					};
+					senders.add(s);
+					s.start();
+				}
+				for (Thread s : senders) {
+					s.join();
+				}
+				assertTrue(errors.toString(), errors.isEmpty());
+				assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+				for (List<Integer> seqs : received) {
+					assertEquals(perThread, seqs.size());
+					for (int i = 0; i < perThread; i++) {
+						assertEquals(i, (int)seqs.get(i));
+					}
+				}
+			} finally {
+				receiver.disconnect();
+			}
+		} finally {
+			sender.disconnect();
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Data that is JSON text already is sent without parsing it. The connector still
+	 * adds the sender's id to it.
+	 */
+	public void testSendEncoded() throws Exception {
+		MessageConnector sender = createConnection("Bob");
+		MessageConnector receiver = createConnection("Bob");
+		try {
+			receiver.connectToChannelSync("Bob");
+			final BasicFuture<JSONObject> received = new BasicFuture<JSONObject>();
+			received.setTimeout(TIMEOUT);
+			receiver.addMessageHandler(new MessageHandler("bork") {
+				@Override
+				public void handle(String type, JSONObject message) {
+					received.resolve(message);
+				}
+			});
+			sender.sendEncoded("bork", "Bob", " {\"username\":\"Bob\",\"msg\":\"H\u00e9llo\"}".getBytes("UTF-8"));
+			JSONObject message = received.get();
+			assertEquals("Bob", message.getString(USERNAME));
+			assertEquals("H\u00e9llo", message.getString("msg"));
+			assertTrue(message.has("senderID"));
+			try {
+				sender.sendEncoded("bork", "Bob", "[]".getBytes("UTF-8"));
+				fail("Data that is not a JSON object should be refused");
+			} catch (IllegalArgumentException e) {
+				//expected
+			}
+		} finally {
+			sender.disconnect();
+			receiver.disconnect();
+		}
+	}
+
+	/**
+	 * Tests that messages sent in quick succession by a batching sender arrive as individual
+	 * messages, in order, and that fewer frames than messages were published.
+	 */
+	public void testBatching() throws Exception {
+		final int count = 20;
+		MessageConnector sender = new RabbitMQFluxConfig("Bob")
+			.setBatchWindow(100)
+			.setBatchMaxBytes(4096)
+			.connect(client);
+		//Receiver handles messages about the same user, project and resource in order
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			MessageConnector receiver = new RabbitMQFluxConfig("Bob")
+				.connect(new FluxClient(executor).setDispatchMode(DispatchMode.ORDERED_PER_RESOURCE));
+			try {
+				receiver.connectToChannelSync("Bob");
+				final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+				final CountDownLatch done = new CountDownLatch(count + 1);
+				receiver.addMessageHandler(new MessageHandler("bork") {
+					@Override
+					public void handle(String type, JSONObject message) {
+						received.add(message.optInt("seq"));
+						done.countDown();
+					}
+				});
+				receiver.addMessageHandler(new MessageHandler("borkBig") {
+					@Override
+					public void handle(String type, JSONObject message) {
+						received.add(message.optInt("seq"));
+						done.countDown();
+					}
+				});
+				StringBuilder big = new StringBuilder();
+				for (int i = 0; i < 1000; i++) {
+					big.append("0123456789");
+				}
+				for (int i = 0; i < count; i++) {
+					sender.send("bork", new JSONObject()
+						.put(USERNAME, "Bob")
+						.put("seq", i)
+					);
+					if (i==count/2) {
+						//Exceeds the byte limit: goes out at once, together with the messages before it
+						sender.send("borkBig", new JSONObject()
+							.put(USERNAME, "Bob")
+							.put("seq", -1)
+							.put("content", big.toString())
+						);
+					}
+				}
+				assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+				assertEquals(count + 1, received.size());
+				for (int i = 0, seq = 0; i < received.size(); i++) {
+					if (i==count/2 + 1) {
+						assertEquals(-1, (int)received.get(i));
+					} else {
+						assertEquals(seq++, (int)received.get(i));
+					}
+				}
+				long frames = ((RabbitMQMessageConnector) sender).getPublishers().getSentCount();
+				assertTrue("frames="+frames, frames < count / 2);
+			} finally {
+				receiver.disconnect();
+			}
+		} finally {
+			sender.disconnect();
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * With priority routing, interactive messages arrive through the priority inbox, and
+	 * responses to interactive requests are sent there too. Clients without priority
+	 * routing do not see interactive messages.
+	 */
+	public void testPriorityRouting() throws Exception {
+		FluxClient client = new FluxClient(Executors.newCachedThreadPool())
+			.setInteractiveThreads(1);
+		client.getPriorities().put("echoRequest", MessagePriority.INTERACTIVE);
+		MessageConnector sender = new RabbitMQFluxConfig("Bob").setPriorityRouting(true).connect(client);
+		MessageConnector receiver = new RabbitMQFluxConfig("Bob").setPriorityRouting(true).connect(client);
+		MessageConnector plain = createConnection("Bob");
+		try {
+			receiver.connectToChannelSync("Bob");
+			plain.connectToChannelSync("Bob");
+			final BasicFuture<String> live = new BasicFuture<String>();
+			live.setTimeout(TIMEOUT);
+			final BasicFuture<String> broadcast = new BasicFuture<String>();
+			broadcast.setTimeout(TIMEOUT);
+			receiver.addMessageHandler(new MessageHandler("liveResourceChanged") {
+				@Override
+				public void handle(String type, JSONObject message) {
+					live.resolve(Thread.currentThread().getName());
+				}
+			});
+			receiver.addMessageHandler(new MessageHandler("bork") {
+				@Override
+				public void handle(String type, JSONObject message) {
+					broadcast.resolve(message.optString("senderID"));
+				}
+			});
+			receiver.addMessageHandler(new RequestResponseHandler(receiver, "echoRequest") {
+				@Override
+				protected JSONObject fillResponse(String type, JSONObject req, JSONObject res) throws Exception {
+					return res.put("replyTo", req.getString(MessageConstants.REQUEST_SENDER_ID));
+				}
+			});
+			final BasicFuture<Void> plainLive = new BasicFuture<Void>();
+			plainLive.setTimeout(1000);
+			plain.addMessageHandler(new MessageHandler("liveResourceChanged") {
+				@Override
+				public void handle(String type, JSONObject message) {
+					plainLive.resolve(null);
+				}
+			});
+
+			sender.send("liveResourceChanged", new JSONObject().put(USERNAME, "Bob"));
+			assertTrue(live.get().startsWith("flux-interactive-"));
+			assertError(TimeoutException.class, plainLive);
+
+			sender.send("bork", new JSONObject().put(USERNAME, "Bob"));
+			String inbox = broadcast.get();
+			String replyTo = sender.request("echoRequest", new JSONObject().put(USERNAME, "Bob")).get().getString("replyTo");
+			assertFalse(replyTo.equals(inbox));
+		} finally {
+			sender.disconnect();
+			receiver.disconnect();
+			plain.disconnect();
+		}
+	}
+
+	/**
+	 * With several consumers, a prefetch and batched acks, every message still arrives once,
+	 * including the last ones of a batch that never fills up.
+	 */
+	public void testPrefetchAndConsumers() throws Exception {
+		final int count = 203;
+		MessageConnector sender = createConnection("Bob");
+		MessageConnector receiver = new RabbitMQFluxConfig("Bob")
+			.setPrefetch(10)
+			.setAckBatchSize(4)
+			.setConsumers(3)
+			.connect(client);
+		try {
+			receiver.connectToChannelSync("Bob");
+			final CountDownLatch received = new CountDownLatch(count);
+			final Set<Integer> seen = Collections.synchronizedSet(new HashSet<Integer>());
+			receiver.addMessageHandler(new MessageHandler("bork") {
+				@Override
+				public void handle(String type, JSONObject message) {
+					seen.add(message.optInt("seq"));
+					received.countDown();
+				}
+			});
+			for (int i = 0; i < count; i++) {
+				sender.send("bork", new JSONObject().put(USERNAME, "Bob").put("seq", i));
+			}
+			assertTrue(received.await(TIMEOUT, TimeUnit.MILLISECONDS));
+			assertEquals(count, seen.size());
+		} finally {
+			sender.disconnect();
+			receiver.disconnect();
+		}
+	}
+
+	/**
+	 * Connectors of several users share a connection. Each only receives messages for the
+	 * channels it was allowed to join, and responses to its own requests.
+	 */
+	public void testMultiplexing() throws Exception {
+		RabbitMQMultiplexer mux = new RabbitMQMultiplexer(client, new RabbitMQFluxConfig(SUPER_USER));
+		MessageConnector bob = new RabbitMQFluxConfig("Bob").setMultiplexer(mux).connect(client);
+		MessageConnector bob2 = new RabbitMQFluxConfig("Bob").setMultiplexer(mux).connect(client);
+		MessageConnector alice = new RabbitMQFluxConfig("Alice").setMultiplexer(mux).connect(client);
+		final MessageConnector service = new RabbitMQFluxConfig(SUPER_USER).setMultiplexer(mux).connect(client);
+		MessageConnector outside = createConnection("Bob");
+		try {
+			assertEquals(4, mux.getConnectorCount());
+			bob.connectToChannelSync("Bob");
+			bob2.connectToChannelSync("Bob");
+			alice.connectToChannelSync("Alice");
+			service.connectToChannelSync(SUPER_USER);
+			outside.connectToChannelSync("Bob");
+			try {
+				alice.connectToChannelSync("Bob");
+				fail("Alice should not be able to join Bob's channel");
+			} catch (Exception e) {
+				//expected
+			}
+			assertFalse(alice.isConnected("Bob"));
+
+			BasicFuture<String> toBob = receiveBork(bob);
+			BasicFuture<String> toBob2 = receiveBork(bob2);
+			BasicFuture<String> toAlice = receiveBork(alice);
+			BasicFuture<String> toService = receiveBork(service);
+			BasicFuture<String> toOutside = receiveBork(outside);
+			bob.send("bork", new JSONObject().put(USERNAME, "Bob").put("msg", "Hello"));
+			assertEquals("Hello", toBob2.get());
+			assertEquals("Hello", toService.get());
+			assertEquals("Hello", toOutside.get());
+			assertError(TimeoutException.class, toBob);
+			assertError(TimeoutException.class, toAlice);
+
+			service.addMessageHandler(new RequestResponseHandler(service, "echoRequest") {
+				@Override
+				protected JSONObject fillResponse(String type, JSONObject req, JSONObject res) throws Exception {
+					return res.put("echo", req.getString(USERNAME));
+				}
+			});
+			assertEquals("Alice", alice.request("echoRequest", new JSONObject().put(USERNAME, "Alice")).get().getString("echo"));
+			assertEquals("Bob", outside.request("echoRequest", new JSONObject().put(USERNAME, "Bob")).get().getString("echo"));
+
+			//Responses go to the connector that made the request only, not to others of the same user
+			final BasicFuture<JSONObject> overheard = new BasicFuture<JSONObject>();
+			overheard.setTimeout(1000);
+			bob2.addMessageHandler(new MessageHandler("echoResponse") {
+				@Override
+				public void handle(String type, JSONObject message) {
+					overheard.resolve(message);
+				}
+			});
+			assertEquals("Bob", bob.request("echoRequest", new JSONObject().put(USERNAME, "Bob")).get().getString("echo"));
+			assertError(TimeoutException.class, overheard);
+
+			bob.disconnect();
+			assertFalse(bob.isConnected());
+			assertEquals(3, mux.getConnectorCount());
+			toBob2 = receiveBork(bob2);
+			outside.send("bork", new JSONObject().put(USERNAME, "Bob").put("msg", "Still there"));
+			assertEquals("Still there", toBob2.get());
+			assertTrue(alice.isConnected());
+		} finally {
+			bob.disconnect();
+			bob2.disconnect();
+			alice.disconnect();
+			service.disconnect();
+			outside.disconnect();
+			mux.close();
+		}
+	}
+
+	/**
+	 * A multiplexed connector whose dispatcher is full does not hold up the others.
+	 */
+	public void testMultiplexedConnectorsIndependent() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		final CountDownLatch release = new CountDownLatch(1);
+		RabbitMQMultiplexer mux = new RabbitMQMultiplexer(client, new RabbitMQFluxConfig(SUPER_USER));
+		MessageConnector bob = new RabbitMQFluxConfig("Bob").setMultiplexer(mux)
+			.connect(new FluxClient(executor).setMaxQueuedMessages(1).setOverflowPolicy(OverflowPolicy.BLOCK));
+		MessageConnector alice = new RabbitMQFluxConfig("Alice").setMultiplexer(mux).connect(client);
+		MessageConnector sender = createConnection(SUPER_USER);
+		try {
+			bob.connectToChannelSync("Bob");
+			alice.connectToChannelSync("Alice");
+			final CountDownLatch bobReceived = new CountDownLatch(3);
+			bob.addMessageHandler(new MessageHandler("bork") {
+				@Override
+				public void handle(String type, JSONObject message) {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						//ignore
+					}
+					bobReceived.countDown();
+				}
+			});
+			BasicFuture<String> toAlice = receiveBork(alice);
+			for (int i = 0; i < 3; i++) {
+				sender.send("bork", new JSONObject().put(USERNAME, "Bob").put("msg", "Hello Bob"));
+			}
+			sender.send("bork", new JSONObject().put(USERNAME, "Alice").put("msg", "Hello Alice"));
+			assertEquals("Hello Alice", toAlice.get());
+			release.countDown();
+			assertTrue(bobReceived.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		} finally {
+			release.countDown();
+			bob.disconnect();
+			alice.disconnect();
+			sender.disconnect();
+			mux.close();
+			executor.shutdown();
+		}
+	}
+
+	private BasicFuture<String> receiveBork(final MessageConnector conn) {
+		final BasicFuture<String> result = new BasicFuture<String>();
+		result.setTimeout(1000);
+		conn.addMessageHandler(new MessageHandler("bork") {
+			@Override
+			public void handle(String type, JSONObject message) {
+				conn.removeMessageHandler(this);
+				result.resolve(message.optString("msg"));
+			}
+		});
+		return result;
+	}
+
 	/**
 	 * Super user, connected to super user channel receives messages from everyone.
 	 */
@@ -320,6 +845,173 @@ public class RabbitMQFluxClientTest extends AbstractFluxClientTest {
 		run(service, bob);
 	}
 	
+	/**
+	 * Test the future based 'request' api: concurrent requests are each matched with
+	 * their own response and error responses reject the future.
+	 */
+	public void testAsyncRequest() throws Exception {
+		final BasicFuture<Void> serviceStarted = new BasicFuture<Void>();
+		final BasicFuture<Void> quitRequested = new BasicFuture<Void>();
+		
+		Process<Void> service = new Process<Void>(SUPER_USER) {
+			protected Void execute() throws Exception {
+				conn.addMessageHandler(new RequestResponseHandler(conn, "echoRequest") {
+					@Override
+					protected JSONObject fillResponse(String type, JSONObject req, JSONObject res) throws Exception {
+						if (req.has("error")) {
+							throw new IllegalArgumentException(req.getString("error"));
+						}
+						return res.put("echo", req.getInt("value"));
+					}
+				});
+				serviceStarted.resolve(null);
+				return quitRequested.get();
+			}
+		};
+		
+		Process<Void> bob = new Process<Void>("Bob") {
+			protected Void execute() throws Exception {
+				serviceStarted.get();
+				try {
+					List<BasicFuture<Integer>> echoes = new ArrayList<BasicFuture<Integer>>();
+					for (int i = 0; i < 10; i++) {
+						echoes.add(conn.request("echoRequest", new JSONObject()
+							.put(USERNAME, "Bob")
+							.put("value", i)
+						).thenApply(new BasicFuture.Transform<JSONObject, Integer>() {
+							public Integer apply(JSONObject response) throws Exception {
+								return response.getInt("echo");
+							}
+						}));
+					}
+					List<Integer> values = BasicFuture.allOf(echoes).get();
+					for (int i = 0; i < 10; i++) {
+						assertEquals(i, (int)values.get(i));
+					}
+					
+					assertError("bogus", conn.request("echoRequest", new JSONObject()
+						.put(USERNAME, "Bob")
+						.put("error", "bogus")
+					));
+				} finally {
+					quitRequested.resolve(null);
+				}
+				return null;
+			}
+		};
+		
+		run(service, bob);
+	}
+	
+	/**
+	 * Test that a service preferring a binary codec can answer requests from a client with
+	 * default settings, and that message content survives the trip.
+	 */
+	public void testCodecNegotiation() throws Exception {
+		final BasicFuture<Void> serviceStarted = new BasicFuture<Void>();
+		final BasicFuture<Void> quitRequested = new BasicFuture<Void>();
+		final String content = "class Foo {\n\tString s = \"caf\u00e9 \u2603\";\n}\n";
+
+		preferredCodec = MessageCodecs.CBOR;
+		Process<Void> service = new Process<Void>(SUPER_USER) {
+			protected Void execute() throws Exception {
+				conn.addMessageHandler(new RequestResponseHandler(conn, "echoRequest") {
+					@Override
+					protected JSONObject fillResponse(String type, JSONObject req, JSONObject res) throws Exception {
+						return res
+							.put("echo", req.getString("content"))
+							.put("length", req.getString("content").length())
+							.put("big", 1L<<40)
+							.put("flag", true);
+					}
+				});
+				serviceStarted.resolve(null);
+				return quitRequested.get();
+			}
+		};
+		preferredCodec = null;
+
+		Process<Void> bob = new Process<Void>("Bob") {
+			protected Void execute() throws Exception {
+				serviceStarted.get();
+				try {
+					//Several requests: the service only learns bob accepts CBOR from the first one
+					for (int i = 0; i < 3; i++) {
+						JSONObject res = conn.request("echoRequest", new JSONObject()
+							.put(USERNAME, "Bob")
+							.put("content", content)
+						).get();
+						assertEquals(content, res.getString("echo"));
+						assertEquals(content.length(), res.getInt("length"));
+						assertEquals(1L<<40, res.getLong("big"));
+						assertTrue(res.getBoolean("flag"));
+					}
+				} finally {
+					quitRequested.resolve(null);
+				}
+				return null;
+			}
+		};
+
+		run(service, bob);
+	}
+
+	/**
+	 * Test that large responses are compressed and arrive intact, and that the savings are recorded.
+	 */
+	public void testCompression() throws Exception {
+		final BasicFuture<Void> serviceStarted = new BasicFuture<Void>();
+		final BasicFuture<Void> quitRequested = new BasicFuture<Void>();
+		final BasicFuture<PayloadCompressor.Stats> stats = new BasicFuture<PayloadCompressor.Stats>();
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			content.append("\tSystem.out.println(\"Line "+i+"\");\n");
+		}
+		final String fileContent = content.toString();
+
+		Process<Void> service = new Process<Void>(SUPER_USER) {
+			protected Void execute() throws Exception {
+				conn.addMessageHandler(new RequestResponseHandler(conn, "getResourceRequest") {
+					@Override
+					protected JSONObject fillResponse(String type, JSONObject req, JSONObject res) throws Exception {
+						return res.put("content", req.getBoolean("small") ? "small" : fileContent);
+					}
+				});
+				serviceStarted.resolve(null);
+				quitRequested.get();
+				stats.resolve(((RabbitMQMessageConnector) conn).getCompressionStats().get("getResourceResponse"));
+				return null;
+			}
+		};
+
+		Process<Void> bob = new Process<Void>("Bob") {
+			protected Void execute() throws Exception {
+				serviceStarted.get();
+				try {
+					for (int i = 0; i < 3; i++) {
+						assertEquals(fileContent, conn.request("getResourceRequest", new JSONObject()
+							.put(USERNAME, "Bob")
+							.put("small", false)
+						).get().getString("content"));
+					}
+					assertEquals("small", conn.request("getResourceRequest", new JSONObject()
+						.put(USERNAME, "Bob")
+						.put("small", true)
+					).get().getString("content"));
+				} finally {
+					quitRequested.resolve(null);
+				}
+				return null;
+			}
+		};
+
+		run(service, bob);
+		PayloadCompressor.Stats s = stats.get();
+		assertEquals(4, s.getMessages());
+		assertEquals(3, s.getCompressedMessages());
+		assertTrue(s.toString(), s.getCompressedBytes() * 4 < s.getUncompressedBytes());
+	}
+
 	/**
 	 * Test that super user can connect and disconnect channels to 
 	 * switch between users.
@@ -571,7 +1263,7 @@ public class RabbitMQFluxClientTest extends AbstractFluxClientTest {
 	}
 
 	protected MessageConnector createConnection(String user) throws Exception {
-		return new RabbitMQFluxConfig(user).connect(client);
+		return new RabbitMQFluxConfig(user).setPreferredCodec(preferredCodec).connect(client);
 	}
 	
 	
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.client.java;
+
+import java.util.Collection;
+
+import junit.framework.TestCase;
+
+import org.eclipse.flux.client.IMessageHandler;
+import org.eclipse.flux.client.MessageHandler;
+import org.eclipse.flux.client.ResponseCorrelator;
+import org.json.JSONObject;
+
+public class ResponseCorrelatorTest extends TestCase {
+
+	private ResponseCorrelator correlator = new ResponseCorrelator();
+
+	private IMessageHandler handler(String type) {
+		return new MessageHandler(type) {
+			public void handle(String type, JSONObject message) {
+			}
+		};
+	}
+
+	private JSONObject response(int callbackID, String requestSenderID) throws Exception {
+		JSONObject msg = new JSONObject().put("callback_id", callbackID);
+		if (requestSenderID!=null) {
+			msg.put("requestSenderID", requestSenderID);
+		}
+		return msg;
+	}
+
+	public void testLookupByCallbackID() throws Exception {
+		IMessageHandler h1 = handler("getResourceResponse");
+		IMessageHandler h2 = handler("getResourceResponse");
+		correlator.register("getResourceResponse", 1, null, h1);
+		correlator.register("getResourceResponse", 2, null, h2);
+
+		Collection<IMessageHandler> found = correlator.lookup("getResourceResponse", response(1, "inbox"));
+		assertEquals(1, found.size());
+		assertTrue(found.contains(h1));
+
+		assertTrue(correlator.lookup("getProjectResponse", response(1, "inbox")).isEmpty());
+		assertTrue(correlator.lookup("getResourceResponse", new JSONObject()).isEmpty());
+	}
+
+	public void testRequestSenderID() throws Exception {
+		IMessageHandler any = handler("getResourceResponse");
+		IMessageHandler mine = handler("getResourceResponse");
+		correlator.register("getResourceResponse", 1, null, any);
+		correlator.register("getResourceResponse", 1, "me", mine);
+
+		assertEquals(2, correlator.lookup("getResourceResponse", response(1, "me")).size());
+		Collection<IMessageHandler> other = correlator.lookup("getResourceResponse", response(1, "other"));
+		assertEquals(1, other.size());
+		assertTrue(other.contains(any));
+	}
+
+	public void testUnregister() throws Exception {
+		IMessageHandler h = handler("getResourceResponse");
+		correlator.register("getResourceResponse", 1, null, h);
+		assertTrue(correlator.isWaitingFor("getResourceResponse"));
+		assertTrue(correlator.unregister("getResourceResponse", 1, null, h));
+		assertFalse(correlator.unregister("getResourceResponse", 1, null, h));
+		assertFalse(correlator.isWaitingFor("getResourceResponse"));
+		assertEquals(0, correlator.size());
+	}
+
+	public void testExpiry() throws Exception {
+		IMessageHandler h = handler("getResourceResponse");
+		correlator.register("getResourceResponse", 1, null, h, 50);
+		assertEquals(1, correlator.lookup("getResourceResponse", response(1, null)).size());
+		Thread.sleep(100);
+		assertTrue(correlator.lookup("getResourceResponse", response(1, null)).isEmpty());
+		assertEquals(0, correlator.size());
+	}
+
+}
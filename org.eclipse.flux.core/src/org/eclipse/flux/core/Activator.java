@@ -96,6 +96,9 @@ public class Activator extends Plugin {
 		String lazyStartStr = System.getProperty("flux.lazyStart") == null ? System.getenv("FLUX_LAZY_START") : System.getProperty("flux.lazyStart");
 		lazyStart = lazyStartStr != null && Boolean.valueOf(lazyStartStr);
 		
+		String virtualThreadsStr = System.getProperty("flux.virtualThreads") == null ? System.getenv("FLUX_VIRTUAL_THREADS") : System.getProperty("flux.virtualThreads");
+		boolean virtualThreads = virtualThreadsStr != null && Boolean.valueOf(virtualThreadsStr);
+		
 		String channel = System.getProperty("flux.channel.id") == null ? System.getenv("FLUX_CHANNEL_ID") : System.getProperty("flux.channel.id");
 		if (channel == null) {
 			channel = login;
@@ -103,7 +106,18 @@ public class Activator extends Plugin {
 		
 		
 		if (!host.isEmpty()) {
-			this.messageConnector = new FluxClient(Executors.newFixedThreadPool(1)).connect(new SocketIOFluxConfig(host, login, token));
+			//Edits to the same resource must be handled in order, but there is no need to serialize
+			// the handling of messages about different resources.
+			//Content assist and live edits must not wait behind a project sync. The live edit messages
+			// are all interactive and the repository's get requests and responses all bulk, so each
+			// protocol's messages stay in order.
+			FluxClient client = new FluxClient(virtualThreads
+					? FluxClient.newVirtualThreadExecutor()
+					: Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()))
+				.setDispatchMode(FluxClient.DispatchMode.ORDERED_PER_RESOURCE)
+				.setInteractiveThreads(FluxClient.DEFAULT_INTERACTIVE_THREADS)
+				.setMaxConcurrentBulk(FluxClient.DEFAULT_MAX_CONCURRENT_BULK);
+			this.messageConnector = client.connect(new SocketIOFluxConfig(host, login, token));
 			this.channelSwitcher = new ChannelSwitcher(messageConnector);
 			this.messageConnector.addChannelListener(SERVICE_STARTER);
 			
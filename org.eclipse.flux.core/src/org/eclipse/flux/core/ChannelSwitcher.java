@@ -10,6 +10,9 @@
 *******************************************************************************/
 package org.eclipse.flux.core;
 
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.eclipse.flux.client.MessageConnector;
 
 /**
@@ -21,23 +24,52 @@ import org.eclipse.flux.client.MessageConnector;
 public class ChannelSwitcher {
 	
 	private final MessageConnector messageConnector;
-	private String channelName;
+	private volatile String channelName;
+	
+	/**
+	 * Serializes switching, which waits for the connector while holding it. A ReentrantLock
+	 * rather than 'synchronized' so that virtual threads do not pin their carrier thread.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition switched = lock.newCondition();
 
 	public ChannelSwitcher(MessageConnector wrappee) {
 		this.messageConnector = wrappee;
 	}
 
-	public synchronized String getChannel() {
+	public String getChannel() {
 		return channelName;
 	}
+	
+	/**
+	 * Wait until connected to a channel.
+	 * @return the channel.
+	 */
+	public String awaitChannel() throws InterruptedException {
+		lock.lock();
+		try {
+			while (channelName==null) {
+				switched.await();
+			}
+			return channelName;
+		} finally {
+			lock.unlock();
+		}
+	}
 
-	public synchronized void switchToChannel(String newChannel) throws Exception {
-		if (this.channelName!=null) {
-			//TODO: use disconnectFromChannelSync (but its not implemented yet)
-			messageConnector.disconnectFromChannel(this.channelName);
+	public void switchToChannel(String newChannel) throws Exception {
+		lock.lock();
+		try {
+			if (this.channelName!=null) {
+				//TODO: use disconnectFromChannelSync (but its not implemented yet)
+				messageConnector.disconnectFromChannel(this.channelName);
+			}
+			messageConnector.connectToChannelSync(newChannel);
+			this.channelName = newChannel;
+			switched.signalAll();
+		} finally {
+			lock.unlock();
 		}
-		messageConnector.connectToChannelSync(newChannel);
-		this.channelName = newChannel;
 	}
 	
 }
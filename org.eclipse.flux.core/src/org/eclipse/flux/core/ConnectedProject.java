@@ -10,10 +10,21 @@
 *******************************************************************************/
 package org.eclipse.flux.core;
 
-import java.io.IOException;
+import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.eclipse.core.resources.IContainer;
@@ -23,6 +34,8 @@ import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.flux.core.util.FileHashing;
 
 /**
  * @author Martin Lippert
@@ -32,39 +45,223 @@ public class ConnectedProject {
 	private IProject project;
 	private Map<String, String> resourceHash;
 	private Map<String, Long> resourceTimestamp;
+	private MerkleTree tree;
 	
+	/**
+	 * At most this many changes are remembered for {@link #getChangesSince(String)}.
+	 */
+	private static final int MAX_CHANGES = 10000;
+	
+	/**
+	 * Distinguishes the sequence numbers of this instance from those of earlier sessions
+	 * and other peers.
+	 */
+	private final String epoch = UUID.randomUUID().toString();
+	
+	/**
+	 * Guards 'sequence', 'changes' and 'truncatedSequence'.
+	 */
+	private final ReentrantLock changeLock = new ReentrantLock();
+	private long sequence;
+	private final ArrayDeque<Change> changes = new ArrayDeque<Change>();
+	/**
+	 * Sequence number of the last change dropped from 'changes'.
+	 */
+	private long truncatedSequence;
+	
+	/**
+	 * The sequence tokens of the last project listings received from other peers, by the
+	 * epoch of the peer that sent them.
+	 */
+	private final ConcurrentMap<String, String> syncedSequences = new ConcurrentHashMap<String, String>();
+	
+	/**
+	 * A change to a resource, recorded when its timestamp is set or it is removed.
+	 */
+	public static final class Change {
+		final long sequence;
+		public final String path;
+		public final boolean deleted;
+		public final long timestamp;
+		
+		Change(long sequence, String path, boolean deleted, long timestamp) {
+			this.sequence = sequence;
+			this.path = path;
+			this.deleted = deleted;
+			this.timestamp = timestamp;
+		}
+	}
+	
+	/**
+	 * Files modified less than this many milliseconds before they were hashed are not indexed.
+	 * Their modification time may not change when they are modified again right away, since
+	 * many file systems store it with a resolution of a second or worse.
+	 */
+	private static final long INDEX_MODIFICATION_MARGIN = 2000;
+
 	public ConnectedProject(IProject project) {
+		this(project, indexFile(project));
+	}
+
+	/**
+	 * @param indexFile where hashes are kept between sessions, so that only files that changed
+	 *                  since are hashed again. May be null to hash all files.
+	 */
+	public ConnectedProject(IProject project, final File indexFile) {
 		this.project = project;
 		this.resourceHash = new ConcurrentHashMap<String, String>();
 		this.resourceTimestamp = new ConcurrentHashMap<String, Long>();
+		this.tree = new MerkleTree();
 		
+		final ProjectIndex previous = ProjectIndex.load(indexFile);
+		final ProjectIndex index = new ProjectIndex();
+		final long indexBefore = System.currentTimeMillis() - INDEX_MODIFICATION_MARGIN;
+		//Files are only collected while visiting, and hashed in parallel afterwards.
+		final List<FileToHash> toHash = new ArrayList<FileToHash>();
 		try {
 			project.refreshLocal(IResource.DEPTH_INFINITE, null);
 			project.accept(new IResourceVisitor() {
 				@Override
 				public boolean visit(IResource resource) throws CoreException {
 					String path = resource.getProjectRelativePath().toString();
-					ConnectedProject.this.setTimestamp(path, resource.getLocalTimeStamp());
+					long timestamp = resource.getLocalTimeStamp();
+					ConnectedProject.this.setTimestamp(path, timestamp);
 					
 					if (resource instanceof IFile) {
-						try {
-							IFile file = (IFile) resource;
-							ConnectedProject.this.setHash(path, DigestUtils.shaHex(file.getContents()));
-						} catch (IOException e) {
-							e.printStackTrace();
+						IFile file = (IFile) resource;
+						IPath location = file.getLocation();
+						File local = location == null ? null : location.toFile();
+						long size = local == null ? -1 : local.length();
+						String hash = local == null ? null : previous.getHash(path, size, timestamp);
+						if (hash != null) {
+							ConnectedProject.this.setHash(path, hash);
+							if (timestamp < indexBefore) {
+								index.put(path, size, timestamp, hash);
+							}
+						} else {
+							toHash.add(new FileToHash(path, file, local, size, timestamp));
 						}
 					}
 					else if (resource instanceof IFolder) {
-						ConnectedProject.this.setHash(path, "0");
+						ConnectedProject.this.setFolderHash(path, "0");
 					}
 					
 					return true;
 				}
 			}, IResource.DEPTH_INFINITE, IContainer.EXCLUDE_DERIVED);
+
+			FileHashing.getPool().invoke(new HashTask(toHash, 0, toHash.size()));
+			for (FileToHash f : toHash) {
+				if (f.hash != null) {
+					setHash(f.path, f.hash);
+					if (f.local != null && f.timestamp < indexBefore) {
+						index.put(f.path, f.size, f.timestamp, f.hash);
+					}
+				}
+			}
+			if (indexFile != null) {
+				index.save(indexFile);
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+		
+		//The initial scan is not a change.
+		changeLock.lock();
+		try {
+			changes.clear();
+			truncatedSequence = sequence;
+		} finally {
+			changeLock.unlock();
+		}
+	}
+
+	/**
+	 * A file that needs hashing, and its hash once done.
+	 */
+	private static class FileToHash {
+		final String path;
+		final IFile file;
+		/**
+		 * The file in the local file system. Null if it has no local location, then it is read
+		 * through the workspace.
+		 */
+		final File local;
+		final long size;
+		final long timestamp;
+		String hash;
 
+		FileToHash(String path, IFile file, File local, long size, long timestamp) {
+			this.path = path;
+			this.file = file;
+			this.local = local;
+			this.size = size;
+			this.timestamp = timestamp;
+		}
+
+		void computeHash() {
+			try {
+				if (local != null) {
+					hash = FileHashing.sha1Hex(local);
+				} else {
+					InputStream contents = file.getContents();
+					try {
+						hash = DigestUtils.shaHex(contents);
+					} finally {
+						contents.close();
+					}
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Hashes a range of files, splitting it among the pool's threads.
+	 */
+	private static class HashTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Ranges of at most this many files are hashed by a single task.
+		 */
+		private static final int THRESHOLD = 4;
+
+		private final List<FileToHash> files;
+		private final int from;
+		private final int to;
+
+		HashTask(List<FileToHash> files, int from, int to) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					files.get(i).computeHash();
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new HashTask(files, from, middle), new HashTask(files, middle, to));
+			}
+		}
+	}
+
+	/**
+	 * @return the file in the plugin's state area holding the index of a project, or null
+	 *         when not running as a plugin.
+	 */
+	private static File indexFile(IProject project) {
+		Activator plugin = Activator.getDefault();
+		if (plugin == null) {
+			return null;
+		}
+		return plugin.getStateLocation().append("index").append(project.getName() + ".idx").toFile();
 	}
 	
 	public IProject getProject() {
@@ -81,19 +278,167 @@ public class ConnectedProject {
 	
 	public void setTimestamp(String resourcePath, long newTimestamp) {
 		this.resourceTimestamp.put(resourcePath, newTimestamp);
+		recordChange(resourcePath, false, newTimestamp);
 	}
 	
 	public long getTimestamp(String resourcePath) {
 		return this.resourceTimestamp.get(resourcePath);
 	}
 
+	/**
+	 * Set the hash of a file.
+	 */
 	public void setHash(String resourcePath, String hash) {
 		this.resourceHash.put(resourcePath, hash);
+		this.tree.putFile(resourcePath, hash);
+	}
+	
+	/**
+	 * Set the hash of a folder, as sent to peers in project listings.
+	 */
+	public void setFolderHash(String resourcePath, String hash) {
+		this.resourceHash.put(resourcePath, hash);
+		this.tree.putFolder(resourcePath);
 	}
 	
 	public String getHash(String resourcePath) {
 		return this.resourceHash.get(resourcePath);
 	}
+	
+	/**
+	 * Forget a removed file, or a removed folder and everything below it.
+	 */
+	public void removeResource(String resourcePath, long deletedTimestamp) {
+		this.resourceHash.remove(resourcePath);
+		this.resourceTimestamp.remove(resourcePath);
+		this.tree.remove(resourcePath);
+		recordChange(resourcePath, true, deletedTimestamp);
+	}
+	
+	private void recordChange(String resourcePath, boolean deleted, long timestamp) {
+		changeLock.lock();
+		try {
+			changes.addLast(new Change(++sequence, resourcePath, deleted, timestamp));
+			if (changes.size() > MAX_CHANGES) {
+				truncatedSequence = changes.removeFirst().sequence;
+			}
+		} finally {
+			changeLock.unlock();
+		}
+	}
+	
+	/**
+	 * @return a token for the current state of the project, to pass to
+	 *         {@link #getChangesSince(String)} later.
+	 */
+	public String getSequenceToken() {
+		changeLock.lock();
+		try {
+			return epoch + ":" + sequence;
+		} finally {
+			changeLock.unlock();
+		}
+	}
+	
+	/**
+	 * @return the last change of each resource changed since the token was obtained, in the
+	 *         order of those changes. Null if the token is not from this instance, or when
+	 *         some of the changes since are no longer remembered.
+	 */
+	public List<Change> getChangesSince(String token) {
+		int colon = token == null ? -1 : token.lastIndexOf(':');
+		if (colon < 0 || !epoch.equals(token.substring(0, colon))) {
+			return null;
+		}
+		long since;
+		try {
+			since = Long.parseLong(token.substring(colon + 1));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		changeLock.lock();
+		try {
+			if (since < truncatedSequence || since > sequence) {
+				return null;
+			}
+			Map<String, Change> latest = new LinkedHashMap<String, Change>();
+			for (Iterator<Change> iter = changes.descendingIterator(); iter.hasNext();) {
+				Change change = iter.next();
+				if (change.sequence <= since) {
+					break;
+				}
+				if (!latest.containsKey(change.path)) {
+					latest.put(change.path, change);
+				}
+			}
+			List<Change> result = new ArrayList<Change>(latest.values());
+			Collections.reverse(result);
+			return result;
+		} finally {
+			changeLock.unlock();
+		}
+	}
+	
+	/**
+	 * @return the removals of files and folders in a folder that are still remembered, the
+	 *         last one of each. Resources that were added again since are left out.
+	 */
+	public List<Change> getDeletedChildren(String folderPath) {
+		String prefix = MerkleTree.ROOT.equals(folderPath) ? "" : folderPath + "/";
+		changeLock.lock();
+		try {
+			Map<String, Change> latest = new LinkedHashMap<String, Change>();
+			for (Iterator<Change> iter = changes.descendingIterator(); iter.hasNext();) {
+				Change change = iter.next();
+				if (change.path.startsWith(prefix) && change.path.indexOf('/', prefix.length()) < 0
+						&& !latest.containsKey(change.path)) {
+					latest.put(change.path, change);
+				}
+			}
+			List<Change> result = new ArrayList<Change>();
+			for (Change change : latest.values()) {
+				if (change.deleted && !containsResource(change.path)) {
+					result.add(change);
+				}
+			}
+			return result;
+		} finally {
+			changeLock.unlock();
+		}
+	}
+	
+	/**
+	 * @return the sequence tokens of the last project listing from each peer that sent one.
+	 */
+	public Collection<String> getSyncedSequences() {
+		return new ArrayList<String>(syncedSequences.values());
+	}
+	
+	/**
+	 * Remember the sequence token of a project listing that was applied completely, in place
+	 * of the one from an earlier listing of the same peer.
+	 */
+	public void setSyncedSequence(String token) {
+		int colon = token.lastIndexOf(':');
+		if (colon >= 0) {
+			syncedSequences.put(token.substring(0, colon), token);
+		}
+	}
+	
+	/**
+	 * @return the hash of a folder computed from everything below it, or null if there is no
+	 *         such folder. Use {@link MerkleTree#ROOT} for the project itself.
+	 */
+	public String getTreeHash(String folderPath) {
+		return this.tree.getHash(folderPath);
+	}
+	
+	/**
+	 * @return the files and folders in a folder, or null if there is no such folder.
+	 */
+	public List<MerkleTree.Child> getTreeChildren(String folderPath) {
+		return this.tree.getChildren(folderPath);
+	}
 
 	public boolean containsResource(String resourcePath) {
 		return this.resourceTimestamp.containsKey(resourcePath);
@@ -11,10 +11,15 @@
 package org.eclipse.flux.core;
 
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
@@ -28,8 +33,10 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.flux.client.CallbackIDAwareMessageHandler;
 import org.eclipse.flux.client.MessageConnector;
+import org.eclipse.flux.client.ResponseStreamHandler;
+import org.eclipse.flux.client.util.BasicFuture;
+import org.eclipse.flux.core.util.ChunkedContent;
 import org.eclipse.m2e.core.MavenPlugin;
 import org.eclipse.m2e.core.project.ResolverConfiguration;
 import org.json.JSONArray;
@@ -49,43 +56,43 @@ public class DownloadProject {
 	private MessageConnector messagingConnector;
 
 	private String projectName;
-	private int callbackID;
 	private CompletionCallback completionCallback;
 
 	private String username;
 	private IProject project;
 
+	/**
+	 * At most this many files are fetched at the same time. Each fetch holds a temporary file
+	 * open, and a request waiting for its response in the connector.
+	 */
+	private static final int MAX_FILES_IN_FLIGHT = 16;
+
 	private Set<String> requestedProjectFiles = new ConcurrentSkipListSet<>();
 	private Set<String> projectFiles = new ConcurrentSkipListSet<String>();
 
-	private CallbackIDAwareMessageHandler projectResponseHandler;
-	private CallbackIDAwareMessageHandler resourceResponseHandler;
+	/**
+	 * Files listed but not fetched yet, waiting for one of the {@link #MAX_FILES_IN_FLIGHT}
+	 * 'fetchPermits'. The pages of the listing are not held back meanwhile, only their paths
+	 * are kept here, which is little compared to the contents of the files.
+	 */
+	private Queue<String> filesToFetch = new ConcurrentLinkedQueue<String>();
+	private Semaphore fetchPermits = new Semaphore(MAX_FILES_IN_FLIGHT);
+
+	/**
+	 * Set once the last page of the project listing was handled. Until then more files may
+	 * be requested, so the download is not complete yet.
+	 */
+	private AtomicBoolean listed = new AtomicBoolean(false);
+	
+	private AtomicBoolean done = new AtomicBoolean(false);
 
 	public DownloadProject(MessageConnector messagingConnector, String projectName, String username) {
 		this.messagingConnector = messagingConnector;
 		this.projectName = projectName;
 		this.username = username;
-
-		this.callbackID = this.hashCode();
-
-		projectResponseHandler = new CallbackIDAwareMessageHandler("getProjectResponse", this.callbackID) {
-			@Override
-			public void handle(String messageType, JSONObject message) {
-				getProjectResponse(message);
-			}
-		};
-		resourceResponseHandler = new CallbackIDAwareMessageHandler("getResourceResponse", this.callbackID) {
-			@Override
-			public void handle(String messageType, JSONObject message) {
-				getResourceResponse(message);
-			}
-		};
 	}
 
 	public void run(final CompletionCallback completionCallback) {
-		this.messagingConnector.addMessageHandler(projectResponseHandler);
-		this.messagingConnector.addMessageHandler(resourceResponseHandler);
-
 		this.completionCallback = completionCallback;
 
 		IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
@@ -103,16 +110,34 @@ public class DownloadProject {
 					}
 
 					JSONObject message = new JSONObject();
-					message.put("callback_id", callbackID);
 					message.put("username", username);
 					message.put("project", projectName);
 
-					messagingConnector.send("getProjectRequest", message);
+					//Files of a page are requested while the next pages are still coming in, at
+					//most MAX_FILES_IN_FLIGHT at a time (see fetchFiles()).
+					messagingConnector.requestStream("getProjectRequest", message, ChunkedContent.IDLE_TIMEOUT, new ResponseStreamHandler() {
+						@Override
+						public void chunk(JSONObject page) throws Exception {
+							getProjectResponse(page);
+						}
+					}).whenDone(new BasicFuture.CompletionCallback<Void>() {
+						@Override
+						public void resolved(Void result) {
+							listed.set(true);
+							if (requestedProjectFiles.isEmpty()) {
+								finish();
+							}
+						}
+
+						@Override
+						public void rejected(Throwable e) {
+							e.printStackTrace();
+							failed();
+						}
+					});
 				} catch (Exception e) {
 					e.printStackTrace();
-					messagingConnector.removeMessageHandler(projectResponseHandler);
-					messagingConnector.removeMessageHandler(resourceResponseHandler);
-					completionCallback.downloadFailed();
+					failed();
 				}
 
 				return Status.OK_STATUS;
@@ -125,7 +150,6 @@ public class DownloadProject {
 
 	public void getProjectResponse(JSONObject response) {
 		try {
-			final String responseProject = response.getString("project");
 			final String responseUser = response.getString("username");
 			final JSONArray files = response.getJSONArray("files");
 
@@ -158,23 +182,79 @@ public class DownloadProject {
 					String resourcePath = (String) newFilesIterator.next();
 
 					this.requestedProjectFiles.add(resourcePath);
-
-					JSONObject message = new JSONObject();
-					message.put("callback_id", callbackID);
-					message.put("username", this.username);
-					message.put("project", responseProject);
-					message.put("resource", resourcePath);
-
-					messagingConnector.send("getResourceRequest", message);
+					this.filesToFetch.add(resourcePath);
 				}
+				fetchFiles();
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
-			this.messagingConnector.removeMessageHandler(projectResponseHandler);
-			this.messagingConnector.removeMessageHandler(resourceResponseHandler);
-			this.completionCallback.downloadFailed();
+			failed();
+		}
+	}
+
+	/**
+	 * Start fetching waiting files, as long as fewer than {@link #MAX_FILES_IN_FLIGHT} are
+	 * being fetched.
+	 */
+	private void fetchFiles() {
+		while (!done.get() && fetchPermits.tryAcquire()) {
+			String resourcePath = filesToFetch.poll();
+			if (resourcePath == null) {
+				fetchPermits.release();
+				//A file added before the permit was released would be left waiting.
+				if (filesToFetch.isEmpty()) {
+					return;
+				}
+				continue;
+			}
+			try {
+				fetchFile(resourcePath);
+			} catch (Exception e) {
+				fetchPermits.release();
+				e.printStackTrace();
+				failed();
+			}
 		}
 	}
+
+	private void fetchFile(String resourcePath) throws Exception {
+		JSONObject message = new JSONObject();
+		message.put("username", this.username);
+		message.put("project", projectName);
+		message.put("resource", resourcePath);
+
+		final ChunkedContent.Receiver receiver = new ChunkedContent.Receiver();
+		messagingConnector.requestStream("getResourceRequest", message, ChunkedContent.IDLE_TIMEOUT, receiver).whenDone(new BasicFuture.CompletionCallback<Void>() {
+			@Override
+			public void resolved(Void result) {
+				try {
+					InputStream content = receiver.openContents();
+					try {
+						getResourceResponse(receiver.getResponse(), content);
+					} finally {
+						if (content != null) {
+							content.close();
+						}
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+					failed();
+				} finally {
+					receiver.dispose();
+					fetchPermits.release();
+					fetchFiles();
+				}
+			}
+
+			@Override
+			public void rejected(Throwable e) {
+				receiver.dispose();
+				fetchPermits.release();
+				e.printStackTrace();
+				failed();
+			}
+		});
+	}
 	
 	private void createFolder(IFolder folder) throws CoreException {
 		if (!folder.exists()) {
@@ -187,37 +267,53 @@ public class DownloadProject {
 	}
 	
 	public void getResourceResponse(JSONObject response) {
+		try {
+			getResourceResponse(response, new ByteArrayInputStream(response.getString("content").getBytes()));
+		} catch (Exception e) {
+			e.printStackTrace();
+			failed();
+		}
+	}
+
+	private void getResourceResponse(JSONObject response, InputStream content) {
 		try {
 			final String responseUser = response.getString("username");
 			final String resourcePath = response.getString("resource");
 			final long timestamp = response.getLong("timestamp");
-			final String content = response.getString("content");
+			if (content == null) {
+				throw new IllegalArgumentException("No content received for " + resourcePath);
+			}
 
 			if (this.username.equals(responseUser)) {
 				IFile file = project.getFile(resourcePath);
 				if (!file.exists()) {
-					file.create(new ByteArrayInputStream(content.getBytes()), true, null);
+					file.create(content, true, null);
 				} else {
-					file.setContents(new ByteArrayInputStream(content.getBytes()), true, false, null);
+					file.setContents(content, true, false, null);
 				}
 				file.setLocalTimeStamp(timestamp);
 
 				this.requestedProjectFiles.remove(resourcePath);
-				if (this.requestedProjectFiles.isEmpty()) {
-					this.messagingConnector.removeMessageHandler(projectResponseHandler);
-					this.messagingConnector.removeMessageHandler(resourceResponseHandler);
+				if (this.listed.get() && this.requestedProjectFiles.isEmpty()) {
 					finish();
 				}
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
-			this.messagingConnector.removeMessageHandler(projectResponseHandler);
-			this.messagingConnector.removeMessageHandler(resourceResponseHandler);
+			failed();
+		}
+	}
+	
+	private void failed() {
+		if (done.compareAndSet(false, true)) {
 			this.completionCallback.downloadFailed();
 		}
 	}
 	
 	public void finish() {
+		if (!done.compareAndSet(false, true)) {
+			return;
+		}
 		if (projectFiles.contains("pom.xml") && !projectFiles.contains(".project")) {
 			IFile pomFile = project.getFile("pom.xml");
 			if (pomFile != null && pomFile.exists()) {
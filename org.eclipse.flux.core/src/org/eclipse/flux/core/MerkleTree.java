@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Hashes of the folders of a project, each computed from the names and hashes of its
+ * children. Two copies of a project with the same hash for a folder have the same content
+ * below it, so peers comparing projects only need to look into folders whose hashes differ.
+ * <p>
+ * Folder hashes are computed when asked for. A change to a file only invalidates the hashes
+ * of the folders above it, so after a few changes only those folders are hashed again.
+ * Paths are project relative, separated by '/'. The project itself is the folder "".
+ */
+public class MerkleTree {
+
+	public static final String ROOT = "";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final class Folder {
+		/**
+		 * Content hashes of the files in the folder, keyed by name.
+		 */
+		final SortedMap<String, String> files = new TreeMap<String, String>();
+		final SortedSet<String> folders = new TreeSet<String>();
+		/**
+		 * Null when a child changed since it was computed.
+		 */
+		String hash;
+	}
+
+	/**
+	 * A child of a folder.
+	 */
+	public static final class Child {
+		public final String path;
+		public final boolean folder;
+		/**
+		 * The content hash of a file, or the tree hash of a folder.
+		 */
+		public final String hash;
+
+		Child(String path, boolean folder, String hash) {
+			this.path = path;
+			this.folder = folder;
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * Guards 'folders' and the folders in it.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Map<String, Folder> folders = new HashMap<String, Folder>();
+
+	public MerkleTree() {
+		folders.put(ROOT, new Folder());
+	}
+
+	public void putFile(String path, String hash) {
+		lock.lock();
+		try {
+			String parent = parent(path);
+			folder(parent).files.put(name(path), hash == null ? "" : hash);
+			invalidate(parent);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void putFolder(String path) {
+		lock.lock();
+		try {
+			folder(path);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Remove a file, or a folder and everything below it.
+	 */
+	public void remove(String path) {
+		if (ROOT.equals(path)) {
+			return;
+		}
+		lock.lock();
+		try {
+			String parent = parent(path);
+			Folder parentFolder = folders.get(parent);
+			if (folders.remove(path) != null) {
+				String prefix = path + "/";
+				for (Iterator<String> iter = folders.keySet().iterator(); iter.hasNext();) {
+					if (iter.next().startsWith(prefix)) {
+						iter.remove();
+					}
+				}
+				if (parentFolder != null) {
+					parentFolder.folders.remove(name(path));
+				}
+			} else if (parentFolder != null) {
+				parentFolder.files.remove(name(path));
+			}
+			invalidate(parent);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the hash of a folder, or null if there is no such folder.
+	 */
+	public String getHash(String folderPath) {
+		lock.lock();
+		try {
+			Folder folder = folders.get(folderPath);
+			return folder == null ? null : hash(folderPath, folder);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the children of a folder, or null if there is no such folder.
+	 */
+	public List<Child> getChildren(String folderPath) {
+		lock.lock();
+		try {
+			Folder folder = folders.get(folderPath);
+			if (folder == null) {
+				return null;
+			}
+			List<Child> children = new ArrayList<Child>(folder.files.size() + folder.folders.size());
+			for (String name : folder.folders) {
+				String path = child(folderPath, name);
+				children.add(new Child(path, true, hash(path, folders.get(path))));
+			}
+			for (Map.Entry<String, String> file : folder.files.entrySet()) {
+				children.add(new Child(child(folderPath, file.getKey()), false, file.getValue()));
+			}
+			return children;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get a folder, creating it and its ancestors if needed. Only call while holding 'lock'.
+	 */
+	private Folder folder(String path) {
+		Folder folder = folders.get(path);
+		if (folder == null) {
+			folder = new Folder();
+			folders.put(path, folder);
+			String parent = parent(path);
+			folder(parent).folders.add(name(path));
+			invalidate(parent);
+		}
+		return folder;
+	}
+
+	/**
+	 * Invalidate the hash of a folder and its ancestors. A folder whose hash is already
+	 * invalid has invalid ancestors too, so this stops there.
+	 */
+	private void invalidate(String path) {
+		while (path != null) {
+			Folder folder = folders.get(path);
+			if (folder == null || folder.hash == null) {
+				return;
+			}
+			folder.hash = null;
+			path = ROOT.equals(path) ? null : parent(path);
+		}
+	}
+
+	private String hash(String path, Folder folder) {
+		if (folder.hash == null) {
+			MessageDigest digest = sha1();
+			for (String name : folder.folders) {
+				String childPath = child(path, name);
+				update(digest, "d ", name, hash(childPath, folders.get(childPath)));
+			}
+			for (Map.Entry<String, String> file : folder.files.entrySet()) {
+				update(digest, "f ", file.getKey(), file.getValue());
+			}
+			folder.hash = Hex.encodeHexString(digest.digest());
+		}
+		return folder.hash;
+	}
+
+	private static void update(MessageDigest digest, String kind, String name, String hash) {
+		digest.update((kind + name + '\0' + hash + '\n').getBytes(UTF8));
+	}
+
+	private static MessageDigest sha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String parent(String path) {
+		int slash = path.lastIndexOf('/');
+		return slash < 0 ? ROOT : path.substring(0, slash);
+	}
+
+	private static String name(String path) {
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	private static String child(String folderPath, String name) {
+		return ROOT.equals(folderPath) ? name : folderPath + "/" + name;
+	}
+
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * The SHA-1 hashes of the files of a project, together with the size and modification time
+ * each file had when it was hashed. Saved in the plugin's state area, so that files that did
+ * not change since are not read and hashed again when the project is connected next time.
+ * <p>
+ * The file format is binary: a magic number and a version, the number of entries, then per
+ * entry its project relative path, size, modification time and the 20 bytes of the hash.
+ * Files in an unknown format are ignored, and the project is hashed from scratch.
+ */
+public class ProjectIndex {
+
+	private static final int MAGIC = 0x464c5849; //"FLXI"
+
+	/**
+	 * Increment when the format changes.
+	 */
+	private static final int VERSION = 1;
+
+	private static final int HASH_BYTES = 20;
+
+	private static final class Entry {
+		final long size;
+		final long timestamp;
+		final byte[] hash;
+
+		Entry(long size, long timestamp, byte[] hash) {
+			this.size = size;
+			this.timestamp = timestamp;
+			this.hash = hash;
+		}
+	}
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * @return the hex encoded hash of a file, if the index has one for the file's current
+	 *         size and modification time. Null otherwise.
+	 */
+	public String getHash(String path, long size, long timestamp) {
+		Entry entry = entries.get(path);
+		if (entry == null || entry.size != size || entry.timestamp != timestamp) {
+			return null;
+		}
+		return Hex.encodeHexString(entry.hash);
+	}
+
+	/**
+	 * Record the hex encoded SHA-1 hash of a file with the given size and modification time.
+	 */
+	public void put(String path, long size, long timestamp, String hash) {
+		try {
+			byte[] bytes = Hex.decodeHex(hash.toCharArray());
+			if (bytes.length != HASH_BYTES) {
+				throw new IllegalArgumentException("Not a SHA-1 hash: " + hash);
+			}
+			entries.put(path, new Entry(size, timestamp, bytes));
+		} catch (DecoderException e) {
+			throw new IllegalArgumentException("Not a SHA-1 hash: " + hash, e);
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Read an index saved by {@link #save(File)}.
+	 *
+	 * @return the index, which is empty if the file does not exist or can not be read.
+	 */
+	public static ProjectIndex load(File file) {
+		ProjectIndex index = new ProjectIndex();
+		if (file == null || !file.isFile()) {
+			return index;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return index;
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String path = in.readUTF();
+				long size = in.readLong();
+				long timestamp = in.readLong();
+				byte[] hash = new byte[HASH_BYTES];
+				in.readFully(hash);
+				index.entries.put(path, new Entry(size, timestamp, hash));
+			}
+		} catch (EOFException e) {
+			//Truncated, perhaps by a crash while saving. Start over.
+			index.entries.clear();
+		} catch (IOException e) {
+			e.printStackTrace();
+			index.entries.clear();
+		} finally {
+			close(in);
+		}
+		return index;
+	}
+
+	/**
+	 * Write the index to a file. It is written to a temporary file first and then moved,
+	 * so a crash leaves either the old or the new index behind.
+	 */
+	public void save(File file) throws IOException {
+		File dir = file.getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Can not create " + dir);
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			//Snapshot, so the count matches the entries written.
+			Map<String, Entry> snapshot = new HashMap<String, Entry>(entries);
+			out.writeInt(snapshot.size());
+			for (Map.Entry<String, Entry> e : snapshot.entrySet()) {
+				Entry entry = e.getValue();
+				out.writeUTF(e.getKey());
+				out.writeLong(entry.size);
+				out.writeLong(entry.timestamp);
+				out.write(entry.hash);
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void close(DataInputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
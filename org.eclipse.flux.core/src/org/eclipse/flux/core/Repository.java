@@ -11,14 +11,21 @@
 package org.eclipse.flux.core;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
@@ -32,10 +39,16 @@ import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.flux.client.CallbackIDAwareMessageHandler;
 import org.eclipse.flux.client.IMessageHandler;
 import org.eclipse.flux.client.MessageConnector;
+import org.eclipse.flux.client.MessageConstants;
 import org.eclipse.flux.client.MessageHandler;
+import org.eclipse.flux.client.util.CompletionAdapter;
+import org.eclipse.flux.core.util.ChunkedContent;
+import org.eclipse.flux.core.util.ExceptionUtil;
 import org.eclipse.jdt.core.IClassFile;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.IType;
@@ -57,9 +70,25 @@ public class Repository {
 	private Collection<IRepositoryListener> repositoryListeners;
 	
 	private static int GET_PROJECT_CALLBACK = "Repository - getProjectCallback".hashCode();
-	private static int GET_RESOURCE_CALLBACK = "Repository - getResourceCallback".hashCode();
+	private static int GET_PROJECT_TREE_CALLBACK = "Repository - getProjectTreeCallback".hashCode();
+	
+	/**
+	 * Marks a 'getProjectRequest' sent along with a 'getProjectTreeRequest'. Peers that answer
+	 * the tree request leave it alone, the others (like the node server) answer it as usual.
+	 */
+	private static final String TREE_REQUESTED = "treeRequested";
+	
+	/**
+	 * Number of resources per page of a paged project listing.
+	 */
+	private static final int PROJECT_PAGE_SIZE = 500;
 	
 	private AtomicBoolean connected;
+	
+	/**
+	 * The project listings being received from other peers, by their 'sequence'.
+	 */
+	private final ConcurrentMap<String, ListingSync> listingSyncs = new ConcurrentHashMap<String, ListingSync>();
 
 	public Repository(MessageConnector messagingConnector, String user) {
 		this.username = user;
@@ -69,7 +98,7 @@ public class Repository {
 		this.syncedProjects = new ConcurrentHashMap<String, ConnectedProject>();
 		this.repositoryListeners = new ConcurrentLinkedDeque<>();
 		
-		this.messageHandlers = new ArrayList<IMessageHandler>(9);
+		this.messageHandlers = new ArrayList<IMessageHandler>(10);
 		
 		IMessageHandler resourceChangedHandler = new MessageHandler("resourceChanged") {
 			@Override
@@ -125,6 +154,24 @@ public class Repository {
 		this.messagingConnector.addMessageHandler(getProjectResponseHandler);
 		this.messageHandlers.add(getProjectResponseHandler);
 		
+		IMessageHandler getProjectTreeRequestHandler = new MessageHandler("getProjectTreeRequest") {
+			@Override
+			public void handle(String messageType, JSONObject message) {
+				getProjectTree(message);
+			}
+		};
+		this.messagingConnector.addMessageHandler(getProjectTreeRequestHandler);
+		this.messageHandlers.add(getProjectTreeRequestHandler);
+		
+		IMessageHandler getProjectTreeResponseHandler = new CallbackIDAwareMessageHandler("getProjectTreeResponse", Repository.GET_PROJECT_TREE_CALLBACK) {
+			@Override
+			public void handle(String messageType, JSONObject message) {
+				getProjectTreeResponse(message);
+			}
+		};
+		this.messagingConnector.addMessageHandler(getProjectTreeResponseHandler);
+		this.messageHandlers.add(getProjectTreeResponseHandler);
+		
 		IMessageHandler getResourceRequestHandler = new MessageHandler("getResourceRequest") {
 			@Override
 			public void handle(String messageType, JSONObject message) {
@@ -145,15 +192,6 @@ public class Repository {
 		this.messagingConnector.addMessageHandler(getResourceRequestHandler);
 		this.messageHandlers.add(getResourceRequestHandler);
 		
-		IMessageHandler getResourceResponseHandler = new CallbackIDAwareMessageHandler("getResourceResponse", Repository.GET_RESOURCE_CALLBACK) {
-			@Override
-			public void handle(String messageType, JSONObject message) {
-				getResourceResponse(message);
-			}
-		};
-		this.messagingConnector.addMessageHandler(getResourceResponseHandler);
-		this.messageHandlers.add(getResourceResponseHandler);
-		
 		IMessageHandler getMetadataRequestHandler = new MessageHandler("getMetadataRequest") {
 			@Override
 			public void handle(String messageType, JSONObject message) {
@@ -217,13 +255,58 @@ public class Repository {
 		}
 	}
 
+	/**
+	 * Bring a project up to date with the copies of other peers. After a project listing was
+	 * received, only the changes since are asked for (see {@link #requestProject(String)}).
+	 * Before that, folder hashes are compared with peers that can (see
+	 * {@link #requestProjectTree(String, List)}), and the full project is asked for at the same
+	 * time from the peers that can't.
+	 */
 	protected void syncConnectedProject(String projectName) {
+		ConnectedProject connectedProject = this.syncedProjects.get(projectName);
+		if (connectedProject != null && !connectedProject.getSyncedSequences().isEmpty()) {
+			requestProject(projectName);
+		} else {
+			requestProjectTree(projectName, Collections.singletonList(MerkleTree.ROOT));
+			requestProject(projectName, true);
+		}
+	}
+
+	/**
+	 * Ask for a project listing. The 'sequence' of the last listing applied from each peer
+	 * is sent along in 'sinceSequences', and a peer that finds its own there answers with the
+	 * changes since. The listing may arrive in pages, each handled as it arrives by
+	 * {@link #getProjectResponse(JSONObject)}.
+	 */
+	protected void requestProject(String projectName) {
+		requestProject(projectName, false);
+	}
+
+	/**
+	 * @param treeRequested whether a 'getProjectTreeRequest' was sent along, so only peers
+	 *                      that don't answer that should answer this.
+	 */
+	private void requestProject(String projectName, boolean treeRequested) {
 		try {
+			ConnectedProject connectedProject = this.syncedProjects.get(projectName);
 			JSONObject message = new JSONObject();
 			message.put("username", this.username);
 			message.put("project", projectName);
 			message.put("includeDeleted", true);
+			if (treeRequested) {
+				message.put(TREE_REQUESTED, true);
+			}
+			else if (connectedProject != null && !connectedProject.getSyncedSequences().isEmpty()) {
+				message.put("sinceSequences", new JSONArray(connectedProject.getSyncedSequences()));
+			}
+			//Listings still coming in for an earlier request are not remembered any more.
+			for (ListingSync sync : listingSyncs.values()) {
+				if (sync.connectedProject == connectedProject) {
+					listingSyncs.remove(sync.sequence, sync);
+				}
+			}
 			message.put("callback_id", GET_PROJECT_CALLBACK);
+			message.put(MessageConstants.CHUNKED, true);
 			messagingConnector.send("getProjectRequest", message);
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -280,8 +363,22 @@ public class Repository {
 		return 0;
 	}
 
+	/**
+	 * Answer a 'getProjectRequest' with a listing of the project. Requesters that accept a
+	 * chunked response ('chunked') get the listing in pages of {@link #PROJECT_PAGE_SIZE}
+	 * entries, each an ordinary 'getProjectResponse' with its 'chunk' number. Every page carries
+	 * the 'sequence' of the listing, only the last one, marked with 'lastChunk', carries
+	 * 'deleted'. If the listing cannot be sent completely, it ends with an 'error' instead.
+	 * A request with one of our sequences in 'sinceSequences' is answered with the
+	 * changes since, and that sequence as 'sinceSequence'. Requests sent along
+	 * with a 'getProjectTreeRequest' are left alone, that one is answered instead.
+	 */
 	public void getProject(JSONObject request) {
 		try {
+			if (request.optBoolean(TREE_REQUESTED)) {
+				return;
+			}
+			
 			final int callbackID = request.getInt("callback_id");
 			final String sender = request.getString("requestSenderID");
 			final String projectName = request.getString("project");
@@ -290,16 +387,66 @@ public class Repository {
 			final ConnectedProject connectedProject = this.syncedProjects.get(projectName);
 			if (this.username.equals(username) && connectedProject != null) {
 
-				final JSONArray files = new JSONArray();
-
-				IProject project = connectedProject.getProject();
-
+				JSONObject header = new JSONObject();
+				header.put("callback_id", callbackID);
+				header.put("requestSenderID", sender);
+				header.put("username", this.username);
+				header.put("project", projectName);
+				final ProjectListing listing = new ProjectListing(messagingConnector, header, request.optBoolean(MessageConstants.CHUNKED));
 				try {
+					IProject project = connectedProject.getProject();
+				
+					//Taken first, so changes made while answering are sent again next time.
+					String sequence = connectedProject.getSequenceToken();
+					header.put("sequence", sequence);
+				
+					String sinceSequence = null;
+					List<ConnectedProject.Change> changes = null;
+					JSONArray sinceSequences = request.optJSONArray("sinceSequences");
+					for (int i = 0; changes == null && sinceSequences != null && i < sinceSequences.length(); i++) {
+						sinceSequence = sinceSequences.getString(i);
+						changes = connectedProject.getChangesSince(sinceSequence);
+					}
+					if (changes != null) {
+						JSONArray deleted = new JSONArray();
+						for (ConnectedProject.Change change : changes) {
+							IResource resource = project.findMember(change.path);
+							if (change.deleted) {
+								if (resource == null) {
+									JSONObject deletedResource = new JSONObject();
+									deletedResource.put("path", change.path);
+									deletedResource.put("timestamp", change.timestamp);
+									deleted.put(deletedResource);
+								}
+							}
+							else if ((resource instanceof IFile || resource instanceof IFolder) && connectedProject.containsResource(change.path)) {
+								JSONObject projectResource = new JSONObject();
+								projectResource.put("path", change.path);
+								projectResource.put("timestamp", connectedProject.getTimestamp(change.path));
+								projectResource.put("hash", connectedProject.getHash(change.path));
+								projectResource.put("type", resource instanceof IFile ? "file" : "folder");
+								listing.add(projectResource);
+							}
+						}
+					
+						JSONObject last = new JSONObject();
+						if (request.optBoolean("includeDeleted")) {
+							last.put("deleted", deleted);
+						}
+						last.put("sinceSequence", sinceSequence);
+						listing.finish(last);
+						return;
+					}
+
 					project.accept(new IResourceVisitor() {
 						@Override
 						public boolean visit(IResource resource) throws CoreException {
 							JSONObject projectResource = new JSONObject();
 							String path = resource.getProjectRelativePath().toString();
+							if (!connectedProject.containsResource(path)) {
+								//Created meanwhile, it is announced when it is added.
+								return true;
+							}
 							try {
 								projectResource.put("path", path);
 								projectResource.put("timestamp", connectedProject.getTimestamp(path));
@@ -310,34 +457,119 @@ public class Repository {
 								} else if (resource instanceof IFolder) {
 									projectResource.put("type", "folder");
 								}
-
-								files.put(projectResource);
 							} catch (JSONException e) {
 								e.printStackTrace();
+								return true;
+							}
+							try {
+								listing.add(projectResource);
+							} catch (Exception e) {
+								//Stops the walk, the listing is aborted below.
+								throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, ExceptionUtil.getMessage(e), e));
 							}
 							return true;
 						}
 					}, IResource.DEPTH_INFINITE, IContainer.EXCLUDE_DERIVED);
+				
+					listing.finish(new JSONObject());
 				} catch (Exception e) {
 					e.printStackTrace();
+					listing.abort(e);
 				}
-				
-				JSONObject message = new JSONObject();
-				message.put("callback_id", callbackID);
-				message.put("requestSenderID", sender);
-				message.put("username", this.username);
-				message.put("project", projectName);
-				message.put("username", this.username);
-				message.put("files", files);
-
-				messagingConnector.send("getProjectResponse", message);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Sends the entries of a project listing as 'getProjectResponse' messages. When paged,
+	 * a page is sent as soon as it is full, so only one page is held in memory, and all pages
+	 * carry the same 'streamID' (see {@link ChunkedContent}). Otherwise all entries are sent in
+	 * one response, for requesters that expect that.
+	 */
+	private static class ProjectListing {
+
+		private final MessageConnector connector;
+		private final JSONObject header;
+		private final boolean paged;
+		private final String streamID = ChunkedContent.newStreamID();
+		private JSONArray files = new JSONArray();
+		private int page = 0;
+
+		ProjectListing(MessageConnector connector, JSONObject header, boolean paged) {
+			this.connector = connector;
+			this.header = header;
+			this.paged = paged;
+		}
+
+		void add(JSONObject entry) throws Exception {
+			files.put(entry);
+			if (paged && files.length() >= PROJECT_PAGE_SIZE) {
+				send(null);
+			}
+		}
+
+		/**
+		 * Send the remaining entries, together with the properties only the last page has.
+		 */
+		void finish(JSONObject last) throws Exception {
+			send(last);
+		}
+
+		private void send(JSONObject last) throws Exception {
+			JSONObject message = new JSONObject(header, JSONObject.getNames(header));
+			message.put("files", files);
+			if (paged) {
+				message.put(MessageConstants.STREAM_ID, streamID);
+				message.put(MessageConstants.CHUNK, page++);
+			}
+			if (last != null) {
+				String[] names = JSONObject.getNames(last);
+				if (names != null) {
+					for (String name : names) {
+						message.put(name, last.get(name));
+					}
+				}
+				if (paged) {
+					message.put(MessageConstants.LAST_CHUNK, true);
+				}
+			}
+			connector.send("getProjectResponse", message);
+			files = new JSONArray();
+		}
+
+		/**
+		 * End a listing that could not be sent completely with an error instead of a last page,
+		 * so the requester does not take the pages sent before for the whole project.
+		 */
+		void abort(Exception cause) {
+			try {
+				JSONObject message = new JSONObject(header, JSONObject.getNames(header));
+				message.remove("sequence");
+				message.put(MessageConstants.ERROR, ExceptionUtil.getMessage(cause));
+				if (paged) {
+					message.put(MessageConstants.STREAM_ID, streamID);
+					message.put(MessageConstants.CHUNK, page++);
+				}
+				connector.send("getProjectResponse", message);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Apply a project listing, or a page of one. The 'sequence' of the listing is remembered
+	 * once all of it was applied (see {@link ListingSync}).
+	 */
 	public void getProjectResponse(JSONObject response) {
+		if (response.has(MessageConstants.ERROR)) {
+			//An aborted listing, the pages before are applied but it is not completed.
+			return;
+		}
+		ListingSync sync = null;
+		boolean applied = false;
 		try {
 			final String username = response.getString("username");
 			final String projectName = response.getString("project");
@@ -346,6 +578,15 @@ public class Repository {
 
 			ConnectedProject connectedProject = this.syncedProjects.get(projectName);
 			if (this.username.equals(username) && connectedProject != null) {
+				
+				String sequence = response.optString("sequence", null);
+				if (sequence != null) {
+					sync = new ListingSync(connectedProject, sequence);
+					ListingSync existing = listingSyncs.putIfAbsent(sequence, sync);
+					if (existing != null) {
+						sync = existing;
+					}
+				}
 
 				for (int i = 0; i < files.length(); i++) {
 					JSONObject resource = files.getJSONObject(i);
@@ -364,14 +605,13 @@ public class Repository {
 
 					if (newFile || updatedFile) {
 						JSONObject message = new JSONObject();
-						message.put("callback_id", GET_RESOURCE_CALLBACK);
 						message.put("project", projectName);
 						message.put("username", this.username);
 						message.put("resource", resourcePath);
 						message.put("timestamp", timestamp);
 						message.put("hash", hash);
 
-						messagingConnector.send("getResourceRequest", message);
+						requestResource(message, sync);
 					}
 					
 					if (updatedFileTimestamp) {
@@ -387,11 +627,14 @@ public class Repository {
 					if (newFolder) {
 						IProject project = connectedProject.getProject();
 						IFolder folder = project.getFolder(resourcePath);
+						createParentFolders(connectedProject, folder);
 
-						connectedProject.setHash(resourcePath, hash);
+						connectedProject.setFolderHash(resourcePath, hash);
 						connectedProject.setTimestamp(resourcePath, timestamp);
 
-						folder.create(true, true, null);
+						if (!folder.exists()) {
+							folder.create(true, true, null);
+						}
 						folder.setLocalTimeStamp(timestamp);
 					}
 					else if (updatedFolder) {
@@ -417,6 +660,240 @@ public class Repository {
 						}
 					}
 				}
+				applied = true;
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		if (sync != null) {
+			boolean last = !response.has(MessageConstants.CHUNK) || response.optBoolean(MessageConstants.LAST_CHUNK);
+			sync.pageApplied(response.optInt(MessageConstants.CHUNK), last, applied);
+		}
+	}
+
+	/**
+	 * A project listing being received from another peer. Its 'sequence' is remembered (see
+	 * {@link ConnectedProject#setSyncedSequence(String)}) once every page was applied and every
+	 * resource asked for because of it was stored. If anything failed, the sequence of the
+	 * peer's earlier listing is kept, so the same changes are asked for again next time.
+	 */
+	private class ListingSync {
+
+		final ConnectedProject connectedProject;
+		final String sequence;
+
+		/**
+		 * Guards 'pages', 'lastPage', 'pendingResources' and 'failed'.
+		 */
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Set<Integer> pages = new HashSet<Integer>();
+		private int lastPage = -1;
+		private int pendingResources;
+		private boolean failed;
+
+		ListingSync(ConnectedProject connectedProject, String sequence) {
+			this.connectedProject = connectedProject;
+			this.sequence = sequence;
+		}
+
+		void resourceRequested() {
+			lock.lock();
+			try {
+				pendingResources++;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void resourceDone(boolean stored) {
+			lock.lock();
+			try {
+				pendingResources--;
+				failed |= !stored;
+			} finally {
+				lock.unlock();
+			}
+			finishIfComplete();
+		}
+
+		void pageApplied(int page, boolean last, boolean applied) {
+			lock.lock();
+			try {
+				pages.add(page);
+				if (last) {
+					lastPage = page;
+				}
+				failed |= !applied;
+			} finally {
+				lock.unlock();
+			}
+			finishIfComplete();
+		}
+
+		private void finishIfComplete() {
+			boolean complete;
+			boolean succeeded;
+			lock.lock();
+			try {
+				complete = lastPage >= 0 && pages.size() > lastPage && pendingResources == 0;
+				succeeded = !failed;
+			} finally {
+				lock.unlock();
+			}
+			//Not remembered if a newer request for the project replaced it meanwhile.
+			if (complete && listingSyncs.remove(sequence, this) && succeeded) {
+				connectedProject.setSyncedSequence(sequence);
+			}
+		}
+	}
+
+	/**
+	 * Answer a 'getProjectTreeRequest' with the tree hashes of the requested folders (see
+	 * {@link MerkleTree}) and their children. For a folder child the response has both its
+	 * tree hash ('treeHash') and its hash as in 'getProjectResponse' ('hash'). The files and
+	 * folders removed from a folder that are still remembered are listed in its 'deleted', as
+	 * in 'getProjectResponse'. Folders this side does not have are answered without a 'treeHash'.
+	 */
+	public void getProjectTree(JSONObject request) {
+		try {
+			final int callbackID = request.getInt("callback_id");
+			final String sender = request.getString("requestSenderID");
+			final String projectName = request.getString("project");
+			final String username = request.getString("username");
+			final JSONArray requested = request.has("folders") ? request.getJSONArray("folders") : new JSONArray().put(MerkleTree.ROOT);
+
+			final ConnectedProject connectedProject = this.syncedProjects.get(projectName);
+			if (this.username.equals(username) && connectedProject != null) {
+				JSONArray folders = new JSONArray();
+				for (int i = 0; i < requested.length(); i++) {
+					String folderPath = requested.getString(i);
+					JSONObject folder = new JSONObject();
+					folder.put("path", folderPath);
+					
+					List<MerkleTree.Child> children = connectedProject.getTreeChildren(folderPath);
+					if (children != null) {
+						folder.put("treeHash", connectedProject.getTreeHash(folderPath));
+						JSONArray childArray = new JSONArray();
+						for (MerkleTree.Child child : children) {
+							JSONObject childObject = new JSONObject();
+							childObject.put("path", child.path);
+							childObject.put("type", child.folder ? "folder" : "file");
+							childObject.put("timestamp", connectedProject.containsResource(child.path) ? connectedProject.getTimestamp(child.path) : 0L);
+							if (child.folder) {
+								childObject.put("hash", connectedProject.getHash(child.path));
+								childObject.put("treeHash", child.hash);
+							} else {
+								childObject.put("hash", child.hash);
+							}
+							childArray.put(childObject);
+						}
+						folder.put("children", childArray);
+						
+						JSONArray deleted = new JSONArray();
+						for (ConnectedProject.Change change : connectedProject.getDeletedChildren(folderPath)) {
+							JSONObject deletedResource = new JSONObject();
+							deletedResource.put("path", change.path);
+							deletedResource.put("timestamp", change.timestamp);
+							deleted.put(deletedResource);
+						}
+						folder.put("deleted", deleted);
+					}
+					folders.put(folder);
+				}
+
+				JSONObject message = new JSONObject();
+				message.put("callback_id", callbackID);
+				message.put("requestSenderID", sender);
+				message.put("username", this.username);
+				message.put("project", projectName);
+				message.put("folders", folders);
+
+				messagingConnector.send("getProjectTreeResponse", message);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Ask other peers for the tree hashes of some folders and their children. Every peer that
+	 * answers is compared with (see {@link #getProjectTreeResponse(JSONObject)}), and asked
+	 * again for the folders that differ. A project where only a few files changed is brought
+	 * up to date with a few messages per level of folders, instead of a listing of the whole
+	 * project. Peers that don't answer this were asked for the full project already (see
+	 * {@link #syncConnectedProject(String)}).
+	 */
+	protected void requestProjectTree(String projectName, List<String> folderPaths) {
+		try {
+			JSONObject message = new JSONObject();
+			message.put("username", this.username);
+			message.put("project", projectName);
+			message.put("folders", new JSONArray(folderPaths));
+			message.put("callback_id", GET_PROJECT_TREE_CALLBACK);
+			messagingConnector.send("getProjectTreeRequest", message);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Compare the folders in a 'getProjectTreeResponse' with ours. Children that differ
+	 * are handled like the entries of a 'getProjectResponse', and so are the removals the
+	 * peer remembers. Differing folders are asked for next.
+	 */
+	public void getProjectTreeResponse(JSONObject response) {
+		try {
+			final String username = response.getString("username");
+			final String projectName = response.getString("project");
+			final JSONArray folders = response.getJSONArray("folders");
+
+			ConnectedProject connectedProject = this.syncedProjects.get(projectName);
+			if (this.username.equals(username) && connectedProject != null) {
+				JSONArray differing = new JSONArray();
+				JSONArray deleted = new JSONArray();
+				List<String> descend = new ArrayList<String>();
+				
+				for (int i = 0; i < folders.length(); i++) {
+					JSONObject folder = folders.getJSONObject(i);
+					String treeHash = folder.optString("treeHash", null);
+					if (treeHash == null || treeHash.equals(connectedProject.getTreeHash(folder.getString("path")))) {
+						continue;
+					}
+					
+					JSONArray children = folder.getJSONArray("children");
+					for (int j = 0; j < children.length(); j++) {
+						JSONObject child = children.getJSONObject(j);
+						String childPath = child.getString("path");
+						if ("folder".equals(child.optString("type"))) {
+							if (!child.optString("treeHash").equals(connectedProject.getTreeHash(childPath))) {
+								differing.put(child);
+								descend.add(childPath);
+							}
+						}
+						else if (!child.optString("hash").equals(connectedProject.getHash(childPath))) {
+							differing.put(child);
+						}
+					}
+					
+					JSONArray folderDeleted = folder.optJSONArray("deleted");
+					if (folderDeleted != null) {
+						for (int j = 0; j < folderDeleted.length(); j++) {
+							deleted.put(folderDeleted.get(j));
+						}
+					}
+				}
+				
+				if (differing.length() > 0 || deleted.length() > 0) {
+					JSONObject changes = new JSONObject();
+					changes.put("username", username);
+					changes.put("project", projectName);
+					changes.put("files", differing);
+					changes.put("deleted", deleted);
+					getProjectResponse(changes);
+				}
+				if (!descend.isEmpty()) {
+					requestProjectTree(projectName, descend);
+				}
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -457,17 +934,21 @@ public class Repository {
 
 					IFile file = (IFile) resource;
 
-					ByteArrayOutputStream array = new ByteArrayOutputStream();
 					if (!file.isSynchronized(IResource.DEPTH_ZERO)) {
 						file.refreshLocal(IResource.DEPTH_ZERO, null);
 					}
-					
-					IOUtils.copy(file.getContents(), array);
-
-					String content = new String(array.toByteArray(), file.getCharset());
-
-					message.put("content", content);
 					message.put("type", "file");
+
+					Reader content = new InputStreamReader(file.getContents(), file.getCharset());
+					try {
+						if (request.optBoolean(MessageConstants.CHUNKED)) {
+							ChunkedContent.send(messagingConnector, "getResourceResponse", message, content);
+							return;
+						}
+						message.put("content", IOUtils.toString(content));
+					} finally {
+						content.close();
+					}
 				} else if (resource instanceof IFolder) {
 					message.put("type", "folder");
 				}
@@ -542,14 +1023,13 @@ public class Repository {
 
 					if (localHash != null && !localHash.equals(updateHash) && localTimestamp < updateTimestamp) {
 						JSONObject message = new JSONObject();
-						message.put("callback_id", GET_RESOURCE_CALLBACK);
 						message.put("username", this.username);
 						message.put("project", projectName);
 						message.put("resource", resourcePath);
 						message.put("timestamp", updateTimestamp);
 						message.put("hash", updateHash);
 
-						messagingConnector.send("getResourceRequest", message);
+						requestResource(message);
 						notifyResourceChanged(resource);
 					}
 				}
@@ -578,7 +1058,7 @@ public class Repository {
 					if ("folder".equals(type)) {
 						IFolder newFolder = project.getFolder(resourcePath);
 						
-						connectedProject.setHash(resourcePath, updateHash);
+						connectedProject.setFolderHash(resourcePath, updateHash);
 						connectedProject.setTimestamp(resourcePath, updateTimestamp);
 
 						newFolder.create(true, true, null);
@@ -596,7 +1076,6 @@ public class Repository {
 					}
 					else if ("file".equals(type)) {
 						JSONObject message = new JSONObject();
-						message.put("callback_id", GET_RESOURCE_CALLBACK);
 						message.put("username", this.username);
 						message.put("project", projectName);
 						message.put("resource", resourcePath);
@@ -604,7 +1083,7 @@ public class Repository {
 						message.put("hash", updateHash);
 						message.put("type", type);				
 
-						messagingConnector.send("getResourceRequest", message);
+						requestResource(message);
 					}
 				}
 				else {
@@ -643,67 +1122,167 @@ public class Repository {
 		}
 	}
 
+	/**
+	 * Ask for the contents of a resource. Responders only answer if they have the
+	 * requested version of the resource, so a request that is never answered
+	 * (and eventually times out) is not an error.
+	 */
+	protected void requestResource(JSONObject message) {
+		requestResource(message, null);
+	}
+
+	/**
+	 * @param sync the project listing the resource is asked for because of, told whether it
+	 *             was stored. May be null.
+	 */
+	private void requestResource(JSONObject message, final ListingSync sync) {
+		final ChunkedContent.Receiver receiver;
+		if (sync != null) {
+			sync.resourceRequested();
+		}
+		try {
+			receiver = new ChunkedContent.Receiver();
+		} catch (Exception e) {
+			e.printStackTrace();
+			if (sync != null) {
+				sync.resourceDone(false);
+			}
+			return;
+		}
+		messagingConnector.requestStream("getResourceRequest", message, ChunkedContent.IDLE_TIMEOUT, receiver).whenDone(new CompletionAdapter<Void>() {
+			@Override
+			public void resolved(Void result) {
+				boolean stored = false;
+				try {
+					InputStream content = receiver.openContents();
+					try {
+						storeResource(receiver.getResponse(), content);
+						stored = true;
+					} finally {
+						if (content != null) {
+							content.close();
+						}
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+				} finally {
+					receiver.dispose();
+					if (sync != null) {
+						sync.resourceDone(stored);
+					}
+				}
+			}
+
+			@Override
+			public void rejected(Throwable e) {
+				receiver.dispose();
+				if (sync != null) {
+					sync.resourceDone(false);
+				}
+			}
+		});
+	}
+
 	public void getResourceResponse(JSONObject response) {
+		getResourceResponse(response, response.has("content") ? new ByteArrayInputStream(response.optString("content").getBytes()) : null);
+	}
+
+	/**
+	 * Store a resource received from another party.
+	 * 
+	 * @param content the new contents of the resource, null if the response had none
+	 */
+	protected void getResourceResponse(JSONObject response, InputStream content) {
 		try {
-			final String username = response.getString("username");
-			final String projectName = response.getString("project");
-			final String resourcePath = response.getString("resource");
-			final long updateTimestamp = response.getLong("timestamp");
-			final String updateHash = response.getString("hash");
+			storeResource(response, content);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
 
-			ConnectedProject connectedProject = this.syncedProjects.get(projectName);
-			if (this.username.equals(username) && connectedProject != null) {
-				boolean stored = false;
-				
-				IProject project = connectedProject.getProject();
-				IResource resource = project.findMember(resourcePath);
-				
-				if (resource != null) {
-					if (resource instanceof IFile) {
-						String localHash = connectedProject.getHash(resourcePath);
-						long localTimestamp = connectedProject.getTimestamp(resourcePath);
+	/**
+	 * Like {@link #getResourceResponse(JSONObject, InputStream)}, but failures are thrown.
+	 * A resource that is newer here already is not stored, which is not a failure.
+	 */
+	private void storeResource(JSONObject response, InputStream content) throws Exception {
+		final String username = response.getString("username");
+		final String projectName = response.getString("project");
+		final String resourcePath = response.getString("resource");
+		final long updateTimestamp = response.getLong("timestamp");
+		final String updateHash = response.getString("hash");
+
+		ConnectedProject connectedProject = this.syncedProjects.get(projectName);
+		if (this.username.equals(username) && connectedProject != null) {
+			boolean stored = false;
+			
+			IProject project = connectedProject.getProject();
+			IResource resource = project.findMember(resourcePath);
+			
+			if (resource != null) {
+				if (resource instanceof IFile) {
+					String localHash = connectedProject.getHash(resourcePath);
+					long localTimestamp = connectedProject.getTimestamp(resourcePath);
 
-						if (localHash != null && !localHash.equals(updateHash) && localTimestamp < updateTimestamp) {
-							IFile file = (IFile) resource;
-							String newResourceContent = response.getString("content");
+					if (localHash != null && !localHash.equals(updateHash) && localTimestamp < updateTimestamp) {
+						IFile file = (IFile) resource;
+						checkContent(content, resourcePath);
 
-							connectedProject.setTimestamp(resourcePath, updateTimestamp);
-							connectedProject.setHash(resourcePath, updateHash);
+						connectedProject.setTimestamp(resourcePath, updateTimestamp);
+						connectedProject.setHash(resourcePath, updateHash);
 
-							file.setContents(new ByteArrayInputStream(newResourceContent.getBytes()), true, true, null);
-							file.setLocalTimeStamp(updateTimestamp);
-							stored = true;
-						}
+						file.setContents(content, true, true, null);
+						file.setLocalTimeStamp(updateTimestamp);
+						stored = true;
 					}
 				}
-				else {
-					IFile newFile = project.getFile(resourcePath);
-					String newResourceContent = response.getString("content");
+			}
+			else {
+				IFile newFile = project.getFile(resourcePath);
+				checkContent(content, resourcePath);
+				createParentFolders(connectedProject, newFile);
 
-					connectedProject.setHash(resourcePath, updateHash);
-					connectedProject.setTimestamp(resourcePath, updateTimestamp);
+				connectedProject.setHash(resourcePath, updateHash);
+				connectedProject.setTimestamp(resourcePath, updateTimestamp);
 
-					newFile.create(new ByteArrayInputStream(newResourceContent.getBytes()), true, null);
-					newFile.setLocalTimeStamp(updateTimestamp);
-					stored = true;
-				}
-				
-				if (stored) {
-					JSONObject message = new JSONObject();
-					message.put("username", this.username);
-					message.put("project", connectedProject.getName());
-					message.put("resource", resourcePath);
-					message.put("timestamp", updateTimestamp);
-					message.put("hash", updateHash);
-					message.put("type", "file");
-					messagingConnector.send("resourceStored", message);
-					if (resource != null) {
-						notifyResourceChanged(resource);
-					}
+				newFile.create(content, true, null);
+				newFile.setLocalTimeStamp(updateTimestamp);
+				stored = true;
+			}
+			
+			if (stored) {
+				JSONObject message = new JSONObject();
+				message.put("username", this.username);
+				message.put("project", connectedProject.getName());
+				message.put("resource", resourcePath);
+				message.put("timestamp", updateTimestamp);
+				message.put("hash", updateHash);
+				message.put("type", "file");
+				messagingConnector.send("resourceStored", message);
+				if (resource != null) {
+					notifyResourceChanged(resource);
 				}
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Create the missing folders above a resource. The pages of a project listing may be
+	 * handled in any order, so a resource can arrive before the folder it is in.
+	 */
+	private void createParentFolders(ConnectedProject connectedProject, IResource resource) throws CoreException {
+		IContainer parent = resource.getParent();
+		if (parent instanceof IFolder && !parent.exists()) {
+			createParentFolders(connectedProject, parent);
+			String parentPath = parent.getProjectRelativePath().toString();
+			connectedProject.setFolderHash(parentPath, "0");
+			connectedProject.setTimestamp(parentPath, System.currentTimeMillis());
+			((IFolder) parent).create(true, true, null);
+		}
+	}
+
+	private static void checkContent(InputStream content, String resourcePath) {
+		if (content == null) {
+			throw new IllegalArgumentException("No content received for " + resourcePath);
 		}
 	}
 
@@ -800,7 +1379,11 @@ public class Repository {
 				type = "folder";
 			}
 
-			connectedProject.setHash(resourcePath, hash);
+			if (resource instanceof IFolder) {
+				connectedProject.setFolderHash(resourcePath, hash);
+			} else {
+				connectedProject.setHash(resourcePath, hash);
+			}
 
 			JSONObject createdMessage = new JSONObject();
 			createdMessage.put("username", this.username);
@@ -833,6 +1416,7 @@ public class Repository {
 			ConnectedProject connectedProject = this.syncedProjects.get(resource.getProject().getName());
 			String resourcePath = resource.getProjectRelativePath().toString();
 			long deletedTimestamp = System.currentTimeMillis();
+			connectedProject.removeResource(resourcePath, deletedTimestamp);
 			
 			try {
 				JSONObject message = new JSONObject();
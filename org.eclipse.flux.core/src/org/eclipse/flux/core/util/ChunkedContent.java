@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core.util;
+
+import static org.eclipse.flux.client.MessageConstants.CHECKSUM;
+import static org.eclipse.flux.client.MessageConstants.CHUNK;
+import static org.eclipse.flux.client.MessageConstants.LAST_CHUNK;
+import static org.eclipse.flux.client.MessageConstants.STREAM_ID;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.UUID;
+
+import org.apache.commons.codec.binary.Hex;
+import org.eclipse.flux.client.MessageConnector;
+import org.eclipse.flux.client.ResponseStreamHandler;
+import org.json.JSONObject;
+
+/**
+ * Sends and receives the 'content' of a response in chunks, so that neither side holds
+ * the whole content in memory (see {@link MessageConnector#requestStream}).
+ * <p>
+ * Every chunk repeats the properties of the response besides 'content', and carries the
+ * same 'streamID', so the receiver can tell the chunks of different responders apart when
+ * the transport does not say who sent them. The last chunk carries a SHA-1 checksum of the
+ * UTF-8 encoded content, so the receiver can tell a stream that got mixed up from a complete one.
+ */
+public class ChunkedContent {
+
+	/**
+	 * Number of characters per chunk.
+	 */
+	public static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * Time in milliseconds a receiver waits for the next chunk before giving up.
+	 */
+	public static final long IDLE_TIMEOUT = 30 * 1000;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * @return a new 'streamID' for the chunks of a response.
+	 */
+	public static String newStreamID() {
+		return UUID.randomUUID().toString();
+	}
+
+	/**
+	 * Send the content read from 'content' as a sequence of responses of the given type.
+	 * Sends a single chunk for empty content.
+	 */
+	public static void send(MessageConnector connector, String messageType, JSONObject response, Reader content) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		ChunkReader reader = new ChunkReader(content);
+		String chunk = reader.next();
+		if (chunk == null) {
+			chunk = "";
+		}
+		String streamID = newStreamID();
+		int seq = 0;
+		while (true) {
+			String next = reader.next();
+			digest.update(chunk.getBytes(UTF8));
+
+			JSONObject message = new JSONObject(response, JSONObject.getNames(response));
+			message.put("content", chunk);
+			message.put(STREAM_ID, streamID);
+			message.put(CHUNK, seq++);
+			if (next == null) {
+				message.put(LAST_CHUNK, true);
+				message.put(CHECKSUM, Hex.encodeHexString(digest.digest()));
+				connector.send(messageType, message);
+				return;
+			}
+			connector.send(messageType, message);
+			chunk = next;
+		}
+	}
+
+	/**
+	 * Reads text in chunks of at most CHUNK_SIZE characters, without splitting a surrogate pair.
+	 */
+	private static class ChunkReader {
+
+		private final Reader in;
+		private final char[] buf = new char[CHUNK_SIZE];
+		private int carried = 0;
+
+		ChunkReader(Reader in) {
+			this.in = in;
+		}
+
+		/**
+		 * @return the next chunk, or null at the end of the input.
+		 */
+		String next() throws IOException {
+			int len = carried;
+			int read = 0;
+			while (len < buf.length && (read = in.read(buf, len, buf.length - len)) != -1) {
+				len += read;
+			}
+			carried = 0;
+			if (len == 0) {
+				return null;
+			}
+			if (read != -1 && Character.isHighSurrogate(buf[len - 1])) {
+				len--;
+				carried = 1;
+			}
+			String chunk = new String(buf, 0, len);
+			if (carried > 0) {
+				buf[0] = buf[len];
+			}
+			return chunk;
+		}
+	}
+
+	/**
+	 * Collects the content of a chunked response in a temporary file. The other properties
+	 * of the response are available from {@link #getResponse()} once the stream is complete.
+	 * <p>
+	 * Content is written in the platform default encoding, like 'String.getBytes()' would.
+	 * Call {@link #dispose()} when done with it.
+	 */
+	public static class Receiver implements ResponseStreamHandler {
+
+		private final MessageDigest digest;
+		private JSONObject response;
+		private File file;
+		private Writer out;
+
+		public Receiver() throws Exception {
+			this.digest = MessageDigest.getInstance("SHA-1");
+		}
+
+		@Override
+		public void chunk(JSONObject chunk) throws Exception {
+			if (chunk.has("content")) {
+				String content = chunk.getString("content");
+				if (out == null) {
+					file = File.createTempFile("flux", ".content");
+					out = new OutputStreamWriter(new FileOutputStream(file));
+				}
+				out.write(content);
+				digest.update(content.getBytes(UTF8));
+				chunk.remove("content");
+			}
+			if (response == null) {
+				response = chunk;
+			}
+			if (chunk.has(CHECKSUM)) {
+				String checksum = Hex.encodeHexString(digest.digest());
+				if (!checksum.equals(chunk.getString(CHECKSUM))) {
+					throw new IOException("Checksum mismatch for streamed content: expected " + chunk.getString(CHECKSUM) + " but got " + checksum);
+				}
+			}
+			if (out != null && (!chunk.has(CHUNK) || chunk.optBoolean(LAST_CHUNK))) {
+				out.close();
+			}
+		}
+
+		/**
+		 * @return the properties of the response, without its content.
+		 */
+		public JSONObject getResponse() {
+			return response;
+		}
+
+		/**
+		 * @return a stream of the received content, or null if the response had none.
+		 */
+		public InputStream openContents() throws IOException {
+			if (file == null) {
+				return null;
+			}
+			return new FileInputStream(file);
+		}
+
+		public void dispose() {
+			try {
+				if (out != null) {
+					out.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (file != null) {
+				file.delete();
+			}
+		}
+	}
+
+}
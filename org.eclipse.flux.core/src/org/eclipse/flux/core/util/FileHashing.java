@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Pivotal Software, Inc. and others.
+ * All rights reserved. This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License v1.0
+ * (http://www.eclipse.org/legal/epl-v10.html), and the Eclipse Distribution
+ * License v1.0 (http://www.eclipse.org/org/documents/edl-v10.html).
+ *
+ * Contributors:
+ *     Pivotal Software, Inc. - initial API and implementation
+*******************************************************************************/
+package org.eclipse.flux.core.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * SHA-1 hashing of files, and the pool projects are hashed on.
+ * <p>
+ * The pool's parallelism is taken from the system property 'flux.hashParallelism' or the
+ * environment variable 'FLUX_HASH_PARALLELISM'. By default it leaves one processor free,
+ * so that the IDE stays responsive while a large project is hashed.
+ */
+public class FileHashing {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Per thread digest and buffer, as hashing threads hash many files one after another.
+	 */
+	private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
+
+	/**
+	 * Created on first use.
+	 */
+	private static class PoolHolder {
+		static final ForkJoinPool POOL = new ForkJoinPool(getParallelism());
+	}
+
+	/**
+	 * @return the hex encoded SHA-1 hash of a file's contents, read through a file channel.
+	 */
+	public static String sha1Hex(File file) throws IOException {
+		MessageDigest digest = digests.get();
+		digest.reset();
+		ByteBuffer buffer = buffers.get();
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			buffer.clear();
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		} finally {
+			in.close();
+		}
+		return Hex.encodeHexString(digest.digest());
+	}
+
+	/**
+	 * @return the pool to hash files on.
+	 */
+	public static ForkJoinPool getPool() {
+		return PoolHolder.POOL;
+	}
+
+	private static int getParallelism() {
+		String parallelism = System.getProperty("flux.hashParallelism") == null ? System.getenv("FLUX_HASH_PARALLELISM") : System.getProperty("flux.hashParallelism");
+		if (parallelism != null) {
+			try {
+				return Math.max(1, Integer.parseInt(parallelism.trim()));
+			} catch (NumberFormatException e) {
+				e.printStackTrace();
+			}
+		}
+		return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	}
+
+}
@@ -29,7 +29,6 @@ import org.osgi.service.component.annotations.Deactivate;
 public class JDTComponent {
 	
 	public static final String JDT_SERVICE_ID = "org.eclipse.flux.jdt";
-	private static long WAIT_TIME_PERIOD = 100;
 
 	private ServiceDiscoveryConnector discoveryConnector;
 	private KeepAliveConnector keepAliveConnector;
@@ -49,15 +48,13 @@ public class JDTComponent {
 				@Override
 				public void run() {
 					
-					String userChannel = channelSwitcher.getChannel();
+					String userChannel;
 					JdtChannelListener jdtChannelListener = new JdtChannelListener();
-					for (; userChannel == null; userChannel = channelSwitcher
-							.getChannel()) {
-						try {
-							sleep(WAIT_TIME_PERIOD);
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-						}
+					try {
+						userChannel = channelSwitcher.awaitChannel();
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+						return;
 					}
 					
 					discoveryConnector = new ServiceDiscoveryConnector(channelSwitcher, messagingConnector, JDT_SERVICE_ID, lazyStart);
@@ -18,6 +18,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
 
 import org.eclipse.flux.client.FluxClient;
 import org.eclipse.flux.client.MessageConnector;
@@ -44,7 +45,13 @@ public class JdtServiceProvider {
 	
 	private static final int POOL_SIZE = 3;
 
-	private static FluxClient fluxClient = FluxClient.DEFAULT_INSTANCE;
+	/**
+	 * The service discovery and start up messages handled here are all of normal priority, so
+	 * handling interactive messages apart and throttling bulk ones doesn't change their order.
+	 */
+	private static FluxClient fluxClient = new FluxClient(Executors.newCachedThreadPool())
+		.setInteractiveThreads(FluxClient.DEFAULT_INTERACTIVE_THREADS)
+		.setMaxConcurrentBulk(FluxClient.DEFAULT_MAX_CONCURRENT_BULK);
 
 	/**
 	 * Launches the application. If command line arguments are present, the
@@ -10,6 +10,7 @@
 *******************************************************************************/
 package org.eclipse.flux.service.common;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -17,6 +18,7 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.flux.client.IChannelListener;
 import org.eclipse.flux.client.IMessageHandler;
@@ -30,7 +32,6 @@ public class ToolingServiceProvider {
 	private static final long EXPECTED_RESPONSE_TIMEOUT = 500;
 	private static final long POOL_MAINTENANCE_PERIOD = 2 * 60 * 1000;
 	private static final long POOL_MAINTENANCE_NOW_DELAY = 50;
-	private static final long POOL_INITIALIZATION_WAIT_TIME_STEP = 1000;
 	private static final long POOL_INITIALIZATION_TIMEOUT = 2 * 60 * 1000;
 
 	private static final String DISCOVER_SERVICE_REQUEST = "discoverServiceRequest";
@@ -337,63 +338,78 @@ public class ToolingServiceProvider {
 	}
 	
 	private class PoolMaintenanceOperation implements Runnable {
+		
+		/**
+		 * Serializes runs, which wait for responses while holding it. A ReentrantLock rather
+		 * than 'synchronized' so that virtual threads do not pin their carrier thread.
+		 */
+		protected final ReentrantLock lock = new ReentrantLock();
 
-		protected synchronized int getNumberOfServicesRunning() {
-
-			final AtomicInteger counter = new AtomicInteger(0);
+		protected int getNumberOfServicesRunning() {
+			lock.lock();
+			try {
+				final AtomicInteger counter = new AtomicInteger(0);
 
-			IMessageHandler messageHandler = new IMessageHandler() {
+				IMessageHandler messageHandler = new IMessageHandler() {
 
-				@Override
-				public void handle(String type, JSONObject message) {
-					counter.incrementAndGet();
-				}
+					@Override
+					public void handle(String type, JSONObject message) {
+						counter.incrementAndGet();
+					}
 
-				@Override
-				public String getMessageType() {
-					return DISCOVER_SERVICE_RESPONSE;
-				}
+					@Override
+					public String getMessageType() {
+						return DISCOVER_SERVICE_RESPONSE;
+					}
 
-				@Override
-				public boolean canHandle(String type, JSONObject message) {
-					try {
-						return message.getString("service").equals(serviceId)
-								&& "ready".equals(message.getString("status"));
-					} catch (JSONException e) {
-						e.printStackTrace();
-						return false;
+					@Override
+					public boolean canHandle(String type, JSONObject message) {
+						try {
+							return message.getString("service").equals(serviceId)
+									&& "ready".equals(message.getString("status"));
+						} catch (JSONException e) {
+							e.printStackTrace();
+							return false;
+						}
 					}
-				}
-			};
+				};
 
-			messageConnector.addMessageHandler(messageHandler);
+				messageConnector.addMessageHandler(messageHandler);
 
-			try {
-				JSONObject discoverMessage = new JSONObject();
-				discoverMessage.put("service", serviceId);
-				discoverMessage.put("username", MessageConstants.SUPER_USER);
-				messageConnector
-						.send(DISCOVER_SERVICE_REQUEST, discoverMessage);
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
+				try {
+					JSONObject discoverMessage = new JSONObject();
+					discoverMessage.put("service", serviceId);
+					discoverMessage.put("username", MessageConstants.SUPER_USER);
+					messageConnector
+							.send(DISCOVER_SERVICE_REQUEST, discoverMessage);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
 
-			try {
-				Thread.sleep(EXPECTED_RESPONSE_TIMEOUT);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
+				try {
+					Thread.sleep(EXPECTED_RESPONSE_TIMEOUT);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
 
-			messageConnector.removeMessageHandler(messageHandler);
+				messageConnector.removeMessageHandler(messageHandler);
 
-			return counter.get();
+				return counter.get();
+			} finally {
+				lock.unlock();
+			}
 		}
 
 		@Override
-		public synchronized void run() {
-			int numberOfServicesToStart = poolSize - getNumberOfServicesRunning();
-			if (numberOfServicesToStart > 0) {
-				startService(numberOfServicesToStart);
+		public void run() {
+			lock.lock();
+			try {
+				int numberOfServicesToStart = poolSize - getNumberOfServicesRunning();
+				if (numberOfServicesToStart > 0) {
+					startService(numberOfServicesToStart);
+				}
+			} finally {
+				lock.unlock();
 			}
 		}
 	}
@@ -401,11 +417,20 @@ public class ToolingServiceProvider {
 	private class PoolInitilizationOperation extends PoolMaintenanceOperation {
 
 		@Override
-		public synchronized void run() {
+		public void run() {
+			lock.lock();
+			try {
+				initialize();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void initialize() {
 			int numberOfServicesToStart = poolSize - getNumberOfServicesRunning();
 			if (numberOfServicesToStart > 0) {
 				System.out.println("Need to start " + numberOfServicesToStart + " services");
-				final AtomicInteger counter = new AtomicInteger(numberOfServicesToStart);
+				final CountDownLatch ready = new CountDownLatch(numberOfServicesToStart);
 				IMessageHandler readyServiceHanlder = new IMessageHandler() {
 					
 					@Override
@@ -422,7 +447,8 @@ public class ToolingServiceProvider {
 
 					@Override
 					public void handle(String type, JSONObject message) {
-						if (counter.decrementAndGet() <= 0) {
+						ready.countDown();
+						if (ready.getCount() == 0) {
 							messageConnector.removeMessageHandler(this);
 						}
 					}
@@ -435,17 +461,13 @@ public class ToolingServiceProvider {
 				messageConnector.addMessageHandler(readyServiceHanlder);
 				startService(numberOfServicesToStart);
 				System.out.println("Populating service pool.");
-				for (long time = 0; counter.get() > 0 && time < POOL_INITIALIZATION_TIMEOUT; time += POOL_INITIALIZATION_WAIT_TIME_STEP) {
-					try {
-						Thread.sleep(POOL_INITIALIZATION_WAIT_TIME_STEP);
-						System.out.print(".");
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
+				try {
+					ready.await(POOL_INITIALIZATION_TIMEOUT, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
 				}
 				messageConnector.removeMessageHandler(readyServiceHanlder);
-				System.out.println();
-				int n = counter.get();
+				long n = ready.getCount();
 				if (n > 0) {
 					System.out.println("WARNING: Service pool hasn't been completely initialized. " + n + " service(s) are missing.");
 				} else {
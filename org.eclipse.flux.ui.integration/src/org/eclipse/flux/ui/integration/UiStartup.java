@@ -32,8 +32,6 @@ import org.eclipse.ui.IStartup;
  *
  */
 public class UiStartup implements IStartup {
-	
-	private static long WAIT_TIME_PERIOD = 100;
 
 	@Override
 	public void earlyStartup() {
@@ -46,14 +44,12 @@ public class UiStartup implements IStartup {
 		if (messagingConnector != null) {
 			UiChannelListener uiChannelListener = new UiChannelListener();
 			
-			String userChannel = channelSwitcher.getChannel();
-			for (; userChannel == null; userChannel = channelSwitcher
-					.getChannel()) {
-				try {
-					Thread.sleep(WAIT_TIME_PERIOD);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
+			String userChannel;
+			try {
+				userChannel = channelSwitcher.awaitChannel();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				return;
 			}
 			
 			uiChannelListener.connected(userChannel);